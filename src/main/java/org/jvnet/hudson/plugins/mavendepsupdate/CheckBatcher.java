@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate;
+
+import hudson.PluginFirstClassLoader;
+import hudson.model.Node;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.IOException2;
+import org.apache.maven.settings.building.SettingsBuildingResult;
+import org.codehaus.plexus.PlexusContainer;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.SpanTracer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Gathers the checks of the jobs last built on the same node during
+ * <code>-DMavenDependencyUpdateTrigger.batchWindow</code> milliseconds (0, the default, disables the batches) and
+ * runs them with a single remote call : the node creates the class loader and the plexus container once and reuses
+ * the settings between the checks of the batch. {@link MavenDependencyUpdateTrigger#run()} doesn't wait for the
+ * check anymore, the result of each job is handled when the batch returns.
+ * The checks of a batch share the deadline of a single check so that a batch completes before the checks in flight
+ * expire, larger batches are split in batches of <code>-DMavenDependencyUpdateTrigger.batchSize</code> checks (10 by
+ * default) running at the same time. Each batch runs on its own thread : a slow node doesn't delay the others.
+ *
+ * @since 1.5
+ */
+public final class CheckBatcher
+{
+    private static final Logger LOGGER = Logger.getLogger( CheckBatcher.class.getName() );
+
+    public static long batchWindow = Long.getLong( "MavenDependencyUpdateTrigger.batchWindow", 0 );
+
+    public static int batchSize = Integer.getInteger( "MavenDependencyUpdateTrigger.batchSize", 10 );
+
+    /**
+     * batches being gathered per node name
+     */
+    private static final Map<String, Batch> PENDING = new HashMap<String, Batch>();
+
+    /**
+     * triggers with a check gathered or running, not to check the same job twice at the same time
+     */
+    private static final Set<MavenDependencyUpdateTrigger> RUNNING = new HashSet<MavenDependencyUpdateTrigger>();
+
+    /**
+     * ends the windows, the batches run on the threads of {@link #runner}
+     */
+    private static ScheduledExecutorService executor;
+
+    private static ExecutorService runner;
+
+    private CheckBatcher()
+    {
+        // no op
+    }
+
+    static boolean isEnabled()
+    {
+        return batchWindow > 0;
+    }
+
+    /**
+     * add the check to the batch of the node, the first check of a batch schedules its run at the end of the window
+     */
+    static synchronized void submit( MavenDependencyUpdateTrigger trigger, String jobName, Node node,
+                                     MavenUpdateChecker checker, long start )
+    {
+        if ( !RUNNING.add( trigger ) )
+        {
+            LOGGER.info( "previous MavenUpdateChecker for project " + jobName + " not completed so skip this one" );
+            trigger.endCheck( null );
+            return;
+        }
+        final String nodeName = node.getNodeName();
+        Batch batch = PENDING.get( nodeName );
+        if ( batch == null )
+        {
+            batch = new Batch( node );
+            PENDING.put( nodeName, batch );
+            getExecutor().schedule( new Runnable()
+            {
+                public void run()
+                {
+                    flush( nodeName );
+                }
+            }, batchWindow, TimeUnit.MILLISECONDS );
+        }
+        batch.triggers.add( trigger );
+        batch.jobNames.add( jobName );
+        batch.checkers.add( checker );
+        batch.starts.add( Long.valueOf( start ) );
+    }
+
+    private static synchronized ScheduledExecutorService getExecutor()
+    {
+        if ( executor == null )
+        {
+            executor = Executors.newScheduledThreadPool( 1, new DaemonThreadFactory() );
+        }
+        return executor;
+    }
+
+    private static synchronized ExecutorService getRunner()
+    {
+        if ( runner == null )
+        {
+            // the threads mostly wait for the remote calls, one per batch running
+            runner = Executors.newCachedThreadPool( new DaemonThreadFactory() );
+        }
+        return runner;
+    }
+
+    private static void flush( String nodeName )
+    {
+        Batch batch;
+        synchronized ( CheckBatcher.class )
+        {
+            batch = PENDING.remove( nodeName );
+        }
+        if ( batch == null )
+        {
+            return;
+        }
+        for ( final Batch part : batch.split( batchSize ) )
+        {
+            getRunner().execute( new Runnable()
+            {
+                public void run()
+                {
+                    runAndEnd( part );
+                }
+            } );
+        }
+    }
+
+    private static void runAndEnd( Batch batch )
+    {
+        try
+        {
+            if ( !run( batch ) )
+            {
+                for ( MavenDependencyUpdateTrigger trigger : batch.triggers )
+                {
+                    trigger.endCheck( null );
+                }
+            }
+        }
+        finally
+        {
+            synchronized ( CheckBatcher.class )
+            {
+                RUNNING.removeAll( batch.triggers );
+            }
+        }
+    }
+
+    /**
+     * @return <code>false</code> if the batch failed, its results are not handled
+     */
+    private static boolean run( Batch batch )
+    {
+        VirtualChannel virtualChannel = batch.node.getChannel();
+        if ( virtualChannel == null )
+        {
+            LOGGER.info( "node " + batch.node.getDisplayName() + " offline so skip MavenUpdateChecker for projects "
+                             + batch.jobNames );
+            return false;
+        }
+        LOGGER.info( "run " + batch.checkers.size() + " MavenUpdateChecker for projects " + batch.jobNames
+                         + " on node " + batch.node.getDisplayName() );
+        List<MavenUpdateCheckerResult> results;
+        try
+        {
+            results = call( virtualChannel,
+                            new BatchCall( batch.checkers, MavenDependencyUpdateTrigger.checkTimeout * 1000 ),
+                            getBatchTimeout() );
+        }
+        catch ( TimeoutException e )
+        {
+            LOGGER.warning( "MavenUpdateChecker for projects " + batch.jobNames + " on node "
+                                + batch.node.getDisplayName() + " not completed "
+                                + MavenDependencyUpdateTrigger.CHECK_TIMEOUT_GRACE
+                                + " s after their deadlines so cancelled" );
+            return false;
+        }
+        catch ( Exception e )
+        {
+            LOGGER.log( Level.WARNING, "MavenUpdateChecker failed for projects " + batch.jobNames + " on node "
+                + batch.node.getDisplayName(), e );
+            return false;
+        }
+        for ( int i = 0; i < results.size(); i++ )
+        {
+            try
+            {
+                batch.triggers.get( i ).onResult( batch.node, results.get( i ), batch.starts.get( i ).longValue() );
+            }
+            catch ( RuntimeException e )
+            {
+                LOGGER.log( Level.WARNING, "cannot handle MavenUpdateChecker result for project "
+                    + batch.jobNames.get( i ), e );
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return maximum duration in milliseconds of the remote call of a batch, 0 if unlimited : the checks of a batch
+     *         share a deadline, the batch is waited for as long as a single check and ends before the checks in
+     *         flight expire (see {@link MavenDependencyUpdateTrigger#getCheckWaitTimeout()})
+     */
+    static long getBatchTimeout()
+    {
+        if ( MavenDependencyUpdateTrigger.checkTimeout <= 0 )
+        {
+            return 0;
+        }
+        return ( MavenDependencyUpdateTrigger.checkTimeout + MavenDependencyUpdateTrigger.CHECK_TIMEOUT_GRACE ) * 1000;
+    }
+
+    /**
+     * @param timeout maximum duration of the call in milliseconds, unlimited if 0
+     */
+    static <V> V call( VirtualChannel virtualChannel, Callable<V, IOException> callable, long timeout )
+        throws IOException, InterruptedException, ExecutionException, TimeoutException
+    {
+        if ( timeout <= 0 )
+        {
+            return virtualChannel.call( callable );
+        }
+        Future<V> future = virtualChannel.callAsync( callable );
+        try
+        {
+            return future.get( timeout, TimeUnit.MILLISECONDS );
+        }
+        catch ( TimeoutException e )
+        {
+            future.cancel( true );
+            throw e;
+        }
+    }
+
+    private static class Batch
+    {
+        private final Node node;
+
+        private final List<MavenDependencyUpdateTrigger> triggers = new ArrayList<MavenDependencyUpdateTrigger>();
+
+        private final List<String> jobNames = new ArrayList<String>();
+
+        private final List<MavenUpdateChecker> checkers = new ArrayList<MavenUpdateChecker>();
+
+        private final List<Long> starts = new ArrayList<Long>();
+
+        private Batch( Node node )
+        {
+            this.node = node;
+        }
+
+        /**
+         * @return the batches of at most <code>size</code> checks, all the checks in a single batch if 0
+         */
+        List<Batch> split( int size )
+        {
+            List<Batch> parts = new ArrayList<Batch>();
+            if ( size <= 0 || triggers.size() <= size )
+            {
+                parts.add( this );
+                return parts;
+            }
+            for ( int from = 0; from < triggers.size(); from += size )
+            {
+                int to = Math.min( from + size, triggers.size() );
+                Batch part = new Batch( node );
+                part.triggers.addAll( triggers.subList( from, to ) );
+                part.jobNames.addAll( jobNames.subList( from, to ) );
+                part.checkers.addAll( checkers.subList( from, to ) );
+                part.starts.addAll( starts.subList( from, to ) );
+                parts.add( part );
+            }
+            return parts;
+        }
+    }
+
+    /**
+     * runs the checks of a batch on the node with a shared class loader, plexus container and settings.
+     * The repository sessions are not shared : their caches would hide the transfers of the SNAPSHOTs already
+     * resolved by a previous check from the transfer listener of the next one.
+     */
+    public static class BatchCall
+        implements Callable<List<MavenUpdateCheckerResult>, IOException>
+    {
+        private final List<MavenUpdateChecker> checkers;
+
+        private final long checkTimeout;
+
+        /**
+         * @param checkTimeout maximum duration in milliseconds of the whole batch, unlimited if 0
+         */
+        public BatchCall( List<MavenUpdateChecker> checkers, long checkTimeout )
+        {
+            this.checkers = checkers;
+            this.checkTimeout = checkTimeout;
+        }
+
+        public List<MavenUpdateCheckerResult> call()
+            throws IOException
+        {
+            List<MavenUpdateCheckerResult> results = new ArrayList<MavenUpdateCheckerResult>( checkers.size() );
+            // computed on the node : its clock can differ from the controller one
+            long deadline = checkTimeout > 0 ? System.currentTimeMillis() + checkTimeout : Long.MAX_VALUE;
+            ClassLoader originalClassLoader = Thread.currentThread().getContextClassLoader();
+            try
+            {
+                // the probes of the batch are sent at once, the container is only created for the other checks
+                List<MavenUpdateChecker> remaining = MavenUpdateChecker.probe( checkers );
+                PlexusContainer plexusContainer = null;
+                if ( !remaining.isEmpty() )
+                {
+                    MavenUpdateChecker first = remaining.get( 0 );
+                    SpanTracer.Span span = first.getTracer().start( "container", "batch of " + remaining.size() );
+                    try
+                    {
+                        PluginFirstClassLoader pluginFirstClassLoader = first.getPluginFirstClassLoader();
+                        Thread.currentThread().setContextClassLoader( pluginFirstClassLoader );
+                        plexusContainer = first.getPlexusContainer( pluginFirstClassLoader );
+                    }
+                    finally
+                    {
+                        span.end();
+                    }
+                }
+                Map<String, SettingsBuildingResult> settingsCache = new HashMap<String, SettingsBuildingResult>();
+                for ( MavenUpdateChecker checker : checkers )
+                {
+                    if ( !remaining.contains( checker ) )
+                    {
+                        results.add( checker.getMavenUpdateCheckerResult() );
+                        continue;
+                    }
+                    checker.setSettingsCache( settingsCache );
+                    results.add( checker.check( plexusContainer, deadline ) );
+                }
+                return results;
+            }
+            catch ( IOException e )
+            {
+                throw e;
+            }
+            catch ( Exception e )
+            {
+                throw new IOException2( "cannot create the plexus container", e );
+            }
+            finally
+            {
+                Thread.currentThread().setContextClassLoader( originalClassLoader );
+            }
+        }
+    }
+}
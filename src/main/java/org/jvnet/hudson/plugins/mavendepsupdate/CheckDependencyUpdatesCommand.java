@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate;
+
+import hudson.Extension;
+import hudson.cli.CLICommand;
+import hudson.model.AbstractProject;
+import hudson.model.Item;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+
+/**
+ * CLI command of the on demand check (see {@link MavenDependencyUpdateAction}) : prints the updated SNAPSHOTs
+ * of the job, exits with 0 if the job is triggered by updated SNAPSHOTs, 1 if not, 2 if the check failed or did not
+ * end in time, 3 if the job has no maven dependency update trigger. The check is a dry run unless
+ * <code>-schedule</code> is given.
+ *
+ * @since 1.5
+ */
+@Extension
+public class CheckDependencyUpdatesCommand
+    extends CLICommand
+{
+    @Argument( metaVar = "JOB", usage = "Name of the job to check", required = true )
+    public AbstractProject<?, ?> job;
+
+    @Option( name = "-max-age", usage = "Maximum age in seconds of the previous check status to return" )
+    public long maxAge = -1;
+
+    @Option( name = "-schedule", usage = "Record the SNAPSHOT versions and schedule a build if they were updated" )
+    public boolean schedule;
+
+    @Override
+    public String getShortDescription()
+    {
+        return Messages.check_command_description();
+    }
+
+    @Override
+    protected int run()
+        throws Exception
+    {
+        job.checkPermission( Item.BUILD );
+        MavenDependencyUpdateTrigger trigger = job.getTrigger( MavenDependencyUpdateTrigger.class );
+        if ( trigger == null )
+        {
+            stderr.println( job.getName() + " has no maven dependency update trigger" );
+            return 3;
+        }
+        long requested = System.currentTimeMillis();
+        CheckStatus status = trigger.requestCheck(
+            ( maxAge < 0 ? MavenDependencyUpdateTrigger.statusCacheSeconds : maxAge ) * 1000, schedule ).await(
+            MavenDependencyUpdateTrigger.getCheckWaitTimeout() );
+        if ( status == null )
+        {
+            stderr.println( "check of " + job.getName() + " failed or not completed" );
+            return 2;
+        }
+        stdout.println( status.toJSON( status.getTime() < requested ).toString( 2 ) );
+        return status.isTriggered() ? 0 : 1;
+    }
+}
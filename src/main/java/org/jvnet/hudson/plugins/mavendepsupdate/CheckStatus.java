@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of the last check of a job, kept by the trigger to answer the on demand checks
+ * (see {@link MavenDependencyUpdateAction} and {@link CheckDependencyUpdatesCommand}) without checking again
+ * while it is recent.
+ *
+ * @since 1.5
+ */
+public class CheckStatus
+{
+    private final long time;
+
+    private final String node;
+
+    private final List<String> updatedFiles;
+
+    private final List<String> updatedGavs;
+
+    private final boolean scheduled;
+
+    private final boolean deadlineExceeded;
+
+    private final boolean dryRun;
+
+    CheckStatus( long time, String node, List<String> updatedFiles, List<String> updatedGavs, boolean scheduled,
+                 boolean deadlineExceeded, boolean dryRun )
+    {
+        this.time = time;
+        this.node = node;
+        this.updatedFiles = updatedFiles;
+        this.updatedGavs = updatedGavs;
+        this.scheduled = scheduled;
+        this.deadlineExceeded = deadlineExceeded;
+        this.dryRun = dryRun;
+    }
+
+    /**
+     * @return end time of the check
+     */
+    public long getTime()
+    {
+        return time;
+    }
+
+    public String getNode()
+    {
+        return node;
+    }
+
+    public List<String> getUpdatedFiles()
+    {
+        return updatedFiles;
+    }
+
+    public List<String> getUpdatedGavs()
+    {
+        return updatedGavs;
+    }
+
+    /**
+     * @return <code>true</code> if updated SNAPSHOTs were found : a build was scheduled by the check or already
+     *         triggered by the upstream build which deployed them, or would be scheduled by a check which is not a dry
+     *         run
+     */
+    public boolean isTriggered()
+    {
+        return !updatedFiles.isEmpty();
+    }
+
+    /**
+     * @return <code>true</code> if the check scheduled a build
+     */
+    public boolean isScheduled()
+    {
+        return scheduled;
+    }
+
+    /**
+     * @return <code>true</code> if the check was stopped by its deadline, some SNAPSHOTs may not have been checked
+     */
+    public boolean isDeadlineExceeded()
+    {
+        return deadlineExceeded;
+    }
+
+    /**
+     * @return <code>true</code> if the check neither recorded the SNAPSHOT versions nor scheduled a build
+     */
+    public boolean isDryRun()
+    {
+        return dryRun;
+    }
+
+    /**
+     * @param cached <code>true</code> if the status is the one of a previous check
+     */
+    public JSONObject toJSON( boolean cached )
+    {
+        JSONObject json = new JSONObject();
+        json.put( "triggered", Boolean.valueOf( isTriggered() ) );
+        json.put( "scheduled", Boolean.valueOf( scheduled ) );
+        json.put( "updatedArtifacts", JSONArray.fromObject( new ArrayList<String>( updatedGavs ) ) );
+        json.put( "updatedFiles", JSONArray.fromObject( new ArrayList<String>( updatedFiles ) ) );
+        json.put( "deadlineExceeded", Boolean.valueOf( deadlineExceeded ) );
+        json.put( "dryRun", Boolean.valueOf( dryRun ) );
+        json.put( "node", node );
+        json.put( "time", Long.valueOf( time ) );
+        json.put( "cached", Boolean.valueOf( cached ) );
+        return json;
+    }
+
+    /**
+     * a check in flight, the on demand checks of the job wait for it instead of starting another one.
+     * A dry run is turned into a complete check when a complete check is requested while it is in flight.
+     */
+    static class Pending
+    {
+        private final long started = System.currentTimeMillis();
+
+        private final long timeout;
+
+        private final CountDownLatch done = new CountDownLatch( 1 );
+
+        private volatile boolean dryRun;
+
+        private volatile CheckStatus status;
+
+        /**
+         * @param timeout maximum duration in milliseconds of the check
+         */
+        Pending( boolean dryRun, long timeout )
+        {
+            this.dryRun = dryRun;
+            this.timeout = timeout;
+        }
+
+        /**
+         * @return a check already ended with this status
+         */
+        static Pending completed( CheckStatus status )
+        {
+            Pending pending = new Pending( status.isDryRun(), 0 );
+            pending.complete( status );
+            return pending;
+        }
+
+        boolean isExpired()
+        {
+            return System.currentTimeMillis() - started > timeout;
+        }
+
+        boolean isDryRun()
+        {
+            return dryRun;
+        }
+
+        /**
+         * the result of the check will be recorded and may schedule a build
+         */
+        void schedule()
+        {
+            dryRun = false;
+        }
+
+        boolean isDone()
+        {
+            return done.getCount() == 0;
+        }
+
+        void complete( CheckStatus status )
+        {
+            this.status = status;
+            done.countDown();
+        }
+
+        /**
+         * @param wait maximum duration in milliseconds to wait for the check, bounded by its own timeout
+         * @return the status of the check or <code>null</code> if it failed or did not end in time
+         */
+        CheckStatus await( long wait )
+            throws InterruptedException
+        {
+            long remaining = Math.min( wait, timeout - ( System.currentTimeMillis() - started ) );
+            return done.await( Math.max( 0, remaining ), TimeUnit.MILLISECONDS ) ? status : null;
+        }
+    }
+}
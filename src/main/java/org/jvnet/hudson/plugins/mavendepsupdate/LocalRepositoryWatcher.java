@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.Hudson;
+import hudson.model.PeriodicWork;
+import hudson.remoting.Callable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Watches the local repository of the node where the jobs using {@link MavenDependencyUpdateTrigger} with
+ * <code>watchLocalRepository</code> last built : when an upstream job installs (<code>mvn install</code>) one of
+ * their SNAPSHOT dependencies in this local repository, a build is scheduled without waiting for the next check.
+ * Only the <code>maven-metadata-local.xml</code> of the SNAPSHOT directories recorded for the job are looked at,
+ * so there is no remote traffic.
+ *
+ * @since 1.5
+ */
+@Extension
+public class LocalRepositoryWatcher
+    extends PeriodicWork
+{
+
+    /**
+     * period in seconds between two local repositories scans
+     */
+    public static long period = Long.getLong( "MavenDependencyUpdateTrigger.watchPeriod", 15 );
+
+    @Override
+    public long getRecurrencePeriod()
+    {
+        return period * 1000;
+    }
+
+    @Override
+    protected void doRun()
+        throws Exception
+    {
+        for ( AbstractProject<?, ?> project : Hudson.getInstance().getAllItems( AbstractProject.class ) )
+        {
+            MavenDependencyUpdateTrigger trigger = project.getTrigger( MavenDependencyUpdateTrigger.class );
+            if ( trigger != null && trigger.isWatchLocalRepository() )
+            {
+                trigger.checkLocalRepository();
+            }
+        }
+    }
+
+    /**
+     * @param previous     the modification times of the previous scan, can be <code>null</code>
+     * @param lastModified the modification times of this scan
+     * @return the metadata files installed since the previous scan, the directories not scanned before are ignored
+     */
+    static List<String> getInstalled( Map<String, Long> previous, Map<String, Long> lastModified )
+    {
+        List<String> installed = new ArrayList<String>();
+        for ( Map.Entry<String, Long> entry : lastModified.entrySet() )
+        {
+            Long time = previous == null ? null : previous.get( entry.getKey() );
+            if ( time != null && entry.getValue().longValue() > time.longValue() )
+            {
+                installed.add( entry.getKey() + LocalInstallScanner.LOCAL_METADATA );
+            }
+        }
+        return installed;
+    }
+
+    /**
+     * returns the last modification time of the <code>maven-metadata-local.xml</code> files in the given
+     * directories (0 if the file doesn't exist).
+     */
+    public static class LocalInstallScanner
+        implements Callable<Map<String, Long>, IOException>
+    {
+        private static final String LOCAL_METADATA = "maven-metadata-local.xml";
+
+        private final String localRepositoryPath;
+
+        private final List<String> directories;
+
+        public LocalInstallScanner( String localRepositoryPath, List<String> directories )
+        {
+            this.localRepositoryPath = localRepositoryPath;
+            this.directories = directories;
+        }
+
+        public Map<String, Long> call()
+            throws IOException
+        {
+            Map<String, Long> lastModified = new HashMap<String, Long>( directories.size() );
+            for ( String directory : directories )
+            {
+                File file = new File( new File( localRepositoryPath, directory ), LOCAL_METADATA );
+                lastModified.put( directory, Long.valueOf( file.lastModified() ) );
+            }
+            return lastModified;
+        }
+    }
+}
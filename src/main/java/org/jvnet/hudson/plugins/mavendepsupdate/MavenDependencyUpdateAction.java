@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate;
+
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+import hudson.model.Item;
+import org.apache.commons.lang.math.NumberUtils;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * On demand check of a job : <code>job/NAME/maven-dependency-update/check?maxAge=SECONDS&amp;wait=SECONDS</code>
+ * answers whether the job is triggered by updated SNAPSHOTs and by which ones, as json. The status of the previous
+ * check is returned if it is more recent than <code>maxAge</code> (default
+ * <code>-DMavenDependencyUpdateTrigger.statusCacheSeconds</code>), else the job is checked as a dry run : neither the
+ * SNAPSHOT versions are recorded nor a build is scheduled. A POST to <code>schedule</code> checks the job as by its
+ * schedule : a build is scheduled if SNAPSHOTs were updated.
+ * The request waits for the check at most <code>wait</code> seconds (none by default, {@link #MAX_WAIT} at most) and
+ * answers <code>202</code> while the check is in flight, the client polls again to get its status. The concurrent
+ * requests of a job share the same check. Requires the build permission on the job.
+ *
+ * @since 1.5
+ */
+public class MavenDependencyUpdateAction
+    implements Action
+{
+    /**
+     * maximum duration in seconds of a request waiting for a check
+     */
+    public static final long MAX_WAIT = 30;
+
+    private final MavenDependencyUpdateTrigger trigger;
+
+    MavenDependencyUpdateAction( MavenDependencyUpdateTrigger trigger )
+    {
+        this.trigger = trigger;
+    }
+
+    public String getIconFileName()
+    {
+        // url only, not displayed in the job page
+        return null;
+    }
+
+    public String getDisplayName()
+    {
+        return Messages.plugin_title();
+    }
+
+    public String getUrlName()
+    {
+        return "maven-dependency-update";
+    }
+
+    public void doCheck( StaplerRequest req, StaplerResponse rsp )
+        throws IOException, InterruptedException
+    {
+        answer( req, rsp, false );
+    }
+
+    @RequirePOST
+    public void doSchedule( StaplerRequest req, StaplerResponse rsp )
+        throws IOException, InterruptedException
+    {
+        answer( req, rsp, true );
+    }
+
+    private void answer( StaplerRequest req, StaplerResponse rsp, boolean schedule )
+        throws IOException, InterruptedException
+    {
+        AbstractProject<?, ?> project = trigger.getProject();
+        project.checkPermission( Item.BUILD );
+        long maxAge =
+            NumberUtils.toLong( req.getParameter( "maxAge" ), MavenDependencyUpdateTrigger.statusCacheSeconds );
+        long wait = Math.min( Math.max( 0, NumberUtils.toLong( req.getParameter( "wait" ), 0 ) ), MAX_WAIT );
+        long requested = System.currentTimeMillis();
+        CheckStatus.Pending pending = trigger.requestCheck( maxAge * 1000, schedule );
+        CheckStatus status = pending.await( wait * 1000 );
+        rsp.setContentType( "application/json;charset=UTF-8" );
+        if ( status == null && !pending.isDone() && !pending.isExpired() )
+        {
+            rsp.setStatus( HttpServletResponse.SC_ACCEPTED );
+            rsp.getWriter().print( "{\"pending\":true}" );
+            return;
+        }
+        if ( status == null )
+        {
+            rsp.sendError( HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                           "check of " + project.getName() + " failed or not completed" );
+            return;
+        }
+        rsp.getWriter().print( status.toJSON( status.getTime() < requested ).toString() );
+    }
+}
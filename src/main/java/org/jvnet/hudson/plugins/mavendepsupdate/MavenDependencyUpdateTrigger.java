@@ -26,14 +26,20 @@ import hudson.PluginFirstClassLoader;
 import hudson.PluginWrapper;
 import hudson.Util;
 import hudson.maven.MavenModuleSet;
+import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
+import hudson.model.Action;
 import hudson.model.BuildableItem;
 import hudson.model.Cause;
+import hudson.model.Computer;
 import hudson.model.Hudson;
 import hudson.model.Item;
 import hudson.model.JDK;
 import hudson.model.Node;
+import hudson.model.ParametersAction;
 import hudson.model.Project;
+import hudson.model.Run;
+import hudson.model.StringParameterValue;
 import hudson.model.TopLevelItem;
 import hudson.remoting.VirtualChannel;
 import hudson.scheduler.CronTabList;
@@ -45,12 +51,25 @@ import hudson.util.FormValidation;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.ParseException;
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.SystemUtils;
+import org.apache.commons.lang.math.NumberUtils;
 import org.apache.maven.artifact.ArtifactUtils;
 import org.apache.maven.cli.CLIManager;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.ProjectBuildingRequest;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.DependencyFilterSelector;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.HostRateLimiter;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.MetadataCache;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.RepositoryCircuitBreaker;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.RepositoryRoutingTable;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.RequestThrottle;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.SharedMetadataCache;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.SnapshotMetadataIndex;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.SnapshotStateStore;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.SpanTracer;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 
 import java.io.ByteArrayInputStream;
@@ -59,15 +78,26 @@ import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static hudson.Util.fixNull;
@@ -83,10 +113,190 @@ public class MavenDependencyUpdateTrigger
 
     private final boolean checkPlugins;
 
+    private boolean watchLocalRepository;
+
+    private boolean fastCheck;
+
+    private boolean incrementalBuild;
+
+    private boolean streamingCheck;
+
+    private boolean checksumCheck;
+
+    private boolean releaseCheck;
+
+    private String scopes;
+
+    private String includes;
+
+    private String excludes;
+
+    private int maxDepth;
+
     public static boolean debug = Boolean.getBoolean( "MavenDependencyUpdateTrigger.debug" );
 
+    /**
+     * write the phases of each check in the job directory (see {@link #TRACE_FILE_NAME})
+     */
+    public static boolean trace = Boolean.getBoolean( "MavenDependencyUpdateTrigger.trace" );
+
+    /**
+     * maximum duration of a check in seconds, unlimited if 0
+     */
+    public static long checkTimeout = Long.getLong( "MavenDependencyUpdateTrigger.checkTimeout", 300 );
+
+    /**
+     * repository connection timeout in milliseconds
+     */
+    public static int connectTimeout = Integer.getInteger( "MavenDependencyUpdateTrigger.connectTimeout", 10000 );
+
+    /**
+     * repository request timeout in milliseconds
+     */
+    public static int requestTimeout = Integer.getInteger( "MavenDependencyUpdateTrigger.requestTimeout", 30000 );
+
+    /**
+     * number of reactor models built at the same time by a check
+     */
+    public static int modelBuildingThreads =
+        Integer.getInteger( "MavenDependencyUpdateTrigger.modelBuildingThreads", 1 );
+
+    /**
+     * maximum number of released parents and boms kept by a node for all its checks, disabled if 0
+     */
+    public static int modelCacheSize = Integer.getInteger( "MavenDependencyUpdateTrigger.modelCacheSize", 0 );
+
+    /**
+     * maximum number of connections per repository host used to probe the SNAPSHOT metadata seen by the previous
+     * complete check before running a check, probe disabled if 0
+     */
+    public static int probeConnections = Integer.getInteger( "MavenDependencyUpdateTrigger.probeConnections", 0 );
+
+    /**
+     * write the metadata and SNAPSHOTs downloaded by the checks in a scratch repository next to the local repository
+     * of the builds instead of the local repository itself : the running builds cannot see a metadata rewritten by a
+     * check, the triggered builds have to update their SNAPSHOTs (<code>-U</code>)
+     */
+    public static boolean scratchRepository = Boolean.getBoolean( "MavenDependencyUpdateTrigger.scratchRepository" );
+
+    /**
+     * age in seconds under which the status of the previous check of a job answers the on demand checks
+     * (see {@link MavenDependencyUpdateAction})
+     */
+    public static long statusCacheSeconds = Long.getLong( "MavenDependencyUpdateTrigger.statusCacheSeconds", 60 );
+
+    /**
+     * delay in milliseconds after which a complete check is run again instead of the probe, to see the SNAPSHOT
+     * dependencies added by the updated SNAPSHOT parents and boms
+     */
+    private static final long PROBE_VALIDITY = 60 * 60 * 1000;
+
+    /**
+     * delay in milliseconds after the quiet period after which the versions waiting for a build are checked again
+     * if the job is neither queued nor building
+     */
+    private static final long PENDING_GRACE = 60 * 1000;
+
+    /**
+     * delay in seconds given to a check after its deadline before it is cancelled (the model building is not
+     * interrupted by the deadline)
+     */
+    static final long CHECK_TIMEOUT_GRACE = 60;
+
     private static final CLIManager mavenCliManager = new CLIManager();
 
+    /**
+     * build parameter with the comma separated list of the modules depending on the updated SNAPSHOTs
+     */
+    public static final String MODULES_PARAMETER = "MAVEN_DEPENDENCY_UPDATE_MODULES";
+
+    /**
+     * build parameter with the maven arguments to build only the modules depending on the updated SNAPSHOTs
+     */
+    public static final String ARGS_PARAMETER = "MAVEN_DEPENDENCY_UPDATE_ARGS";
+
+    private static final String SNAPSHOT_STATE_FILE_NAME = "maven-dependency-update-trigger-snapshots.txt";
+
+    /**
+     * release versions selected by the last checks (see {@link #isReleaseCheck()})
+     */
+    private static final String RELEASE_STATE_FILE_NAME = "maven-dependency-update-trigger-releases.txt";
+
+    private static final String ROUTES_FILE_NAME = "maven-dependency-update-trigger-routes.txt";
+
+    /**
+     * Chrome trace events of the last check of the job
+     */
+    static final String TRACE_FILE_NAME = "maven-dependency-update-trigger-trace.json";
+
+    private transient SnapshotStateStore snapshotStateStore;
+
+    private transient SnapshotStateStore releaseStateStore;
+
+    /**
+     * local repository used by the last check, watched by {@link LocalRepositoryWatcher}
+     */
+    private transient volatile String localRepositoryPath;
+
+    private transient volatile Map<String, Long> localInstallTimes = Collections.emptyMap();
+
+    /**
+     * SNAPSHOTs which already triggered a build when deployed by an upstream build
+     * (see {@link UpstreamDeployListener}), not to trigger again when the next check sees them
+     */
+    private transient Set<String> upstreamTriggeredGavs;
+
+    /**
+     * SNAPSHOT versions seen by the checks which requested a build, recorded when the next build completes
+     * (see {@link TriggeredBuildListener}). If no build runs (cancelled or lost by a restart) the next checks see
+     * them again.
+     */
+    private transient Map<String, String> pendingVersions;
+
+    private transient long pendingTime;
+
+    /**
+     * pending versions taken by the running builds, per build number
+     */
+    private transient Map<Integer, Map<String, String>> buildVersions;
+
+    /**
+     * <code>groupId:artifactId:version</code> of the reactor projects seen by the last check,
+     * used by {@link TriggerCoordinator} to order the builds of the jobs
+     */
+    private transient volatile Set<String> reactorGavs;
+
+    /**
+     * remote urls of the SNAPSHOT metadata seen by the last complete check, probed by the next checks
+     * until a new build or {@link #PROBE_VALIDITY}
+     */
+    private transient volatile Map<String, String> probeUrls;
+
+    /**
+     * remote repositories of the job seen by the last complete check, scope of its routes
+     * (see {@link RepositoryRoutingTable})
+     */
+    private transient volatile String routingScope;
+
+    private transient volatile long probeBuildTime;
+
+    private transient volatile long probeRecordTime;
+
+    /**
+     * spans of the running check recorded on the controller
+     */
+    private transient volatile SpanTracer tracer;
+
+    /**
+     * status of the last check of the job, answers the on demand checks while recent
+     */
+    private transient volatile CheckStatus lastStatus;
+
+    /**
+     * check of the job in flight, guarded by this
+     */
+    private transient CheckStatus.Pending pendingCheck;
+
     @DataBoundConstructor
     public MavenDependencyUpdateTrigger( String cron_value, boolean checkPlugins )
         throws ANTLRException
@@ -95,8 +305,349 @@ public class MavenDependencyUpdateTrigger
         this.checkPlugins = checkPlugins;
     }
 
+    public boolean isCheckPlugins()
+    {
+        return checkPlugins;
+    }
+
+    /**
+     * @since 1.5
+     */
+    public boolean isWatchLocalRepository()
+    {
+        return watchLocalRepository;
+    }
+
+    /**
+     * @since 1.5
+     */
+    @DataBoundSetter
+    public void setWatchLocalRepository( boolean watchLocalRepository )
+    {
+        this.watchLocalRepository = watchLocalRepository;
+    }
+
+    /**
+     * @since 1.5
+     */
+    public boolean isFastCheck()
+    {
+        return fastCheck;
+    }
+
+    /**
+     * @since 1.5
+     */
+    @DataBoundSetter
+    public void setFastCheck( boolean fastCheck )
+    {
+        this.fastCheck = fastCheck;
+    }
+
+    /**
+     * @since 1.5
+     */
+    public boolean isIncrementalBuild()
+    {
+        return incrementalBuild;
+    }
+
+    /**
+     * @since 1.5
+     */
+    @DataBoundSetter
+    public void setIncrementalBuild( boolean incrementalBuild )
+    {
+        this.incrementalBuild = incrementalBuild;
+    }
+
+    /**
+     * @since 1.5
+     */
+    public boolean isStreamingCheck()
+    {
+        return streamingCheck;
+    }
+
+    /**
+     * @since 1.5
+     */
+    @DataBoundSetter
+    public void setStreamingCheck( boolean streamingCheck )
+    {
+        this.streamingCheck = streamingCheck;
+    }
+
+    /**
+     * @since 1.5
+     */
+    public boolean isChecksumCheck()
+    {
+        return checksumCheck;
+    }
+
+    /**
+     * @since 1.5
+     */
+    @DataBoundSetter
+    public void setChecksumCheck( boolean checksumCheck )
+    {
+        this.checksumCheck = checksumCheck;
+    }
+
+    /**
+     * @return <code>true</code> to trigger on the new releases matching the version ranges, <code>LATEST</code> and
+     *         <code>RELEASE</code> dependencies and on the new releases of the pinned dependencies
+     * @since 1.5
+     */
+    public boolean isReleaseCheck()
+    {
+        return releaseCheck;
+    }
+
+    /**
+     * @since 1.5
+     */
+    @DataBoundSetter
+    public void setReleaseCheck( boolean releaseCheck )
+    {
+        this.releaseCheck = releaseCheck;
+    }
+
+    /**
+     * @return comma separated scopes of the dependencies to check, all if <code>null</code>
+     * @since 1.5
+     */
+    public String getScopes()
+    {
+        return scopes;
+    }
+
+    /**
+     * @since 1.5
+     */
+    @DataBoundSetter
+    public void setScopes( String scopes )
+    {
+        this.scopes = Util.fixEmptyAndTrim( scopes );
+    }
+
+    /**
+     * @return <code>groupId:artifactId</code> glob patterns of the dependencies to check, all if <code>null</code>
+     * @since 1.5
+     */
+    public String getIncludes()
+    {
+        return includes;
+    }
+
+    /**
+     * @since 1.5
+     */
+    @DataBoundSetter
+    public void setIncludes( String includes )
+    {
+        this.includes = Util.fixEmptyAndTrim( includes );
+    }
+
+    /**
+     * @return <code>groupId:artifactId</code> glob patterns of the dependencies not to check
+     * @since 1.5
+     */
+    public String getExcludes()
+    {
+        return excludes;
+    }
+
+    /**
+     * @since 1.5
+     */
+    @DataBoundSetter
+    public void setExcludes( String excludes )
+    {
+        this.excludes = Util.fixEmptyAndTrim( excludes );
+    }
+
+    /**
+     * @return maximum depth of the dependencies to check (1 for the direct dependencies), unlimited if 0
+     * @since 1.5
+     */
+    public int getMaxDepth()
+    {
+        return maxDepth;
+    }
+
+    /**
+     * @since 1.5
+     */
+    @DataBoundSetter
+    public void setMaxDepth( String maxDepth )
+    {
+        this.maxDepth = NumberUtils.toInt( Util.fixEmptyAndTrim( maxDepth ), 0 );
+    }
+
+    @Override
+    public Collection<? extends Action> getProjectActions()
+    {
+        return Collections.singletonList( new MavenDependencyUpdateAction( this ) );
+    }
+
+    @Override
+    public void start( BuildableItem project, boolean newInstance )
+    {
+        super.start( project, newInstance );
+        TriggerCoordinator.invalidate();
+    }
+
+    @Override
+    public void stop()
+    {
+        super.stop();
+        TriggerCoordinator.invalidate();
+    }
+
     @Override
     public void run()
+    {
+        long start = System.currentTimeMillis();
+        if ( beginCheck( false ) == null )
+        {
+            LOGGER.info(
+                "previous MavenUpdateChecker for project " + job.getName() + " not completed so skip this one" );
+            TriggerMetrics.cronRun( start, true );
+            return;
+        }
+        try
+        {
+            check();
+        }
+        finally
+        {
+            TriggerMetrics.cronRun( start, false );
+        }
+    }
+
+    /**
+     * answer an on demand check : the status of the previous check if it is more recent than <code>maxAge</code>,
+     * else the check in flight or a new one. The concurrent requests share the same check.
+     *
+     * @param maxAge maximum age in milliseconds of the status of the previous check
+     * @param schedule <code>false</code> for a dry run : the check doesn't record the SNAPSHOT versions nor schedule
+     *            a build, so the next checks still see the updated SNAPSHOTs
+     * @return the check, already ended if the status of the previous check is returned
+     */
+    CheckStatus.Pending requestCheck( long maxAge, boolean schedule )
+    {
+        CheckStatus.Pending pending;
+        synchronized ( this )
+        {
+            CheckStatus status = lastStatus;
+            if ( status != null && System.currentTimeMillis() - status.getTime() <= maxAge
+                && ( !schedule || !status.isDryRun() ) )
+            {
+                return CheckStatus.Pending.completed( status );
+            }
+            pending = beginCheck( !schedule );
+            if ( pending == null )
+            {
+                pending = pendingCheck;
+            }
+            else
+            {
+                Computer.threadPoolForRemoting.submit( new Runnable()
+                {
+                    public void run()
+                    {
+                        check();
+                    }
+                } );
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * @param dryRun <code>true</code> if the check must not record the SNAPSHOT versions nor schedule a build
+     * @return the new check in flight or <code>null</code> if a check of the job is already in flight, which is not
+     *         a dry run anymore if this one is not
+     */
+    private synchronized CheckStatus.Pending beginCheck( boolean dryRun )
+    {
+        if ( pendingCheck != null && !pendingCheck.isExpired() )
+        {
+            if ( !dryRun )
+            {
+                pendingCheck.schedule();
+            }
+            return null;
+        }
+        if ( pendingCheck == null )
+        {
+            // else the expired check is replaced
+            TriggerMetrics.checkStarted();
+        }
+        pendingCheck = new CheckStatus.Pending( dryRun, getPendingTimeout() );
+        return pendingCheck;
+    }
+
+    /**
+     * end the check in flight and wake up the on demand checks waiting for it
+     *
+     * @param status the status of the check or <code>null</code> if it failed
+     */
+    void endCheck( CheckStatus status )
+    {
+        CheckStatus.Pending pending;
+        synchronized ( this )
+        {
+            pending = pendingCheck;
+            pendingCheck = null;
+            if ( status != null )
+            {
+                lastStatus = status;
+            }
+        }
+        if ( pending != null )
+        {
+            TriggerMetrics.checkEnded();
+            pending.complete( status );
+        }
+    }
+
+    /**
+     * @return maximum duration in milliseconds of a check in flight, batch window and cancellation included
+     */
+    static long getCheckWaitTimeout()
+    {
+        // an unlimited check is waited for as long as a check with the default timeout
+        return ( ( checkTimeout > 0 ? checkTimeout : 300 ) + CHECK_TIMEOUT_GRACE ) * 1000 + CheckBatcher.batchWindow;
+    }
+
+    /**
+     * @return <code>true</code> if the check in flight must neither record the SNAPSHOT versions nor schedule a build
+     */
+    synchronized boolean isDryRunInFlight()
+    {
+        return pendingCheck != null && pendingCheck.isDryRun();
+    }
+
+    /**
+     * @return maximum duration in milliseconds of a check of this job, after which it is replaced by a new one
+     */
+    long getPendingTimeout()
+    {
+        return getCheckWaitTimeout();
+    }
+
+    AbstractProject<?, ?> getProject()
+    {
+        return (AbstractProject<?, ?>) job;
+    }
+
+    /**
+     * run the check of the job on the node of its last build, ended by {@link #endCheck(CheckStatus)}
+     */
+    void check()
     {
         long start = System.currentTimeMillis();
         ProjectBuildingRequest projectBuildingRequest = null;
@@ -108,10 +659,17 @@ public class MavenDependencyUpdateTrigger
             // FIXME schedule the first buid ??
             //job.scheduleBuild( arg0, arg1 )
             LOGGER.info( "no previous build found for " + job.getDisplayName() + " so skip maven update trigger" );
+            endCheck( null );
             return;
         }
 
+        // the result handling ends the check
+        boolean handled = false;
+
         ClassLoader origClassLoader = Thread.currentThread().getContextClassLoader();
+        SpanTracer tracer = SpanTracer.create( trace, "controller" );
+        this.tracer = tracer;
+        SpanTracer.Span span = tracer.start( "prepare", job.getName() );
         try
         {
             PluginWrapper pluginWrapper =
@@ -176,49 +734,316 @@ public class MavenDependencyUpdateTrigger
 
             checker.setActiveProfiles( getActiveProfiles() );
 
-            LOGGER.info( "run MavenUpdateChecker for project " + job.getName() + " on node " + node.getDisplayName() );
+            SnapshotStateStore snapshotStateStore = getSnapshotStateStore();
+            checker.setKnownSnapshotVersions( getKnownSnapshotVersions() );
+            checker.setFastCheck( fastCheck );
+            checker.setStreaming( streamingCheck );
+            checker.setTraceProcess( trace ? "node " + node.getDisplayName() : null );
+            checker.setChecksumCheck( checksumCheck );
+            checker.setScratchRepository( scratchRepository );
+            if ( releaseCheck )
+            {
+                checker.setReleaseCheck( getReleaseStateStore().getVersions() );
+            }
+            checker.setDependencyFilters( DependencyFilterSelector.split( scopes ),
+                                          DependencyFilterSelector.split( includes ),
+                                          DependencyFilterSelector.split( excludes ), maxDepth );
+            if ( fastCheck )
+            {
+                checker.setChangeLikelihood( snapshotStateStore.getChangeCounts() );
+            }
 
-            MavenUpdateCheckerResult mavenUpdateCheckerResult = virtualChannel.call( checker );
+            if ( HostRateLimiter.isEnabled() )
+            {
+                // all the checks share the controller limits
+                checker.setRequestThrottle(
+                    virtualChannel.export( RequestThrottle.class,
+                                           HostRateLimiter.getInstance().forJob( job.getFullName() ) ) );
+            }
 
-            if ( debug )
+            if ( SharedMetadataCache.isEnabled() )
             {
-                StringBuilder debugLines = new StringBuilder(
-                    "MavenUpdateChecker for project " + job.getName() + " on node " + node.getDisplayName() ).append(
-                    SystemUtils.LINE_SEPARATOR );
-                for ( String line : mavenUpdateCheckerResult.getDebugLines() )
-                {
-                    debugLines.append( line ).append( SystemUtils.LINE_SEPARATOR );
-                }
-                LOGGER.info( debugLines.toString() );
+                checker.setMetadataCache(
+                    virtualChannel.export( MetadataCache.class, SharedMetadataCache.getInstance() ) );
             }
 
-            if ( mavenUpdateCheckerResult.getFileUpdatedNames().size() > 0 )
+            checker.setTimeouts( checkTimeout * 1000, connectTimeout, requestTimeout );
+            checker.setModelBuilding( modelBuildingThreads, modelCacheSize );
+            checker.setOpenRepositories( RepositoryCircuitBreaker.getInstance().getOpenRepositories() );
+            Map<String, String> urls = probeUrls;
+            if ( probeConnections > 0 && !incrementalBuild && !releaseCheck && urls != null
+                && probeBuildTime == lastBuildTime && System.currentTimeMillis() - probeRecordTime < PROBE_VALIDITY )
             {
-                StringBuilder stringBuilder = new StringBuilder(
-                    "MavenUpdateChecker for project " + job.getName() + " on node " + node.getDisplayName() );
-                stringBuilder.append( " , snapshotDownloaded so triggering a new build : " ).append(
-                    SystemUtils.LINE_SEPARATOR );
-                for ( String fileName : mavenUpdateCheckerResult.getFileUpdatedNames() )
-                {
-                    stringBuilder.append( " * " + fileName ).append( SystemUtils.LINE_SEPARATOR );
-                }
-                job.scheduleBuild( 0, new MavenDependencyUpdateTriggerCause(
-                    mavenUpdateCheckerResult.getFileUpdatedNames() ) );
-                LOGGER.info( stringBuilder.toString() );
+                // the probe doesn't know the affected modules needed by the incremental builds nor the releases
+                checker.setProbe( urls, probeConnections );
+            }
+            if ( RepositoryRoutingTable.enabled )
+            {
+                RepositoryRoutingTable routingTable = getRoutingTable();
+                // the routes of the job are only known once a complete check has seen its repositories
+                String scope = routingScope;
+                Map<String, String> routes =
+                    scope == null ? Collections.<String, String>emptyMap() : routingTable.getRoutes( scope );
+                checker.setRouting( routes, routingTable.getMisses() );
             }
 
-            long end = System.currentTimeMillis();
-            LOGGER.info(
-                "time to run MavenUpdateChecker for project " + job.getName() + " on node " + node.getDisplayName()
-                    + " : " + ( end - start ) + " ms" );
+            span.end();
+            if ( CheckBatcher.isEnabled() )
+            {
+                // the result is handled by onResult when the batch of the node returns
+                handled = true;
+                CheckBatcher.submit( this, job.getName(), node, checker, start );
+                return;
+            }
+
+            LOGGER.info( "run MavenUpdateChecker for project " + job.getName() + " on node " + node.getDisplayName() );
+
+            span = tracer.start( "call", node.getDisplayName() );
+            MavenUpdateCheckerResult mavenUpdateCheckerResult;
+            try
+            {
+                mavenUpdateCheckerResult = call( virtualChannel, checker );
+            }
+            finally
+            {
+                span.end();
+            }
+            handled = true;
+            onResult( node, mavenUpdateCheckerResult, start );
+        }
+        catch ( TimeoutException e )
+        {
+            LOGGER.warning( "MavenUpdateChecker for project " + job.getName() + " on node " + node.getDisplayName()
+                                + " not completed " + CHECK_TIMEOUT_GRACE + " s after its deadline so cancelled" );
         }
         catch ( Exception e )
         {
-            LOGGER.warning( "ignore " + e.getMessage() );
+            LOGGER.log( Level.WARNING,
+                        "MavenUpdateChecker failed for project " + job.getName() + " on node " + node.getDisplayName(),
+                        e );
         }
         finally
         {
             Thread.currentThread().setContextClassLoader( origClassLoader );
+            if ( !handled )
+            {
+                endCheck( null );
+            }
+        }
+    }
+
+    /**
+     * handle the result of the check of this job run on the node and end the check
+     */
+    void onResult( Node node, MavenUpdateCheckerResult mavenUpdateCheckerResult, long start )
+    {
+        CheckStatus status = null;
+        long handlingStart = System.currentTimeMillis();
+        boolean dryRun = isDryRunInFlight();
+        try
+        {
+            boolean scheduled = handleResult( node, mavenUpdateCheckerResult, start, dryRun );
+            TriggerMetrics.resultHandled( start, System.currentTimeMillis() - handlingStart );
+            status = new CheckStatus( System.currentTimeMillis(), node.getDisplayName(),
+                                      new ArrayList<String>( mavenUpdateCheckerResult.getFileUpdatedNames() ),
+                                      new ArrayList<String>( mavenUpdateCheckerResult.getUpdatedGavs() ), scheduled,
+                                      mavenUpdateCheckerResult.isDeadlineExceeded(), dryRun );
+        }
+        finally
+        {
+            endCheck( status );
+        }
+    }
+
+    /**
+     * record the state of the check and schedule a build if needed
+     *
+     * @param dryRun <code>true</code> if the state must not be recorded nor a build scheduled
+     * @return <code>true</code> if a build was scheduled
+     */
+    private boolean handleResult( Node node, MavenUpdateCheckerResult mavenUpdateCheckerResult, long start,
+                                  boolean dryRun )
+    {
+        AbstractProject<?, ?> abstractProject = (AbstractProject<?, ?>) super.job;
+        SpanTracer tracer = this.tracer == null ? SpanTracer.DISABLED : this.tracer;
+        SpanTracer.Span span = tracer.start( "onResult", null );
+
+        RepositoryCircuitBreaker.getInstance().record( mavenUpdateCheckerResult.getRepositorySuccesses(),
+                                                       mavenUpdateCheckerResult.getRepositoryFailures() );
+        if ( RepositoryRoutingTable.enabled )
+        {
+            if ( mavenUpdateCheckerResult.getRepositoryScope() != null )
+            {
+                routingScope = mavenUpdateCheckerResult.getRepositoryScope();
+            }
+            getRoutingTable().learn( routingScope, mavenUpdateCheckerResult.getServedRepositories(),
+                                     mavenUpdateCheckerResult.getNotFound() );
+        }
+        if ( mavenUpdateCheckerResult.isDeadlineExceeded() )
+        {
+            LOGGER.warning( "MavenUpdateChecker for project " + job.getName() + " on node " + node.getDisplayName()
+                                + " stopped after " + checkTimeout + " s, repository failures : "
+                                + mavenUpdateCheckerResult.getRepositoryFailures() + SystemUtils.LINE_SEPARATOR
+                                + StringUtils.join( mavenUpdateCheckerResult.getTransferSummary(),
+                                                    SystemUtils.LINE_SEPARATOR ) );
+        }
+
+        if ( debug )
+        {
+            StringBuilder debugLines = new StringBuilder(
+                "MavenUpdateChecker for project " + job.getName() + " on node " + node.getDisplayName() ).append(
+                SystemUtils.LINE_SEPARATOR );
+            for ( String line : mavenUpdateCheckerResult.getDebugLines() )
+            {
+                debugLines.append( line ).append( SystemUtils.LINE_SEPARATOR );
+            }
+            for ( String line : mavenUpdateCheckerResult.getTransferSummary() )
+            {
+                debugLines.append( line ).append( SystemUtils.LINE_SEPARATOR );
+            }
+            if ( SharedMetadataCache.isEnabled() )
+            {
+                debugLines.append( "metadata cache : " ).append( SharedMetadataCache.getInstance().getStatistics() );
+            }
+            LOGGER.info( debugLines.toString() );
+        }
+
+        if ( releaseCheck && !dryRun )
+        {
+            try
+            {
+                getReleaseStateStore().record( mavenUpdateCheckerResult.getReleaseVersions() );
+            }
+            catch ( IOException e )
+            {
+                LOGGER.warning(
+                    "cannot record release versions for project " + job.getName() + " : " + e.getMessage() );
+            }
+        }
+
+        if ( !mavenUpdateCheckerResult.isProbed() )
+        {
+            probeUrls = mavenUpdateCheckerResult.getMetadataUrls();
+            probeBuildTime = mavenUpdateCheckerResult.getLastBuildTime();
+            probeRecordTime = System.currentTimeMillis();
+        }
+
+        // a probed result doesn't know the local repository
+        String resultRepositoryPath = mavenUpdateCheckerResult.getLocalRepositoryPath();
+        if ( resultRepositoryPath != null && !StringUtils.equals( localRepositoryPath, resultRepositoryPath ) )
+        {
+            localInstallTimes = Collections.emptyMap();
+            localRepositoryPath = mavenUpdateCheckerResult.getLocalRepositoryPath();
+        }
+
+        if ( !mavenUpdateCheckerResult.getReactorGavs().isEmpty()
+            && !mavenUpdateCheckerResult.getReactorGavs().equals( reactorGavs ) )
+        {
+            reactorGavs = mavenUpdateCheckerResult.getReactorGavs();
+            TriggerCoordinator.invalidate();
+        }
+
+        boolean scheduled = false;
+
+        if ( dryRun )
+        {
+            LOGGER.info( "MavenUpdateChecker dry run for project " + job.getName() + " : updated "
+                             + mavenUpdateCheckerResult.getUpdatedGavs() );
+        }
+        else if ( mavenUpdateCheckerResult.getFileUpdatedNames().size() > 0 && isTriggeredByUpstream(
+            mavenUpdateCheckerResult.getUpdatedGavs() ) )
+        {
+            LOGGER.info( "MavenUpdateChecker for project " + job.getName() + " : "
+                             + mavenUpdateCheckerResult.getUpdatedGavs()
+                             + " already triggered a build when deployed by an upstream build" );
+        }
+        else if ( mavenUpdateCheckerResult.getFileUpdatedNames().size() > 0 )
+        {
+            StringBuilder stringBuilder = new StringBuilder(
+                "MavenUpdateChecker for project " + job.getName() + " on node " + node.getDisplayName() );
+            stringBuilder.append( " , snapshotDownloaded so triggering a new build : " ).append(
+                SystemUtils.LINE_SEPARATOR );
+            for ( String fileName : mavenUpdateCheckerResult.getFileUpdatedNames() )
+            {
+                stringBuilder.append( " * " + fileName ).append( SystemUtils.LINE_SEPARATOR );
+            }
+            List<String> modules = incrementalBuild ? getAffectedModules( mavenUpdateCheckerResult ) : null;
+            MavenDependencyUpdateTriggerCause cause =
+                new MavenDependencyUpdateTriggerCause( mavenUpdateCheckerResult.getFileUpdatedNames(), modules );
+            List<Action> actions = new ArrayList<Action>( 1 );
+            if ( modules != null )
+            {
+                stringBuilder.append( " only for modules " ).append( modules );
+                String projectList = StringUtils.join( modules, ',' );
+                actions.add( new ParametersAction( new StringParameterValue( MODULES_PARAMETER, projectList ),
+                                                   new StringParameterValue( ARGS_PARAMETER,
+                                                                             "-pl " + projectList + " -amd" ) ) );
+            }
+            LOGGER.info( stringBuilder.toString() );
+            TriggerCoordinator.schedule( abstractProject, cause, actions );
+            scheduled = true;
+        }
+        if ( !dryRun )
+        {
+            // the versions which triggered a build are recorded when it completes
+            recordSnapshotVersions( mavenUpdateCheckerResult.getSnapshotVersions(), scheduled );
+        }
+
+        long end = System.currentTimeMillis();
+        LOGGER.info(
+            "time to run MavenUpdateChecker for project " + job.getName() + " on node " + node.getDisplayName()
+                + " : " + ( end - start ) + " ms" + ( mavenUpdateCheckerResult.getThrottledMillis() > 0
+                ? " (throttled " + mavenUpdateCheckerResult.getThrottledMillis() + " ms, "
+                + HostRateLimiter.getInstance().getStatistics() + ")"
+                : "" ) );
+
+        span.end();
+        if ( tracer.isEnabled() )
+        {
+            writeTrace( abstractProject, tracer, mavenUpdateCheckerResult );
+        }
+        return scheduled;
+    }
+
+    private void writeTrace( AbstractProject<?, ?> abstractProject, SpanTracer tracer,
+                             MavenUpdateCheckerResult mavenUpdateCheckerResult )
+    {
+        List<SpanTracer.Span> spans = new ArrayList<SpanTracer.Span>( tracer.getSpans() );
+        spans.addAll( mavenUpdateCheckerResult.getSpans() );
+        try
+        {
+            SpanTracer.writeChromeTrace( new File( abstractProject.getRootDir(), TRACE_FILE_NAME ), spans );
+        }
+        catch ( IOException e )
+        {
+            LOGGER.warning( "cannot write the trace of project " + job.getName() + " : " + e.getMessage() );
+        }
+    }
+
+    private RepositoryRoutingTable getRoutingTable()
+    {
+        return RepositoryRoutingTable.getInstance( new File( Hudson.getInstance().getRootDir(), ROUTES_FILE_NAME ) );
+    }
+
+    /**
+     * run the check on the node, cancelling it if it doesn't end after its deadline
+     */
+    private MavenUpdateCheckerResult call( VirtualChannel virtualChannel, MavenUpdateChecker checker )
+        throws IOException, InterruptedException, ExecutionException, TimeoutException
+    {
+        if ( checkTimeout <= 0 )
+        {
+            return virtualChannel.call( checker );
+        }
+        Future<MavenUpdateCheckerResult> future = virtualChannel.callAsync( checker );
+        try
+        {
+            return future.get( checkTimeout + CHECK_TIMEOUT_GRACE, TimeUnit.SECONDS );
+        }
+        catch ( TimeoutException e )
+        {
+            future.cancel( true );
+            throw e;
         }
     }
 
@@ -237,6 +1062,272 @@ public class MavenDependencyUpdateTrigger
         return Long.valueOf(utcString);
     }
 
+    /**
+     * schedule a build if one of the recorded SNAPSHOT dependencies has been installed in the local repository
+     * of the node since the previous call. Called by {@link LocalRepositoryWatcher}.
+     */
+    void checkLocalRepository()
+    {
+        Node node = super.job.getLastBuiltOn();
+        String repositoryPath = localRepositoryPath;
+        if ( node == null || node.getChannel() == null || repositoryPath == null )
+        {
+            return;
+        }
+        Set<String> directories = new TreeSet<String>();
+        for ( String key : getSnapshotStateStore().getVersions().keySet() )
+        {
+            directories.add( key.substring( 0, key.lastIndexOf( '/' ) + 1 ) );
+        }
+        if ( directories.isEmpty() )
+        {
+            return;
+        }
+        try
+        {
+            Map<String, Long> lastModified = node.getChannel().call(
+                new LocalRepositoryWatcher.LocalInstallScanner( repositoryPath, new ArrayList<String>( directories ) ) );
+            List<String> installed = LocalRepositoryWatcher.getInstalled( localInstallTimes, lastModified );
+            localInstallTimes = lastModified;
+            if ( !installed.isEmpty() )
+            {
+                LOGGER.info( "SNAPSHOT installed in " + repositoryPath + " on node " + node.getDisplayName()
+                                 + " so triggering a new build of " + job.getName() + " : " + installed );
+                TriggerCoordinator.schedule( (AbstractProject<?, ?>) job, new MavenDependencyUpdateTriggerCause(
+                    installed ), Collections.<Action>emptyList() );
+            }
+        }
+        catch ( IOException e )
+        {
+            LOGGER.warning( "ignore " + e.getMessage() );
+        }
+        catch ( InterruptedException e )
+        {
+            LOGGER.warning( "ignore " + e.getMessage() );
+        }
+    }
+
+    /**
+     * @return the modules to build for the updated SNAPSHOTs or <code>null</code> to build the whole reactor
+     */
+    private List<String> getAffectedModules( MavenUpdateCheckerResult mavenUpdateCheckerResult )
+    {
+        Map<String, List<String>> affectedModules = mavenUpdateCheckerResult.getAffectedModules();
+        if ( affectedModules == null || affectedModules.isEmpty() )
+        {
+            return null;
+        }
+        Set<String> modules = new TreeSet<String>();
+        for ( List<String> gavModules : affectedModules.values() )
+        {
+            modules.addAll( gavModules );
+        }
+        return new ArrayList<String>( modules );
+    }
+
+    /**
+     * @return <code>groupId:artifactId:version</code> of the SNAPSHOT dependencies recorded for this job
+     */
+    Set<String> getSnapshotDependencies()
+    {
+        Set<String> gavs = new HashSet<String>();
+        for ( String key : getSnapshotStateStore().getVersions().keySet() )
+        {
+            String gav = SnapshotMetadataIndex.getGav( key );
+            if ( gav != null )
+            {
+                gavs.add( gav );
+            }
+        }
+        return gavs;
+    }
+
+    /**
+     * schedule a build as the upstream build has deployed some of the SNAPSHOT dependencies of this job.
+     */
+    void upstreamDeployed( AbstractBuild<?, ?> upstream, Set<String> gavs )
+    {
+        synchronized ( this )
+        {
+            if ( upstreamTriggeredGavs == null )
+            {
+                upstreamTriggeredGavs = new HashSet<String>();
+            }
+            upstreamTriggeredGavs.addAll( gavs );
+        }
+        LOGGER.info( upstream.getFullDisplayName() + " deployed " + gavs + " so triggering a new build of "
+                         + job.getName() );
+        TriggerCoordinator.schedule( (AbstractProject<?, ?>) job, new Cause.UpstreamCause( (Run<?, ?>) upstream ),
+                                     Collections.<Action>emptyList() );
+    }
+
+    /**
+     * @return <code>groupId:artifactId:version</code> of the reactor projects of this job
+     */
+    Set<String> getReactorGavs()
+    {
+        Set<String> gavs = reactorGavs;
+        return gavs == null ? Collections.<String>emptySet() : gavs;
+    }
+
+    /**
+     * @return <code>true</code> if all the updated SNAPSHOTs have already triggered a build when deployed
+     */
+    private synchronized boolean isTriggeredByUpstream( Set<String> updatedGavs )
+    {
+        if ( upstreamTriggeredGavs == null || updatedGavs.isEmpty() )
+        {
+            return false;
+        }
+        boolean triggered = upstreamTriggeredGavs.containsAll( updatedGavs );
+        upstreamTriggeredGavs.removeAll( updatedGavs );
+        return triggered;
+    }
+
+    /**
+     * @return the recorded SNAPSHOT versions overridden by the ones waiting for a build
+     */
+    Map<String, String> getKnownSnapshotVersions()
+    {
+        Map<String, String> versions = getSnapshotStateStore().getVersions();
+        AbstractProject<?, ?> project = (AbstractProject<?, ?>) job;
+        boolean idle = !project.isBuilding() && !Hudson.getInstance().getQueue().contains( project );
+        synchronized ( this )
+        {
+            if ( pendingVersions != null && idle
+                && System.currentTimeMillis() - pendingTime > project.getQuietPeriod() * 1000L + PENDING_GRACE )
+            {
+                LOGGER.info( "no build of project " + job.getName() + " ran for " + pendingVersions.keySet()
+                                 + ", checking them again" );
+                pendingVersions = null;
+            }
+            if ( buildVersions != null )
+            {
+                for ( Map<String, String> running : buildVersions.values() )
+                {
+                    versions.putAll( running );
+                }
+            }
+            if ( pendingVersions != null )
+            {
+                versions.putAll( pendingVersions );
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * record the SNAPSHOT versions seen by a check or keep them until the next build if it requested a build
+     */
+    private void recordSnapshotVersions( Map<String, String> seenVersions, boolean buildRequested )
+    {
+        Map<String, String> versions = new HashMap<String, String>( seenVersions );
+        synchronized ( this )
+        {
+            if ( buildRequested )
+            {
+                if ( pendingVersions == null )
+                {
+                    pendingVersions = new HashMap<String, String>();
+                }
+                pendingVersions.putAll( versions );
+                pendingTime = System.currentTimeMillis();
+                return;
+            }
+            // recorded by the builds which will consume them
+            if ( pendingVersions != null )
+            {
+                versions.keySet().removeAll( pendingVersions.keySet() );
+            }
+            if ( buildVersions != null )
+            {
+                for ( Map<String, String> running : buildVersions.values() )
+                {
+                    versions.keySet().removeAll( running.keySet() );
+                }
+            }
+        }
+        recordSnapshotVersions( versions );
+    }
+
+    private void recordSnapshotVersions( Map<String, String> versions )
+    {
+        if ( versions.isEmpty() )
+        {
+            return;
+        }
+        try
+        {
+            SnapshotStateStore store = getSnapshotStateStore();
+            boolean newDependencies = !store.getVersions().keySet().containsAll( versions.keySet() );
+            store.record( versions );
+            if ( newDependencies )
+            {
+                TriggerCoordinator.invalidate();
+            }
+        }
+        catch ( IOException e )
+        {
+            LOGGER.warning( "cannot record SNAPSHOT versions for project " + job.getName() + " : " + e.getMessage() );
+        }
+    }
+
+    /**
+     * a build of this job started : it consumes the versions waiting for a build
+     */
+    synchronized void buildStarted( AbstractBuild<?, ?> build )
+    {
+        if ( pendingVersions == null )
+        {
+            return;
+        }
+        if ( buildVersions == null )
+        {
+            buildVersions = new HashMap<Integer, Map<String, String>>();
+        }
+        buildVersions.put( Integer.valueOf( build.getNumber() ), pendingVersions );
+        pendingVersions = null;
+    }
+
+    /**
+     * a build of this job completed : the versions it consumed are recorded
+     */
+    void buildCompleted( AbstractBuild<?, ?> build )
+    {
+        Map<String, String> versions;
+        synchronized ( this )
+        {
+            versions = buildVersions == null ? null : buildVersions.remove( Integer.valueOf( build.getNumber() ) );
+        }
+        if ( versions != null )
+        {
+            recordSnapshotVersions( versions );
+        }
+    }
+
+    /**
+     * @return the SNAPSHOT versions recorded for this job, stored in the job directory
+     */
+    synchronized SnapshotStateStore getSnapshotStateStore()
+    {
+        if ( snapshotStateStore == null )
+        {
+            snapshotStateStore = new SnapshotStateStore(
+                new File( ( (AbstractProject<?, ?>) job ).getRootDir(), SNAPSHOT_STATE_FILE_NAME ) );
+        }
+        return snapshotStateStore;
+    }
+
+    private synchronized SnapshotStateStore getReleaseStateStore()
+    {
+        if ( releaseStateStore == null )
+        {
+            releaseStateStore = new SnapshotStateStore(
+                new File( ( (AbstractProject<?, ?>) job ).getRootDir(), RELEASE_STATE_FILE_NAME ) );
+        }
+        return releaseStateStore;
+    }
+
     private File getLocalRepo( FilePath workspace )
     {
         boolean usePrivateRepo = usePrivateRepo();
@@ -293,11 +1384,30 @@ public class MavenDependencyUpdateTrigger
     {
         private List<String> snapshotsDownloaded;
 
+        /**
+         * modules to build, <code>null</code> for the whole reactor
+         */
+        private List<String> modules;
+
         MavenDependencyUpdateTriggerCause( List<String> snapshotsDownloaded )
         {
             this.snapshotsDownloaded = snapshotsDownloaded;
         }
 
+        MavenDependencyUpdateTriggerCause( List<String> snapshotsDownloaded, List<String> modules )
+        {
+            this.snapshotsDownloaded = snapshotsDownloaded;
+            this.modules = modules;
+        }
+
+        /**
+         * @since 1.5
+         */
+        public List<String> getModules()
+        {
+            return modules;
+        }
+
         @Override
         public String getShortDescription()
         {
@@ -311,6 +1421,10 @@ public class MavenDependencyUpdateTrigger
                 }
                 sb.append( " " );
             }
+            if ( modules != null )
+            {
+                sb.append( "for modules " ).append( modules );
+            }
 
             return sb.toString();
         }
@@ -31,14 +31,17 @@ import org.apache.maven.execution.DefaultMavenExecutionRequest;
 import org.apache.maven.execution.MavenExecutionRequest;
 import org.apache.maven.execution.MavenExecutionRequestPopulationException;
 import org.apache.maven.execution.MavenExecutionRequestPopulator;
+import org.apache.maven.model.Dependency;
 import org.apache.maven.model.Plugin;
 import org.apache.maven.model.Profile;
 import org.apache.maven.plugin.MavenPluginManager;
 import org.apache.maven.project.DefaultDependencyResolutionRequest;
+import org.apache.maven.project.DefaultProjectBuildingRequest;
 import org.apache.maven.project.DependencyResolutionException;
 import org.apache.maven.project.DependencyResolutionResult;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.ProjectBuilder;
+import org.apache.maven.project.ProjectBuildingException;
 import org.apache.maven.project.ProjectBuildingRequest;
 import org.apache.maven.project.ProjectBuildingResult;
 import org.apache.maven.project.ProjectDependenciesResolver;
@@ -57,13 +60,34 @@ import org.codehaus.plexus.PlexusContainerException;
 import org.codehaus.plexus.classworlds.ClassWorld;
 import org.codehaus.plexus.classworlds.realm.ClassRealm;
 import org.codehaus.plexus.component.repository.exception.ComponentLookupException;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.ChecksumConnectorFactory;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.DependencyFilterSelector;
 import org.jvnet.hudson.plugins.mavendepsupdate.util.Maven3Utils;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.MetadataCache;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.MetadataCacheConnectorFactory;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.ProbeEngine;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.ReactorIndex;
 import org.jvnet.hudson.plugins.mavendepsupdate.util.ReactorReader;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.ReleaseUpdateDetector;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.RepositoryCircuitBreaker;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.RepositoryRoutingTable;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.ReleaseVersionIndex;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.RequestThrottle;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.ScratchLocalRepositoryManager;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.SharedModelCache;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.SnapshotMetadataIndex;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.SpanTracer;
 import org.jvnet.hudson.plugins.mavendepsupdate.util.SnapshotTransfertListener;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.StripedSyncContextFactory;
+import org.sonatype.aether.impl.SyncContextFactory;
 import org.sonatype.aether.repository.LocalRepository;
+import org.sonatype.aether.repository.RemoteRepository;
 import org.sonatype.aether.repository.RepositoryPolicy;
 import org.sonatype.aether.repository.WorkspaceReader;
+import org.sonatype.aether.spi.connector.RepositoryConnectorFactory;
+import org.sonatype.aether.util.DefaultRepositoryCache;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -72,11 +96,21 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 /**
@@ -89,6 +123,16 @@ public class MavenUpdateChecker
 
     private static final Logger LOGGER = Logger.getLogger( MavenUpdateChecker.class.getName() );
 
+    /**
+     * number of slowest and largest transfers in the transfer summary
+     */
+    private static final int TRANSFER_SUMMARY_SIZE = 5;
+
+    /**
+     * connections per repository host used to read the versions of the dependencies if the probe is disabled
+     */
+    private static final int RELEASE_CONNECTIONS = 4;
+
     //private final FilePath mavenShadedJarPath;
 
     private final String rootPomPath;
@@ -124,6 +168,76 @@ public class MavenUpdateChecker
 
     private String mavenHome;
 
+    private Map<String, String> knownSnapshotVersions = new HashMap<String, String>();
+
+    private boolean fastCheck;
+
+    private Map<String, Integer> changeLikelihood = new HashMap<String, Integer>();
+
+    private boolean streaming;
+
+    private List<String> scopes = new ArrayList<String>();
+
+    private List<String> includes = new ArrayList<String>();
+
+    private List<String> excludes = new ArrayList<String>();
+
+    private int maxDepth;
+
+    private transient DependencyFilterSelector dependencyFilterSelector;
+
+    private RequestThrottle requestThrottle;
+
+    private long checkTimeout;
+
+    private int connectTimeout;
+
+    private int requestTimeout;
+
+    private Set<String> openRepositories = new HashSet<String>();
+
+    private Map<String, String> routes;
+
+    private Set<String> misses;
+
+    private MetadataCache metadataCache;
+
+    private int modelBuildingThreads = 1;
+
+    private int modelCacheSize;
+
+    private boolean checksumCheck;
+
+    private boolean scratchRepository;
+
+    /**
+     * release versions selected by the previous checks, <code>null</code> if the releases are not checked
+     */
+    private Map<String, String> knownReleaseVersions;
+
+    /**
+     * name of the node in the trace or <code>null</code> if the check is not traced
+     */
+    private String traceProcess;
+
+    private transient SpanTracer tracer;
+
+    private Map<String, String> probeUrls;
+
+    private int probeConnections;
+
+    /**
+     * <code>false</code> if the repositories are reached through a proxy, the probe engine doesn't support it
+     */
+    private transient boolean directAccess = true;
+
+    private transient long deadline = Long.MAX_VALUE;
+
+    /**
+     * settings built by the previous checks of a batch keyed by settings files and user properties
+     */
+    private transient Map<String, SettingsBuildingResult> settingsCache;
+
     public MavenUpdateChecker( String rootPomPath, String localRepoPath, boolean checkPlugins, String projectWorkspace,
                                boolean masterRun, String mavenHome, String jdkHome, long lastBuildTime )
     {
@@ -145,14 +259,104 @@ public class MavenUpdateChecker
         try
         {
 
-            PluginFirstClassLoader pluginFirstClassLoader = getPluginFirstClassLoader();
-            Thread.currentThread().setContextClassLoader( pluginFirstClassLoader );
-            String classLoaderName = getClass().getClassLoader().toString();
+            if ( probe( Collections.singletonList( this ) ).isEmpty() )
+            {
+                return mavenUpdateCheckerResult;
+            }
+
+            SpanTracer.Span span = getTracer().start( "container", null );
+            PlexusContainer plexusContainer;
+            try
+            {
+                PluginFirstClassLoader pluginFirstClassLoader = getPluginFirstClassLoader();
+                Thread.currentThread().setContextClassLoader( pluginFirstClassLoader );
+                String classLoaderName = getClass().getClassLoader().toString();
+
+                mavenUpdateCheckerResult.addDebugLine( classLoaderName );
+                plexusContainer = getPlexusContainer( pluginFirstClassLoader );
+            }
+            finally
+            {
+                span.end();
+            }
+            return check( plexusContainer );
+        }
+        catch ( Exception e )
+        {
+            addFailure( e );
+        }
+        finally
+        {
+            Thread.currentThread().setContextClassLoader( originalClassLoader );
+            mavenUpdateCheckerResult.setSpans( getTracer().getSpans() );
+        }
+        return mavenUpdateCheckerResult;
+    }
+
+    /**
+     * run the check with the given container and its own deadline
+     */
+    MavenUpdateCheckerResult check( PlexusContainer plexusContainer )
+    {
+        // computed on the node : its clock can differ from the controller one
+        return check( plexusContainer,
+                      checkTimeout > 0 ? System.currentTimeMillis() + checkTimeout : Long.MAX_VALUE );
+    }
+
+    /**
+     * run the check with the given container, shared by the checks of a batch (see {@link CheckBatcher})
+     *
+     * @param deadline time in milliseconds (node clock) the check is stopped at, shared by the checks of a batch
+     */
+    MavenUpdateCheckerResult check( PlexusContainer plexusContainer, long deadline )
+    {
+        this.deadline = deadline;
+        if ( System.currentTimeMillis() > deadline )
+        {
+            // the previous checks of the batch used all the time
+            mavenUpdateCheckerResult.addDebugLine( "check deadline exceeded before the check started" );
+            mavenUpdateCheckerResult.setDeadlineExceeded( true );
+            return mavenUpdateCheckerResult;
+        }
 
-            mavenUpdateCheckerResult.addDebugLine( classLoaderName );
-            PlexusContainer plexusContainer = getPlexusContainer( pluginFirstClassLoader );
+        ClassLoader originalClassLoader = Thread.currentThread().getContextClassLoader();
 
+        SpanTracer.Span span = getTracer().start( "check", rootPomPath );
+        try
+        {
             Thread.currentThread().setContextClassLoader( plexusContainer.getContainerRealm() );
+            if ( modelCacheSize > 0 )
+            {
+                SharedModelCache.getInstance().setMaxEntries( modelCacheSize );
+            }
+            if ( metadataCache != null && !plexusContainer.hasComponent( RepositoryConnectorFactory.class,
+                                                                         MetadataCacheConnectorFactory.HINT ) )
+            {
+                plexusContainer.addComponent( new MetadataCacheConnectorFactory(
+                    plexusContainer.lookup( RepositoryConnectorFactory.class, "wagon" ) ),
+                                              RepositoryConnectorFactory.class, MetadataCacheConnectorFactory.HINT );
+            }
+            if ( checksumCheck && !plexusContainer.hasComponent( RepositoryConnectorFactory.class,
+                                                                 ChecksumConnectorFactory.HINT ) )
+            {
+                List<RepositoryConnectorFactory> delegates = new ArrayList<RepositoryConnectorFactory>();
+                if ( plexusContainer.hasComponent( RepositoryConnectorFactory.class,
+                                                   MetadataCacheConnectorFactory.HINT ) )
+                {
+                    delegates.add(
+                        plexusContainer.lookup( RepositoryConnectorFactory.class, MetadataCacheConnectorFactory.HINT ) );
+                }
+                delegates.add( plexusContainer.lookup( RepositoryConnectorFactory.class, "wagon" ) );
+                plexusContainer.addComponent( new ChecksumConnectorFactory( delegates ),
+                                              RepositoryConnectorFactory.class, ChecksumConnectorFactory.HINT );
+            }
+            if ( scratchRepository
+                && !( plexusContainer.lookup( SyncContextFactory.class ) instanceof StripedSyncContextFactory ) )
+            {
+                // before the resolvers requiring it are looked up
+                plexusContainer.addComponent( StripedSyncContextFactory.getInstance(), SyncContextFactory.class,
+                                              "default" );
+            }
             mavenUpdateCheckerResult.addDebugLine( "ok for new DefaultPlexusContainer( conf ) " );
             mavenUpdateCheckerResult.addDebugLine(
                 "Thread.currentThread().getContextClassLoader() " + Thread.currentThread().getContextClassLoader() );
@@ -162,7 +366,9 @@ public class MavenUpdateChecker
                     : Thread.currentThread().getContextClassLoader().getParent().toString() ) );
             mavenUpdateCheckerResult.addDebugLine(
                 "classLoader  urls " + Arrays.asList( plexusContainer.getContainerRealm().getURLs() ) );
-            ProjectBuilder projectBuilder = plexusContainer.lookup( ProjectBuilder.class );
+            ProjectBuilder projectBuilder = modelCacheSize > 0
+                ? SharedModelCache.getProjectBuilder( plexusContainer )
+                : plexusContainer.lookup( ProjectBuilder.class );
 
             // FIXME load userProperties from the job
             Properties userProperties = this.userProperties == null ? new Properties() : this.userProperties;
@@ -176,98 +382,587 @@ public class MavenUpdateChecker
             projectBuildingRequest.setProcessPlugins( true );
             // force snapshots update
 
-            projectBuildingRequest.setResolveDependencies( true );
+            // dependencies are resolved once per module below, resolving them while building the models
+            // would download the same metadata twice
+            projectBuildingRequest.setResolveDependencies( false );
+
+            MavenRepositorySystemSession mavenRepositorySystemSession =
+                (MavenRepositorySystemSession) projectBuildingRequest.getRepositorySession();
 
-            List<ProjectBuildingResult> projectBuildingResults =
-                projectBuilder.build( Arrays.asList( new File( rootPomPath ) ), true, projectBuildingRequest );
+            mavenRepositorySystemSession.setUpdatePolicy( RepositoryPolicy.UPDATE_POLICY_ALWAYS );
 
-            ProjectDependenciesResolver projectDependenciesResolver =
-                plexusContainer.lookup( ProjectDependenciesResolver.class );
+            SnapshotTransfertListener snapshotTransfertListener =
+                (SnapshotTransfertListener) projectBuildingRequest.getRepositorySession().getTransferListener();
 
-            List<MavenProject> mavenProjects = new ArrayList<MavenProject>( projectBuildingResults.size() );
+            ReleaseUpdateDetector releaseUpdateDetector =
+                knownReleaseVersions == null ? null : new ReleaseUpdateDetector( knownReleaseVersions );
 
-            for ( ProjectBuildingResult projectBuildingResult : projectBuildingResults )
+            ModuleChecker moduleChecker =
+                new ModuleChecker( plexusContainer.lookup( ProjectDependenciesResolver.class ),
+                                   plexusContainer.lookup( MavenPluginManager.class ), mavenRepositorySystemSession,
+                                   snapshotTransfertListener, releaseUpdateDetector );
+
+            boolean allModulesChecked = streaming
+                ? checkStreaming( projectBuilder, projectBuildingRequest, moduleChecker )
+                : checkReactor( projectBuilder, projectBuildingRequest, moduleChecker );
+
+            Set<String> updatedGavs = new HashSet<String>( snapshotTransfertListener.getUpdatedGavs() );
+            if ( releaseUpdateDetector != null && !isShortCircuited( snapshotTransfertListener ) )
             {
-                mavenProjects.add( projectBuildingResult.getProject() );
+                checkReleases( releaseUpdateDetector, moduleChecker.moduleSnapshots );
+                updatedGavs.addAll( releaseUpdateDetector.getUpdatedGavs() );
             }
 
-            ProjectSorter projectSorter = new ProjectSorter( mavenProjects );
+            if ( snapshotTransfertListener.isSnapshotDownloaded() || !updatedGavs.isEmpty() )
+            {
+                mavenUpdateCheckerResult.addFilesUpdatedNames( snapshotTransfertListener.getSnapshots() );
+                mavenUpdateCheckerResult.addUpdatedGavs( updatedGavs );
+                if ( allModulesChecked )
+                {
+                    mavenUpdateCheckerResult.setAffectedModules(
+                        getAffectedModules( updatedGavs, moduleChecker.moduleSnapshots ) );
+                }
+            }
+            mavenUpdateCheckerResult.addSnapshotVersions( snapshotTransfertListener.getSeenSnapshotVersions() );
+            mavenUpdateCheckerResult.setThrottledMillis( snapshotTransfertListener.getThrottledMillis() );
+            mavenUpdateCheckerResult.setDeadlineExceeded( snapshotTransfertListener.isDeadlineExceeded() );
+            mavenUpdateCheckerResult.setRepositoryOutcomes( snapshotTransfertListener.getRepositorySuccesses(),
+                                                            snapshotTransfertListener.getRepositoryFailures() );
+            mavenUpdateCheckerResult.setRouting( snapshotTransfertListener.getServedRepositories(),
+                                                 snapshotTransfertListener.getNotFound() );
+            if ( allModulesChecked )
+            {
+                mavenUpdateCheckerResult.setRepositoryScope(
+                    RepositoryRoutingTable.getScope( moduleChecker.repositoryUrls ) );
+            }
+            mavenUpdateCheckerResult.setTransferSummary(
+                snapshotTransfertListener.getTransferRecorder().getSummary( TRANSFER_SUMMARY_SIZE ) );
+            if ( allModulesChecked && directAccess && !snapshotTransfertListener.isDeadlineExceeded() )
+            {
+                // all the SNAPSHOT metadata of the job have been seen : the next checks can probe them
+                mavenUpdateCheckerResult.setMetadataUrls(
+                    new HashMap<String, String>( snapshotTransfertListener.getMetadataUrls() ), lastBuildTime );
+            }
 
-            // use the projects reactor model as a workspaceReader
-            // if reactors are not available remotely dependencies resolve will failed
-            // due to artifact not found
+        }
+        catch ( Exception e )
+        {
+            addFailure( e );
+        }
+        finally
+        {
+            Thread.currentThread().setContextClassLoader( originalClassLoader );
+            span.end();
+            mavenUpdateCheckerResult.setSpans( getTracer().getSpans() );
+        }
+        return mavenUpdateCheckerResult;
+    }
 
-            final Map<String, MavenProject> projectMap = getProjectMap( mavenProjects );
-            WorkspaceReader reactorRepository = new ReactorReader( projectMap );
+    /**
+     * read the versions of the dependencies checked for releases and add the new ones to the result and to the
+     * dependencies of their modules
+     */
+    private void checkReleases( ReleaseUpdateDetector releaseUpdateDetector,
+                                Map<String, Set<String>> moduleSnapshots )
+        throws InterruptedException
+    {
+        long start = System.currentTimeMillis();
+        SpanTracer.Span span = getTracer().start( "releases", Integer.valueOf( releaseUpdateDetector.size() ) );
+        try
+        {
+            releaseUpdateDetector.detect( probeConnections > 0 ? probeConnections : RELEASE_CONNECTIONS,
+                                          requestTimeout > 0 ? requestTimeout : 30000 );
+        }
+        finally
+        {
+            span.end();
+        }
+        mavenUpdateCheckerResult.addFilesUpdatedNames( releaseUpdateDetector.getUpdates() );
+        mavenUpdateCheckerResult.addReleaseVersions( releaseUpdateDetector.getVersions() );
+        for ( Map.Entry<String, Set<String>> entry : releaseUpdateDetector.getModuleGavs().entrySet() )
+        {
+            Set<String> gavs = moduleSnapshots.get( entry.getKey() );
+            if ( gavs != null )
+            {
+                gavs.addAll( entry.getValue() );
+            }
+        }
+        if ( !releaseUpdateDetector.getIgnoredRepositories().isEmpty() )
+        {
+            mavenUpdateCheckerResult.addDebugLine(
+                "releases not checked in repositories " + releaseUpdateDetector.getIgnoredRepositories() );
+        }
+        mavenUpdateCheckerResult.addDebugLine(
+            "releases of " + releaseUpdateDetector.size() + " dependencies checked in " + ( System.currentTimeMillis()
+                - start ) + " ms, " + ReleaseVersionIndex.getInstance().getStatistics() );
+    }
 
-            MavenRepositorySystemSession mavenRepositorySystemSession =
-                (MavenRepositorySystemSession) projectBuildingRequest.getRepositorySession();
+    SpanTracer getTracer()
+    {
+        if ( tracer == null )
+        {
+            tracer = SpanTracer.create( traceProcess != null, traceProcess );
+        }
+        return tracer;
+    }
 
-            mavenRepositorySystemSession.setUpdatePolicy( RepositoryPolicy.UPDATE_POLICY_ALWAYS );
+    /**
+     * get at once with the {@link ProbeEngine} the SNAPSHOT metadata seen by the previous complete check of each
+     * checker : the model building and the dependency resolution of a check are skipped if one of its metadata has
+     * changed or if none has changed.
+     *
+     * @return the checkers whose probe is not conclusive, to run as usual
+     */
+    static List<MavenUpdateChecker> probe( List<MavenUpdateChecker> checkers )
+        throws InterruptedException
+    {
+        List<MavenUpdateChecker> probing = new ArrayList<MavenUpdateChecker>();
+        List<MavenUpdateChecker> remaining = new ArrayList<MavenUpdateChecker>();
+        Set<String> urls = new HashSet<String>();
+        int connections = 0;
+        int timeout = 0;
+        for ( MavenUpdateChecker checker : checkers )
+        {
+            if ( checker.isProbeable() )
+            {
+                probing.add( checker );
+                urls.addAll( checker.probeUrls.values() );
+                connections = Math.max( connections, checker.probeConnections );
+                timeout = Math.max( timeout, checker.requestTimeout );
+            }
+            else
+            {
+                remaining.add( checker );
+            }
+        }
+        if ( probing.isEmpty() )
+        {
+            return remaining;
+        }
+        long start = System.currentTimeMillis();
+        List<SpanTracer.Span> spans = new ArrayList<SpanTracer.Span>( probing.size() );
+        for ( MavenUpdateChecker checker : probing )
+        {
+            spans.add( checker.getTracer().start( "probe", Integer.valueOf( checker.probeUrls.size() ) ) );
+        }
+        ProbeEngine probeEngine = ProbeEngine.getInstance();
+        Map<String, byte[]> contents;
+        try
+        {
+            contents = probeEngine.get( urls, connections, timeout > 0 ? timeout : 30000 );
+        }
+        finally
+        {
+            for ( SpanTracer.Span span : spans )
+            {
+                span.end();
+            }
+        }
+        String statistics = "probe of " + urls.size() + " metadata (" + contents.size() + " found) in "
+            + ( System.currentTimeMillis() - start ) + " ms, " + probeEngine.getStatistics();
+        for ( MavenUpdateChecker checker : probing )
+        {
+            checker.mavenUpdateCheckerResult.addDebugLine( statistics );
+            if ( !checker.isProbed( contents ) )
+            {
+                remaining.add( checker );
+            }
+            else
+            {
+                checker.mavenUpdateCheckerResult.setSpans( checker.getTracer().getSpans() );
+            }
+        }
+        return remaining;
+    }
 
-            mavenRepositorySystemSession.setWorkspaceReader( reactorRepository );
+    private boolean isProbeable()
+    {
+        // the probe skips the model building, the declared versions of the release check would be missing
+        if ( probeUrls == null || probeUrls.isEmpty() || probeConnections <= 0 || knownReleaseVersions != null )
+        {
+            return false;
+        }
+        for ( Map.Entry<String, String> entry : probeUrls.entrySet() )
+        {
+            if ( !ProbeEngine.isSupported( entry.getValue() ) || knownSnapshotVersions.get( entry.getKey() ) == null )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
 
-            MavenPluginManager mavenPluginManager = plexusContainer.lookup( MavenPluginManager.class );
+    /**
+     * compare the probed metadata with the versions recorded for the job
+     *
+     * @return <code>true</code> if an update has been detected or if all the metadata have been probed unchanged
+     */
+    private boolean isProbed( Map<String, byte[]> contents )
+    {
+        Map<String, String> versions = new HashMap<String, String>();
+        List<String> updatedKeys = new ArrayList<String>();
+        boolean conclusive = true;
+        for ( Map.Entry<String, String> entry : probeUrls.entrySet() )
+        {
+            byte[] content = contents.get( entry.getValue() );
+            SnapshotMetadataIndex.Entry probed = content == null
+                ? null
+                : SnapshotMetadataIndex.read( new ByteArrayInputStream( content ), entry.getValue() );
+            if ( probed == null )
+            {
+                conclusive = false;
+                continue;
+            }
+            versions.put( entry.getKey(), probed.getVersion() );
+            if ( !probed.getVersion().equals( knownSnapshotVersions.get( entry.getKey() ) ) )
+            {
+                updatedKeys.add( entry.getKey() );
+            }
+        }
+        if ( updatedKeys.isEmpty() && !conclusive )
+        {
+            mavenUpdateCheckerResult.addDebugLine( "probe not conclusive, run the check" );
+            return false;
+        }
+        for ( String key : updatedKeys )
+        {
+            mavenUpdateCheckerResult.addFileUpdatedName( key );
+            String gav = SnapshotMetadataIndex.getGav( key );
+            if ( gav != null )
+            {
+                mavenUpdateCheckerResult.addUpdatedGavs( Collections.singleton( gav ) );
+            }
+        }
+        mavenUpdateCheckerResult.addSnapshotVersions( versions );
+        mavenUpdateCheckerResult.setProbed( true );
+        return true;
+    }
+
+    MavenUpdateCheckerResult getMavenUpdateCheckerResult()
+    {
+        return mavenUpdateCheckerResult;
+    }
+
+    private void addFailure( Exception e )
+    {
+        mavenUpdateCheckerResult.addDebugLine( e.getMessage() );
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter( sw );
+        e.printStackTrace( pw );
+        mavenUpdateCheckerResult.addDebugLine( "skip:" + sw.toString() );
+    }
+
+    /**
+     * build all the reactor models then check the modules in reactor order
+     *
+     * @return <code>false</code> if the check stopped before the last module
+     */
+    private boolean checkReactor( ProjectBuilder projectBuilder, ProjectBuildingRequest projectBuildingRequest,
+                                  ModuleChecker moduleChecker )
+        throws Exception
+    {
+        List<MavenProject> mavenProjects;
+        if ( modelBuildingThreads > 1 )
+        {
+            ReactorIndex reactorIndex = new ReactorIndex( new File( rootPomPath ), activeProfiles );
+            // reactor modules are resolved from the workspace while the models are built
+            moduleChecker.session.setWorkspaceReader( new ReactorReader( reactorIndex ) );
+            mavenProjects = buildModels( projectBuilder, projectBuildingRequest, reactorIndex.getPomFiles().values() );
+        }
+        else
+        {
+            SpanTracer.Span span = getTracer().start( "models", rootPomPath );
+            List<ProjectBuildingResult> projectBuildingResults;
+            try
+            {
+                projectBuildingResults =
+                    projectBuilder.build( Arrays.asList( new File( rootPomPath ) ), true, projectBuildingRequest );
+            }
+            finally
+            {
+                span.end();
+            }
+
+            mavenProjects = new ArrayList<MavenProject>( projectBuildingResults.size() );
 
-            for ( MavenProject mavenProject : projectSorter.getSortedProjects() )
+            for ( ProjectBuildingResult projectBuildingResult : projectBuildingResults )
             {
-                LOGGER.info( "resolve dependencies for project " + mavenProject.getId() );
+                mavenProjects.add( projectBuildingResult.getProject() );
+            }
+        }
 
-                DefaultDependencyResolutionRequest dependencyResolutionRequest =
-                    new DefaultDependencyResolutionRequest( mavenProject, mavenRepositorySystemSession );
+        ProjectSorter projectSorter = new ProjectSorter( mavenProjects );
 
-                try
+        // use the projects reactor model as a workspaceReader
+        // if reactors are not available remotely dependencies resolve will failed
+        // due to artifact not found
+
+        final Map<String, MavenProject> projectMap = getProjectMap( mavenProjects );
+        WorkspaceReader reactorRepository = new ReactorReader( projectMap );
+        mavenUpdateCheckerResult.addReactorGavs( projectMap.keySet() );
+
+        moduleChecker.session.setWorkspaceReader( reactorRepository );
+
+        List<MavenProject> sortedProjects = projectSorter.getSortedProjects();
+        if ( fastCheck )
+        {
+            sortedProjects = sortByChangeLikelihood( sortedProjects );
+        }
+
+        for ( MavenProject mavenProject : sortedProjects )
+        {
+            if ( !moduleChecker.check( mavenProject ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * build the models of the reactor modules with {@link #modelBuildingThreads} threads
+     *
+     * @return the projects in the order of the pom files
+     */
+    private List<MavenProject> buildModels( final ProjectBuilder projectBuilder,
+                                            final ProjectBuildingRequest projectBuildingRequest,
+                                            Collection<File> pomFiles )
+        throws Exception
+    {
+        ExecutorService executorService =
+            Executors.newFixedThreadPool( Math.max( 1, Math.min( modelBuildingThreads, pomFiles.size() ) ) );
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        try
+        {
+            List<Future<ProjectBuildingResult>> futures = new ArrayList<Future<ProjectBuildingResult>>();
+            for ( final File pomFile : pomFiles )
+            {
+                futures.add( executorService.submit( new java.util.concurrent.Callable<ProjectBuildingResult>()
                 {
-                    DependencyResolutionResult dependencyResolutionResult =
-                        projectDependenciesResolver.resolve( dependencyResolutionRequest );
-                }
-                catch ( DependencyResolutionException e )
+                    public ProjectBuildingResult call()
+                        throws Exception
+                    {
+                        Thread.currentThread().setContextClassLoader( classLoader );
+                        SpanTracer.Span span = getTracer().start( "model", pomFile );
+                        try
+                        {
+                            return projectBuilder.build( pomFile,
+                                                         new DefaultProjectBuildingRequest( projectBuildingRequest ) );
+                        }
+                        finally
+                        {
+                            span.end();
+                        }
+                    }
+                } ) );
+            }
+            List<MavenProject> mavenProjects = new ArrayList<MavenProject>( futures.size() );
+            for ( Future<ProjectBuildingResult> future : futures )
+            {
+                try
                 {
-                    mavenUpdateCheckerResult.addDebugLine( e.getMessage() );
-                    StringWriter sw = new StringWriter();
-                    PrintWriter pw = new PrintWriter( sw );
-                    e.printStackTrace( pw );
-                    mavenUpdateCheckerResult.addDebugLine( "skip:" + sw.toString() );
+                    mavenProjects.add( future.get().getProject() );
                 }
-                if ( checkPlugins )
+                catch ( ExecutionException e )
                 {
-                    for ( Plugin plugin : mavenProject.getBuildPlugins() )
+                    // same failure as the reactor build
+                    if ( e.getCause() instanceof Exception )
                     {
-                        // only for SNAPSHOT
-                        if ( StringUtils.endsWith( plugin.getVersion(), "SNAPSHOT" ) )
-                        {
-                            mavenPluginManager.getPluginDescriptor( plugin, mavenProject.getRemotePluginRepositories(),
-                                                                    mavenRepositorySystemSession );
-                        }
+                        throw (Exception) e.getCause();
                     }
+                    throw e;
                 }
+            }
+            mavenUpdateCheckerResult.addDebugLine(
+                mavenProjects.size() + " models built with " + modelBuildingThreads + " threads" );
+            return mavenProjects;
+        }
+        finally
+        {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * only the coordinates of the reactor projects are kept in memory : each module model is built, checked and
+     * released before the next one.
+     *
+     * @return <code>false</code> if the check stopped before the last module or a module model cannot be built
+     */
+    private boolean checkStreaming( ProjectBuilder projectBuilder, ProjectBuildingRequest projectBuildingRequest,
+                                    ModuleChecker moduleChecker )
+        throws Exception
+    {
+        ReactorIndex reactorIndex = new ReactorIndex( new File( rootPomPath ), activeProfiles );
+        mavenUpdateCheckerResult.addReactorGavs( reactorIndex.getPomFiles().keySet() );
+        mavenUpdateCheckerResult.addDebugLine( "streaming check of " + reactorIndex.getPomFiles().size() + " modules" );
+
+        // reactor modules are resolved from the workspace when building the models too
+        moduleChecker.session.setWorkspaceReader( new ReactorReader( reactorIndex ) );
 
+        boolean allModulesChecked = true;
+        for ( File pomFile : reactorIndex.getPomFiles().values() )
+        {
+            MavenProject mavenProject;
+            SpanTracer.Span span = getTracer().start( "model", pomFile );
+            try
+            {
+                mavenProject = projectBuilder.build( pomFile, projectBuildingRequest ).getProject();
             }
-            SnapshotTransfertListener snapshotTransfertListener =
-                (SnapshotTransfertListener) projectBuildingRequest.getRepositorySession().getTransferListener();
+            catch ( ProjectBuildingException e )
+            {
+                mavenUpdateCheckerResult.addDebugLine( "skip " + pomFile + " : " + e.getMessage() );
+                allModulesChecked = false;
+                continue;
+            }
+            finally
+            {
+                span.end();
+            }
+            if ( !moduleChecker.check( mavenProject ) )
+            {
+                return false;
+            }
+        }
+        return allModulesChecked;
+    }
 
-            if ( snapshotTransfertListener.isSnapshotDownloaded() )
+    /**
+     * @return <code>groupId:artifactId:version</code> of the SNAPSHOT dependencies (and plugins if checked) of the
+     *         project
+     */
+    private Set<String> getSnapshots( MavenProject mavenProject, DependencyResolutionResult dependencyResolutionResult )
+    {
+        Set<String> snapshots = new HashSet<String>();
+        if ( dependencyResolutionResult != null )
+        {
+            for ( org.sonatype.aether.graph.Dependency dependency : dependencyResolutionResult.getDependencies() )
             {
-                mavenUpdateCheckerResult.addFilesUpdatedNames( snapshotTransfertListener.getSnapshots() );
+                org.sonatype.aether.artifact.Artifact artifact = dependency.getArtifact();
+                if ( artifact.isSnapshot() )
+                {
+                    snapshots.add(
+                        ArtifactUtils.key( artifact.getGroupId(), artifact.getArtifactId(), artifact.getBaseVersion() ) );
+                }
+            }
+        }
+        if ( checkPlugins )
+        {
+            for ( Plugin plugin : mavenProject.getBuildPlugins() )
+            {
+                if ( StringUtils.endsWith( plugin.getVersion(), "SNAPSHOT" ) && isIncluded( plugin ) )
+                {
+                    snapshots.add( ArtifactUtils.key( plugin.getGroupId(), plugin.getArtifactId(), plugin.getVersion() ) );
+                }
             }
+        }
+        return snapshots;
+    }
 
+    /**
+     * @return the modules (<code>groupId:artifactId</code>) using each updated SNAPSHOT or <code>null</code> if an
+     *         update cannot be related to a module (parent pom, extension...)
+     */
+    private Map<String, List<String>> getAffectedModules( Set<String> updatedGavs,
+                                                          Map<String, Set<String>> moduleSnapshots )
+    {
+        Map<String, List<String>> affectedModules = new HashMap<String, List<String>>();
+        for ( String gav : updatedGavs )
+        {
+            List<String> modules = new ArrayList<String>();
+            for ( Map.Entry<String, Set<String>> entry : moduleSnapshots.entrySet() )
+            {
+                if ( entry.getValue().contains( gav ) )
+                {
+                    modules.add( entry.getKey() );
+                }
+            }
+            if ( modules.isEmpty() )
+            {
+                mavenUpdateCheckerResult.addDebugLine( gav + " is not a dependency of any module" );
+                return null;
+            }
+            affectedModules.put( gav, modules );
         }
-        catch ( Exception e )
+        return affectedModules;
+    }
+
+    /**
+     * @return <code>true</code> if the declared dependency passes the scope and artifact filters of the job
+     */
+    private boolean isReleaseChecked( Dependency dependency )
+    {
+        String scope = StringUtils.isEmpty( dependency.getScope() ) ? "compile" : dependency.getScope();
+        return ( scopes == null || scopes.isEmpty() || scopes.contains( scope ) ) && (
+            dependencyFilterSelector == null || dependencyFilterSelector.isIncluded( dependency.getGroupId(),
+                                                                                     dependency.getArtifactId() ) );
+    }
+
+    private boolean isIncluded( Plugin plugin )
+    {
+        return dependencyFilterSelector == null || dependencyFilterSelector.isIncluded( plugin.getGroupId(),
+                                                                                        plugin.getArtifactId() );
+    }
+
+    private boolean isShortCircuited( SnapshotTransfertListener snapshotTransfertListener )
+    {
+        if ( fastCheck && snapshotTransfertListener.isSnapshotDownloaded() )
         {
-            mavenUpdateCheckerResult.addDebugLine( e.getMessage() );
-            StringWriter sw = new StringWriter();
-            PrintWriter pw = new PrintWriter( sw );
-            e.printStackTrace( pw );
-            mavenUpdateCheckerResult.addDebugLine( "skip:" + sw.toString() );
+            mavenUpdateCheckerResult.addDebugLine( "SNAPSHOT update detected, skip remaining checks" );
+            return true;
         }
-        finally
+        if ( snapshotTransfertListener.isDeadlineExceeded() || System.currentTimeMillis() > deadline )
         {
-            Thread.currentThread().setContextClassLoader( originalClassLoader );
+            mavenUpdateCheckerResult.addDebugLine( "check deadline exceeded, skip remaining checks" );
+            return true;
         }
-        return mavenUpdateCheckerResult;
+        return false;
     }
 
-    private PlexusContainer getPlexusContainer( PluginFirstClassLoader pluginFirstClassLoader )
+    /**
+     * the projects depending on the most often updated artifacts are checked first
+     */
+    private List<MavenProject> sortByChangeLikelihood( List<MavenProject> projects )
+    {
+        if ( changeLikelihood.isEmpty() )
+        {
+            return projects;
+        }
+        final Map<MavenProject, Integer> scores = new HashMap<MavenProject, Integer>( projects.size() );
+        for ( MavenProject project : projects )
+        {
+            int score = 0;
+            for ( Dependency dependency : project.getDependencies() )
+            {
+                score = Math.max( score, getChangeLikelihood( dependency.getGroupId(), dependency.getArtifactId() ) );
+            }
+            if ( checkPlugins )
+            {
+                for ( Plugin plugin : project.getBuildPlugins() )
+                {
+                    score = Math.max( score, getChangeLikelihood( plugin.getGroupId(), plugin.getArtifactId() ) );
+                }
+            }
+            scores.put( project, Integer.valueOf( score ) );
+        }
+        List<MavenProject> sortedProjects = new ArrayList<MavenProject>( projects );
+        Collections.sort( sortedProjects, new Comparator<MavenProject>()
+        {
+            public int compare( MavenProject project, MavenProject other )
+            {
+                return scores.get( other ).compareTo( scores.get( project ) );
+            }
+        } );
+        return sortedProjects;
+    }
+
+    private int getChangeLikelihood( String groupId, String artifactId )
+    {
+        Integer count = changeLikelihood.get( ArtifactUtils.versionlessKey( groupId, artifactId ) );
+        return count == null ? 0 : count.intValue();
+    }
+
+    PlexusContainer getPlexusContainer( PluginFirstClassLoader pluginFirstClassLoader )
         throws MalformedURLException, IOException, InterruptedException, PlexusContainerException
     {
         if ( this.masterRun )
@@ -350,25 +1045,131 @@ public class MavenUpdateChecker
         settingsRequest.setSystemProperties( System.getProperties() );
         settingsRequest.setUserProperties( userProperties );
 
-        SettingsBuildingResult settingsBuildingResult = settingsBuilder.build( settingsRequest );
+        String settingsKey = settingsRequest.getGlobalSettingsFile() + "|" + settingsRequest.getUserSettingsFile() + "|"
+            + new TreeMap<Object, Object>( userProperties );
+        SettingsBuildingResult settingsBuildingResult = settingsCache == null ? null : settingsCache.get( settingsKey );
+        if ( settingsBuildingResult == null )
+        {
+            SpanTracer.Span span = getTracer().start( "settings", settingsKey );
+            try
+            {
+                settingsBuildingResult = settingsBuilder.build( settingsRequest );
+            }
+            finally
+            {
+                span.end();
+            }
+            if ( settingsCache != null )
+            {
+                settingsCache.put( settingsKey, settingsBuildingResult );
+            }
+        }
+        else
+        {
+            mavenUpdateCheckerResult.addDebugLine( "reuse settings " + settingsKey );
+        }
 
         MavenExecutionRequestPopulator executionRequestPopulator =
             plexusContainer.lookup( MavenExecutionRequestPopulator.class );
 
         executionRequestPopulator.populateFromSettings( request, settingsBuildingResult.getEffectiveSettings() );
 
+        directAccess = settingsBuildingResult.getEffectiveSettings().getActiveProxy() == null;
+
         executionRequestPopulator.populateDefaults( request );
 
         MavenRepositorySystemSession session = new MavenRepositorySystemSession();
 
         session.setUpdatePolicy( RepositoryPolicy.UPDATE_POLICY_ALWAYS );
 
-        SnapshotTransfertListener snapshotTransfertListener = new SnapshotTransfertListener(this.lastBuildTime);
-        session.setTransferListener( snapshotTransfertListener );
+        // shared by the resolutions of all the modules : descriptors, versions and parent models
+        // read for a module are reused by the others
+        session.setCache( new DefaultRepositoryCache() );
+
+        if ( connectTimeout > 0 )
+        {
+            session.setConfigProperty( "aether.connector.connectTimeout", Integer.valueOf( connectTimeout ) );
+        }
+        if ( requestTimeout > 0 )
+        {
+            session.setConfigProperty( "aether.connector.requestTimeout", Integer.valueOf( requestTimeout ) );
+        }
+
+        if ( metadataCache != null )
+        {
+            session.setConfigProperty( MetadataCacheConnectorFactory.CACHE_KEY, metadataCache );
+        }
+
+        if ( checksumCheck )
+        {
+            session.setConfigProperty( ChecksumConnectorFactory.CHECKSUM_KEY, Boolean.TRUE );
+            mavenUpdateCheckerResult.addDebugLine( "checksum check " + ChecksumConnectorFactory.getStatistics() );
+        }
+
+        if ( DependencyFilterSelector.isFiltering( scopes, includes, excludes, maxDepth ) )
+        {
+            dependencyFilterSelector =
+                new DependencyFilterSelector( session.getDependencySelector(), scopes, includes, excludes, maxDepth );
+            session.setDependencySelector( dependencyFilterSelector );
+            mavenUpdateCheckerResult.addDebugLine(
+                "dependency filters scopes " + scopes + " includes " + includes + " excludes " + excludes
+                    + " maxDepth " + maxDepth );
+        }
 
         LocalRepository localRepo = getLocalRepo(settingsBuildingResult);
 
-        session.setLocalRepositoryManager( repoSystem.newLocalRepositoryManager( localRepo ) );
+        LocalRepository scratchRepo = null;
+        if ( scratchRepository && localRepo.getBasedir() != null )
+        {
+            scratchRepo =
+                new LocalRepository( ScratchLocalRepositoryManager.getScratchDirectory( localRepo.getBasedir() ) );
+            mavenUpdateCheckerResult.addDebugLine(
+                "scratch repository " + scratchRepo.getBasedir() + ", locks " + StripedSyncContextFactory.getInstance()
+                    .getStatistics() );
+        }
+
+        SnapshotMetadataIndex snapshotMetadataIndex = null;
+        if ( localRepo.getBasedir() != null )
+        {
+            // the metadata are downloaded in the scratch repository
+            snapshotMetadataIndex = scratchRepo == null
+                ? SnapshotMetadataIndex.getInstance( localRepo.getBasedir() )
+                : SnapshotMetadataIndex.getInstance( scratchRepo.getBasedir(), localRepo.getBasedir() );
+            if ( modelCacheSize > 0 )
+            {
+                SharedModelCache.getInstance().addLocalRepository( localRepo.getBasedir() );
+                if ( scratchRepo != null )
+                {
+                    SharedModelCache.getInstance().addLocalRepository( scratchRepo.getBasedir() );
+                }
+                mavenUpdateCheckerResult.addDebugLine(
+                    "shared model cache " + SharedModelCache.getInstance().getStatistics() );
+            }
+            mavenUpdateCheckerResult.setLocalRepositoryPath( localRepo.getBasedir().getAbsolutePath() );
+            mavenUpdateCheckerResult.addDebugLine(
+                "snapshotMetadataIndex " + localRepo.getBasedir() + " : " + snapshotMetadataIndex.size() + " entries" );
+        }
+
+        SnapshotTransfertListener snapshotTransfertListener =
+            new SnapshotTransfertListener( this.lastBuildTime, snapshotMetadataIndex );
+        snapshotTransfertListener.setKnownSnapshotVersions( knownSnapshotVersions );
+        snapshotTransfertListener.setShortCircuit( fastCheck );
+        snapshotTransfertListener.setRequestThrottle( requestThrottle );
+        snapshotTransfertListener.setDeadline( deadline );
+        snapshotTransfertListener.setOpenRepositories( openRepositories );
+        snapshotTransfertListener.setRouting( routes, misses );
+        session.setTransferListener( snapshotTransfertListener );
+
+        if ( scratchRepo == null )
+        {
+            session.setLocalRepositoryManager( repoSystem.newLocalRepositoryManager( localRepo ) );
+        }
+        else
+        {
+            session.setLocalRepositoryManager(
+                new ScratchLocalRepositoryManager( repoSystem.newLocalRepositoryManager( scratchRepo ),
+                                                   repoSystem.newLocalRepositoryManager( localRepo ) ) );
+        }
 
         ArtifactRepository localArtifactRepository = getLocalArtifactRepo(settingsBuildingResult, repositorySystem);
 
@@ -472,4 +1273,313 @@ public class MavenUpdateChecker
     {
         this.activeProfiles = activeProfiles;
     }
+
+    /**
+     * @param fastCheck <code>true</code> to stop the check as soon as an update is detected
+     * @since 1.5
+     */
+    public void setFastCheck( boolean fastCheck )
+    {
+        this.fastCheck = fastCheck;
+    }
+
+    /**
+     * @param changeLikelihood number of updates seen per <code>groupId:artifactId</code>, used in fast check mode
+     *                         to check first the projects depending on the most often updated artifacts
+     * @since 1.5
+     */
+    public void setChangeLikelihood( Map<String, Integer> changeLikelihood )
+    {
+        this.changeLikelihood = changeLikelihood;
+    }
+
+    /**
+     * @param knownSnapshotVersions SNAPSHOT versions recorded for the job by the previous checks
+     * @since 1.5
+     */
+    public void setKnownSnapshotVersions( Map<String, String> knownSnapshotVersions )
+    {
+        this.knownSnapshotVersions = knownSnapshotVersions;
+    }
+
+    /**
+     * @param scopes   scopes of the dependencies to check, all if empty
+     * @param includes <code>groupId:artifactId</code> glob patterns of the dependencies to check, all if empty
+     * @param excludes <code>groupId:artifactId</code> glob patterns of the dependencies not to check
+     * @param maxDepth maximum depth of the dependencies to check (1 for direct dependencies), unlimited if 0
+     * @since 1.5
+     */
+    public void setDependencyFilters( List<String> scopes, List<String> includes, List<String> excludes,
+                                      int maxDepth )
+    {
+        this.scopes = scopes;
+        this.includes = includes;
+        this.excludes = excludes;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * @param requestThrottle limits the requests sent to the remote repositories hosts, <code>null</code> for no limit
+     * @since 1.5
+     */
+    public void setRequestThrottle( RequestThrottle requestThrottle )
+    {
+        this.requestThrottle = requestThrottle;
+    }
+
+    /**
+     * @param checkTimeout   maximum duration of the check in milliseconds, the remaining transfers are cancelled
+     *                       after it, unlimited if 0
+     * @param connectTimeout repository connection timeout in milliseconds, wagon default if 0
+     * @param requestTimeout repository request timeout in milliseconds, wagon default if 0
+     * @since 1.5
+     */
+    public void setTimeouts( long checkTimeout, int connectTimeout, int requestTimeout )
+    {
+        this.checkTimeout = checkTimeout;
+        this.connectTimeout = connectTimeout;
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * @param openRepositories urls of the repositories not to request during this check
+     * @since 1.5
+     */
+    public void setOpenRepositories( Set<String> openRepositories )
+    {
+        this.openRepositories = openRepositories;
+    }
+
+    /**
+     * @param routes repository url per groupId learned by the jobs with the same repositories, the SNAPSHOTs of a
+     *               routed groupId are only requested there
+     * @param misses <code>groupId:artifactId:version repositoryUrl</code> not to request again
+     * @since 1.5
+     */
+    public void setRouting( Map<String, String> routes, Set<String> misses )
+    {
+        this.routes = routes;
+        this.misses = misses;
+    }
+
+    /**
+     * @param modelBuildingThreads number of reactor models built at the same time
+     * @param modelCacheSize       maximum number of released parents and boms kept by the node, disabled if 0
+     * @since 1.5
+     */
+    public void setModelBuilding( int modelBuildingThreads, int modelCacheSize )
+    {
+        this.modelBuildingThreads = modelBuildingThreads;
+        this.modelCacheSize = modelCacheSize;
+    }
+
+    /**
+     * @param metadataCache remote repository metadata shared by the checks (see {@link org.jvnet.hudson.plugins.mavendepsupdate.util.SharedMetadataCache})
+     * @since 1.5
+     */
+    public void setMetadataCache( MetadataCache metadataCache )
+    {
+        this.metadataCache = metadataCache;
+    }
+
+    /**
+     * @param checksumCheck <code>true</code> to download the SNAPSHOT artifacts of the local repository only if their
+     *                      remote checksum has changed
+     * @since 1.5
+     */
+    public void setChecksumCheck( boolean checksumCheck )
+    {
+        this.checksumCheck = checksumCheck;
+    }
+
+    /**
+     * @param scratchRepository <code>true</code> to write the metadata and SNAPSHOTs downloaded by the check in a
+     *                          scratch repository, reading the local repository of the builds only for lookups
+     *                          (see {@link ScratchLocalRepositoryManager})
+     * @since 1.5
+     */
+    public void setScratchRepository( boolean scratchRepository )
+    {
+        this.scratchRepository = scratchRepository;
+    }
+
+    /**
+     * @param knownReleaseVersions release versions selected by the previous checks (see
+     *                             {@link MavenUpdateCheckerResult#getReleaseVersions()}) : the new releases of the
+     *                             dependencies are checked from the remote metadata of the repositories
+     * @since 1.5
+     */
+    public void setReleaseCheck( Map<String, String> knownReleaseVersions )
+    {
+        this.knownReleaseVersions =
+            knownReleaseVersions == null ? new HashMap<String, String>() : knownReleaseVersions;
+    }
+
+    /**
+     * @param traceProcess name of the node in the trace of the check, <code>null</code> not to trace the check
+     * @since 1.5
+     */
+    public void setTraceProcess( String traceProcess )
+    {
+        this.traceProcess = traceProcess;
+    }
+
+    /**
+     * @param probeUrls        remote urls of the SNAPSHOT metadata of the job keyed by local metadata path, seen by
+     *                         the previous complete check, to probe before running the check
+     * @param probeConnections maximum number of connections per repository host used by the probe
+     * @since 1.5
+     */
+    public void setProbe( Map<String, String> probeUrls, int probeConnections )
+    {
+        this.probeUrls = probeUrls;
+        this.probeConnections = probeConnections;
+    }
+
+    /**
+     * @param settingsCache settings shared by the checks of a batch
+     */
+    void setSettingsCache( Map<String, SettingsBuildingResult> settingsCache )
+    {
+        this.settingsCache = settingsCache;
+    }
+
+    /**
+     * @param streaming <code>true</code> to build and check the module models one at a time
+     * @since 1.5
+     */
+    public void setStreaming( boolean streaming )
+    {
+        this.streaming = streaming;
+    }
+
+    /**
+     * resolves the dependencies and SNAPSHOT plugins of one module at a time and keeps only its SNAPSHOT set
+     */
+    private class ModuleChecker
+    {
+        private final ProjectDependenciesResolver projectDependenciesResolver;
+
+        private final MavenPluginManager mavenPluginManager;
+
+        private final MavenRepositorySystemSession session;
+
+        private final SnapshotTransfertListener snapshotTransfertListener;
+
+        /**
+         * <code>null</code> if the releases are not checked
+         */
+        private final ReleaseUpdateDetector releaseUpdateDetector;
+
+        /**
+         * SNAPSHOT dependencies and plugins per module
+         */
+        private final Map<String, Set<String>> moduleSnapshots = new HashMap<String, Set<String>>();
+
+        /**
+         * normalized urls of the remote repositories of the modules
+         */
+        private final Set<String> repositoryUrls = new HashSet<String>();
+
+        /**
+         * a SNAPSHOT plugin used by several modules is checked once
+         */
+        private final Set<String> checkedPlugins = new HashSet<String>();
+
+        private ModuleChecker( ProjectDependenciesResolver projectDependenciesResolver,
+                               MavenPluginManager mavenPluginManager, MavenRepositorySystemSession session,
+                               SnapshotTransfertListener snapshotTransfertListener,
+                               ReleaseUpdateDetector releaseUpdateDetector )
+        {
+            this.projectDependenciesResolver = projectDependenciesResolver;
+            this.mavenPluginManager = mavenPluginManager;
+            this.session = session;
+            this.snapshotTransfertListener = snapshotTransfertListener;
+            this.releaseUpdateDetector = releaseUpdateDetector;
+        }
+
+        /**
+         * @return <code>false</code> if the check must stop
+         */
+        private boolean check( MavenProject mavenProject )
+            throws Exception
+        {
+            if ( isShortCircuited( snapshotTransfertListener ) )
+            {
+                return false;
+            }
+            LOGGER.info( "resolve dependencies for project " + mavenProject.getId() );
+
+            DefaultDependencyResolutionRequest dependencyResolutionRequest =
+                new DefaultDependencyResolutionRequest( mavenProject, session );
+
+            DependencyResolutionResult dependencyResolutionResult;
+            SpanTracer.Span span = getTracer().start( "resolve", mavenProject.getId() );
+            try
+            {
+                dependencyResolutionResult = projectDependenciesResolver.resolve( dependencyResolutionRequest );
+            }
+            catch ( DependencyResolutionException e )
+            {
+                dependencyResolutionResult = e.getResult();
+                mavenUpdateCheckerResult.addDebugLine( e.getMessage() );
+                StringWriter sw = new StringWriter();
+                PrintWriter pw = new PrintWriter( sw );
+                e.printStackTrace( pw );
+                mavenUpdateCheckerResult.addDebugLine( "skip:" + sw.toString() );
+            }
+            finally
+            {
+                span.end();
+            }
+            if ( checkPlugins )
+            {
+                for ( Plugin plugin : mavenProject.getBuildPlugins() )
+                {
+                    // only for SNAPSHOT
+                    if ( StringUtils.endsWith( plugin.getVersion(), "SNAPSHOT" ) && isIncluded( plugin )
+                        && !isShortCircuited( snapshotTransfertListener ) && checkedPlugins.add(
+                        ArtifactUtils.key( plugin.getGroupId(), plugin.getArtifactId(), plugin.getVersion() ) ) )
+                    {
+                        SpanTracer.Span pluginSpan = getTracer().start( "plugin", plugin.getId() );
+                        try
+                        {
+                            mavenPluginManager.getPluginDescriptor( plugin, mavenProject.getRemotePluginRepositories(),
+                                                                    session );
+                        }
+                        finally
+                        {
+                            pluginSpan.end();
+                        }
+                    }
+                }
+            }
+            String module = ArtifactUtils.versionlessKey( mavenProject.getGroupId(), mavenProject.getArtifactId() );
+            for ( RemoteRepository repository : mavenProject.getRemoteProjectRepositories() )
+            {
+                repositoryUrls.add( RepositoryCircuitBreaker.normalize( repository.getUrl() ) );
+            }
+            if ( checkPlugins )
+            {
+                for ( RemoteRepository repository : mavenProject.getRemotePluginRepositories() )
+                {
+                    repositoryUrls.add( RepositoryCircuitBreaker.normalize( repository.getUrl() ) );
+                }
+            }
+            if ( releaseUpdateDetector != null )
+            {
+                for ( Dependency dependency : mavenProject.getDependencies() )
+                {
+                    if ( isReleaseChecked( dependency ) )
+                    {
+                        releaseUpdateDetector.add( module, dependency.getGroupId(), dependency.getArtifactId(),
+                                                   dependency.getVersion(),
+                                                   mavenProject.getRemoteProjectRepositories() );
+                    }
+                }
+            }
+            moduleSnapshots.put( module, getSnapshots( mavenProject, dependencyResolutionResult ) );
+            return true;
+        }
+    }
 }
@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate;
+
+import hudson.FilePath;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.lang.StringUtils;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.ChecksumConnectorFactory;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.DependencyFilterSelector;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.ProbeEngine;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.ReleaseVersionIndex;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.SharedMetadataCache;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.SpanTracer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Runs a {@link MavenUpdateChecker} outside Jenkins, as a node would run it, to reproduce and profile a check :
+ * <pre>
+ * mvn package -Pcli
+ * java -jar target/maven-dependency-update-trigger-cli.jar -f pom.xml -s settings.xml -P profile -Dkey=value
+ * </pre>
+ * The check can be repeated to measure it with warm caches (shared models, metadata, local repository index). The
+ * duration and the bytes allocated by each phase are printed after each check, from the spans of the check (see
+ * {@link SpanTracer}). The global options of the trigger are read from the same system properties
+ * (<code>-DMavenDependencyUpdateTrigger.xxx</code> given to the jvm).
+ *
+ * @since 1.5
+ */
+public class MavenUpdateCheckerMain
+{
+    private static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss";
+
+    private final PrintStream out;
+
+    private MavenUpdateCheckerMain( PrintStream out )
+    {
+        this.out = out;
+    }
+
+    public static void main( String[] args )
+        throws Exception
+    {
+        Options options = getOptions();
+        CommandLine commandLine;
+        try
+        {
+            commandLine = new GnuParser().parse( options, args );
+        }
+        catch ( ParseException e )
+        {
+            System.err.println( e.getMessage() );
+            printHelp( options );
+            System.exit( 2 );
+            return;
+        }
+        if ( commandLine.hasOption( 'h' ) )
+        {
+            printHelp( options );
+            return;
+        }
+        new MavenUpdateCheckerMain( System.out ).run( commandLine );
+    }
+
+    private static Options getOptions()
+    {
+        Options options = new Options();
+        options.addOption( "h", "help", false, "display this help" );
+        options.addOption( "f", "file", true, "root pom (default: pom.xml)" );
+        options.addOption( "s", "settings", true, "user settings file" );
+        options.addOption( "gs", "global-settings", true,
+                           "global settings file (default: <maven home>/conf/settings.xml)" );
+        options.addOption( "P", "activate-profiles", true, "comma separated profiles to activate" );
+        options.addOption( "D", "define", true, "user property <name>=<value>, can be repeated" );
+        options.addOption( "l", "local-repository", true, "local repository (default: the settings one)" );
+        options.addOption( "t", "last-build", true,
+                           "time of the last build, " + DATE_FORMAT + " or milliseconds (default: now)" );
+        options.addOption( "m", "maven-home", true, "maven installation (default: $M2_HOME)" );
+        options.addOption( "p", "plugins", false, "check the SNAPSHOT plugins" );
+        options.addOption( "fast", "fast-check", false, "stop at the first update" );
+        options.addOption( "streaming", "streaming-check", false, "build and check one module at a time" );
+        options.addOption( "checksum", "checksum-check", false,
+                           "download the SNAPSHOTs only if their checksum changed" );
+        options.addOption( "scratch", "scratch-repository", false,
+                           "download in a scratch repository next to the local repository" );
+        options.addOption( "releases", "release-check", false,
+                           "check the new releases of the dependencies, the first iteration records the versions" );
+        options.addOption( "scopes", "scopes", true, "comma separated scopes of the dependencies to check" );
+        options.addOption( "includes", "includes", true, "comma separated groupId:artifactId patterns to check" );
+        options.addOption( "excludes", "excludes", true, "comma separated groupId:artifactId patterns not to check" );
+        options.addOption( "depth", "max-depth", true, "maximum depth of the dependencies to check" );
+        options.addOption( "n", "iterations", true, "number of checks to run (default: 1)" );
+        options.addOption( "trace", "trace-file", true, "write the spans of the checks as chrome trace events" );
+        options.addOption( "X", "debug", false, "print the debug lines of the checks" );
+        return options;
+    }
+
+    private static void printHelp( Options options )
+    {
+        new HelpFormatter().printHelp( "java -jar maven-dependency-update-trigger-cli.jar [options]", options );
+    }
+
+    private void run( CommandLine commandLine )
+        throws IOException, java.text.ParseException
+    {
+        File rootPom = new File( commandLine.getOptionValue( 'f', "pom.xml" ) ).getAbsoluteFile();
+        if ( !rootPom.isFile() )
+        {
+            throw new IOException( "no pom " + rootPom );
+        }
+        long lastBuildTime = getLastBuildTime( commandLine.getOptionValue( 't' ) );
+        int iterations = Integer.parseInt( commandLine.getOptionValue( 'n', "1" ) );
+
+        List<SpanTracer.Span> allSpans = new ArrayList<SpanTracer.Span>();
+        Map<String, String> releaseVersions = new HashMap<String, String>();
+        for ( int i = 1; i <= iterations; i++ )
+        {
+            MavenUpdateChecker checker = getChecker( commandLine, rootPom, lastBuildTime, i );
+            if ( commandLine.hasOption( "releases" ) )
+            {
+                checker.setReleaseCheck( new HashMap<String, String>( releaseVersions ) );
+            }
+            long start = System.currentTimeMillis();
+            MavenUpdateCheckerResult result = checker.call();
+            long duration = System.currentTimeMillis() - start;
+
+            out.println( "check " + i + "/" + iterations + " of " + rootPom + " in " + duration + " ms" );
+            if ( commandLine.hasOption( 'X' ) )
+            {
+                for ( String line : result.getDebugLines() )
+                {
+                    out.println( "  [debug] " + line );
+                }
+            }
+            out.println( "  updated files : " + result.getFileUpdatedNames() );
+            out.println( "  updated artifacts : " + result.getUpdatedGavs() );
+            if ( result.isDeadlineExceeded() )
+            {
+                out.println( "  deadline exceeded" );
+            }
+            for ( String line : result.getTransferSummary() )
+            {
+                out.println( "  " + line );
+            }
+            printPhases( result.getSpans() );
+            allSpans.addAll( result.getSpans() );
+            releaseVersions.putAll( result.getReleaseVersions() );
+        }
+        out.println( "probe engine : " + ProbeEngine.getInstance().getStatistics() );
+        out.println( "checksums : " + ChecksumConnectorFactory.getStatistics() );
+        if ( commandLine.hasOption( "releases" ) )
+        {
+            out.println( "release versions : " + ReleaseVersionIndex.getInstance().getStatistics() );
+        }
+
+        if ( commandLine.hasOption( "trace" ) )
+        {
+            File traceFile = new File( commandLine.getOptionValue( "trace" ) );
+            SpanTracer.writeChromeTrace( traceFile, allSpans );
+            out.println( "trace written to " + traceFile.getAbsolutePath() );
+        }
+    }
+
+    private MavenUpdateChecker getChecker( CommandLine commandLine, File rootPom, long lastBuildTime, int iteration )
+    {
+        String mavenHome = commandLine.getOptionValue( 'm', System.getenv( "M2_HOME" ) );
+        MavenUpdateChecker checker =
+            new MavenUpdateChecker( rootPom.getPath(), commandLine.getOptionValue( 'l' ), commandLine.hasOption( 'p' ),
+                                    rootPom.getParent(), false, mavenHome, System.getProperty( "java.home" ),
+                                    lastBuildTime );
+        if ( commandLine.hasOption( 's' ) )
+        {
+            checker.setAlternateSettings( new FilePath( new File( commandLine.getOptionValue( 's' ) ) ) );
+        }
+        if ( commandLine.hasOption( "gs" ) )
+        {
+            checker.setGlobalSettings( new FilePath( new File( commandLine.getOptionValue( "gs" ) ) ) );
+        }
+        checker.setUserProperties( getUserProperties( commandLine.getOptionValues( 'D' ) ) );
+        if ( commandLine.hasOption( 'P' ) )
+        {
+            checker.setActiveProfiles(
+                Arrays.asList( StringUtils.split( commandLine.getOptionValue( 'P' ), ", " ) ) );
+        }
+        checker.setFastCheck( commandLine.hasOption( "fast" ) );
+        checker.setStreaming( commandLine.hasOption( "streaming" ) );
+        checker.setChecksumCheck( commandLine.hasOption( "checksum" ) );
+        checker.setScratchRepository( commandLine.hasOption( "scratch" ) );
+        checker.setDependencyFilters( DependencyFilterSelector.split( commandLine.getOptionValue( "scopes" ) ),
+                                      DependencyFilterSelector.split( commandLine.getOptionValue( "includes" ) ),
+                                      DependencyFilterSelector.split( commandLine.getOptionValue( "excludes" ) ),
+                                      Integer.parseInt( commandLine.getOptionValue( "depth", "0" ) ) );
+        checker.setTimeouts( MavenDependencyUpdateTrigger.checkTimeout * 1000,
+                             MavenDependencyUpdateTrigger.connectTimeout, MavenDependencyUpdateTrigger.requestTimeout );
+        checker.setModelBuilding( MavenDependencyUpdateTrigger.modelBuildingThreads,
+                                  MavenDependencyUpdateTrigger.modelCacheSize );
+        if ( SharedMetadataCache.isEnabled() )
+        {
+            checker.setMetadataCache( SharedMetadataCache.getInstance() );
+        }
+        checker.setTraceProcess( "check " + iteration );
+        return checker;
+    }
+
+    private static Properties getUserProperties( String[] definitions )
+    {
+        Properties properties = new Properties();
+        if ( definitions == null )
+        {
+            return properties;
+        }
+        for ( String definition : definitions )
+        {
+            int index = definition.indexOf( '=' );
+            if ( index < 0 )
+            {
+                properties.setProperty( definition, "true" );
+            }
+            else
+            {
+                properties.setProperty( definition.substring( 0, index ), definition.substring( index + 1 ) );
+            }
+        }
+        return properties;
+    }
+
+    private static long getLastBuildTime( String lastBuild )
+        throws java.text.ParseException
+    {
+        if ( lastBuild == null )
+        {
+            return System.currentTimeMillis();
+        }
+        if ( StringUtils.isNumeric( lastBuild ) )
+        {
+            return Long.parseLong( lastBuild );
+        }
+        return new SimpleDateFormat( DATE_FORMAT ).parse( lastBuild ).getTime();
+    }
+
+    /**
+     * print the number of spans, the total and maximum duration and the allocated bytes per phase, in the order of
+     * the first span of each phase. The phases are nested (a check contains the model building...).
+     */
+    private void printPhases( List<SpanTracer.Span> spans )
+    {
+        List<SpanTracer.Span> sorted = new ArrayList<SpanTracer.Span>( spans );
+        Collections.sort( sorted, new Comparator<SpanTracer.Span>()
+        {
+            public int compare( SpanTracer.Span span, SpanTracer.Span other )
+            {
+                return span.getStart() < other.getStart() ? -1 : ( span.getStart() == other.getStart() ? 0 : 1 );
+            }
+        } );
+        Map<String, long[]> phases = new LinkedHashMap<String, long[]>();
+        for ( SpanTracer.Span span : sorted )
+        {
+            long[] phase = phases.get( span.getName() );
+            if ( phase == null )
+            {
+                // count, total duration, max duration, allocated bytes (-1 if unknown)
+                phase = new long[]{ 0, 0, 0, 0 };
+                phases.put( span.getName(), phase );
+            }
+            phase[0]++;
+            phase[1] += span.getDuration();
+            phase[2] = Math.max( phase[2], span.getDuration() );
+            phase[3] = span.getAllocatedBytes() < 0 || phase[3] < 0 ? -1 : phase[3] + span.getAllocatedBytes();
+        }
+        out.println( String.format( "  %-12s %8s %12s %12s %14s", "phase", "count", "total ms", "max ms",
+                                    "allocated KB" ) );
+        for ( Map.Entry<String, long[]> entry : phases.entrySet() )
+        {
+            long[] phase = entry.getValue();
+            out.println( String.format( "  %-12s %8d %12d %12d %14s", entry.getKey(), Long.valueOf( phase[0] ),
+                                        Long.valueOf( phase[1] / 1000 ), Long.valueOf( phase[2] / 1000 ),
+                                        phase[3] < 0 ? "n/a" : Long.toString( phase[3] / 1024 ) ) );
+        }
+    }
+}
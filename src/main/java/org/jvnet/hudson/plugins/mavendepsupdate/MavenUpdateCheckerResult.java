@@ -19,9 +19,16 @@
  */
 package org.jvnet.hudson.plugins.mavendepsupdate;
 
+import org.jvnet.hudson.plugins.mavendepsupdate.util.SpanTracer;
+
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * @author Olivier Lamy
@@ -35,6 +42,42 @@ public class MavenUpdateCheckerResult
 
     private List<String> debugLines = new ArrayList<String>();
 
+    private Map<String, String> snapshotVersions = new HashMap<String, String>();
+
+    private Map<String, String> releaseVersions = new HashMap<String, String>();
+
+    private String localRepositoryPath;
+
+    private Set<String> updatedGavs = new TreeSet<String>();
+
+    private Map<String, List<String>> affectedModules;
+
+    private Set<String> reactorGavs = new TreeSet<String>();
+
+    private long throttledMillis;
+
+    private boolean deadlineExceeded;
+
+    private Map<String, Integer> repositorySuccesses = new HashMap<String, Integer>();
+
+    private Map<String, Integer> repositoryFailures = new HashMap<String, Integer>();
+
+    private Map<String, Set<String>> servedRepositories = new HashMap<String, Set<String>>();
+
+    private Set<String> notFound = new TreeSet<String>();
+
+    private String repositoryScope;
+
+    private Map<String, String> metadataUrls;
+
+    private long lastBuildTime;
+
+    private boolean probed;
+
+    private List<String> transferSummary = new ArrayList<String>();
+
+    private List<SpanTracer.Span> spans = new ArrayList<SpanTracer.Span>();
+
     public MavenUpdateCheckerResult()
     {
         // no op
@@ -55,6 +98,252 @@ public class MavenUpdateCheckerResult
         this.fileUpdatedNames.addAll( filesUpdatedNames );
     }
 
+    /**
+     * @return SNAPSHOT versions (timestamp-buildNumber) seen during the check keyed by local metadata path
+     * @since 1.5
+     */
+    public Map<String, String> getSnapshotVersions()
+    {
+        return snapshotVersions;
+    }
+
+    public void addSnapshotVersions( Map<String, String> snapshotVersions )
+    {
+        this.snapshotVersions.putAll( snapshotVersions );
+    }
+
+    /**
+     * @return release versions selected during the check keyed by <code>groupId:artifactId:declaredVersion</code>
+     *         (see {@link org.jvnet.hudson.plugins.mavendepsupdate.util.ReleaseUpdateDetector})
+     * @since 1.5
+     */
+    public Map<String, String> getReleaseVersions()
+    {
+        return releaseVersions;
+    }
+
+    public void addReleaseVersions( Map<String, String> releaseVersions )
+    {
+        this.releaseVersions.putAll( releaseVersions );
+    }
+
+    /**
+     * @return the local repository used by the check on the node
+     * @since 1.5
+     */
+    public String getLocalRepositoryPath()
+    {
+        return localRepositoryPath;
+    }
+
+    public void setLocalRepositoryPath( String localRepositoryPath )
+    {
+        this.localRepositoryPath = localRepositoryPath;
+    }
+
+    /**
+     * @return <code>groupId:artifactId:version</code> of the updated SNAPSHOTs
+     * @since 1.5
+     */
+    public Set<String> getUpdatedGavs()
+    {
+        return updatedGavs;
+    }
+
+    public void addUpdatedGavs( Collection<String> updatedGavs )
+    {
+        this.updatedGavs.addAll( updatedGavs );
+    }
+
+    /**
+     * @return the reactor modules (<code>groupId:artifactId</code>) depending on each updated SNAPSHOT or
+     *         <code>null</code> if the whole reactor is affected
+     * @since 1.5
+     */
+    public Map<String, List<String>> getAffectedModules()
+    {
+        return affectedModules;
+    }
+
+    public void setAffectedModules( Map<String, List<String>> affectedModules )
+    {
+        this.affectedModules = affectedModules;
+    }
+
+    /**
+     * @return <code>groupId:artifactId:version</code> of the reactor projects
+     * @since 1.5
+     */
+    public Set<String> getReactorGavs()
+    {
+        return reactorGavs;
+    }
+
+    public void addReactorGavs( Collection<String> reactorGavs )
+    {
+        this.reactorGavs.addAll( reactorGavs );
+    }
+
+    /**
+     * @return time spent waiting for the repository hosts rate limits
+     * @since 1.5
+     */
+    public long getThrottledMillis()
+    {
+        return throttledMillis;
+    }
+
+    public void setThrottledMillis( long throttledMillis )
+    {
+        this.throttledMillis = throttledMillis;
+    }
+
+    /**
+     * @return <code>true</code> if the check has been stopped at its deadline
+     * @since 1.5
+     */
+    public boolean isDeadlineExceeded()
+    {
+        return deadlineExceeded;
+    }
+
+    public void setDeadlineExceeded( boolean deadlineExceeded )
+    {
+        this.deadlineExceeded = deadlineExceeded;
+    }
+
+    /**
+     * @return number of requests answered per repository url
+     * @since 1.5
+     */
+    public Map<String, Integer> getRepositorySuccesses()
+    {
+        return repositorySuccesses;
+    }
+
+    /**
+     * @return number of failed or timed out requests per repository url
+     * @since 1.5
+     */
+    public Map<String, Integer> getRepositoryFailures()
+    {
+        return repositoryFailures;
+    }
+
+    public void setRepositoryOutcomes( Map<String, Integer> repositorySuccesses,
+                                       Map<String, Integer> repositoryFailures )
+    {
+        this.repositorySuccesses = repositorySuccesses;
+        this.repositoryFailures = repositoryFailures;
+    }
+
+    /**
+     * @return repository urls which served SNAPSHOTs per groupId
+     * @since 1.5
+     */
+    public Map<String, Set<String>> getServedRepositories()
+    {
+        return servedRepositories;
+    }
+
+    /**
+     * @return <code>groupId:artifactId:version repositoryUrl</code> answered not found
+     * @since 1.5
+     */
+    public Set<String> getNotFound()
+    {
+        return notFound;
+    }
+
+    public void setRouting( Map<String, Set<String>> servedRepositories, Set<String> notFound )
+    {
+        this.servedRepositories = servedRepositories;
+        this.notFound = notFound;
+    }
+
+    /**
+     * @return the remote repositories of all the modules, scope of the routes of the job (see
+     *         {@link org.jvnet.hudson.plugins.mavendepsupdate.util.RepositoryRoutingTable}) or <code>null</code> if
+     *         the check has not seen all the modules
+     * @since 1.5
+     */
+    public String getRepositoryScope()
+    {
+        return repositoryScope;
+    }
+
+    public void setRepositoryScope( String repositoryScope )
+    {
+        this.repositoryScope = repositoryScope;
+    }
+
+    /**
+     * @return remote urls of all the SNAPSHOT metadata of the job keyed by local metadata path or <code>null</code>
+     *         if the check has not seen all of them
+     * @since 1.5
+     */
+    public Map<String, String> getMetadataUrls()
+    {
+        return metadataUrls;
+    }
+
+    /**
+     * @return the last build start time (yyyyMMddHHmmss UTC) known by the check
+     * @since 1.5
+     */
+    public long getLastBuildTime()
+    {
+        return lastBuildTime;
+    }
+
+    public void setMetadataUrls( Map<String, String> metadataUrls, long lastBuildTime )
+    {
+        this.metadataUrls = metadataUrls;
+        this.lastBuildTime = lastBuildTime;
+    }
+
+    /**
+     * @return <code>true</code> if the result comes from the probe of the metadata urls of a previous check
+     * @since 1.5
+     */
+    public boolean isProbed()
+    {
+        return probed;
+    }
+
+    public void setProbed( boolean probed )
+    {
+        this.probed = probed;
+    }
+
+    /**
+     * @return the transfers per outcome and the slowest and largest transfers of the check
+     * @since 1.5
+     */
+    public List<String> getTransferSummary()
+    {
+        return transferSummary;
+    }
+
+    public void setTransferSummary( List<String> transferSummary )
+    {
+        this.transferSummary = transferSummary;
+    }
+
+    /**
+     * @return the phases of the check traced on the node
+     * @since 1.5
+     */
+    public List<SpanTracer.Span> getSpans()
+    {
+        return spans;
+    }
+
+    public void setSpans( List<SpanTracer.Span> spans )
+    {
+        this.spans = spans;
+    }
+
     public List<String> getDebugLines()
     {
         return debugLines;
@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate;
+
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+import hudson.model.Cause;
+import hudson.model.Hudson;
+import hudson.model.ParametersAction;
+import hudson.model.Queue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Schedules the builds triggered by {@link MavenDependencyUpdateTrigger} in the topological order of the jobs :
+ * job A is upstream of job B when a SNAPSHOT produced by the reactor of A is a dependency of B.
+ * When enabled with <code>-DMavenDependencyUpdateTrigger.topologicalOrdering=true</code>, a job is not scheduled
+ * while one of its upstream jobs is queued or building and the queued triggered builds of its downstream jobs are
+ * cancelled : those builds are deferred until the upstream build completes. They are then either triggered by the
+ * upstream deploy (see {@link UpstreamDeployListener}) or scheduled again.
+ * The deferrals are only kept in memory : the SNAPSHOT versions which requested a deferred build are not recorded
+ * until a build of the job completes, so a deferral lost by a restart or an upstream build which never completes is
+ * requested again by the next checks of the job. A deferral older than
+ * <code>-DMavenDependencyUpdateTrigger.deferralTimeout</code> minutes (60 by default) is not deferred again.
+ * The graph is built from the state of the last checks and cached until a job changes its SNAPSHOTs, it also gives
+ * the jobs consuming the SNAPSHOTs deployed by a build.
+ *
+ * @since 1.5
+ */
+public final class TriggerCoordinator
+{
+    private static final Logger LOGGER = Logger.getLogger( TriggerCoordinator.class.getName() );
+
+    public static boolean enabled = Boolean.getBoolean( "MavenDependencyUpdateTrigger.topologicalOrdering" );
+
+    public static long deferralTimeout = Long.getLong( "MavenDependencyUpdateTrigger.deferralTimeout", 60 );
+
+    /**
+     * deferred builds per upstream job full name
+     */
+    private static final Map<String, List<Deferral>> DEFERRALS = new HashMap<String, List<Deferral>>();
+
+    /**
+     * cached graph, <code>null</code> when a job changed
+     */
+    private static volatile Graph graph;
+
+    private TriggerCoordinator()
+    {
+        // no op
+    }
+
+    /**
+     * the SNAPSHOTs produced or consumed by a job changed, or a job has been added or removed
+     */
+    static void invalidate()
+    {
+        graph = null;
+    }
+
+    /**
+     * schedule a build of the project unless one of its upstream jobs is queued or building.
+     *
+     * @return <code>false</code> if the build has been deferred
+     */
+    static synchronized boolean schedule( AbstractProject<?, ?> project, Cause cause, List<Action> actions )
+    {
+        if ( !enabled )
+        {
+            project.scheduleBuild( 0, cause, actions.toArray( new Action[actions.size()] ) );
+            return true;
+        }
+        Graph current = getGraph();
+        if ( !isDeferralExpired( project ) )
+        {
+            for ( AbstractProject<?, ?> upstream : current.getTransitiveUpstreams( project ) )
+            {
+                if ( Hudson.getInstance().getQueue().contains( upstream ) || upstream.isBuilding() )
+                {
+                    defer( upstream, new Deferral( project, cause, actions ) );
+                    return false;
+                }
+            }
+        }
+        removeDeferrals( project );
+        // quiet period gives time to cancel this build if an upstream job is scheduled in the same tick
+        project.scheduleBuild( project.getQuietPeriod(), cause, actions.toArray( new Action[actions.size()] ) );
+        Queue queue = Hudson.getInstance().getQueue();
+        for ( AbstractProject<?, ?> downstream : current.getTransitiveDownstreams( project ) )
+        {
+            Queue.Item item = queue.getItem( downstream );
+            if ( item != null && isTriggeredOnly( item ) && queue.cancel( item ) )
+            {
+                List<Action> downstreamActions = new ArrayList<Action>( item.getActions( ParametersAction.class ) );
+                defer( project, new Deferral( downstream, item.getCauses().get( 0 ), downstreamActions ) );
+            }
+        }
+        return true;
+    }
+
+    /**
+     * an upstream build has completed : the deferred builds of its downstream jobs which have not been
+     * triggered by its deploy are scheduled again.
+     */
+    static void release( AbstractProject<?, ?> upstream, Set<AbstractProject<?, ?>> triggered )
+    {
+        List<Deferral> deferrals;
+        synchronized ( TriggerCoordinator.class )
+        {
+            deferrals = DEFERRALS.remove( upstream.getFullName() );
+        }
+        if ( deferrals == null )
+        {
+            return;
+        }
+        for ( Deferral deferral : deferrals )
+        {
+            if ( !triggered.contains( deferral.project ) )
+            {
+                LOGGER.info( upstream.getFullName() + " completed, scheduling deferred build of "
+                                 + deferral.project.getFullName() );
+                schedule( deferral.project, deferral.cause, deferral.actions );
+            }
+        }
+    }
+
+    /**
+     * @return the jobs consuming some of the SNAPSHOTs, with the ones they consume, looked up in the cached graph
+     */
+    static Map<AbstractProject<?, ?>, Set<String>> getConsumers( Set<String> gavs )
+    {
+        Map<AbstractProject<?, ?>, Set<String>> consumers = new HashMap<AbstractProject<?, ?>, Set<String>>();
+        Graph current = getGraph();
+        for ( String gav : gavs )
+        {
+            List<AbstractProject<?, ?>> projects = current.consumers.get( gav );
+            if ( projects == null )
+            {
+                continue;
+            }
+            for ( AbstractProject<?, ?> project : projects )
+            {
+                Set<String> consumed = consumers.get( project );
+                if ( consumed == null )
+                {
+                    consumed = new HashSet<String>();
+                    consumers.put( project, consumed );
+                }
+                consumed.add( gav );
+            }
+        }
+        return consumers;
+    }
+
+    private static Graph getGraph()
+    {
+        Graph current = graph;
+        if ( current == null )
+        {
+            current = new Graph();
+            graph = current;
+        }
+        return current;
+    }
+
+    private static void defer( AbstractProject<?, ?> upstream, Deferral deferral )
+    {
+        List<Deferral> deferrals = DEFERRALS.get( upstream.getFullName() );
+        if ( deferrals == null )
+        {
+            deferrals = new ArrayList<Deferral>();
+            DEFERRALS.put( upstream.getFullName(), deferrals );
+        }
+        for ( Deferral existing : deferrals )
+        {
+            if ( existing.project == deferral.project )
+            {
+                return;
+            }
+        }
+        LOGGER.info( "defer build of " + deferral.project.getFullName() + " until upstream " + upstream.getFullName()
+                         + " completes" );
+        deferrals.add( deferral );
+    }
+
+    /**
+     * @return <code>true</code> if a build of the project has been deferred for more than {@link #deferralTimeout}
+     */
+    private static boolean isDeferralExpired( AbstractProject<?, ?> project )
+    {
+        long limit = System.currentTimeMillis() - deferralTimeout * 60 * 1000;
+        for ( Map.Entry<String, List<Deferral>> entry : DEFERRALS.entrySet() )
+        {
+            for ( Deferral deferral : entry.getValue() )
+            {
+                if ( deferral.project == project && deferral.time < limit )
+                {
+                    LOGGER.warning( "build of " + project.getFullName() + " deferred for more than " + deferralTimeout
+                                        + " minutes by " + entry.getKey() + ", scheduling it" );
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void removeDeferrals( AbstractProject<?, ?> project )
+    {
+        for ( Iterator<List<Deferral>> lists = DEFERRALS.values().iterator(); lists.hasNext(); )
+        {
+            List<Deferral> deferrals = lists.next();
+            for ( Iterator<Deferral> iterator = deferrals.iterator(); iterator.hasNext(); )
+            {
+                if ( iterator.next().project == project )
+                {
+                    iterator.remove();
+                }
+            }
+            if ( deferrals.isEmpty() )
+            {
+                lists.remove();
+            }
+        }
+    }
+
+    private static boolean isTriggeredOnly( Queue.Item item )
+    {
+        List<Cause> causes = item.getCauses();
+        if ( causes.isEmpty() )
+        {
+            return false;
+        }
+        for ( Cause cause : causes )
+        {
+            if ( !( cause instanceof MavenDependencyUpdateTrigger.MavenDependencyUpdateTriggerCause ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class Deferral
+    {
+        private final AbstractProject<?, ?> project;
+
+        private final Cause cause;
+
+        private final List<Action> actions;
+
+        private final long time = System.currentTimeMillis();
+
+        private Deferral( AbstractProject<?, ?> project, Cause cause, List<Action> actions )
+        {
+            this.project = project;
+            this.cause = cause;
+            this.actions = actions;
+        }
+    }
+
+    /**
+     * SNAPSHOTs produced and consumed by the jobs using the trigger, as seen by their last check,
+     * indexed by <code>groupId:artifactId:version</code>
+     */
+    private static class Graph
+    {
+        private final Map<AbstractProject<?, ?>, Set<String>> produced =
+            new HashMap<AbstractProject<?, ?>, Set<String>>();
+
+        private final Map<AbstractProject<?, ?>, Set<String>> consumed =
+            new HashMap<AbstractProject<?, ?>, Set<String>>();
+
+        private final Map<String, List<AbstractProject<?, ?>>> producers =
+            new HashMap<String, List<AbstractProject<?, ?>>>();
+
+        private final Map<String, List<AbstractProject<?, ?>>> consumers =
+            new HashMap<String, List<AbstractProject<?, ?>>>();
+
+        private Graph()
+        {
+            for ( AbstractProject<?, ?> project : Hudson.getInstance().getAllItems( AbstractProject.class ) )
+            {
+                MavenDependencyUpdateTrigger trigger = project.getTrigger( MavenDependencyUpdateTrigger.class );
+                if ( trigger != null )
+                {
+                    index( project, trigger.getReactorGavs(), produced, producers );
+                    index( project, trigger.getSnapshotDependencies(), consumed, consumers );
+                }
+            }
+        }
+
+        private static void index( AbstractProject<?, ?> project, Set<String> gavs,
+                                   Map<AbstractProject<?, ?>, Set<String>> byProject,
+                                   Map<String, List<AbstractProject<?, ?>>> byGav )
+        {
+            byProject.put( project, gavs );
+            for ( String gav : gavs )
+            {
+                List<AbstractProject<?, ?>> projects = byGav.get( gav );
+                if ( projects == null )
+                {
+                    projects = new ArrayList<AbstractProject<?, ?>>( 1 );
+                    byGav.put( gav, projects );
+                }
+                projects.add( project );
+            }
+        }
+
+        private Set<AbstractProject<?, ?>> getTransitiveUpstreams( AbstractProject<?, ?> project )
+        {
+            return walk( project, consumed, producers );
+        }
+
+        private Set<AbstractProject<?, ?>> getTransitiveDownstreams( AbstractProject<?, ?> project )
+        {
+            return walk( project, produced, consumers );
+        }
+
+        /**
+         * @param edges SNAPSHOTs of a project leading to the next projects
+         * @param next projects per SNAPSHOT
+         */
+        private static Set<AbstractProject<?, ?>> walk( AbstractProject<?, ?> start,
+                                                        Map<AbstractProject<?, ?>, Set<String>> edges,
+                                                        Map<String, List<AbstractProject<?, ?>>> next )
+        {
+            Set<AbstractProject<?, ?>> visited = new HashSet<AbstractProject<?, ?>>();
+            LinkedList<AbstractProject<?, ?>> toVisit = new LinkedList<AbstractProject<?, ?>>();
+            toVisit.add( start );
+            while ( !toVisit.isEmpty() )
+            {
+                Set<String> gavs = edges.get( toVisit.removeFirst() );
+                if ( gavs == null )
+                {
+                    continue;
+                }
+                for ( String gav : gavs )
+                {
+                    List<AbstractProject<?, ?>> projects = next.get( gav );
+                    if ( projects == null )
+                    {
+                        continue;
+                    }
+                    for ( AbstractProject<?, ?> other : projects )
+                    {
+                        if ( other != start && visited.add( other ) )
+                        {
+                            toVisit.add( other );
+                        }
+                    }
+                }
+            }
+            return visited;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Controller side metrics of the triggers, to find the scaling limits of {@link MavenDependencyUpdateTrigger#run()},
+ * of the scheduling and of the result handling with thousands of jobs. When enabled with
+ * <code>-DMavenDependencyUpdateTrigger.metricsPeriod=&lt;seconds&gt;</code>, a summary of each period is logged by
+ * the first cron run after its end :
+ * <ul>
+ * <li>the time the cron thread spent in the triggers (the checks run on it when the batches are disabled)</li>
+ * <li>the checks skipped because the previous check of the job was still in flight and the checks in flight</li>
+ * <li>the latency from the trigger run to the handled result and the duration of the result handling</li>
+ * <li>the heap used, the live threads and the cpu time of the controller</li>
+ * </ul>
+ * The simulation of the <code>simulation</code> maven profile drives thousands of synthetic jobs against a local
+ * repository and reports these metrics with its own measures of the cron passes and of the trigger latency.
+ *
+ * @since 1.5
+ */
+public final class TriggerMetrics
+{
+    private static final Logger LOGGER = Logger.getLogger( TriggerMetrics.class.getName() );
+
+    /**
+     * period of the summaries in seconds, disabled if 0
+     */
+    public static long period = Long.getLong( "MavenDependencyUpdateTrigger.metricsPeriod", 0 );
+
+    /**
+     * <code>getProcessCpuTime()</code> of the operating system MXBean or <code>null</code> if not available
+     */
+    private static final Method PROCESS_CPU_TIME = getProcessCpuTimeMethod();
+
+    private static final Timer CRON = new Timer();
+
+    private static final Timer LATENCY = new Timer();
+
+    private static final Timer RESULT = new Timer();
+
+    private static final AtomicLong SKIPPED = new AtomicLong();
+
+    private static final AtomicLong IN_FLIGHT = new AtomicLong();
+
+    private static final AtomicLong PERIOD_START = new AtomicLong( System.currentTimeMillis() );
+
+    private static final AtomicLong PERIOD_CPU = new AtomicLong( getProcessCpuTime() );
+
+    private TriggerMetrics()
+    {
+        // no op
+    }
+
+    static boolean isEnabled()
+    {
+        return period > 0;
+    }
+
+    /**
+     * a run of a trigger on the cron thread, logs the summary of the period if it has ended
+     *
+     * @param skipped <code>true</code> if the previous check of the job was still in flight
+     */
+    static void cronRun( long start, boolean skipped )
+    {
+        if ( !isEnabled() )
+        {
+            return;
+        }
+        CRON.record( System.currentTimeMillis() - start );
+        if ( skipped )
+        {
+            SKIPPED.incrementAndGet();
+        }
+        long periodStart = PERIOD_START.get();
+        long now = System.currentTimeMillis();
+        if ( now - periodStart >= period * 1000 && PERIOD_START.compareAndSet( periodStart, now ) )
+        {
+            LOGGER.info( getSummary( now - periodStart, true ) );
+        }
+    }
+
+    static void checkStarted()
+    {
+        if ( isEnabled() )
+        {
+            IN_FLIGHT.incrementAndGet();
+        }
+    }
+
+    static void checkEnded()
+    {
+        if ( isEnabled() && IN_FLIGHT.decrementAndGet() < 0 )
+        {
+            // enabled while a check was in flight
+            IN_FLIGHT.set( 0 );
+        }
+    }
+
+    /**
+     * @return the checks in flight, counted only when enabled
+     */
+    static long getInFlight()
+    {
+        return IN_FLIGHT.get();
+    }
+
+    /**
+     * @param start            start of the check by the trigger run
+     * @param handlingDuration duration of the result handling in milliseconds
+     */
+    static void resultHandled( long start, long handlingDuration )
+    {
+        if ( !isEnabled() )
+        {
+            return;
+        }
+        LATENCY.record( System.currentTimeMillis() - start );
+        RESULT.record( handlingDuration );
+    }
+
+    /**
+     * @return the metrics since the start of the current period
+     */
+    public static String getSummary()
+    {
+        return getSummary( System.currentTimeMillis() - PERIOD_START.get(), false );
+    }
+
+    private static String getSummary( long duration, boolean reset )
+    {
+        long cpu = getProcessCpuTime();
+        long periodCpu = reset ? PERIOD_CPU.getAndSet( cpu ) : PERIOD_CPU.get();
+        Runtime runtime = Runtime.getRuntime();
+        StringBuilder summary = new StringBuilder( "trigger metrics over " );
+        summary.append( duration / 1000 ).append( " s : " );
+        summary.append( "cron " ).append( CRON.toString( reset ) );
+        summary.append( ", skipped " ).append( reset ? SKIPPED.getAndSet( 0 ) : SKIPPED.get() );
+        summary.append( ", in flight " ).append( IN_FLIGHT.get() );
+        summary.append( ", latency " ).append( LATENCY.toString( reset ) );
+        summary.append( ", result handling " ).append( RESULT.toString( reset ) );
+        long heapUsed = runtime.totalMemory() - runtime.freeMemory();
+        summary.append( ", heap used " ).append( heapUsed / ( 1024 * 1024 ) ).append( " MB" );
+        summary.append( ", threads " ).append( ManagementFactory.getThreadMXBean().getThreadCount() );
+        if ( cpu >= 0 && periodCpu >= 0 )
+        {
+            summary.append( ", cpu " ).append( ( cpu - periodCpu ) / 1000000 ).append( " ms" );
+        }
+        return summary.toString();
+    }
+
+    private static Method getProcessCpuTimeMethod()
+    {
+        try
+        {
+            Class<?> osMXBean = Class.forName( "com.sun.management.OperatingSystemMXBean" );
+            if ( !osMXBean.isInstance( ManagementFactory.getOperatingSystemMXBean() ) )
+            {
+                return null;
+            }
+            return osMXBean.getMethod( "getProcessCpuTime" );
+        }
+        catch ( Exception e )
+        {
+            return null;
+        }
+        catch ( LinkageError e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * @return the cpu time of the controller in nanoseconds or -1 if not available
+     */
+    private static long getProcessCpuTime()
+    {
+        if ( PROCESS_CPU_TIME == null )
+        {
+            return -1;
+        }
+        try
+        {
+            OperatingSystemMXBean osMXBean = ManagementFactory.getOperatingSystemMXBean();
+            return ( (Long) PROCESS_CPU_TIME.invoke( osMXBean ) ).longValue();
+        }
+        catch ( Exception e )
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * count, total and maximum of durations in milliseconds
+     */
+    private static class Timer
+    {
+        private long count;
+
+        private long total;
+
+        private long max;
+
+        synchronized void record( long duration )
+        {
+            count++;
+            total += duration;
+            max = Math.max( max, duration );
+        }
+
+        synchronized String toString( boolean reset )
+        {
+            String value = count + " x (total " + total + " ms, avg " + ( count == 0 ? 0 : total / count ) + " ms, max "
+                + max + " ms)";
+            if ( reset )
+            {
+                count = 0;
+                total = 0;
+                max = 0;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+
+/**
+ * The SNAPSHOT versions seen by the check which requested a build are recorded when the next build of the job
+ * completes : the build resolves them (or newer ones, which the next check sees as changed) when it starts.
+ *
+ * @since 1.5
+ */
+@Extension
+public class TriggeredBuildListener
+    extends RunListener<AbstractBuild<?, ?>>
+{
+    @SuppressWarnings( "unchecked" )
+    public TriggeredBuildListener()
+    {
+        super( (Class) AbstractBuild.class );
+    }
+
+    @Override
+    public void onStarted( AbstractBuild<?, ?> build, TaskListener listener )
+    {
+        MavenDependencyUpdateTrigger trigger = build.getProject().getTrigger( MavenDependencyUpdateTrigger.class );
+        if ( trigger != null )
+        {
+            trigger.buildStarted( build );
+        }
+    }
+
+    @Override
+    public void onCompleted( AbstractBuild<?, ?> build, TaskListener listener )
+    {
+        MavenDependencyUpdateTrigger trigger = build.getProject().getTrigger( MavenDependencyUpdateTrigger.class );
+        if ( trigger != null )
+        {
+            trigger.buildCompleted( build );
+        }
+    }
+}
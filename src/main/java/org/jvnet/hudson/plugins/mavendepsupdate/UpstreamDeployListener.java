@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate;
+
+import hudson.Extension;
+import hudson.maven.MavenModuleSetBuild;
+import hudson.maven.reporters.MavenArtifact;
+import hudson.maven.reporters.MavenArtifactRecord;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Hudson;
+import hudson.model.Result;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * When a maven build completes, the SNAPSHOTs it deployed (artifact records of its modules when the build ran the
+ * <code>deploy</code> phase or redeployed them) are matched by <code>groupId:artifactId:version</code> against the
+ * SNAPSHOT dependencies recorded for the jobs using {@link MavenDependencyUpdateTrigger} (looked up in the graph
+ * cached by {@link TriggerCoordinator}) which are then scheduled without waiting for the next check.
+ * Other builds are only seen by the checks : the artifacts fingerprinted by a freestyle build carry no
+ * <code>groupId:artifactId:version</code> to match against the dependencies.
+ * Can be disabled with <code>-DMavenDependencyUpdateTrigger.disableUpstreamTrigger=true</code>.
+ *
+ * @since 1.5
+ */
+@Extension
+public class UpstreamDeployListener
+    extends RunListener<AbstractBuild<?, ?>>
+{
+    private static final Logger LOGGER = Logger.getLogger( UpstreamDeployListener.class.getName() );
+
+    public static boolean disabled = Boolean.getBoolean( "MavenDependencyUpdateTrigger.disableUpstreamTrigger" );
+
+    @SuppressWarnings( "unchecked" )
+    public UpstreamDeployListener()
+    {
+        super( (Class) AbstractBuild.class );
+    }
+
+    @Override
+    public void onCompleted( AbstractBuild<?, ?> build, TaskListener listener )
+    {
+        Set<AbstractProject<?, ?>> triggered = triggerDownstreams( build );
+        // builds deferred until this one completes
+        TriggerCoordinator.release( build.getProject(), triggered );
+    }
+
+    /**
+     * @return the projects triggered by the SNAPSHOTs produced by the build
+     */
+    private Set<AbstractProject<?, ?>> triggerDownstreams( AbstractBuild<?, ?> build )
+    {
+        Set<AbstractProject<?, ?>> triggered = new HashSet<AbstractProject<?, ?>>();
+        if ( disabled || build.getResult() == null || build.getResult().isWorseThan( Result.UNSTABLE ) )
+        {
+            return triggered;
+        }
+        Set<String> producedGavs = getProducedSnapshots( build );
+        if ( producedGavs.isEmpty() )
+        {
+            return triggered;
+        }
+        AbstractProject<?, ?> upstream = build.getProject();
+        Map<AbstractProject<?, ?>, Set<String>> consumers = TriggerCoordinator.getConsumers( producedGavs );
+        for ( Map.Entry<AbstractProject<?, ?>, Set<String>> entry : consumers.entrySet() )
+        {
+            AbstractProject<?, ?> project = entry.getKey();
+            MavenDependencyUpdateTrigger trigger = project.getTrigger( MavenDependencyUpdateTrigger.class );
+            if ( trigger == null || project == upstream )
+            {
+                continue;
+            }
+            // downstream projects of the dependency graph are already triggered by jenkins
+            if ( !upstream.getDownstreamProjects().contains( project ) )
+            {
+                trigger.upstreamDeployed( build, entry.getValue() );
+            }
+            triggered.add( project );
+        }
+        return triggered;
+    }
+
+    /**
+     * Only the artifacts of the modules are recorded by {@link MavenArtifactRecord} (the consumed ones are not) but
+     * the record exists as soon as the module is packaged: its SNAPSHOTs count only when they reached a remote
+     * repository, either through the <code>deploy</code> phase of the build or a successful redeploy.
+     */
+    private Set<String> getProducedSnapshots( AbstractBuild<?, ?> build )
+    {
+        Set<String> gavs = new HashSet<String>();
+        if ( build instanceof MavenModuleSetBuild )
+        {
+            MavenModuleSetBuild moduleSetBuild = (MavenModuleSetBuild) build;
+            boolean deployPhase = isDeployPhase( moduleSetBuild.getProject().getGoals() );
+            for ( MavenArtifactRecord record : moduleSetBuild.findModuleBuildActions( MavenArtifactRecord.class ) )
+            {
+                if ( !deployPhase && !isRedeployed( record ) )
+                {
+                    continue;
+                }
+                addSnapshot( gavs, record.pomArtifact );
+                addSnapshot( gavs, record.mainArtifact );
+                if ( record.attachedArtifacts != null )
+                {
+                    for ( MavenArtifact attached : record.attachedArtifacts )
+                    {
+                        addSnapshot( gavs, attached );
+                    }
+                }
+            }
+        }
+        if ( LOGGER.isLoggable( Level.FINE ) && !gavs.isEmpty() )
+        {
+            LOGGER.fine( build.getFullDisplayName() + " deployed " + gavs );
+        }
+        return gavs;
+    }
+
+    static boolean isDeployPhase( String goals )
+    {
+        if ( goals == null )
+        {
+            return false;
+        }
+        for ( String goal : goals.trim().split( "\\s+" ) )
+        {
+            if ( "deploy".equals( goal ) || "deploy:deploy".equals( goal ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return <code>true</code> if the artifacts were redeployed by the build ({@link hudson.maven.RedeployPublisher})
+     */
+    private boolean isRedeployed( MavenArtifactRecord record )
+    {
+        for ( MavenArtifactRecord.Record deployment : record.records )
+        {
+            if ( deployment.getResult() == Result.SUCCESS )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addSnapshot( Set<String> gavs, MavenArtifact artifact )
+    {
+        if ( artifact != null && artifact.version != null && artifact.version.endsWith( "SNAPSHOT" ) )
+        {
+            gavs.add( artifact.groupId + ":" + artifact.artifactId + ":" + artifact.version );
+        }
+    }
+}
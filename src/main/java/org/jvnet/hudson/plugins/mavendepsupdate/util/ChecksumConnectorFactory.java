@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.apache.commons.lang.StringUtils;
+import org.sonatype.aether.RepositorySystemSession;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.spi.connector.ArtifactDownload;
+import org.sonatype.aether.spi.connector.ArtifactUpload;
+import org.sonatype.aether.spi.connector.MetadataDownload;
+import org.sonatype.aether.spi.connector.MetadataUpload;
+import org.sonatype.aether.spi.connector.RepositoryConnector;
+import org.sonatype.aether.spi.connector.RepositoryConnectorFactory;
+import org.sonatype.aether.spi.connector.Transfer;
+import org.sonatype.aether.transfer.NoRepositoryConnectorException;
+import org.sonatype.aether.util.ChecksumUtils;
+import org.sonatype.aether.util.layout.MavenDefaultLayout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Connectors checking the SNAPSHOT artifacts already in the local repository with their remote <code>.sha1</code>
+ * (or <code>.md5</code>) only, for the sessions with {@link #CHECKSUM_KEY} set in their configuration : an artifact
+ * whose remote checksum is the one of the local copy is not downloaded, so a non unique SNAPSHOT or an artifact
+ * redeployed over the same timestamped version is only downloaded when it has changed. The checksums are requested
+ * with the {@link ProbeEngine}, an artifact whose checksum cannot be probed is downloaded as usual.
+ * The checksums of the local copies are kept per file size and modification time, a large archive is hashed once.
+ * NOTE : <b>this class is not designed for external use so it can change without any prior notice</b>
+ *
+ * @since 1.5
+ */
+public class ChecksumConnectorFactory
+    implements RepositoryConnectorFactory
+{
+    private static final Logger LOGGER = Logger.getLogger( ChecksumConnectorFactory.class.getName() );
+
+    public static final String HINT = "checksum";
+
+    public static final String CHECKSUM_KEY = "MavenDependencyUpdateTrigger.checksumCheck";
+
+    private static final String SHA1 = "SHA-1";
+
+    private static final String MD5 = "MD5";
+
+    private static final int MAX_LOCAL_CHECKSUMS = 10000;
+
+    /**
+     * connections per repository host used to request the checksums
+     */
+    private static final int CONNECTIONS = 4;
+
+    private static final int DEFAULT_TIMEOUT = 30000;
+
+    private static final Map<String, String> LOCAL_CHECKSUMS = new ConcurrentHashMap<String, String>();
+
+    private static final AtomicLong UNCHANGED = new AtomicLong();
+
+    private static final AtomicLong SKIPPED_BYTES = new AtomicLong();
+
+    private static final AtomicLong DOWNLOADED = new AtomicLong();
+
+    /**
+     * the factories to create the connectors with, in order of preference
+     */
+    private final List<RepositoryConnectorFactory> delegates;
+
+    public ChecksumConnectorFactory( List<RepositoryConnectorFactory> delegates )
+    {
+        this.delegates = delegates;
+    }
+
+    public RepositoryConnector newInstance( RepositorySystemSession session, RemoteRepository repository )
+        throws NoRepositoryConnectorException
+    {
+        if ( !Boolean.TRUE.equals( session.getConfigProperties().get( CHECKSUM_KEY ) ) )
+        {
+            throw new NoRepositoryConnectorException( repository );
+        }
+        RepositoryConnector connector = null;
+        for ( RepositoryConnectorFactory delegate : delegates )
+        {
+            try
+            {
+                connector = delegate.newInstance( session, repository );
+                break;
+            }
+            catch ( NoRepositoryConnectorException e )
+            {
+                // next one
+            }
+        }
+        if ( connector == null )
+        {
+            throw new NoRepositoryConnectorException( repository );
+        }
+        if ( !ProbeEngine.isSupported( repository.getUrl() ) || repository.getAuthentication() != null )
+        {
+            return connector;
+        }
+        Object timeout = session.getConfigProperties().get( "aether.connector.requestTimeout" );
+        return new ChecksumConnector( connector, repository,
+                                      timeout instanceof Integer ? (Integer) timeout : DEFAULT_TIMEOUT );
+    }
+
+    public int getPriority()
+    {
+        int priority = 0;
+        for ( RepositoryConnectorFactory delegate : delegates )
+        {
+            priority = Math.max( priority, delegate.getPriority() );
+        }
+        return priority + 1;
+    }
+
+    /**
+     * @return artifacts found unchanged by their checksum and downloaded since the node started
+     */
+    public static String getStatistics()
+    {
+        return UNCHANGED.get() + " SNAPSHOT artifacts unchanged (" + SKIPPED_BYTES.get() / 1024
+            + " KB not downloaded), " + DOWNLOADED.get() + " downloaded";
+    }
+
+    /**
+     * @return the checksum of the file, computed if the file has changed since the previous call
+     */
+    private static String getLocalChecksum( File file, String algorithm )
+        throws IOException
+    {
+        String key = file.getAbsolutePath() + '|' + file.length() + '|' + file.lastModified() + '|' + algorithm;
+        String checksum = LOCAL_CHECKSUMS.get( key );
+        if ( checksum != null )
+        {
+            return checksum;
+        }
+        Object result = ChecksumUtils.calc( file, Arrays.asList( algorithm ) ).get( algorithm );
+        if ( !( result instanceof String ) )
+        {
+            throw new IOException( "cannot compute the " + algorithm + " of " + file );
+        }
+        if ( LOCAL_CHECKSUMS.size() > MAX_LOCAL_CHECKSUMS )
+        {
+            LOCAL_CHECKSUMS.clear();
+        }
+        LOCAL_CHECKSUMS.put( key, (String) result );
+        return (String) result;
+    }
+
+    /**
+     * @param content the content of a checksum file : the checksum optionally followed by the file name
+     */
+    private static String parseChecksum( byte[] content )
+        throws IOException
+    {
+        // hexadecimal digits, whatever the default charset of the node
+        String checksum = StringUtils.trimToEmpty( new String( content, "US-ASCII" ) );
+        int index = StringUtils.indexOfAny( checksum, " \t\r\n" );
+        return ( index < 0 ? checksum : checksum.substring( 0, index ) ).toLowerCase();
+    }
+
+    private static class ChecksumConnector
+        implements RepositoryConnector
+    {
+        private final RepositoryConnector delegate;
+
+        private final RemoteRepository repository;
+
+        private final int timeout;
+
+        private final MavenDefaultLayout layout = new MavenDefaultLayout();
+
+        private ChecksumConnector( RepositoryConnector delegate, RemoteRepository repository, int timeout )
+        {
+            this.delegate = delegate;
+            this.repository = repository;
+            this.timeout = timeout;
+        }
+
+        public void get( Collection<? extends ArtifactDownload> artifactDownloads,
+                         Collection<? extends MetadataDownload> metadataDownloads )
+        {
+            if ( artifactDownloads == null || artifactDownloads.isEmpty() )
+            {
+                delegate.get( artifactDownloads, metadataDownloads );
+                return;
+            }
+            Map<ArtifactDownload, String> checked = new HashMap<ArtifactDownload, String>();
+            for ( ArtifactDownload download : artifactDownloads )
+            {
+                if ( download.getArtifact().isSnapshot() && !download.isExistenceCheck() && download.getFile() != null
+                    && download.getFile().isFile() )
+                {
+                    checked.put( download, StringUtils.removeEnd( repository.getUrl(), "/" ) + "/" + layout.getPath(
+                        download.getArtifact() ).toString() );
+                }
+            }
+            List<ArtifactDownload> remoteDownloads = new ArrayList<ArtifactDownload>( artifactDownloads );
+            if ( !checked.isEmpty() )
+            {
+                remoteDownloads.removeAll( getUnchanged( checked ) );
+            }
+            DOWNLOADED.addAndGet( remoteDownloads.size() );
+            delegate.get( remoteDownloads, metadataDownloads );
+        }
+
+        /**
+         * @param checked the artifacts to check with their url
+         * @return the artifacts whose remote checksum is the one of the local copy
+         */
+        private List<ArtifactDownload> getUnchanged( Map<ArtifactDownload, String> checked )
+        {
+            List<ArtifactDownload> unchanged = new ArrayList<ArtifactDownload>();
+            try
+            {
+                Map<String, byte[]> sha1s = get( checked.values(), ".sha1" );
+                List<String> md5Urls = new ArrayList<String>();
+                for ( String url : checked.values() )
+                {
+                    if ( !sha1s.containsKey( url ) )
+                    {
+                        md5Urls.add( url );
+                    }
+                }
+                // the md5 are only requested for the artifacts without sha1
+                Map<String, byte[]> md5s =
+                    md5Urls.isEmpty() ? new HashMap<String, byte[]>() : get( md5Urls, ".md5" );
+                for ( Map.Entry<ArtifactDownload, String> entry : checked.entrySet() )
+                {
+                    File file = entry.getKey().getFile();
+                    byte[] sha1 = sha1s.get( entry.getValue() );
+                    byte[] md5 = md5s.get( entry.getValue() );
+                    boolean same = sha1 != null
+                        ? parseChecksum( sha1 ).equals( getLocalChecksum( file, SHA1 ) )
+                        : md5 != null && parseChecksum( md5 ).equals( getLocalChecksum( file, MD5 ) );
+                    if ( same )
+                    {
+                        entry.getKey().setState( Transfer.State.DONE );
+                        unchanged.add( entry.getKey() );
+                        UNCHANGED.incrementAndGet();
+                        SKIPPED_BYTES.addAndGet( file.length() );
+                    }
+                }
+            }
+            catch ( IOException e )
+            {
+                LOGGER.fine( "cannot check the checksums on " + repository.getUrl() + " : " + e.getMessage() );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+            return unchanged;
+        }
+
+        /**
+         * @return the checksum files found keyed by artifact url
+         */
+        private Map<String, byte[]> get( Collection<String> urls, String extension )
+            throws InterruptedException
+        {
+            List<String> checksumUrls = new ArrayList<String>( urls.size() );
+            for ( String url : urls )
+            {
+                checksumUrls.add( url + extension );
+            }
+            Map<String, byte[]> checksums = new HashMap<String, byte[]>();
+            for ( Map.Entry<String, byte[]> entry : ProbeEngine.getInstance().get( checksumUrls, CONNECTIONS,
+                                                                                   timeout ).entrySet() )
+            {
+                checksums.put( StringUtils.removeEnd( entry.getKey(), extension ), entry.getValue() );
+            }
+            return checksums;
+        }
+
+        public void put( Collection<? extends ArtifactUpload> artifactUploads,
+                         Collection<? extends MetadataUpload> metadataUploads )
+        {
+            delegate.put( artifactUploads, metadataUploads );
+        }
+
+        public void close()
+        {
+            delegate.close();
+        }
+    }
+}
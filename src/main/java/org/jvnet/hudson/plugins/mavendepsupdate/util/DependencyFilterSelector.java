@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.apache.commons.lang.StringUtils;
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.collection.DependencyCollectionContext;
+import org.sonatype.aether.collection.DependencySelector;
+import org.sonatype.aether.graph.Dependency;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Restricts the dependency graphs collected by the checks : scopes, <code>groupId:artifactId</code> glob patterns
+ * and maximum depth (1 for the direct dependencies only). A dependency which is not selected is not resolved,
+ * neither are its own dependencies, so no remote request is made for it.
+ * A pattern without <code>:</code> only matches the groupId.
+ * NOTE : <b>this class is not designed for external use so it can change without any prior notice</b>
+ *
+ * @since 1.5
+ */
+public class DependencyFilterSelector
+    implements DependencySelector
+{
+    private final DependencySelector delegate;
+
+    private final Set<String> scopes;
+
+    private final List<String> includes;
+
+    private final List<String> excludes;
+
+    private final int maxDepth;
+
+    private final int depth;
+
+    private final Pattern includePattern;
+
+    private final Pattern excludePattern;
+
+    /**
+     * @param delegate the selector of the session
+     * @param scopes   selected scopes, all if empty
+     * @param includes <code>groupId:artifactId</code> glob patterns, all if empty
+     * @param excludes <code>groupId:artifactId</code> glob patterns
+     * @param maxDepth maximum depth of the selected dependencies, unlimited if <code>0</code>
+     */
+    public DependencyFilterSelector( DependencySelector delegate, Collection<String> scopes,
+                                     List<String> includes, List<String> excludes, int maxDepth )
+    {
+        this( delegate, new HashSet<String>( scopes ), new ArrayList<String>( includes ),
+              new ArrayList<String>( excludes ), maxDepth, 0 );
+    }
+
+    private DependencyFilterSelector( DependencySelector delegate, Set<String> scopes, List<String> includes,
+                                      List<String> excludes, int maxDepth, int depth )
+    {
+        this.delegate = delegate;
+        this.scopes = scopes;
+        this.includes = includes;
+        this.excludes = excludes;
+        this.maxDepth = maxDepth;
+        this.depth = depth;
+        this.includePattern = toPattern( includes );
+        this.excludePattern = toPattern( excludes );
+    }
+
+    /**
+     * @return <code>true</code> if at least one filter is defined
+     */
+    public static boolean isFiltering( Collection<String> scopes, List<String> includes, List<String> excludes,
+                                       int maxDepth )
+    {
+        return !scopes.isEmpty() || !includes.isEmpty() || !excludes.isEmpty() || maxDepth > 0;
+    }
+
+    /**
+     * @return the comma or whitespace separated values
+     */
+    public static List<String> split( String values )
+    {
+        List<String> result = new ArrayList<String>();
+        String[] tokens = StringUtils.split( values, ", \t\r\n" );
+        if ( tokens != null )
+        {
+            for ( String token : tokens )
+            {
+                result.add( token );
+            }
+        }
+        return result;
+    }
+
+    public boolean selectDependency( Dependency dependency )
+    {
+        if ( maxDepth > 0 && depth >= maxDepth )
+        {
+            return false;
+        }
+        if ( !scopes.isEmpty() && !scopes.contains( dependency.getScope() ) )
+        {
+            return false;
+        }
+        Artifact artifact = dependency.getArtifact();
+        if ( !isIncluded( artifact.getGroupId(), artifact.getArtifactId() ) )
+        {
+            return false;
+        }
+        return delegate == null || delegate.selectDependency( dependency );
+    }
+
+    /**
+     * @return <code>true</code> if the coordinates match the include and exclude patterns
+     */
+    public boolean isIncluded( String groupId, String artifactId )
+    {
+        String ga = groupId + ":" + artifactId;
+        if ( includePattern != null && !includePattern.matcher( ga ).matches() )
+        {
+            return false;
+        }
+        return excludePattern == null || !excludePattern.matcher( ga ).matches();
+    }
+
+    public DependencySelector deriveChildSelector( DependencyCollectionContext context )
+    {
+        DependencySelector childDelegate = delegate == null ? null : delegate.deriveChildSelector( context );
+        // the root of the collection is the project itself
+        int childDepth = context.getDependency() == null ? depth : depth + 1;
+        if ( childDepth == depth && childDelegate == delegate )
+        {
+            return this;
+        }
+        return new DependencyFilterSelector( childDelegate, scopes, includes, excludes, maxDepth, childDepth );
+    }
+
+    private static Pattern toPattern( List<String> globs )
+    {
+        if ( globs.isEmpty() )
+        {
+            return null;
+        }
+        StringBuilder regex = new StringBuilder();
+        for ( String glob : globs )
+        {
+            if ( regex.length() > 0 )
+            {
+                regex.append( '|' );
+            }
+            regex.append( "(?:" );
+            String pattern = glob.indexOf( ':' ) < 0 ? glob + ":*" : glob;
+            for ( char c : pattern.toCharArray() )
+            {
+                if ( c == '*' )
+                {
+                    regex.append( ".*" );
+                }
+                else if ( c == '?' )
+                {
+                    regex.append( '.' );
+                }
+                else
+                {
+                    regex.append( Pattern.quote( String.valueOf( c ) ) );
+                }
+            }
+            regex.append( ')' );
+        }
+        return Pattern.compile( regex.toString() );
+    }
+
+    @Override
+    public boolean equals( Object o )
+    {
+        if ( this == o )
+        {
+            return true;
+        }
+        if ( o == null || getClass() != o.getClass() )
+        {
+            return false;
+        }
+        DependencyFilterSelector that = (DependencyFilterSelector) o;
+        return depth == that.depth && maxDepth == that.maxDepth && scopes.equals( that.scopes ) && includes.equals(
+            that.includes ) && excludes.equals( that.excludes ) && ( delegate == null
+            ? that.delegate == null
+            : delegate.equals( that.delegate ) );
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int hash = 17;
+        hash = hash * 31 + depth;
+        hash = hash * 31 + maxDepth;
+        hash = hash * 31 + scopes.hashCode();
+        hash = hash * 31 + includes.hashCode();
+        hash = hash * 31 + excludes.hashCode();
+        hash = hash * 31 + ( delegate == null ? 0 : delegate.hashCode() );
+        return hash;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.apache.commons.lang.math.NumberUtils;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controller wide token bucket per remote repository host.
+ * The rate is <code>-DMavenDependencyUpdateTrigger.requestsPerSecond</code> (0, the default, disables the limit),
+ * it can be overridden per host with <code>-DMavenDependencyUpdateTrigger.requestsPerSecond.&lt;host&gt;</code>.
+ * <code>-DMavenDependencyUpdateTrigger.requestsBurst</code> is the bucket capacity.
+ * The tokens are leased by batches to the checks (see {@link LeasedRequestThrottle}) and a lease never waits : when
+ * the bucket is empty the check is told when to ask again. The jobs which asked for tokens in the last
+ * {@link #ACTIVE_WINDOW} milliseconds share the bucket : a lease gets at most the capacity divided by their number,
+ * so a job with many pending requests cannot starve the other jobs.
+ * NOTE : <b>this class is not designed for external use so it can change without any prior notice</b>
+ *
+ * @since 1.5
+ */
+public class HostRateLimiter
+{
+    private static final String RATE_PROPERTY = "MavenDependencyUpdateTrigger.requestsPerSecond";
+
+    private static final HostRateLimiter INSTANCE = new HostRateLimiter();
+
+    /**
+     * delay in milliseconds after its last lease during which a job shares the bucket
+     */
+    static final long ACTIVE_WINDOW = 2000;
+
+    public static double requestsPerSecond = NumberUtils.toDouble( System.getProperty( RATE_PROPERTY ), 0 );
+
+    public static int requestsBurst = Integer.getInteger( "MavenDependencyUpdateTrigger.requestsBurst", 10 );
+
+    private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+
+    public static HostRateLimiter getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * @return <code>true</code> if at least one host is limited
+     */
+    public static boolean isEnabled()
+    {
+        if ( requestsPerSecond > 0 )
+        {
+            return true;
+        }
+        for ( Object name : System.getProperties().keySet() )
+        {
+            if ( name.toString().startsWith( RATE_PROPERTY + "." ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the throttle of the checks of the job, to export to the nodes
+     */
+    public RequestThrottle forJob( final String job )
+    {
+        return new RequestThrottle()
+        {
+            public long lease( String host, int count )
+            {
+                return HostRateLimiter.this.lease( job, host, count );
+            }
+        };
+    }
+
+    /**
+     * @see RequestThrottle#lease(String, int)
+     */
+    public long lease( String job, String host, int count )
+    {
+        double rate = NumberUtils.toDouble( System.getProperty( RATE_PROPERTY + "." + host ), requestsPerSecond );
+        if ( host == null || rate <= 0 )
+        {
+            return Long.MAX_VALUE;
+        }
+        Bucket bucket = buckets.get( host );
+        if ( bucket == null )
+        {
+            buckets.putIfAbsent( host, new Bucket() );
+            bucket = buckets.get( host );
+        }
+        return bucket.lease( job, count, rate, Math.max( 1, requestsBurst ) );
+    }
+
+    /**
+     * @return leased tokens, refused leases and jobs sharing the bucket per host
+     */
+    public Map<String, String> getStatistics()
+    {
+        Map<String, String> statistics = new TreeMap<String, String>();
+        for ( Map.Entry<String, Bucket> entry : buckets.entrySet() )
+        {
+            statistics.put( entry.getKey(), entry.getValue().toString() );
+        }
+        return statistics;
+    }
+
+    private static class Bucket
+    {
+        private final Map<String, Long> activeJobs = new HashMap<String, Long>();
+
+        private double tokens;
+
+        private long lastRefill;
+
+        private boolean initialized;
+
+        private long leasedTokens;
+
+        private long refusedLeases;
+
+        private synchronized long lease( String job, int count, double rate, int capacity )
+        {
+            long now = System.nanoTime();
+            refill( now, rate, capacity );
+            activeJobs.put( job, Long.valueOf( now ) );
+            for ( Iterator<Long> iterator = activeJobs.values().iterator(); iterator.hasNext(); )
+            {
+                if ( now - iterator.next().longValue() > TimeUnit.MILLISECONDS.toNanos( ACTIVE_WINDOW ) )
+                {
+                    iterator.remove();
+                }
+            }
+            int share = Math.max( 1, capacity / activeJobs.size() );
+            long granted = (long) Math.min( Math.min( count, share ), Math.floor( tokens ) );
+            if ( granted > 0 )
+            {
+                tokens -= granted;
+                leasedTokens += granted;
+                return granted;
+            }
+            refusedLeases++;
+            return -Math.max( 1, (long) Math.ceil( ( 1 - tokens ) / rate * 1000 ) );
+        }
+
+        private void refill( long now, double rate, int capacity )
+        {
+            if ( !initialized )
+            {
+                tokens = capacity;
+                initialized = true;
+            }
+            else
+            {
+                tokens = Math.min( capacity, tokens + ( now - lastRefill ) * rate / TimeUnit.SECONDS.toNanos( 1 ) );
+            }
+            lastRefill = now;
+        }
+
+        @Override
+        public synchronized String toString()
+        {
+            return leasedTokens + " tokens leased, " + refusedLeases + " leases refused, " + activeJobs.size()
+                + " active jobs";
+        }
+    }
+}
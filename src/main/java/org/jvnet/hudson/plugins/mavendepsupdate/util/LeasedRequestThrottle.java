@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Local bucket per host of the permissions leased by batches to a check from the controller {@link RequestThrottle}.
+ * The permissions not used within {@link #LEASE_VALIDITY} are dropped, so the check never sends more requests than
+ * the controller granted in the last second. The requests waiting for a lease don't hold any lock.
+ * NOTE : <b>this class is not designed for external use so it can change without any prior notice</b>
+ *
+ * @since 1.5
+ */
+public class LeasedRequestThrottle
+{
+    /**
+     * permissions asked per lease
+     */
+    static final int BATCH = 10;
+
+    /**
+     * validity in milliseconds of the leased permissions
+     */
+    static final long LEASE_VALIDITY = 1000;
+
+    private final RequestThrottle throttle;
+
+    private final Map<String, Lease> leases = new HashMap<String, Lease>();
+
+    public LeasedRequestThrottle( RequestThrottle throttle )
+    {
+        this.throttle = throttle;
+    }
+
+    /**
+     * wait until a request can be sent to the host.
+     *
+     * @return the time waited in milliseconds
+     */
+    public long acquire( String host )
+        throws InterruptedException
+    {
+        long waited = 0;
+        while ( true )
+        {
+            synchronized ( this )
+            {
+                Lease lease = leases.get( host );
+                if ( lease != null && lease.take() )
+                {
+                    return waited;
+                }
+            }
+            long granted = throttle.lease( host, BATCH );
+            if ( granted > 0 )
+            {
+                synchronized ( this )
+                {
+                    // one for this request
+                    leases.put( host, new Lease( granted - 1, granted == Long.MAX_VALUE ) );
+                }
+                return waited;
+            }
+            long delay = Math.max( 1, -granted );
+            Thread.sleep( delay );
+            waited += delay;
+        }
+    }
+
+    private static class Lease
+    {
+        private final long expires;
+
+        private long permits;
+
+        private Lease( long permits, boolean unlimited )
+        {
+            this.permits = permits;
+            this.expires = unlimited ? Long.MAX_VALUE : System.currentTimeMillis() + LEASE_VALIDITY;
+        }
+
+        private boolean take()
+        {
+            if ( permits <= 0 || System.currentTimeMillis() > expires )
+            {
+                return false;
+            }
+            permits--;
+            return true;
+        }
+    }
+}
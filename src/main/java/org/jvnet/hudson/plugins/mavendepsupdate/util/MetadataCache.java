@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+/**
+ * Remote repository metadata shared by the checks. The controller instance is exported to the nodes : a metadata is
+ * fetched once by a check and served to the other checks until it expires. The calls never wait for another check,
+ * they don't hold a remoting thread of the controller.
+ * NOTE : <b>this class is not designed for external use so it can change without any prior notice</b>
+ *
+ * @since 1.5
+ */
+public interface MetadataCache
+{
+    /**
+     * get the cached content of the metadata or the permission to fetch it. While a check has the permission, the
+     * other calls for the same url answer an empty content : the caller polls again later or fetches the metadata
+     * itself without calling {@link #release}.
+     *
+     * @param url the metadata url
+     * @return the content, an empty array if another check is fetching the metadata or <code>null</code> if the
+     *         caller must fetch the metadata then call {@link #release}
+     */
+    byte[] acquire( String url );
+
+    /**
+     * @param url     the metadata url
+     * @param content the fetched content or <code>null</code> if the fetch failed
+     */
+    void release( String url, byte[] content );
+}
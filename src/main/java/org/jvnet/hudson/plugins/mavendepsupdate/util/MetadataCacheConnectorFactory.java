@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.sonatype.aether.RepositorySystemSession;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.spi.connector.ArtifactDownload;
+import org.sonatype.aether.spi.connector.ArtifactUpload;
+import org.sonatype.aether.spi.connector.MetadataDownload;
+import org.sonatype.aether.spi.connector.MetadataUpload;
+import org.sonatype.aether.spi.connector.RepositoryConnector;
+import org.sonatype.aether.spi.connector.RepositoryConnectorFactory;
+import org.sonatype.aether.transfer.MetadataTransferException;
+import org.sonatype.aether.transfer.NoRepositoryConnectorException;
+import org.sonatype.aether.transfer.TransferCancelledException;
+import org.sonatype.aether.transfer.TransferEvent;
+import org.sonatype.aether.transfer.TransferListener;
+import org.sonatype.aether.util.layout.MavenDefaultLayout;
+import org.sonatype.aether.util.listener.DefaultTransferEvent;
+import org.sonatype.aether.util.listener.DefaultTransferResource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Connectors serving the metadata of the http repositories from the {@link MetadataCache} set in the session
+ * configuration under {@link #CACHE_KEY} : only the metadata missing from the cache are requested by the wagon
+ * connector. The transfer events of the metadata served from the cache are fired as if they had been downloaded so
+ * the transfer listener still detects the SNAPSHOT updates. The metadata are fetched one at a time : a check never
+ * holds the permission to fetch a metadata while it polls the cache for another one. The repositories with
+ * credentials are not cached.
+ * NOTE : <b>this class is not designed for external use so it can change without any prior notice</b>
+ *
+ * @since 1.5
+ */
+public class MetadataCacheConnectorFactory
+    implements RepositoryConnectorFactory
+{
+    private static final Logger LOGGER = Logger.getLogger( MetadataCacheConnectorFactory.class.getName() );
+
+    public static final String HINT = "metadata-cache";
+
+    public static final String CACHE_KEY = "MavenDependencyUpdateTrigger.metadataCache";
+
+    /**
+     * delay in milliseconds between two requests of a metadata fetched by another check
+     */
+    private static final long BUSY_POLL = 100;
+
+    /**
+     * delay in milliseconds after which a metadata still fetched by another check is fetched directly
+     */
+    private static final long BUSY_TIMEOUT = 10 * 1000;
+
+    private final RepositoryConnectorFactory wagonConnectorFactory;
+
+    public MetadataCacheConnectorFactory( RepositoryConnectorFactory wagonConnectorFactory )
+    {
+        this.wagonConnectorFactory = wagonConnectorFactory;
+    }
+
+    public RepositoryConnector newInstance( RepositorySystemSession session, RemoteRepository repository )
+        throws NoRepositoryConnectorException
+    {
+        Object cache = session.getConfigProperties().get( CACHE_KEY );
+        if ( !( cache instanceof MetadataCache ) )
+        {
+            throw new NoRepositoryConnectorException( repository );
+        }
+        RepositoryConnector connector = wagonConnectorFactory.newInstance( session, repository );
+        if ( !StringUtils.startsWith( repository.getProtocol(), "http" ) )
+        {
+            return connector;
+        }
+        return new MetadataCacheConnector( connector, (MetadataCache) cache, session, repository );
+    }
+
+    public int getPriority()
+    {
+        return wagonConnectorFactory.getPriority() + 1;
+    }
+
+    private static class MetadataCacheConnector
+        implements RepositoryConnector
+    {
+        private final RepositoryConnector delegate;
+
+        private final MetadataCache cache;
+
+        private final RepositorySystemSession session;
+
+        private final RemoteRepository repository;
+
+        private final MavenDefaultLayout layout = new MavenDefaultLayout();
+
+        private MetadataCacheConnector( RepositoryConnector delegate, MetadataCache cache,
+                                        RepositorySystemSession session, RemoteRepository repository )
+        {
+            this.delegate = delegate;
+            this.cache = cache;
+            this.session = session;
+            this.repository = repository;
+        }
+
+        public void get( Collection<? extends ArtifactDownload> artifactDownloads,
+                         Collection<? extends MetadataDownload> metadataDownloads )
+        {
+            if ( metadataDownloads == null || metadataDownloads.isEmpty() || repository.getAuthentication() != null )
+            {
+                // the metadata of a repository with credentials are not shared with the checks without them
+                delegate.get( artifactDownloads, metadataDownloads );
+                return;
+            }
+            List<MetadataDownload> remoteDownloads = new ArrayList<MetadataDownload>();
+            List<MetadataDownload> busyDownloads = new ArrayList<MetadataDownload>( metadataDownloads );
+            long deadline = System.currentTimeMillis() + BUSY_TIMEOUT;
+            while ( !busyDownloads.isEmpty() )
+            {
+                boolean late = System.currentTimeMillis() > deadline;
+                for ( Iterator<MetadataDownload> iterator = busyDownloads.iterator(); iterator.hasNext(); )
+                {
+                    MetadataDownload download = iterator.next();
+                    String resourceName = layout.getPath( download.getMetadata() ).toString();
+                    String url = StringUtils.removeEnd( repository.getUrl(), "/" ) + "/" + resourceName;
+                    byte[] content = acquire( url );
+                    if ( content == null )
+                    {
+                        // only one fetch permission is held at a time
+                        fetch( url, download );
+                    }
+                    else if ( content.length > 0 )
+                    {
+                        serve( download, resourceName, content );
+                    }
+                    else if ( late )
+                    {
+                        // fetched by another check for too long, don't wait for it
+                        remoteDownloads.add( download );
+                    }
+                    else
+                    {
+                        continue;
+                    }
+                    iterator.remove();
+                }
+                if ( !busyDownloads.isEmpty() && !pause() )
+                {
+                    remoteDownloads.addAll( busyDownloads );
+                    break;
+                }
+            }
+            delegate.get( artifactDownloads, remoteDownloads );
+        }
+
+        /**
+         * @return the cached content, an empty array if another check is fetching it or <code>null</code> if the
+         *         metadata must be fetched
+         */
+        private byte[] acquire( String url )
+        {
+            try
+            {
+                return cache.acquire( url );
+            }
+            catch ( RuntimeException e )
+            {
+                // channel closed
+                LOGGER.fine( "cannot get " + url + " from the metadata cache : " + e.getMessage() );
+            }
+            return null;
+        }
+
+        private void fetch( String url, MetadataDownload download )
+        {
+            try
+            {
+                delegate.get( Collections.<ArtifactDownload>emptyList(), Collections.singletonList( download ) );
+            }
+            finally
+            {
+                release( url, download );
+            }
+        }
+
+        /**
+         * @return <code>false</code> if interrupted
+         */
+        private boolean pause()
+        {
+            try
+            {
+                Thread.sleep( BUSY_POLL );
+                return true;
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        private void release( String url, MetadataDownload download )
+        {
+            try
+            {
+                byte[] content = download.getException() == null && download.getFile().isFile()
+                    ? FileUtils.readFileToByteArray( download.getFile() )
+                    : null;
+                cache.release( url, content );
+            }
+            catch ( IOException e )
+            {
+                cache.release( url, null );
+            }
+            catch ( RuntimeException e )
+            {
+                LOGGER.fine( "cannot put " + url + " in the metadata cache : " + e.getMessage() );
+            }
+        }
+
+        private void serve( MetadataDownload download, String resourceName, byte[] content )
+        {
+            DefaultTransferResource resource =
+                new DefaultTransferResource( repository.getUrl(), resourceName, download.getFile(),
+                                             download.getTrace() );
+            resource.setContentLength( content.length );
+            try
+            {
+                fire( TransferEvent.EventType.INITIATED, resource, 0, null );
+                fire( TransferEvent.EventType.STARTED, resource, 0, null );
+                // the file can be read by the version resolution of a concurrent check
+                ScratchLocalRepositoryManager.writeAtomically( download.getFile(), content );
+                fire( TransferEvent.EventType.SUCCEEDED, resource, content.length, null );
+            }
+            catch ( TransferCancelledException e )
+            {
+                download.setException( new MetadataTransferException( download.getMetadata(), repository, e ) );
+            }
+            catch ( IOException e )
+            {
+                download.setException( new MetadataTransferException( download.getMetadata(), repository, e ) );
+                try
+                {
+                    fire( TransferEvent.EventType.FAILED, resource, 0, e );
+                }
+                catch ( TransferCancelledException ignore )
+                {
+                    // already failed
+                }
+            }
+        }
+
+        private void fire( TransferEvent.EventType type, DefaultTransferResource resource, long transferredBytes,
+                           Exception exception )
+            throws TransferCancelledException
+        {
+            TransferListener listener = session.getTransferListener();
+            if ( listener == null )
+            {
+                return;
+            }
+            DefaultTransferEvent event = new DefaultTransferEvent();
+            event.setType( type );
+            event.setRequestType( TransferEvent.RequestType.GET );
+            event.setResource( resource );
+            event.setTransferredBytes( transferredBytes );
+            event.setException( exception );
+            switch ( type )
+            {
+                case INITIATED:
+                    listener.transferInitiated( event );
+                    break;
+                case STARTED:
+                    listener.transferStarted( event );
+                    break;
+                case SUCCEEDED:
+                    listener.transferSucceeded( event );
+                    break;
+                default:
+                    listener.transferFailed( event );
+            }
+        }
+
+        public void put( Collection<? extends ArtifactUpload> artifactUploads,
+                         Collection<? extends MetadataUpload> metadataUploads )
+        {
+            delegate.put( artifactUploads, metadataUploads );
+        }
+
+        public void close()
+        {
+            delegate.close();
+        }
+    }
+}
@@ -0,0 +1,695 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Node wide transport for the small metadata GETs of the probes : the requests of all the checks are queued per host
+ * and sent by at most <code>connectionsPerHost</code> workers per host, over HTTP/1.1 connections kept alive in a
+ * pool per host and reused by the next requests, so the number of threads is bounded whatever the number of urls.
+ * Requests are not pipelined : many servers and proxies don't support it, the concurrent kept-alive connections give
+ * the same round trip savings.
+ * Only plain GETs without credentials nor proxy are supported : a url which cannot be probed (authentication,
+ * redirection, error...) is reported as such and the caller falls back to the regular resolution.
+ * The https urls are only supported if the JVM can verify the host name of the server certificate (java 7 endpoint
+ * identification).
+ * The GETs can be conditional : the validators (<code>ETag</code>, <code>Last-Modified</code>) of a previous
+ * response are sent and a <code>304</code> is answered without content if the resource has not changed.
+ * NOTE : <b>this class is not designed for external use so it can change without any prior notice</b>
+ *
+ * @since 1.5
+ */
+public class ProbeEngine
+{
+    private static final Logger LOGGER = Logger.getLogger( ProbeEngine.class.getName() );
+
+    private static final ProbeEngine INSTANCE = new ProbeEngine();
+
+    private static final String CRLF = "\r\n";
+
+    /**
+     * <code>SSLSocket.getSSLParameters</code> (java 6) or <code>null</code> if not available, the TLS host name setup
+     * is reflective as the plugin still runs on java 5
+     */
+    private static final Method GET_SSL_PARAMETERS =
+        getMethod( "javax.net.ssl.SSLSocket", "getSSLParameters", null );
+
+    /**
+     * <code>SSLSocket.setSSLParameters</code> (java 6) or <code>null</code> if not available
+     */
+    private static final Method SET_SSL_PARAMETERS =
+        getMethod( "javax.net.ssl.SSLSocket", "setSSLParameters", "javax.net.ssl.SSLParameters" );
+
+    /**
+     * <code>SSLParameters.setEndpointIdentificationAlgorithm</code> (java 7) or <code>null</code> if not available
+     */
+    private static final Method ENDPOINT_IDENTIFICATION =
+        getMethod( "javax.net.ssl.SSLParameters", "setEndpointIdentificationAlgorithm", "java.lang.String" );
+
+    private final ExecutorService executorService = Executors.newCachedThreadPool( new ThreadFactory()
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread( Runnable runnable )
+        {
+            Thread thread = new Thread( runnable, "maven-dependency-update-probe-" + count.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        }
+    } );
+
+    private final Map<String, HostPool> pools = new ConcurrentHashMap<String, HostPool>();
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    private final AtomicLong openedConnections = new AtomicLong();
+
+    private final AtomicLong reusedConnections = new AtomicLong();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    public static ProbeEngine getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * @return <code>true</code> if the url can be probed by this engine
+     */
+    public static boolean isSupported( String url )
+    {
+        return ( StringUtils.startsWith( url, "http://" ) && System.getProperty( "http.proxyHost" ) == null ) || (
+            StringUtils.startsWith( url, "https://" ) && System.getProperty( "https.proxyHost" ) == null
+                && isHostNameVerificationSupported() );
+    }
+
+    /**
+     * get the urls concurrently.
+     *
+     * @param connectionsPerHost maximum number of connections per host
+     * @param timeout            connect and read timeout in milliseconds
+     * @return the content of the urls answered with a 200, the other urls are missing
+     */
+    public Map<String, byte[]> get( Collection<String> urls, int connectionsPerHost, int timeout )
+        throws InterruptedException
+    {
+        Map<String, Response> requests = new HashMap<String, Response>();
+        for ( String url : urls )
+        {
+            requests.put( url, null );
+        }
+        Map<String, byte[]> contents = new HashMap<String, byte[]>();
+        for ( Map.Entry<String, Response> entry : get( requests, connectionsPerHost, timeout ).entrySet() )
+        {
+            if ( entry.getValue().getStatus() == 200 )
+            {
+                contents.put( entry.getKey(), entry.getValue().getContent() );
+            }
+        }
+        return contents;
+    }
+
+    /**
+     * get the urls concurrently, conditionally for the urls with a previous response.
+     *
+     * @param urls               the urls with their previous response or <code>null</code>
+     * @param connectionsPerHost maximum number of connections per host
+     * @param timeout            connect and read timeout in milliseconds
+     * @return the responses, the urls which cannot be requested are missing
+     */
+    public Map<String, Response> get( Map<String, Response> urls, int connectionsPerHost, int timeout )
+        throws InterruptedException
+    {
+        Map<String, Response> responses = new ConcurrentHashMap<String, Response>();
+        CountDownLatch latch = new CountDownLatch( urls.size() );
+        for ( Map.Entry<String, Response> entry : urls.entrySet() )
+        {
+            try
+            {
+                URL parsed = new URL( entry.getKey() );
+                HostPool pool = getPool( parsed, connectionsPerHost );
+                if ( pool.submit( new Request( entry.getKey(), parsed, entry.getValue(), timeout, responses,
+                                               latch ) ) )
+                {
+                    executorService.execute( new Worker( pool ) );
+                }
+            }
+            catch ( IOException e )
+            {
+                latch.countDown();
+            }
+        }
+        latch.await();
+        return new HashMap<String, Response>( responses );
+    }
+
+    /**
+     * @return requests, failures, opened and reused connections and the maximum number of requests in flight
+     */
+    public String getStatistics()
+    {
+        return requests.get() + " requests (" + failures.get() + " failed), " + openedConnections.get()
+            + " connections opened, " + reusedConnections.get() + " reused, max " + maxInFlight.get() + " in flight";
+    }
+
+    private HostPool getPool( URL url, int connectionsPerHost )
+    {
+        String key = url.getProtocol() + "://" + url.getHost() + ":" + getPort( url );
+        synchronized ( pools )
+        {
+            HostPool pool = pools.get( key );
+            if ( pool == null )
+            {
+                pool = new HostPool( Math.max( 1, connectionsPerHost ) );
+                pools.put( key, pool );
+            }
+            return pool;
+        }
+    }
+
+    private static int getPort( URL url )
+    {
+        return url.getPort() > 0 ? url.getPort() : url.getDefaultPort();
+    }
+
+    private Response get( HostPool pool, URL url, Response previous, int timeout )
+    {
+        int current = inFlight.incrementAndGet();
+        int max;
+        while ( current > ( max = maxInFlight.get() ) && !maxInFlight.compareAndSet( max, current ) )
+        {
+            // retry
+        }
+        requests.incrementAndGet();
+        try
+        {
+            Connection connection = pool.poll();
+            if ( connection != null )
+            {
+                try
+                {
+                    reusedConnections.incrementAndGet();
+                    return request( pool, connection, url, previous );
+                }
+                catch ( IOException e )
+                {
+                    // closed by the server meanwhile
+                    connection.close();
+                }
+            }
+            connection = open( url, timeout );
+            return request( pool, connection, url, previous );
+        }
+        catch ( IOException e )
+        {
+            failures.incrementAndGet();
+            LOGGER.fine( "cannot probe " + url + " : " + e.getMessage() );
+            return null;
+        }
+        finally
+        {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private Connection open( URL url, int timeout )
+        throws IOException
+    {
+        Socket socket = new Socket();
+        try
+        {
+            socket.connect( new InetSocketAddress( url.getHost(), getPort( url ) ), timeout );
+            socket.setSoTimeout( timeout );
+            socket.setTcpNoDelay( true );
+            if ( "https".equals( url.getProtocol() ) )
+            {
+                socket = openTls( socket, url );
+            }
+            openedConnections.incrementAndGet();
+            return new Connection( socket );
+        }
+        catch ( IOException e )
+        {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the TLS connection over the socket, the host name of the server certificate being verified
+     */
+    private static Socket openTls( Socket socket, URL url )
+        throws IOException
+    {
+        if ( !isHostNameVerificationSupported() )
+        {
+            throw new IOException( "cannot verify the host name of " + url );
+        }
+        SSLSocket sslSocket = (SSLSocket) ( (SSLSocketFactory) SSLSocketFactory.getDefault() ).createSocket(
+            socket, url.getHost(), getPort( url ), true );
+        try
+        {
+            Object parameters = GET_SSL_PARAMETERS.invoke( sslSocket );
+            ENDPOINT_IDENTIFICATION.invoke( parameters, "HTTPS" );
+            SET_SSL_PARAMETERS.invoke( sslSocket, parameters );
+        }
+        catch ( Exception e )
+        {
+            sslSocket.close();
+            throw new IOException( "cannot verify the host name of " + url + " : " + e.getMessage() );
+        }
+        // the certificate and its host name are checked by the handshake
+        sslSocket.startHandshake();
+        return sslSocket;
+    }
+
+    private static boolean isHostNameVerificationSupported()
+    {
+        return GET_SSL_PARAMETERS != null && SET_SSL_PARAMETERS != null && ENDPOINT_IDENTIFICATION != null;
+    }
+
+    /**
+     * @param parameterType class name of the single parameter of the method, <code>null</code> if it has none
+     * @return the public method or <code>null</code> if not available on this java version
+     */
+    private static Method getMethod( String className, String name, String parameterType )
+    {
+        try
+        {
+            Class<?> type = Class.forName( className );
+            return parameterType == null
+                ? type.getMethod( name )
+                : type.getMethod( name, Class.forName( parameterType ) );
+        }
+        catch ( Exception e )
+        {
+            return null;
+        }
+        catch ( LinkageError e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * send the GET and read the response, the connection goes back to the pool if it can be reused
+     *
+     * @param previous the previous response whose validators are sent or <code>null</code>
+     */
+    private Response request( HostPool pool, Connection connection, URL url, Response previous )
+        throws IOException
+    {
+        boolean reusable = false;
+        try
+        {
+            String host = url.getPort() > 0 ? url.getHost() + ":" + url.getPort() : url.getHost();
+            StringBuilder request = new StringBuilder( "GET " ).append(
+                StringUtils.isEmpty( url.getFile() ) ? "/" : url.getFile() ).append( " HTTP/1.1" ).append( CRLF );
+            request.append( "Host: " ).append( host ).append( CRLF );
+            request.append( "User-Agent: maven-dependency-update-trigger" ).append( CRLF );
+            request.append( "Accept-Encoding: identity" ).append( CRLF );
+            request.append( "Connection: keep-alive" ).append( CRLF );
+            if ( previous != null && previous.etag != null )
+            {
+                request.append( "If-None-Match: " ).append( previous.etag ).append( CRLF );
+            }
+            if ( previous != null && previous.lastModified != null )
+            {
+                request.append( "If-Modified-Since: " ).append( previous.lastModified ).append( CRLF );
+            }
+            request.append( CRLF );
+            connection.out.write( request.toString().getBytes( "US-ASCII" ) );
+            connection.out.flush();
+
+            String statusLine = readLine( connection.in );
+            String[] status = StringUtils.split( statusLine, ' ' );
+            if ( status.length < 2 || !status[0].startsWith( "HTTP/1." ) || status[1].length() != 3
+                || !StringUtils.isNumeric( status[1] ) )
+            {
+                throw new IOException( "unexpected status line " + statusLine );
+            }
+            long contentLength = -1;
+            boolean chunked = false;
+            boolean close = "HTTP/1.0".equals( status[0] );
+            String etag = null;
+            String lastModified = null;
+            String header;
+            while ( ( header = readLine( connection.in ) ).length() > 0 )
+            {
+                String name = StringUtils.substringBefore( header, ":" ).trim();
+                String value = StringUtils.substringAfter( header, ":" ).trim();
+                if ( "Content-Length".equalsIgnoreCase( name ) )
+                {
+                    contentLength = Long.parseLong( value );
+                }
+                else if ( "Transfer-Encoding".equalsIgnoreCase( name ) )
+                {
+                    chunked = StringUtils.containsIgnoreCase( value, "chunked" );
+                }
+                else if ( "Connection".equalsIgnoreCase( name ) )
+                {
+                    close = "close".equalsIgnoreCase( value );
+                }
+                else if ( "ETag".equalsIgnoreCase( name ) )
+                {
+                    etag = value;
+                }
+                else if ( "Last-Modified".equalsIgnoreCase( name ) )
+                {
+                    lastModified = value;
+                }
+            }
+            byte[] content;
+            if ( "304".equals( status[1] ) || "204".equals( status[1] ) )
+            {
+                // no content whatever the headers
+                content = new byte[0];
+            }
+            else if ( chunked )
+            {
+                content = readChunked( connection.in );
+            }
+            else if ( contentLength >= 0 )
+            {
+                content = new byte[(int) contentLength];
+                new DataInputStream( connection.in ).readFully( content );
+            }
+            else
+            {
+                content = IOUtils.toByteArray( connection.in );
+                close = true;
+            }
+            reusable = !close;
+            return new Response( Integer.parseInt( status[1] ), content, etag, lastModified );
+        }
+        finally
+        {
+            if ( reusable )
+            {
+                pool.offer( connection );
+            }
+            else
+            {
+                connection.close();
+            }
+        }
+    }
+
+    private static byte[] readChunked( InputStream in )
+        throws IOException
+    {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        while ( true )
+        {
+            String sizeLine = StringUtils.substringBefore( readLine( in ), ";" ).trim();
+            int size = Integer.parseInt( sizeLine, 16 );
+            if ( size == 0 )
+            {
+                // trailers
+                while ( readLine( in ).length() > 0 )
+                {
+                    // ignore
+                }
+                return content.toByteArray();
+            }
+            byte[] chunk = new byte[size];
+            new DataInputStream( in ).readFully( chunk );
+            content.write( chunk );
+            readLine( in );
+        }
+    }
+
+    private static String readLine( InputStream in )
+        throws IOException
+    {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ( ( c = in.read() ) != '\n' )
+        {
+            if ( c == -1 )
+            {
+                throw new EOFException( "connection closed" );
+            }
+            if ( c != '\r' )
+            {
+                line.append( (char) c );
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * status, content and validators of a response
+     */
+    public static class Response
+    {
+        private final int status;
+
+        private final byte[] content;
+
+        private final String etag;
+
+        private final String lastModified;
+
+        private Response( int status, byte[] content, String etag, String lastModified )
+        {
+            this.status = status;
+            this.content = content;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        public int getStatus()
+        {
+            return status;
+        }
+
+        public byte[] getContent()
+        {
+            return content;
+        }
+
+        public String getEtag()
+        {
+            return etag;
+        }
+
+        public String getLastModified()
+        {
+            return lastModified;
+        }
+
+        /**
+         * @return the status and validators only, to keep for the next conditional request
+         */
+        public Response withoutContent()
+        {
+            return new Response( status, new byte[0], etag, lastModified );
+        }
+    }
+
+    /**
+     * a queued GET and where to put its response
+     */
+    private static class Request
+    {
+        private final String url;
+
+        private final URL parsed;
+
+        private final Response previous;
+
+        private final int timeout;
+
+        private final Map<String, Response> responses;
+
+        private final CountDownLatch latch;
+
+        private Request( String url, URL parsed, Response previous, int timeout, Map<String, Response> responses,
+                         CountDownLatch latch )
+        {
+            this.url = url;
+            this.parsed = parsed;
+            this.previous = previous;
+            this.timeout = timeout;
+            this.responses = responses;
+            this.latch = latch;
+        }
+    }
+
+    /**
+     * drains the queue of a host then ends
+     */
+    private class Worker
+        implements Runnable
+    {
+        private final HostPool pool;
+
+        private Worker( HostPool pool )
+        {
+            this.pool = pool;
+        }
+
+        public void run()
+        {
+            Request request;
+            while ( ( request = pool.next() ) != null )
+            {
+                try
+                {
+                    Response response = get( pool, request.parsed, request.previous, request.timeout );
+                    if ( response != null )
+                    {
+                        request.responses.put( request.url, response );
+                    }
+                }
+                finally
+                {
+                    request.latch.countDown();
+                }
+            }
+        }
+    }
+
+    private static class HostPool
+    {
+        private final int workers;
+
+        private final int maxIdle;
+
+        private final LinkedList<Request> queue = new LinkedList<Request>();
+
+        private final LinkedList<Connection> idle = new LinkedList<Connection>();
+
+        private int activeWorkers;
+
+        private HostPool( int connections )
+        {
+            this.workers = connections;
+            this.maxIdle = connections;
+        }
+
+        /**
+         * @return <code>true</code> if a new worker must be started for the queued request
+         */
+        private synchronized boolean submit( Request request )
+        {
+            queue.addLast( request );
+            if ( activeWorkers < workers )
+            {
+                activeWorkers++;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return the next queued request or <code>null</code> if the queue is empty, the worker then ends
+         */
+        private synchronized Request next()
+        {
+            if ( queue.isEmpty() )
+            {
+                activeWorkers--;
+                return null;
+            }
+            return queue.removeFirst();
+        }
+
+        private synchronized Connection poll()
+        {
+            return idle.isEmpty() ? null : idle.removeFirst();
+        }
+
+        private void offer( Connection connection )
+        {
+            synchronized ( this )
+            {
+                if ( idle.size() < maxIdle )
+                {
+                    idle.addFirst( connection );
+                    return;
+                }
+            }
+            connection.close();
+        }
+    }
+
+    private static class Connection
+    {
+        private final Socket socket;
+
+        private final InputStream in;
+
+        private final OutputStream out;
+
+        private Connection( Socket socket )
+            throws IOException
+        {
+            this.socket = socket;
+            this.in = new BufferedInputStream( socket.getInputStream() );
+            this.out = socket.getOutputStream();
+        }
+
+        private void close()
+        {
+            try
+            {
+                socket.close();
+            }
+            catch ( IOException e )
+            {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.maven.artifact.ArtifactUtils;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Parent;
+import org.apache.maven.model.Profile;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+import org.codehaus.plexus.util.ReaderFactory;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Coordinates of the reactor projects read from the raw poms (no inheritance, no interpolation except the
+ * versions and groupIds inherited from a parent or using <code>${project.*}</code> and properties), in
+ * declaration order. Only the <code>groupId:artifactId:version</code> to pom file mapping is kept so the index
+ * stays small whatever the reactor size.
+ * NOTE : <b>this class is not designed for external use so it can change without any prior notice</b>
+ *
+ * @since 1.5
+ */
+public class ReactorIndex
+{
+    private static final Logger LOGGER = Logger.getLogger( ReactorIndex.class.getName() );
+
+    private final Map<String, File> pomFiles = new LinkedHashMap<String, File>();
+
+    private final Collection<String> activeProfiles;
+
+    /**
+     * @param rootPom        the reactor root pom
+     * @param activeProfiles ids of the profiles whose modules are part of the reactor (profiles active by default
+     *                       are always used)
+     */
+    public ReactorIndex( File rootPom, Collection<String> activeProfiles )
+    {
+        this.activeProfiles = activeProfiles == null ? new HashSet<String>() : activeProfiles;
+        scan( rootPom.getAbsoluteFile(), null, new HashSet<File>() );
+    }
+
+    /**
+     * @return the pom files keyed by <code>groupId:artifactId:version</code>, in reactor declaration order
+     */
+    public Map<String, File> getPomFiles()
+    {
+        return pomFiles;
+    }
+
+    private void scan( File pomFile, Properties parentProperties, Set<File> visited )
+    {
+        if ( !visited.add( pomFile ) )
+        {
+            return;
+        }
+        Model model = read( pomFile );
+        if ( model == null )
+        {
+            return;
+        }
+        Properties properties = new Properties();
+        if ( parentProperties != null )
+        {
+            properties.putAll( parentProperties );
+        }
+        properties.putAll( model.getProperties() );
+
+        Parent parent = model.getParent();
+        String groupId = model.getGroupId() == null && parent != null ? parent.getGroupId() : model.getGroupId();
+        String version = model.getVersion() == null && parent != null ? parent.getVersion() : model.getVersion();
+        if ( parent != null )
+        {
+            properties.setProperty( "project.parent.groupId", StringUtils.defaultString( parent.getGroupId() ) );
+            properties.setProperty( "project.parent.version", StringUtils.defaultString( parent.getVersion() ) );
+        }
+        groupId = interpolate( groupId, properties );
+        version = interpolate( version, properties );
+        properties.setProperty( "project.groupId", StringUtils.defaultString( groupId ) );
+        properties.setProperty( "project.version", StringUtils.defaultString( version ) );
+        properties.setProperty( "pom.version", StringUtils.defaultString( version ) );
+
+        pomFiles.put( ArtifactUtils.key( groupId, model.getArtifactId(), version ), pomFile );
+
+        for ( String module : getModules( model ) )
+        {
+            File moduleFile = new File( pomFile.getParentFile(), module.replace( '\\', File.separatorChar ) );
+            if ( moduleFile.isDirectory() )
+            {
+                moduleFile = new File( moduleFile, "pom.xml" );
+            }
+            scan( moduleFile.getAbsoluteFile(), properties, visited );
+        }
+    }
+
+    private List<String> getModules( Model model )
+    {
+        List<String> modules = new ArrayList<String>( model.getModules() );
+        for ( Profile profile : model.getProfiles() )
+        {
+            boolean activeByDefault = profile.getActivation() != null && profile.getActivation().isActiveByDefault();
+            if ( activeByDefault || activeProfiles.contains( profile.getId() ) )
+            {
+                modules.addAll( profile.getModules() );
+            }
+        }
+        return modules;
+    }
+
+    private String interpolate( String value, Properties properties )
+    {
+        if ( value == null || value.indexOf( "${" ) < 0 )
+        {
+            return value;
+        }
+        String interpolated = value;
+        // properties can reference other properties
+        for ( int i = 0; i < 5 && interpolated.indexOf( "${" ) >= 0; i++ )
+        {
+            for ( Map.Entry<Object, Object> property : properties.entrySet() )
+            {
+                interpolated = StringUtils.replace( interpolated, "${" + property.getKey() + "}",
+                                                    String.valueOf( property.getValue() ) );
+            }
+        }
+        return interpolated;
+    }
+
+    private Model read( File pomFile )
+    {
+        Reader reader = null;
+        try
+        {
+            reader = ReaderFactory.newXmlReader( pomFile );
+            return new MavenXpp3Reader().read( reader, false );
+        }
+        catch ( IOException e )
+        {
+            LOGGER.warning( "skip reactor module " + pomFile + " : " + e.getMessage() );
+            return null;
+        }
+        catch ( XmlPullParserException e )
+        {
+            LOGGER.warning( "skip reactor module " + pomFile + " : " + e.getMessage() );
+            return null;
+        }
+        finally
+        {
+            IOUtils.closeQuietly( reader );
+        }
+    }
+}
@@ -46,33 +46,58 @@ public class ReactorReader
 {
 
 
-    private Map<String, MavenProject> projectsByGAV;
+    private Map<String, File> basedirsByGAV;
 
-    private Map<String, List<MavenProject>> projectsByGA;
+    private Map<String, List<String>> versionsByGA;
 
     private WorkspaceRepository repository;
 
     public ReactorReader( Map<String, MavenProject> reactorProjects )
     {
-        projectsByGAV = reactorProjects;
+        basedirsByGAV = new HashMap<String, File>( reactorProjects.size() * 2 );
+        for ( Map.Entry<String, MavenProject> entry : reactorProjects.entrySet() )
+        {
+            basedirsByGAV.put( entry.getKey(), entry.getValue().getBasedir() );
+        }
+        init();
+    }
 
-        projectsByGA = new HashMap<String, List<MavenProject>>( reactorProjects.size() * 2 );
-        for ( MavenProject project : reactorProjects.values() )
+    /**
+     * only the coordinates of the reactor projects are kept
+     *
+     * @param reactorIndex the reactor pom files
+     * @since 1.5
+     */
+    public ReactorReader( ReactorIndex reactorIndex )
+    {
+        basedirsByGAV = new HashMap<String, File>( reactorIndex.getPomFiles().size() * 2 );
+        for ( Map.Entry<String, File> entry : reactorIndex.getPomFiles().entrySet() )
+        {
+            basedirsByGAV.put( entry.getKey(), entry.getValue().getParentFile() );
+        }
+        init();
+    }
+
+    private void init()
+    {
+        versionsByGA = new HashMap<String, List<String>>( basedirsByGAV.size() * 2 );
+        for ( String gav : basedirsByGAV.keySet() )
         {
-            String key = ArtifactUtils.versionlessKey( project.getGroupId(), project.getArtifactId() );
+            int index = gav.lastIndexOf( ':' );
+            String key = gav.substring( 0, index );
 
-            List<MavenProject> projects = projectsByGA.get( key );
+            List<String> versions = versionsByGA.get( key );
 
-            if ( projects == null )
+            if ( versions == null )
             {
-                projects = new ArrayList<MavenProject>( 1 );
-                projectsByGA.put( key, projects );
+                versions = new ArrayList<String>( 1 );
+                versionsByGA.put( key, versions );
             }
 
-            projects.add( project );
+            versions.add( gav.substring( index + 1 ) );
         }
 
-        repository = new WorkspaceRepository( "reactor", new HashSet<String>( projectsByGAV.keySet() ) );
+        repository = new WorkspaceRepository( "reactor", new HashSet<String>( basedirsByGAV.keySet() ) );
     }
 
 
@@ -83,33 +108,19 @@ public class ReactorReader
 
         String projectKey = ArtifactUtils.key( artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion() );
 
-        MavenProject project = projectsByGAV.get( projectKey );
-
-        if ( project != null )
-        {
-            return project.getBasedir();
-        }
-
-        return null;
+        return basedirsByGAV.get( projectKey );
     }
 
     public List<String> findVersions( Artifact artifact )
     {
         String key = ArtifactUtils.versionlessKey( artifact.getGroupId(), artifact.getArtifactId() );
 
-        List<MavenProject> projects = projectsByGA.get( key );
-        if ( projects == null || projects.isEmpty() )
+        List<String> versions = versionsByGA.get( key );
+        if ( versions == null || versions.isEmpty() )
         {
             return Collections.emptyList();
         }
 
-        List<String> versions = new ArrayList<String>();
-
-        for ( MavenProject project : projects )
-        {
-            versions.add( project.getVersion() );
-        }
-
         return Collections.unmodifiableList( versions );
     }
 
@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.apache.commons.lang.StringUtils;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.util.version.GenericVersionScheme;
+import org.sonatype.aether.version.InvalidVersionSpecificationException;
+import org.sonatype.aether.version.Version;
+import org.sonatype.aether.version.VersionConstraint;
+import org.sonatype.aether.version.VersionScheme;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Detects the new releases of the non SNAPSHOT dependencies of a check from the <code>&lt;versions&gt;</code> of
+ * their <code>groupId/artifactId/maven-metadata.xml</code> (see {@link ReleaseVersionIndex}), without resolving them :
+ * <ul>
+ * <li>a version range selects its highest matching release</li>
+ * <li><code>RELEASE</code> selects the highest release, <code>LATEST</code> the highest version</li>
+ * <li>a pinned version selects the highest release : a new release of the dependency is detected</li>
+ * </ul>
+ * The selected versions are keyed by <code>groupId:artifactId:declaredVersion</code> (<code>*</code> for the pinned
+ * versions) and compared with the ones recorded by the previous checks of the job. A key is only evaluated if the
+ * metadata of all its repositories have been read, a repository which cannot be requested by the
+ * {@link ProbeEngine} (authentication, proxy, non http) is ignored.
+ * NOTE : <b>this class is not designed for external use so it can change without any prior notice</b>
+ *
+ * @since 1.5
+ */
+public class ReleaseUpdateDetector
+{
+    public static final String PINNED = "*";
+
+    private static final String LATEST = "LATEST";
+
+    private static final String RELEASE = "RELEASE";
+
+    private final VersionScheme versionScheme = new GenericVersionScheme();
+
+    private final Map<String, String> knownVersions;
+
+    /**
+     * metadata urls per key
+     */
+    private final Map<String, Set<String>> keyUrls = new HashMap<String, Set<String>>();
+
+    /**
+     * keys per module
+     */
+    private final Map<String, Set<String>> moduleKeys = new HashMap<String, Set<String>>();
+
+    private final Set<String> ignoredRepositories = new TreeSet<String>();
+
+    private final Map<String, String> versions = new TreeMap<String, String>();
+
+    private final List<String> updates = new ArrayList<String>();
+
+    private final Set<String> updatedGavs = new TreeSet<String>();
+
+    private final Map<String, Set<String>> moduleGavs = new HashMap<String, Set<String>>();
+
+    /**
+     * @param knownVersions the versions selected by the previous checks of the job
+     */
+    public ReleaseUpdateDetector( Map<String, String> knownVersions )
+    {
+        this.knownVersions = knownVersions == null ? new HashMap<String, String>() : knownVersions;
+    }
+
+    /**
+     * add a dependency of a module, ignored if it is a SNAPSHOT or if its version is not interpolated
+     */
+    public void add( String module, String groupId, String artifactId, String version,
+                     List<RemoteRepository> repositories )
+    {
+        if ( StringUtils.isEmpty( version ) || version.endsWith( "SNAPSHOT" ) || version.contains( "${" ) )
+        {
+            return;
+        }
+        String spec = isSelector( version ) ? version : PINNED;
+        String key = groupId + ":" + artifactId + ":" + spec;
+        Set<String> urls = keyUrls.get( key );
+        if ( urls == null )
+        {
+            urls = new HashSet<String>();
+            keyUrls.put( key, urls );
+        }
+        String path = groupId.replace( '.', '/' ) + "/" + artifactId + "/maven-metadata.xml";
+        for ( RemoteRepository repository : repositories )
+        {
+            if ( !repository.getPolicy( false ).isEnabled() )
+            {
+                continue;
+            }
+            String url = StringUtils.removeEnd( repository.getUrl(), "/" ) + "/" + path;
+            if ( !ProbeEngine.isSupported( url ) || repository.getAuthentication() != null
+                || repository.getProxy() != null )
+            {
+                ignoredRepositories.add( repository.getUrl() );
+                continue;
+            }
+            urls.add( url );
+        }
+        Set<String> keys = moduleKeys.get( module );
+        if ( keys == null )
+        {
+            keys = new HashSet<String>();
+            moduleKeys.put( module, keys );
+        }
+        keys.add( key );
+    }
+
+    /**
+     * @return <code>true</code> if the version is a range or <code>LATEST</code> / <code>RELEASE</code>
+     */
+    static boolean isSelector( String version )
+    {
+        return version.startsWith( "[" ) || version.startsWith( "(" ) || LATEST.equals( version ) || RELEASE.equals(
+            version );
+    }
+
+    /**
+     * read the versions of the dependencies and compare the selected versions with the known ones
+     *
+     * @param connectionsPerHost maximum number of connections per repository host
+     * @param timeout            connect and read timeout in milliseconds
+     */
+    public void detect( int connectionsPerHost, int timeout )
+        throws InterruptedException
+    {
+        Set<String> urls = new HashSet<String>();
+        for ( Set<String> keyUrlSet : keyUrls.values() )
+        {
+            urls.addAll( keyUrlSet );
+        }
+        if ( urls.isEmpty() )
+        {
+            return;
+        }
+        Map<String, List<String>> urlVersions =
+            ReleaseVersionIndex.getInstance().getVersions( urls, connectionsPerHost, timeout );
+        Map<String, String> updatedKeys = new HashMap<String, String>();
+        for ( Map.Entry<String, Set<String>> entry : keyUrls.entrySet() )
+        {
+            if ( entry.getValue().isEmpty() || !urlVersions.keySet().containsAll( entry.getValue() ) )
+            {
+                // not conclusive
+                continue;
+            }
+            Set<String> available = new HashSet<String>();
+            for ( String url : entry.getValue() )
+            {
+                available.addAll( urlVersions.get( url ) );
+            }
+            String key = entry.getKey();
+            String selected = select( key.substring( key.lastIndexOf( ':' ) + 1 ), available );
+            if ( selected == null )
+            {
+                continue;
+            }
+            versions.put( key, selected );
+            String known = knownVersions.get( key );
+            if ( known != null && !known.equals( selected ) )
+            {
+                String ga = key.substring( 0, key.lastIndexOf( ':' ) );
+                updates.add( key + " " + known + " -> " + selected );
+                updatedGavs.add( ga + ":" + selected );
+                updatedKeys.put( key, ga + ":" + selected );
+            }
+        }
+        for ( Map.Entry<String, Set<String>> entry : moduleKeys.entrySet() )
+        {
+            Set<String> gavs = new HashSet<String>();
+            for ( String key : entry.getValue() )
+            {
+                if ( updatedKeys.containsKey( key ) )
+                {
+                    gavs.add( updatedKeys.get( key ) );
+                }
+            }
+            moduleGavs.put( entry.getKey(), gavs );
+        }
+    }
+
+    /**
+     * @param spec a version range, <code>LATEST</code>, <code>RELEASE</code> or {@link #PINNED}
+     * @return the selected version or <code>null</code> if none matches
+     */
+    String select( String spec, Collection<String> available )
+    {
+        VersionConstraint constraint = null;
+        if ( !PINNED.equals( spec ) && !LATEST.equals( spec ) && !RELEASE.equals( spec ) )
+        {
+            try
+            {
+                constraint = versionScheme.parseVersionConstraint( spec );
+            }
+            catch ( InvalidVersionSpecificationException e )
+            {
+                return null;
+            }
+        }
+        Version highest = null;
+        String selected = null;
+        for ( String candidate : available )
+        {
+            if ( candidate.endsWith( "SNAPSHOT" ) && !LATEST.equals( spec ) )
+            {
+                continue;
+            }
+            try
+            {
+                Version version = versionScheme.parseVersion( candidate );
+                if ( ( constraint == null || constraint.containsVersion( version ) ) && ( highest == null
+                    || version.compareTo( highest ) > 0 ) )
+                {
+                    highest = version;
+                    selected = candidate;
+                }
+            }
+            catch ( InvalidVersionSpecificationException e )
+            {
+                // ignore this version
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * @return the selected version per key
+     */
+    public Map<String, String> getVersions()
+    {
+        return versions;
+    }
+
+    /**
+     * @return the changed keys with their previous and new versions
+     */
+    public List<String> getUpdates()
+    {
+        return updates;
+    }
+
+    /**
+     * @return <code>groupId:artifactId:version</code> of the new selected versions
+     */
+    public Set<String> getUpdatedGavs()
+    {
+        return updatedGavs;
+    }
+
+    /**
+     * @return the updated <code>groupId:artifactId:version</code> per module
+     */
+    public Map<String, Set<String>> getModuleGavs()
+    {
+        return moduleGavs;
+    }
+
+    /**
+     * @return the repositories whose metadata cannot be requested
+     */
+    public Set<String> getIgnoredRepositories()
+    {
+        return ignoredRepositories;
+    }
+
+    /**
+     * @return the number of keys to evaluate
+     */
+    public int size()
+    {
+        return keyUrls.size();
+    }
+}
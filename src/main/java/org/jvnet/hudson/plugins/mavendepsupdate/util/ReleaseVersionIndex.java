@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Reader;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Node wide cache of the <code>&lt;versions&gt;</code> of the remote
+ * <code>groupId/artifactId/maven-metadata.xml</code>, keyed by metadata url. Each use revalidates the cached lists
+ * with conditional GETs sent by the {@link ProbeEngine} : an unchanged metadata costs a <code>304</code> without
+ * content.
+ * NOTE : <b>this class is not designed for external use so it can change without any prior notice</b>
+ *
+ * @since 1.5
+ */
+public class ReleaseVersionIndex
+{
+    private static final Logger LOGGER = Logger.getLogger( ReleaseVersionIndex.class.getName() );
+
+    private static final ReleaseVersionIndex INSTANCE = new ReleaseVersionIndex();
+
+    private static final int MAX_ENTRIES = 10000;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private final AtomicLong notModified = new AtomicLong();
+
+    private final AtomicLong modified = new AtomicLong();
+
+    public static ReleaseVersionIndex getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * revalidate and get the versions of the metadata urls.
+     *
+     * @param connectionsPerHost maximum number of connections per repository host
+     * @param timeout            connect and read timeout in milliseconds
+     * @return the versions per url, empty for the metadata not found, the urls which cannot be requested are missing
+     */
+    public Map<String, List<String>> getVersions( Collection<String> urls, int connectionsPerHost, int timeout )
+        throws InterruptedException
+    {
+        Map<String, ProbeEngine.Response> requested = new HashMap<String, ProbeEngine.Response>();
+        for ( String url : urls )
+        {
+            Entry entry = entries.get( url );
+            requested.put( url, entry == null ? null : entry.response );
+        }
+        Map<String, ProbeEngine.Response> responses =
+            ProbeEngine.getInstance().get( requested, connectionsPerHost, timeout );
+        requests.addAndGet( requested.size() );
+
+        Map<String, List<String>> versions = new HashMap<String, List<String>>();
+        for ( Map.Entry<String, ProbeEngine.Response> response : responses.entrySet() )
+        {
+            String url = response.getKey();
+            int status = response.getValue().getStatus();
+            Entry entry = entries.get( url );
+            if ( status == 304 && entry != null )
+            {
+                notModified.incrementAndGet();
+                versions.put( url, entry.versions );
+            }
+            else if ( status == 200 )
+            {
+                List<String> parsed = read( response.getValue().getContent(), url );
+                if ( parsed == null )
+                {
+                    continue;
+                }
+                modified.incrementAndGet();
+                if ( entries.size() > MAX_ENTRIES )
+                {
+                    entries.clear();
+                }
+                entries.put( url, new Entry( response.getValue().withoutContent(), parsed ) );
+                versions.put( url, parsed );
+            }
+            else if ( status == 404 )
+            {
+                entries.remove( url );
+                versions.put( url, Collections.<String>emptyList() );
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * @return revalidated, unchanged and changed metadata since the node started
+     */
+    public String getStatistics()
+    {
+        return requests.get() + " version lists requested, " + notModified.get() + " not modified, " + modified.get()
+            + " modified, " + entries.size() + " cached";
+    }
+
+    private static List<String> read( byte[] content, String url )
+    {
+        try
+        {
+            Metadata metadata = new MetadataXpp3Reader().read( new ByteArrayInputStream( content ), false );
+            if ( metadata.getVersioning() == null )
+            {
+                return Collections.emptyList();
+            }
+            return Collections.unmodifiableList( new ArrayList<String>( metadata.getVersioning().getVersions() ) );
+        }
+        catch ( IOException e )
+        {
+            LOGGER.fine( "ignore " + url + " : " + e.getMessage() );
+            return null;
+        }
+        catch ( XmlPullParserException e )
+        {
+            LOGGER.fine( "ignore " + url + " : " + e.getMessage() );
+            return null;
+        }
+    }
+
+    private static class Entry
+    {
+        /**
+         * the validators of the last change
+         */
+        private final ProbeEngine.Response response;
+
+        private final List<String> versions;
+
+        private Entry( ProbeEngine.Response response, List<String> versions )
+        {
+            this.response = response;
+            this.versions = versions;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Controller wide circuit breaker per remote repository url.
+ * After <code>-DMavenDependencyUpdateTrigger.breakerFailures</code> (5) consecutive failed or timed out requests
+ * without any success, the repository is open : the checks started during the next
+ * <code>-DMavenDependencyUpdateTrigger.breakerOpenSeconds</code> (60) skip it. Then a single check is allowed to
+ * probe it (half open) : the repository is closed again if the probe succeeds, reopened otherwise.
+ * The checks get the open repositories when they start and report their outcomes when they end.
+ * NOTE : <b>this class is not designed for external use so it can change without any prior notice</b>
+ *
+ * @since 1.5
+ */
+public class RepositoryCircuitBreaker
+{
+    private static final Logger LOGGER = Logger.getLogger( RepositoryCircuitBreaker.class.getName() );
+
+    private static final RepositoryCircuitBreaker INSTANCE = new RepositoryCircuitBreaker();
+
+    public static int failureThreshold = Integer.getInteger( "MavenDependencyUpdateTrigger.breakerFailures", 5 );
+
+    public static long openSeconds = Long.getLong( "MavenDependencyUpdateTrigger.breakerOpenSeconds", 60 );
+
+    private final Map<String, State> states = new HashMap<String, State>();
+
+    public static RepositoryCircuitBreaker getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the repository url without trailing slash
+     */
+    public static String normalize( String repositoryUrl )
+    {
+        return StringUtils.removeEnd( repositoryUrl, "/" );
+    }
+
+    /**
+     * called when a check starts : an open repository whose delay has elapsed is probed by this check.
+     *
+     * @return the urls of the repositories the check must not use
+     */
+    public synchronized Set<String> getOpenRepositories()
+    {
+        Set<String> open = new HashSet<String>();
+        long now = System.currentTimeMillis();
+        for ( Map.Entry<String, State> entry : states.entrySet() )
+        {
+            State state = entry.getValue();
+            if ( state.openUntil == 0 )
+            {
+                continue;
+            }
+            if ( now >= state.openUntil && now >= state.probeUntil )
+            {
+                // half open : this check probes the repository, the others still skip it
+                state.probeUntil = now + openSeconds * 1000;
+                LOGGER.info( "probe repository " + entry.getKey() );
+            }
+            else
+            {
+                open.add( entry.getKey() );
+            }
+        }
+        return open;
+    }
+
+    /**
+     * called when a check ends with the number of successful and failed requests per repository url
+     */
+    public synchronized void record( Map<String, Integer> successes, Map<String, Integer> failures )
+    {
+        Set<String> urls = new HashSet<String>( successes.keySet() );
+        urls.addAll( failures.keySet() );
+        for ( String url : urls )
+        {
+            int success = getCount( successes, url );
+            int failure = getCount( failures, url );
+            State state = states.get( url );
+            if ( state == null )
+            {
+                if ( failure == 0 )
+                {
+                    continue;
+                }
+                state = new State();
+                states.put( url, state );
+            }
+            if ( success > 0 )
+            {
+                if ( state.openUntil > 0 )
+                {
+                    LOGGER.info( "repository " + url + " is available again" );
+                }
+                states.remove( url );
+                continue;
+            }
+            state.consecutiveFailures += failure;
+            if ( state.openUntil > 0 || state.consecutiveFailures >= failureThreshold )
+            {
+                state.openUntil = System.currentTimeMillis() + openSeconds * 1000;
+                state.probeUntil = 0;
+                LOGGER.warning( "repository " + url + " unavailable after " + state.consecutiveFailures
+                                    + " failures, skipped for " + openSeconds + " s" );
+            }
+        }
+    }
+
+    private int getCount( Map<String, Integer> counts, String url )
+    {
+        Integer count = counts.get( url );
+        return count == null ? 0 : count.intValue();
+    }
+
+    private static class State
+    {
+        private int consecutiveFailures;
+
+        /**
+         * 0 when closed
+         */
+        private long openUntil;
+
+        /**
+         * end of the probe granted to a check when half open
+         */
+        private long probeUntil;
+    }
+}
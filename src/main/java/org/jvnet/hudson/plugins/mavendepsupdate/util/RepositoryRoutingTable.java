@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+/**
+ * Controller wide routing of the SNAPSHOT requests : the remote repository serving the SNAPSHOTs of a groupId is
+ * learned from the successful transfers of the checks, then the checks only request this repository for this
+ * groupId. A groupId served by several repositories is never routed. The routes are scoped by the set of remote
+ * repositories of the jobs (see {@link #getScope(Collection)}) : a route learned by a job is only used by the jobs
+ * resolving through the same repositories, mirrors applied. The repositories answering not found for a
+ * <code>groupId:artifactId:version</code> are remembered too (negative cache), for all the jobs.
+ * Routes are revalidated : a route older than <code>-DMavenDependencyUpdateTrigger.routeHours</code> (24) or
+ * contradicted by a not found is dropped so the next check requests all the repositories again. Misses expire after
+ * <code>-DMavenDependencyUpdateTrigger.missMinutes</code> (60).
+ * Enabled with <code>-DMavenDependencyUpdateTrigger.repositoryRouting=true</code>.
+ * NOTE : <b>this class is not designed for external use so it can change without any prior notice</b>
+ *
+ * @since 1.5
+ */
+public class RepositoryRoutingTable
+{
+    private static final Logger LOGGER = Logger.getLogger( RepositoryRoutingTable.class.getName() );
+
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * repository url of a groupId served by several repositories
+     */
+    private static final String AMBIGUOUS = "*";
+
+    public static boolean enabled = Boolean.getBoolean( "MavenDependencyUpdateTrigger.repositoryRouting" );
+
+    public static long routeHours = Long.getLong( "MavenDependencyUpdateTrigger.routeHours", 24 );
+
+    public static long missMinutes = Long.getLong( "MavenDependencyUpdateTrigger.missMinutes", 60 );
+
+    private static RepositoryRoutingTable instance;
+
+    private final File file;
+
+    /**
+     * repository url and learning time per groupId per repository scope
+     */
+    private final Map<String, Map<String, Route>> routes = new HashMap<String, Map<String, Route>>();
+
+    /**
+     * time of the last not found per <code>groupId:artifactId:version repositoryUrl</code>
+     */
+    private final Map<String, Long> misses = new HashMap<String, Long>();
+
+    RepositoryRoutingTable( File file )
+    {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * @param file the file where the routes are stored, only used by the first call
+     */
+    public static synchronized RepositoryRoutingTable getInstance( File file )
+    {
+        if ( instance == null )
+        {
+            instance = new RepositoryRoutingTable( file );
+        }
+        return instance;
+    }
+
+    /**
+     * @return the key of a not found entry
+     */
+    public static String getMissKey( String gav, String repositoryUrl )
+    {
+        return gav + " " + repositoryUrl;
+    }
+
+    /**
+     * @param repositoryUrls the normalized urls of the remote repositories of a job
+     * @return the scope of the routes of the job
+     */
+    public static String getScope( Collection<String> repositoryUrls )
+    {
+        return StringUtils.join( new TreeSet<String>( repositoryUrls ), ' ' );
+    }
+
+    /**
+     * @param scope the repositories of the job (see {@link #getScope(Collection)})
+     * @return the repository url per groupId for the routes of the scope which don't need to be revalidated
+     */
+    public synchronized Map<String, String> getRoutes( String scope )
+    {
+        Map<String, String> current = new HashMap<String, String>();
+        Map<String, Route> scopeRoutes = routes.get( scope );
+        if ( scopeRoutes == null )
+        {
+            return current;
+        }
+        long oldest = System.currentTimeMillis() - routeHours * 3600 * 1000;
+        for ( Map.Entry<String, Route> entry : scopeRoutes.entrySet() )
+        {
+            if ( entry.getValue().learned >= oldest && !AMBIGUOUS.equals( entry.getValue().repositoryUrl ) )
+            {
+                current.put( entry.getKey(), entry.getValue().repositoryUrl );
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @return the current not found <code>groupId:artifactId:version repositoryUrl</code> entries
+     */
+    public synchronized Set<String> getMisses()
+    {
+        Set<String> current = new HashSet<String>();
+        long oldest = System.currentTimeMillis() - missMinutes * 60 * 1000;
+        for ( Iterator<Map.Entry<String, Long>> iterator = misses.entrySet().iterator(); iterator.hasNext(); )
+        {
+            Map.Entry<String, Long> entry = iterator.next();
+            if ( entry.getValue().longValue() < oldest )
+            {
+                iterator.remove();
+            }
+            else
+            {
+                current.add( entry.getKey() );
+            }
+        }
+        return current;
+    }
+
+    /**
+     * merge what a check has seen
+     *
+     * @param scope    the repositories of the job (see {@link #getScope(Collection)}), <code>null</code> if unknown :
+     *                 only the not found entries are learned
+     * @param served   repository urls which served SNAPSHOTs per groupId
+     * @param notFound <code>groupId:artifactId:version repositoryUrl</code> entries answered not found
+     */
+    public synchronized void learn( String scope, Map<String, Set<String>> served, Set<String> notFound )
+    {
+        boolean changed = false;
+        long now = System.currentTimeMillis();
+        if ( scope != null )
+        {
+            changed = learnRoutes( scope, served, now );
+        }
+        for ( String miss : notFound )
+        {
+            misses.put( miss, Long.valueOf( now ) );
+            String groupId = StringUtils.substringBefore( miss, ":" );
+            // a not found contradicts the route whatever the scope which learned it
+            for ( Map<String, Route> otherRoutes : routes.values() )
+            {
+                Route route = otherRoutes.get( groupId );
+                if ( route != null && miss.endsWith( " " + route.repositoryUrl ) )
+                {
+                    LOGGER.info( "route of " + groupId + " to " + route.repositoryUrl + " not valid anymore" );
+                    otherRoutes.remove( groupId );
+                    changed = true;
+                }
+            }
+        }
+        if ( changed )
+        {
+            store();
+        }
+    }
+
+    private boolean learnRoutes( String scope, Map<String, Set<String>> served, long now )
+    {
+        boolean changed = false;
+        long oldest = now - routeHours * 3600 * 1000;
+        Map<String, Route> scopeRoutes = routes.get( scope );
+        if ( scopeRoutes == null )
+        {
+            scopeRoutes = new HashMap<String, Route>();
+            routes.put( scope, scopeRoutes );
+        }
+        for ( Map.Entry<String, Set<String>> entry : served.entrySet() )
+        {
+            Route route = scopeRoutes.get( entry.getKey() );
+            String repositoryUrl = entry.getValue().size() == 1 ? entry.getValue().iterator().next() : AMBIGUOUS;
+            if ( route == null || route.learned < oldest )
+            {
+                scopeRoutes.put( entry.getKey(), new Route( repositoryUrl, now ) );
+                changed = true;
+            }
+            else if ( !route.repositoryUrl.equals( repositoryUrl ) && !AMBIGUOUS.equals( route.repositoryUrl ) )
+            {
+                // served by another repository too
+                scopeRoutes.put( entry.getKey(), new Route( AMBIGUOUS, route.learned ) );
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private void load()
+    {
+        if ( file == null || !file.exists() )
+        {
+            return;
+        }
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), ENCODING ) );
+            String line;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                // the routes stored without scope are dropped
+                String[] fields = StringUtils.split( line, '\t' );
+                if ( fields.length == 4 && StringUtils.isNumeric( fields[3] ) )
+                {
+                    Map<String, Route> scopeRoutes = routes.get( fields[0] );
+                    if ( scopeRoutes == null )
+                    {
+                        scopeRoutes = new HashMap<String, Route>();
+                        routes.put( fields[0], scopeRoutes );
+                    }
+                    scopeRoutes.put( fields[1], new Route( fields[2], Long.parseLong( fields[3] ) ) );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            LOGGER.warning( "ignore corrupted " + file + " : " + e.getMessage() );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( reader );
+        }
+    }
+
+    private void store()
+    {
+        if ( file == null )
+        {
+            return;
+        }
+        // written aside then renamed : a crash while writing doesn't lose the previous routes
+        File tmp = new File( file.getParentFile(), file.getName() + ".tmp" );
+        Writer writer = null;
+        try
+        {
+            writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( tmp ), ENCODING ) );
+            for ( Map.Entry<String, Map<String, Route>> scopeRoutes : routes.entrySet() )
+            {
+                for ( Map.Entry<String, Route> entry : scopeRoutes.getValue().entrySet() )
+                {
+                    writer.write( scopeRoutes.getKey() + '\t' + entry.getKey() + '\t'
+                                      + entry.getValue().repositoryUrl + '\t' + entry.getValue().learned + '\n' );
+                }
+            }
+            writer.close();
+            writer = null;
+            if ( !tmp.renameTo( file ) )
+            {
+                // windows cannot rename over an existing file
+                file.delete();
+                if ( !tmp.renameTo( file ) )
+                {
+                    throw new IOException( "cannot rename " + tmp + " to " + file );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            LOGGER.warning( "cannot store " + file + " : " + e.getMessage() );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( writer );
+        }
+    }
+
+    private static class Route
+    {
+        private final String repositoryUrl;
+
+        private final long learned;
+
+        private Route( String repositoryUrl, long learned )
+        {
+            this.repositoryUrl = repositoryUrl;
+            this.learned = learned;
+        }
+    }
+}
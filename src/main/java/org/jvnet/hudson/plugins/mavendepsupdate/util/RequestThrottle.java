@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+/**
+ * Leases the permissions to send requests to a remote repository host. The controller instance is exported to the
+ * nodes so all the checks share the same limits. The checks take the leased permissions from a local bucket (see
+ * {@link LeasedRequestThrottle}) : there is one call to the controller per batch of requests, and the calls never
+ * wait on the controller.
+ * NOTE : <b>this class is not designed for external use so it can change without any prior notice</b>
+ *
+ * @since 1.5
+ */
+public interface RequestThrottle
+{
+    /**
+     * lease permissions without waiting.
+     *
+     * @param host  the remote repository host
+     * @param count the number of permissions wanted
+     * @return the number of permissions granted (at most <code>count</code>, {@link Long#MAX_VALUE} if the host is
+     *         not limited) or, if none is granted, minus the delay in milliseconds before asking again
+     */
+    long lease( String host, int count );
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.apache.commons.io.FileUtils;
+import org.sonatype.aether.RepositorySystemSession;
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.metadata.Metadata;
+import org.sonatype.aether.repository.LocalArtifactRegistration;
+import org.sonatype.aether.repository.LocalArtifactRequest;
+import org.sonatype.aether.repository.LocalArtifactResult;
+import org.sonatype.aether.repository.LocalMetadataRegistration;
+import org.sonatype.aether.repository.LocalMetadataRequest;
+import org.sonatype.aether.repository.LocalMetadataResult;
+import org.sonatype.aether.repository.LocalRepository;
+import org.sonatype.aether.repository.LocalRepositoryManager;
+import org.sonatype.aether.repository.RemoteRepository;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Local repository manager of the checks writing the downloaded metadata and SNAPSHOTs in a scratch repository
+ * instead of the local repository used by the builds : the checks cannot rewrite a metadata read by a running build.
+ * The lookups fall back to the local repository of the builds, read only, so the artifacts already there are not
+ * downloaded again. The SNAPSHOT metadata of the scratch repository are locked per GAV by the
+ * {@link StripedSyncContextFactory} and the downloads are moved in place once complete.
+ * NOTE : <b>this class is not designed for external use so it can change without any prior notice</b>
+ *
+ * @since 1.5
+ */
+public class ScratchLocalRepositoryManager
+    implements LocalRepositoryManager
+{
+    private static final String SCRATCH_SUFFIX = "-dependency-update-trigger";
+
+    private final LocalRepositoryManager scratch;
+
+    private final LocalRepositoryManager base;
+
+    /**
+     * @param scratch manager of the scratch repository, where the checks write
+     * @param base    manager of the local repository of the builds, only read
+     */
+    public ScratchLocalRepositoryManager( LocalRepositoryManager scratch, LocalRepositoryManager base )
+    {
+        this.scratch = scratch;
+        this.base = base;
+    }
+
+    /**
+     * @return the scratch repository of a local repository : a sibling directory, one per local repository of the
+     *         node
+     */
+    public static File getScratchDirectory( File localRepository )
+    {
+        File absolute = localRepository.getAbsoluteFile();
+        return new File( absolute.getParentFile(), absolute.getName() + SCRATCH_SUFFIX );
+    }
+
+    public LocalRepository getRepository()
+    {
+        return scratch.getRepository();
+    }
+
+    public LocalRepository getBaseRepository()
+    {
+        return base.getRepository();
+    }
+
+    public String getPathForLocalArtifact( Artifact artifact )
+    {
+        return scratch.getPathForLocalArtifact( artifact );
+    }
+
+    public String getPathForRemoteArtifact( Artifact artifact, RemoteRepository repository, String context )
+    {
+        return scratch.getPathForRemoteArtifact( artifact, repository, context );
+    }
+
+    public String getPathForLocalMetadata( Metadata metadata )
+    {
+        return scratch.getPathForLocalMetadata( metadata );
+    }
+
+    public String getPathForRemoteMetadata( Metadata metadata, RemoteRepository repository, String context )
+    {
+        return scratch.getPathForRemoteMetadata( metadata, repository, context );
+    }
+
+    public LocalArtifactResult find( RepositorySystemSession session, LocalArtifactRequest request )
+    {
+        LocalArtifactResult result = scratch.find( session, request );
+        if ( result.isAvailable() )
+        {
+            return result;
+        }
+        LocalArtifactResult baseResult = base.find( session, request );
+        return baseResult.isAvailable() ? baseResult : result;
+    }
+
+    public void add( RepositorySystemSession session, LocalArtifactRegistration request )
+    {
+        scratch.add( session, request );
+    }
+
+    public LocalMetadataResult find( RepositorySystemSession session, LocalMetadataRequest request )
+    {
+        LocalMetadataResult result = scratch.find( session, request );
+        if ( result.getFile() != null )
+        {
+            return result;
+        }
+        // the metadata installed by the builds (maven-metadata-local.xml)
+        LocalMetadataResult baseResult = base.find( session, request );
+        return baseResult.getFile() != null ? baseResult : result;
+    }
+
+    public void add( RepositorySystemSession session, LocalMetadataRegistration request )
+    {
+        scratch.add( session, request );
+    }
+
+    /**
+     * write a file through a temporary file of its directory renamed in place, a reader never sees a partial file
+     */
+    public static void writeAtomically( File file, byte[] content )
+        throws IOException
+    {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if ( directory != null && !directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory() )
+        {
+            throw new IOException( "cannot create " + directory );
+        }
+        File tmp = File.createTempFile( file.getName(), ".tmp", directory );
+        try
+        {
+            FileUtils.writeByteArrayToFile( tmp, content );
+            if ( !tmp.renameTo( file ) )
+            {
+                // the target cannot be replaced by a rename on windows
+                FileUtils.copyFile( tmp, file );
+            }
+        }
+        finally
+        {
+            if ( tmp.exists() && !tmp.delete() )
+            {
+                tmp.deleteOnExit();
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Controller wide cache of the remote repository metadata, enabled with
+ * <code>-DMavenDependencyUpdateTrigger.metadataCacheSeconds</code> (the time to live of the entries, 0 by default).
+ * The controller doesn't request the remote repositories itself (it doesn't know the credentials, proxies and mirrors
+ * of the nodes) : the first check needing a metadata fetches it and the checks asking for the same metadata meanwhile
+ * are answered busy and poll again, so there is one fetch per metadata per time to live for all the nodes. Nothing
+ * waits on the controller. The metadata of the repositories with credentials are not shared (see
+ * {@link MetadataCacheConnectorFactory}).
+ * A SNAPSHOT deployed during the time to live is seen by the checks once the entry has expired.
+ * NOTE : <b>this class is not designed for external use so it can change without any prior notice</b>
+ *
+ * @since 1.5
+ */
+public class SharedMetadataCache
+    implements MetadataCache
+{
+    private static final SharedMetadataCache INSTANCE = new SharedMetadataCache();
+
+    public static long ttlSeconds = Long.getLong( "MavenDependencyUpdateTrigger.metadataCacheSeconds", 0 );
+
+    /**
+     * a fetch not released after this delay is granted to the next check
+     */
+    private static final long FETCH_TIMEOUT = 60 * 1000;
+
+    /**
+     * answer while another check fetches the metadata
+     */
+    private static final byte[] BUSY = new byte[0];
+
+    /**
+     * expired entries are purged above this size
+     */
+    private static final int MAX_ENTRIES = 10000;
+
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    private long hits;
+
+    private long fetches;
+
+    private long busy;
+
+    public static SharedMetadataCache getInstance()
+    {
+        return INSTANCE;
+    }
+
+    public static boolean isEnabled()
+    {
+        return ttlSeconds > 0;
+    }
+
+    public synchronized byte[] acquire( String url )
+    {
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get( url );
+        if ( entry != null && entry.content != null && entry.expires > now )
+        {
+            hits++;
+            return entry.content;
+        }
+        if ( entry != null && entry.content == null && entry.fetchStart + FETCH_TIMEOUT > now )
+        {
+            // another check is fetching this metadata
+            busy++;
+            return BUSY;
+        }
+        Entry fetching = new Entry();
+        fetching.fetchStart = now;
+        entries.put( url, fetching );
+        fetches++;
+        return null;
+    }
+
+    public synchronized void release( String url, byte[] content )
+    {
+        if ( content == null || content.length == 0 )
+        {
+            entries.remove( url );
+        }
+        else
+        {
+            if ( entries.size() > MAX_ENTRIES )
+            {
+                purge();
+            }
+            Entry entry = new Entry();
+            entry.content = content;
+            entry.expires = System.currentTimeMillis() + ttlSeconds * 1000;
+            entries.put( url, entry );
+        }
+    }
+
+    private void purge()
+    {
+        long now = System.currentTimeMillis();
+        for ( Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext(); )
+        {
+            Entry entry = iterator.next();
+            if ( entry.content != null && entry.expires <= now )
+            {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return entries, hits, fetches and busy answers
+     */
+    public synchronized String getStatistics()
+    {
+        return entries.size() + " entries, " + hits + " hits, " + fetches + " fetches, " + busy + " busy answers";
+    }
+
+    private static class Entry
+    {
+        /**
+         * <code>null</code> while fetched
+         */
+        private byte[] content;
+
+        private long expires;
+
+        private long fetchStart;
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.building.ModelBuilder;
+import org.apache.maven.model.building.ModelBuildingException;
+import org.apache.maven.model.building.ModelBuildingRequest;
+import org.apache.maven.model.building.ModelBuildingResult;
+import org.apache.maven.model.building.ModelCache;
+import org.apache.maven.project.ProjectBuilder;
+import org.codehaus.plexus.PlexusContainer;
+import org.codehaus.plexus.component.repository.exception.ComponentLookupException;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Node wide cache of the raw models of the parents and of the imported boms (<code>import</code> scope) of the
+ * reactors, shared by all the jobs checked on the node. Each model building still uses its own reactor cache, the
+ * shared cache only keeps the released models read from a local repository : a SNAPSHOT parent or bom served from the
+ * cache would not be resolved anymore so its update would not be detected, and a reactor module can have the same
+ * coordinates as a module of another job with a different content.
+ * The models are cloned by the model builder when put in and read from the cache.
+ * NOTE : <b>this class is not designed for external use so it can change without any prior notice</b>
+ *
+ * @since 1.5
+ */
+public class SharedModelCache
+{
+    private static final Logger LOGGER = Logger.getLogger( SharedModelCache.class.getName() );
+
+    /**
+     * hint of the project builder using the shared cache in the plexus container
+     */
+    public static final String HINT = "shared-model-cache";
+
+    private static final SharedModelCache INSTANCE = new SharedModelCache();
+
+    private static final String RAW = "raw";
+
+    private int maxEntries;
+
+    private final Map<String, Object> entries = new LinkedHashMap<String, Object>( 16, 0.75f, true );
+
+    /**
+     * base directories of the local repositories used by the checks on this node
+     */
+    private final Set<File> localRepositories = new LinkedHashSet<File>();
+
+    private long hits;
+
+    private long misses;
+
+    public static SharedModelCache getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * @param maxEntries the least recently used models above this size are dropped
+     */
+    public synchronized void setMaxEntries( int maxEntries )
+    {
+        this.maxEntries = maxEntries;
+    }
+
+    public synchronized void addLocalRepository( File basedir )
+    {
+        localRepositories.add( basedir.getAbsoluteFile() );
+    }
+
+    /**
+     * @return hits and misses of the released models
+     */
+    public synchronized String getStatistics()
+    {
+        return entries.size() + " models, " + hits + " hits, " + misses + " misses";
+    }
+
+    private synchronized Object get( String key )
+    {
+        Object value = entries.get( key );
+        if ( value == null )
+        {
+            misses++;
+        }
+        else
+        {
+            hits++;
+        }
+        return value;
+    }
+
+    private synchronized void put( String key, Object value )
+    {
+        entries.put( key, value );
+        while ( entries.size() > maxEntries && !entries.isEmpty() )
+        {
+            entries.remove( entries.keySet().iterator().next() );
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the model has been read from a local repository
+     */
+    private boolean isFromLocalRepository( String groupId, String artifactId, String version, String tag, Object data )
+    {
+        File pomFile;
+        if ( RAW.equals( tag ) )
+        {
+            Model model = getModel( data );
+            pomFile = model == null ? null : model.getPomFile();
+            if ( pomFile == null )
+            {
+                return false;
+            }
+        }
+        else
+        {
+            pomFile = new File( groupId.replace( '.', '/' ) + '/' + artifactId + '/' + version + '/' + artifactId + '-'
+                                    + version + ".pom" );
+        }
+        String path = pomFile.getPath();
+        synchronized ( this )
+        {
+            for ( File localRepository : localRepositories )
+            {
+                if ( pomFile.isAbsolute()
+                    ? path.startsWith( localRepository.getPath() + File.separator )
+                    : new File( localRepository, path ).isFile() )
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * the raw model data class is not public
+     */
+    private Model getModel( Object data )
+    {
+        try
+        {
+            Method method = data.getClass().getMethod( "getModel" );
+            method.setAccessible( true );
+            return (Model) method.invoke( data );
+        }
+        catch ( Exception e )
+        {
+            return null;
+        }
+    }
+
+    private static boolean isShareable( String version )
+    {
+        return version != null && !StringUtils.endsWith( version, "SNAPSHOT" ) && version.indexOf( '$' ) < 0;
+    }
+
+    private static String getKey( String groupId, String artifactId, String version, String tag )
+    {
+        return groupId + ':' + artifactId + ':' + version + ':' + tag;
+    }
+
+    /**
+     * model cache of a model building : the reactor cache first, then the shared cache for the released models
+     */
+    private static class Layer
+        implements ModelCache
+    {
+        private final ModelCache reactorCache;
+
+        private Layer( ModelCache reactorCache )
+        {
+            this.reactorCache = reactorCache;
+        }
+
+        public Object get( String groupId, String artifactId, String version, String tag )
+        {
+            Object value = reactorCache == null ? null : reactorCache.get( groupId, artifactId, version, tag );
+            if ( value == null && isShareable( version ) )
+            {
+                value = INSTANCE.get( getKey( groupId, artifactId, version, tag ) );
+            }
+            return value;
+        }
+
+        public void put( String groupId, String artifactId, String version, String tag, Object data )
+        {
+            if ( reactorCache != null )
+            {
+                reactorCache.put( groupId, artifactId, version, tag, data );
+            }
+            if ( isShareable( version ) && INSTANCE.isFromLocalRepository( groupId, artifactId, version, tag, data ) )
+            {
+                INSTANCE.put( getKey( groupId, artifactId, version, tag ), data );
+            }
+        }
+    }
+
+    /**
+     * The default project builder is not replaced : in a container reused between the checks (the master one) it is
+     * already instantiated with the default model builder and it is used by the other maven components.
+     *
+     * @return a project builder using the shared cache, registered in the container under {@link #HINT} by the first
+     *         check using the container
+     */
+    public static ProjectBuilder getProjectBuilder( PlexusContainer plexusContainer )
+        throws ComponentLookupException
+    {
+        synchronized ( plexusContainer )
+        {
+            if ( !plexusContainer.hasComponent( ProjectBuilder.class, HINT ) )
+            {
+                ProjectBuilder projectBuilder = plexusContainer.lookup( ProjectBuilder.class );
+                try
+                {
+                    projectBuilder = withSharedCache( projectBuilder );
+                }
+                catch ( Exception e )
+                {
+                    LOGGER.warning( "cannot add the shared model cache to " + projectBuilder.getClass().getName()
+                                        + " so models are not shared : " + e );
+                }
+                plexusContainer.addComponent( projectBuilder, ProjectBuilder.class, HINT );
+            }
+        }
+        return plexusContainer.lookup( ProjectBuilder.class, HINT );
+    }
+
+    /**
+     * @return a copy of the project builder with the requirements of the original one but its model builder
+     */
+    static ProjectBuilder withSharedCache( ProjectBuilder projectBuilder )
+        throws InstantiationException, IllegalAccessException
+    {
+        ProjectBuilder copy = projectBuilder.getClass().newInstance();
+        boolean modelBuilder = false;
+        for ( Class<?> type = projectBuilder.getClass(); type != Object.class; type = type.getSuperclass() )
+        {
+            for ( Field field : type.getDeclaredFields() )
+            {
+                if ( Modifier.isStatic( field.getModifiers() ) )
+                {
+                    continue;
+                }
+                field.setAccessible( true );
+                Object value = field.get( projectBuilder );
+                if ( value instanceof ModelBuilder && !( value instanceof SharedModelCacheModelBuilder ) )
+                {
+                    value = new SharedModelCacheModelBuilder( (ModelBuilder) value );
+                    modelBuilder = true;
+                }
+                field.set( copy, value );
+            }
+        }
+        if ( !modelBuilder )
+        {
+            throw new IllegalAccessException( "no model builder" );
+        }
+        return copy;
+    }
+
+    /**
+     * used in place of the model builder of the project builder to add the shared cache to its model buildings
+     */
+    public static class SharedModelCacheModelBuilder
+        implements ModelBuilder
+    {
+        private final ModelBuilder delegate;
+
+        public SharedModelCacheModelBuilder( ModelBuilder delegate )
+        {
+            this.delegate = delegate;
+        }
+
+        public ModelBuildingResult build( ModelBuildingRequest request )
+            throws ModelBuildingException
+        {
+            if ( !( request.getModelCache() instanceof Layer ) )
+            {
+                request.setModelCache( new Layer( request.getModelCache() ) );
+            }
+            return delegate.build( request );
+        }
+
+        public ModelBuildingResult build( ModelBuildingRequest request, ModelBuildingResult result )
+            throws ModelBuildingException
+        {
+            return delegate.build( request, result );
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.artifact.repository.metadata.Snapshot;
+import org.apache.maven.artifact.repository.metadata.Versioning;
+import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Reader;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * In memory index of the SNAPSHOT metadata available in a local repository.
+ * One instance is shared by all checks running on a node for the same local repository path :
+ * it is built once by scanning the repository then kept current from the transfer events.
+ * Entries are keyed by the metadata path relative to the local repository
+ * (i.e <code>org/foo/bar/1.0-SNAPSHOT/maven-metadata-central.xml</code>) so there is one entry per GAV per
+ * remote repository.
+ * The indexes of the repositories which no longer exist are dropped and at most
+ * <code>-DMavenDependencyUpdateTrigger.snapshotIndexes</code> (16 by default) are kept, the least recently used
+ * being dropped first.
+ * NOTE : <b>this class is not designed for external use so it can change without any prior notice</b>
+ *
+ * @since 1.5
+ */
+public class SnapshotMetadataIndex
+{
+    private static final Logger LOGGER = Logger.getLogger( SnapshotMetadataIndex.class.getName() );
+
+    public static int maxIndexes = Integer.getInteger( "MavenDependencyUpdateTrigger.snapshotIndexes", 16 );
+
+    private static final Map<String, SnapshotMetadataIndex> INDEXES =
+        new LinkedHashMap<String, SnapshotMetadataIndex>( 16, 0.75f, true )
+        {
+            protected boolean removeEldestEntry( Map.Entry<String, SnapshotMetadataIndex> eldest )
+            {
+                return size() > maxIndexes;
+            }
+        };
+
+    private final File basedir;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * <code>true</code> once the repository has been scanned
+     */
+    private boolean loaded;
+
+    private SnapshotMetadataIndex( File basedir )
+    {
+        this.basedir = basedir;
+    }
+
+    /**
+     * @param localRepository the local repository base directory
+     * @return the index for this local repository, scanning the repository if it's the first use on this node
+     */
+    public static SnapshotMetadataIndex getInstance( File localRepository )
+    {
+        return getInstance( localRepository, null );
+    }
+
+    /**
+     * @param localRepository the local repository base directory
+     * @param seedRepository  a repository with the same layout scanned before the local repository if it's the first
+     *                        use on this node (the local repository of the builds for a scratch repository), can be
+     *                        <code>null</code>
+     * @return the index for this local repository
+     * @since 1.5
+     */
+    public static SnapshotMetadataIndex getInstance( File localRepository, File seedRepository )
+    {
+        String key = localRepository.getAbsolutePath();
+        SnapshotMetadataIndex index;
+        synchronized ( INDEXES )
+        {
+            for ( Iterator<SnapshotMetadataIndex> indexes = INDEXES.values().iterator(); indexes.hasNext(); )
+            {
+                // a deleted repository (i.e the scratch repository of a removed job) is scanned again if reused
+                if ( !indexes.next().basedir.isDirectory() )
+                {
+                    indexes.remove();
+                }
+            }
+            index = INDEXES.get( key );
+            if ( index == null )
+            {
+                index = new SnapshotMetadataIndex( localRepository.getAbsoluteFile() );
+                INDEXES.put( key, index );
+            }
+        }
+        // outside of the global lock : only the checks of the same local repository wait for its scan
+        index.load( seedRepository );
+        return index;
+    }
+
+    private synchronized void load( File seedRepository )
+    {
+        if ( loaded )
+        {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        if ( seedRepository != null )
+        {
+            scan( seedRepository.getAbsoluteFile(), seedRepository.getAbsoluteFile() );
+        }
+        scan( basedir, basedir );
+        loaded = true;
+        LOGGER.info( "index " + entries.size() + " SNAPSHOT metadata from " + basedir + " in "
+                         + ( System.currentTimeMillis() - start ) + " ms" );
+    }
+
+    public File getBasedir()
+    {
+        return basedir;
+    }
+
+    /**
+     * @param metadataFile a metadata file stored in the local repository
+     * @return the index key ie the path relative to the local repository or <code>null</code> if the file is not
+     *         in this local repository
+     */
+    public String getKey( File metadataFile )
+    {
+        String base = basedir.getPath();
+        String path = metadataFile.getAbsolutePath();
+        if ( !path.startsWith( base ) || path.length() <= base.length() )
+        {
+            return null;
+        }
+        return StringUtils.replace( path.substring( base.length() + 1 ), File.separator, "/" );
+    }
+
+    /**
+     * @param path a repository path (index key or remote resource name) : <code>g/r/o/u/p/artifactId/version/file</code>
+     * @return <code>groupId:artifactId:version</code> or <code>null</code> if the path is not an artifact version path
+     */
+    public static String getGav( String path )
+    {
+        String[] segments = StringUtils.split( path, '/' );
+        if ( segments == null || segments.length < 4 )
+        {
+            return null;
+        }
+        int length = segments.length;
+        return StringUtils.join( segments, '.', 0, length - 3 ) + ":" + segments[length - 3] + ":"
+            + segments[length - 2];
+    }
+
+    public Entry get( String key )
+    {
+        return key == null ? null : entries.get( key );
+    }
+
+    /**
+     * read the metadata file and store its SNAPSHOT state.
+     *
+     * @return the new entry or <code>null</code> if the file cannot be read
+     */
+    public Entry update( File metadataFile )
+    {
+        String key = getKey( metadataFile );
+        if ( key == null )
+        {
+            return null;
+        }
+        Entry entry = read( metadataFile );
+        if ( entry == null )
+        {
+            entries.remove( key );
+        }
+        else
+        {
+            entries.put( key, entry );
+        }
+        return entry;
+    }
+
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * @param root the repository of the scanned directory, the keys are relative to it
+     */
+    private void scan( File root, File directory )
+    {
+        File[] files = directory.listFiles();
+        if ( files == null )
+        {
+            return;
+        }
+        boolean snapshotDirectory = directory.getName().endsWith( "-SNAPSHOT" );
+        for ( File file : files )
+        {
+            if ( file.isDirectory() )
+            {
+                scan( root, file );
+            }
+            else if ( snapshotDirectory && isMetadata( file ) )
+            {
+                Entry entry = read( file );
+                if ( entry != null )
+                {
+                    entries.put( StringUtils.replace( file.getPath().substring( root.getPath().length() + 1 ),
+                                                      File.separator, "/" ), entry );
+                }
+            }
+        }
+    }
+
+    static boolean isMetadata( File file )
+    {
+        return StringUtils.startsWith( file.getName(), "maven-metadata" ) && StringUtils.endsWith( file.getName(),
+                                                                                                  ".xml" );
+    }
+
+    static Entry read( File metadataFile )
+    {
+        InputStream is = null;
+        try
+        {
+            is = new FileInputStream( metadataFile );
+            return read( is, metadataFile.getPath() );
+        }
+        catch ( IOException e )
+        {
+            LOGGER.fine( "ignore " + metadataFile + " : " + e.getMessage() );
+            return null;
+        }
+        finally
+        {
+            IOUtils.closeQuietly( is );
+        }
+    }
+
+    /**
+     * @param source the file or url of the metadata, for the logs
+     * @return the SNAPSHOT state of the metadata or <code>null</code> if it cannot be read
+     */
+    public static Entry read( InputStream is, String source )
+    {
+        try
+        {
+            Metadata metadata = new MetadataXpp3Reader().read( is, false );
+            Versioning versioning = metadata.getVersioning();
+            if ( versioning == null )
+            {
+                return null;
+            }
+            long lastUpdated = StringUtils.isNumeric( versioning.getLastUpdated() ) && StringUtils.isNotEmpty(
+                versioning.getLastUpdated() ) ? Long.parseLong( versioning.getLastUpdated() ) : 0;
+            Snapshot snapshot = versioning.getSnapshot();
+            String version = snapshot != null && snapshot.getTimestamp() != null
+                ? snapshot.getTimestamp() + "-" + snapshot.getBuildNumber()
+                : Long.toString( lastUpdated );
+            return new Entry( version, lastUpdated );
+        }
+        catch ( IOException e )
+        {
+            LOGGER.fine( "ignore " + source + " : " + e.getMessage() );
+            return null;
+        }
+        catch ( XmlPullParserException e )
+        {
+            LOGGER.fine( "ignore " + source + " : " + e.getMessage() );
+            return null;
+        }
+    }
+
+    /**
+     * SNAPSHOT state of a metadata file : timestamp-buildNumber (or lastUpdated for local installs)
+     */
+    public static class Entry
+    {
+        private final String version;
+
+        private final long lastUpdated;
+
+        public Entry( String version, long lastUpdated )
+        {
+            this.version = version;
+            this.lastUpdated = lastUpdated;
+        }
+
+        public String getVersion()
+        {
+            return version;
+        }
+
+        public long getLastUpdated()
+        {
+            return lastUpdated;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Per job record of the exact SNAPSHOT versions (timestamp-buildNumber) seen by the last checks, the ones which
+ * triggered a build being recorded when the build completes.
+ * The file is append only : one <code>key TAB version TAB changeCount</code> line per change, the last line for a key
+ * wins. The change count is used to probe the most often updated SNAPSHOTs first.
+ * It is rewritten when superseded lines outnumber the live entries.
+ * Keys are the {@link SnapshotMetadataIndex} keys.
+ * NOTE : <b>this class is not designed for external use so it can change without any prior notice</b>
+ *
+ * @since 1.5
+ */
+public class SnapshotStateStore
+{
+    private static final Logger LOGGER = Logger.getLogger( SnapshotStateStore.class.getName() );
+
+    private static final String ENCODING = "UTF-8";
+
+    private final File file;
+
+    private Map<String, String> versions;
+
+    private Map<String, Integer> changeCounts;
+
+    private int lines;
+
+    public SnapshotStateStore( File file )
+    {
+        this.file = file;
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * @return a copy of the recorded versions
+     */
+    public synchronized Map<String, String> getVersions()
+    {
+        load();
+        return new HashMap<String, String>( versions );
+    }
+
+    /**
+     * @return how many times each <code>groupId:artifactId</code> has been seen with a new version
+     */
+    public synchronized Map<String, Integer> getChangeCounts()
+    {
+        load();
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for ( Map.Entry<String, Integer> entry : changeCounts.entrySet() )
+        {
+            String gav = SnapshotMetadataIndex.getGav( entry.getKey() );
+            if ( gav == null )
+            {
+                continue;
+            }
+            String ga = gav.substring( 0, gav.lastIndexOf( ':' ) );
+            Integer count = counts.get( ga );
+            counts.put( ga, count == null ? entry.getValue() : Integer.valueOf(
+                Math.max( count.intValue(), entry.getValue().intValue() ) ) );
+        }
+        return counts;
+    }
+
+    /**
+     * record the versions seen by a check : only new or changed versions are appended. The recorded versions are
+     * only updated once written, a failed write leaves them as they were on disk.
+     *
+     * @return the number of changed entries
+     */
+    public synchronized int record( Map<String, String> seenVersions )
+        throws IOException
+    {
+        load();
+        Map<String, String> changes = new HashMap<String, String>();
+        Map<String, Integer> counts = new HashMap<String, Integer>( changeCounts );
+        for ( Map.Entry<String, String> entry : seenVersions.entrySet() )
+        {
+            String previous = versions.get( entry.getKey() );
+            if ( !StringUtils.equals( previous, entry.getValue() ) )
+            {
+                changes.put( entry.getKey(), entry.getValue() );
+                if ( previous != null )
+                {
+                    counts.put( entry.getKey(), Integer.valueOf( getChangeCount( counts, entry.getKey() ) + 1 ) );
+                }
+            }
+        }
+        if ( changes.isEmpty() )
+        {
+            return 0;
+        }
+        Map<String, String> recorded = new HashMap<String, String>( versions );
+        recorded.putAll( changes );
+        if ( lines + changes.size() > recorded.size() * 2 )
+        {
+            compact( recorded, counts );
+            lines = recorded.size();
+        }
+        else
+        {
+            write( file, changes, counts, true );
+            lines += changes.size();
+        }
+        versions = recorded;
+        changeCounts = counts;
+        return changes.size();
+    }
+
+    private void load()
+    {
+        if ( versions != null )
+        {
+            return;
+        }
+        versions = new HashMap<String, String>();
+        changeCounts = new HashMap<String, Integer>();
+        lines = 0;
+        if ( !file.exists() )
+        {
+            return;
+        }
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), ENCODING ) );
+            String line;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                String[] fields = StringUtils.splitPreserveAllTokens( line, '\t' );
+                if ( fields.length >= 2 && fields[0].length() > 0 )
+                {
+                    versions.put( fields[0], fields[1] );
+                    if ( fields.length > 2 && StringUtils.isNumeric( fields[2] ) && fields[2].length() > 0 )
+                    {
+                        changeCounts.put( fields[0], Integer.valueOf( fields[2] ) );
+                    }
+                    lines++;
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            LOGGER.warning( "ignore corrupted " + file + " : " + e.getMessage() );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( reader );
+        }
+    }
+
+    private void compact( Map<String, String> entries, Map<String, Integer> counts )
+        throws IOException
+    {
+        File tmp = new File( file.getParentFile(), file.getName() + ".tmp" );
+        write( tmp, entries, counts, false );
+        if ( !tmp.renameTo( file ) )
+        {
+            // windows cannot rename over an existing file
+            file.delete();
+            if ( !tmp.renameTo( file ) )
+            {
+                throw new IOException( "cannot rename " + tmp + " to " + file );
+            }
+        }
+    }
+
+    private static int getChangeCount( Map<String, Integer> counts, String key )
+    {
+        Integer count = counts.get( key );
+        return count == null ? 0 : count.intValue();
+    }
+
+    private static void write( File target, Map<String, String> entries, Map<String, Integer> counts,
+                               boolean append )
+        throws IOException
+    {
+        target.getParentFile().mkdirs();
+        Writer writer = null;
+        try
+        {
+            writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( target, append ), ENCODING ) );
+            for ( Map.Entry<String, String> entry : entries.entrySet() )
+            {
+                writer.write( entry.getKey() );
+                writer.write( '\t' );
+                writer.write( entry.getValue() );
+                writer.write( '\t' );
+                writer.write( Integer.toString( getChangeCount( counts, entry.getKey() ) ) );
+                writer.write( '\n' );
+            }
+            // the flush errors are reported, closeQuietly only covers a failure above
+            writer.close();
+            writer = null;
+        }
+        finally
+        {
+            IOUtils.closeQuietly( writer );
+        }
+    }
+
+}
@@ -19,19 +19,29 @@
  */
 package org.jvnet.hudson.plugins.mavendepsupdate.util;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.jvnet.hudson.plugins.mavendepsupdate.MavenDependencyUpdateTrigger;
+import org.sonatype.aether.transfer.ArtifactNotFoundException;
+import org.sonatype.aether.transfer.MetadataNotFoundException;
 import org.sonatype.aether.transfer.TransferCancelledException;
 import org.sonatype.aether.transfer.TransferEvent;
 import org.sonatype.aether.transfer.TransferListener;
 
 import java.io.File;
-import java.io.IOException;
 import java.io.Serializable;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 /**
@@ -47,9 +57,50 @@ public class SnapshotTransfertListener
     
     private final Long lastBuild;
 
-    private boolean snapshotDownloaded = false;
+    private volatile boolean snapshotDownloaded = false;
 
-    private List<String> snapshots = new ArrayList<String>();
+    private boolean shortCircuit = false;
+
+    private List<String> snapshots = Collections.synchronizedList( new ArrayList<String>() );
+
+    private transient SnapshotMetadataIndex snapshotMetadataIndex;
+
+    private Map<String, String> knownSnapshotVersions = Collections.emptyMap();
+
+    private Map<String, String> seenSnapshotVersions = new ConcurrentHashMap<String, String>();
+
+    private Map<String, String> metadataUrls = new ConcurrentHashMap<String, String>();
+
+    private Set<String> updatedGavs = Collections.synchronizedSet( new TreeSet<String>() );
+
+    private transient LeasedRequestThrottle requestThrottle;
+
+    private final AtomicLong throttledMillis = new AtomicLong();
+
+    private long deadline = Long.MAX_VALUE;
+
+    private volatile boolean deadlineExceeded;
+
+    private Set<String> openRepositories = Collections.emptySet();
+
+    private final Map<String, AtomicInteger> repositorySuccesses = new ConcurrentHashMap<String, AtomicInteger>();
+
+    private final Map<String, AtomicInteger> repositoryFailures = new ConcurrentHashMap<String, AtomicInteger>();
+
+    private Map<String, String> routes = Collections.emptyMap();
+
+    private Set<String> misses = Collections.emptySet();
+
+    private final Map<String, Set<String>> servedRepositories = new ConcurrentHashMap<String, Set<String>>();
+
+    private final Set<String> notFound = Collections.synchronizedSet( new HashSet<String>() );
+
+    /**
+     * transfers cancelled by this listener, not to be counted as repository failures
+     */
+    private final Set<String> cancelledTransfers = Collections.synchronizedSet( new HashSet<String>() );
+
+    private final TransferRecorder transferRecorder = new TransferRecorder();
 
     public SnapshotTransfertListener()
     {
@@ -60,40 +111,296 @@ public class SnapshotTransfertListener
     {
         this.lastBuild = lastBuild;
     }
+
+    /**
+     * @param lastBuild last build start time (yyyyMMddHHmmss UTC)
+     * @param snapshotMetadataIndex index of the local repository SNAPSHOT metadata used for this check
+     * @since 1.5
+     */
+    public SnapshotTransfertListener( Long lastBuild, SnapshotMetadataIndex snapshotMetadataIndex )
+    {
+        this.lastBuild = lastBuild;
+        this.snapshotMetadataIndex = snapshotMetadataIndex;
+    }
+
+    /**
+     * @param shortCircuit <code>true</code> to cancel all the transfers once a SNAPSHOT update has been detected
+     * @since 1.5
+     */
+    public void setShortCircuit( boolean shortCircuit )
+    {
+        this.shortCircuit = shortCircuit;
+    }
+
+    /**
+     * @param knownSnapshotVersions SNAPSHOT versions recorded for the job (see {@link SnapshotStateStore}),
+     *                              used for an exact comparison when available
+     * @since 1.5
+     */
+    public void setKnownSnapshotVersions( Map<String, String> knownSnapshotVersions )
+    {
+        this.knownSnapshotVersions =
+            knownSnapshotVersions == null ? Collections.<String, String>emptyMap() : knownSnapshotVersions;
+    }
     
+    /**
+     * @param requestThrottle throttle shared by all the checks or <code>null</code> for no limit
+     * @since 1.5
+     */
+    public void setRequestThrottle( RequestThrottle requestThrottle )
+    {
+        this.requestThrottle = requestThrottle == null ? null : new LeasedRequestThrottle( requestThrottle );
+    }
+
+    /**
+     * @param deadline time (ms) after which all the transfers are cancelled
+     * @since 1.5
+     */
+    public void setDeadline( long deadline )
+    {
+        this.deadline = deadline;
+    }
+
+    /**
+     * @param openRepositories urls of the repositories not to request (see {@link RepositoryCircuitBreaker})
+     * @since 1.5
+     */
+    public void setOpenRepositories( Set<String> openRepositories )
+    {
+        this.openRepositories =
+            openRepositories == null ? Collections.<String>emptySet() : openRepositories;
+    }
+
+    /**
+     * @param routes repository url per groupId (see {@link RepositoryRoutingTable})
+     * @param misses <code>groupId:artifactId:version repositoryUrl</code> recently answered not found
+     * @since 1.5
+     */
+    public void setRouting( Map<String, String> routes, Set<String> misses )
+    {
+        this.routes = routes == null ? Collections.<String, String>emptyMap() : routes;
+        this.misses = misses == null ? Collections.<String>emptySet() : misses;
+    }
+
     public void transferCorrupted( TransferEvent transferEvent )
         throws TransferCancelledException
     {
-        // no op
+        transferRecorder.corrupted( transferEvent );
     }
 
     public void transferFailed( TransferEvent transferEvent )
     {
-        // no op       
+        transferRecorder.failed( transferEvent );
+        if ( transferEvent == null || transferEvent.getResource() == null
+            || cancelledTransfers.remove( getTransferKey( transferEvent ) ) )
+        {
+            return;
+        }
+        Exception exception = transferEvent.getException();
+        if ( exception instanceof MetadataNotFoundException || exception instanceof ArtifactNotFoundException )
+        {
+            // the repository answered
+            count( repositorySuccesses, transferEvent );
+            String gav = getSnapshotGav( transferEvent );
+            if ( gav != null )
+            {
+                notFound.add( RepositoryRoutingTable.getMissKey( gav, RepositoryCircuitBreaker.normalize(
+                    transferEvent.getResource().getRepositoryUrl() ) ) );
+            }
+        }
+        else if ( !( exception instanceof TransferCancelledException ) )
+        {
+            count( repositoryFailures, transferEvent );
+        }
     }
 
     public void transferInitiated( TransferEvent transferEvent )
         throws TransferCancelledException
     {
-        // no op
+        transferRecorder.initiated( transferEvent );
+        checkShortCircuit( transferEvent );
+        checkDeadline( transferEvent );
+        if ( transferEvent != null && transferEvent.getResource() != null )
+        {
+            String url = RepositoryCircuitBreaker.normalize( transferEvent.getResource().getRepositoryUrl() );
+            if ( openRepositories.contains( url ) )
+            {
+                cancel( transferEvent, "repository " + url + " is unavailable" );
+            }
+            checkRoute( transferEvent, url );
+            refreshIndexEntry( transferEvent );
+        }
+        throttle( transferEvent );
+    }
+
+    /**
+     * the index is only kept current by the checks : rescan the metadata file before it is downloaded so a refresh
+     * by a build using the same local repository is not taken for an update.
+     */
+    private void refreshIndexEntry( TransferEvent transferEvent )
+    {
+        File file = transferEvent.getResource().getFile();
+        if ( snapshotMetadataIndex != null && file != null && isMetaData( file )
+            && getSnapshotGav( transferEvent ) != null )
+        {
+            snapshotMetadataIndex.update( file );
+        }
+    }
+
+    private void checkRoute( TransferEvent transferEvent, String url )
+        throws TransferCancelledException
+    {
+        String gav = getSnapshotGav( transferEvent );
+        if ( gav == null )
+        {
+            return;
+        }
+        String routed = routes.get( gav.substring( 0, gav.indexOf( ':' ) ) );
+        if ( routed != null && !routed.equals( url ) )
+        {
+            cancel( transferEvent, gav + " is routed to " + routed );
+        }
+        if ( misses.contains( RepositoryRoutingTable.getMissKey( gav, url ) ) )
+        {
+            cancel( transferEvent, gav + " recently not found in " + url );
+        }
+    }
+
+    private void cancel( TransferEvent transferEvent, String message )
+        throws TransferCancelledException
+    {
+        if ( transferEvent != null && transferEvent.getResource() != null )
+        {
+            cancelledTransfers.add( getTransferKey( transferEvent ) );
+        }
+        transferRecorder.cancelled( transferEvent, message );
+        throw new TransferCancelledException( message );
+    }
+
+    private String getTransferKey( TransferEvent transferEvent )
+    {
+        return transferEvent.getResource().getRepositoryUrl() + transferEvent.getResource().getResourceName();
+    }
+
+    /**
+     * @return <code>groupId:artifactId:version</code> of a SNAPSHOT transfer, <code>null</code> otherwise
+     */
+    private String getSnapshotGav( TransferEvent transferEvent )
+    {
+        String resourceName = transferEvent.getResource().getResourceName();
+        if ( resourceName == null || !resourceName.contains( "SNAPSHOT" ) )
+        {
+            return null;
+        }
+        String gav = SnapshotMetadataIndex.getGav( resourceName );
+        return gav != null && gav.endsWith( "SNAPSHOT" ) ? gav : null;
+    }
+
+    private void throttle( TransferEvent transferEvent )
+        throws TransferCancelledException
+    {
+        if ( requestThrottle == null || transferEvent == null || transferEvent.getResource() == null )
+        {
+            return;
+        }
+        try
+        {
+            String host = new URL( transferEvent.getResource().getRepositoryUrl() ).getHost();
+            if ( StringUtils.isNotEmpty( host ) )
+            {
+                throttledMillis.addAndGet( requestThrottle.acquire( host ) );
+            }
+        }
+        catch ( MalformedURLException e )
+        {
+            // not a remote repository
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new TransferCancelledException( "interrupted while throttled" );
+        }
+        catch ( RuntimeException e )
+        {
+            // the controller cannot be reached, do not fail the check for that
+            LOGGER.warning( "ignore request throttle failure " + e.getMessage() );
+            requestThrottle = null;
+        }
     }
 
     public void transferProgressed( TransferEvent transferEvent )
         throws TransferCancelledException
     {
-        // no op
+        checkShortCircuit( transferEvent );
+        checkDeadline( transferEvent );
+    }
+
+    private void checkDeadline( TransferEvent transferEvent )
+        throws TransferCancelledException
+    {
+        if ( System.currentTimeMillis() > deadline )
+        {
+            if ( !deadlineExceeded )
+            {
+                deadlineExceeded = true;
+                // the transfer running at the deadline counts as a timeout
+                count( repositoryFailures, transferEvent );
+            }
+            cancel( transferEvent, "check deadline exceeded" );
+        }
+    }
+
+    private void count( Map<String, AtomicInteger> counts, TransferEvent transferEvent )
+    {
+        if ( transferEvent == null || transferEvent.getResource() == null
+            || transferEvent.getResource().getRepositoryUrl() == null )
+        {
+            return;
+        }
+        String url = RepositoryCircuitBreaker.normalize( transferEvent.getResource().getRepositoryUrl() );
+        AtomicInteger count = counts.get( url );
+        if ( count == null )
+        {
+            synchronized ( counts )
+            {
+                count = counts.get( url );
+                if ( count == null )
+                {
+                    count = new AtomicInteger();
+                    counts.put( url, count );
+                }
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    private void checkShortCircuit( TransferEvent transferEvent )
+        throws TransferCancelledException
+    {
+        if ( shortCircuit && snapshotDownloaded )
+        {
+            cancel( transferEvent, "SNAPSHOT update already detected" );
+        }
     }
 
     public void transferStarted( TransferEvent transferEvent )
         throws TransferCancelledException
     {
-        // no op
+        transferRecorder.started( transferEvent );
     }
 
     public void transferSucceeded( TransferEvent transferEvent )
     {
+        transferRecorder.succeeded( transferEvent );
+        count( repositorySuccesses, transferEvent );
         if ( transferEvent != null && transferEvent.getResource() != null )
         {
+            String gav = getSnapshotGav( transferEvent );
+            if ( gav != null )
+            {
+                served( gav.substring( 0, gav.indexOf( ':' ) ),
+                        RepositoryCircuitBreaker.normalize( transferEvent.getResource().getRepositoryUrl() ) );
+            }
             File file = transferEvent.getResource().getFile();
             if ( file != null && transferEvent.getResource().getResourceName().contains( "SNAPSHOT" ) )
             {
@@ -101,34 +408,107 @@ public class SnapshotTransfertListener
                 boolean isArtifact = !isMetaData( file );
                 if ( isArtifact )
                 {
+                    if ( isKnownArtifact( transferEvent.getResource().getResourceName() ) )
+                    {
+                        return;
+                    }
                     if ( MavenDependencyUpdateTrigger.debug )
                     {
                         LOGGER.info( "download " + file.getName() );
                     }
-                    snapshots.add( file.getName() );
-                    snapshotDownloaded = true;
+                    snapshotUpdated( transferEvent.getResource().getResourceName(), file );
                 }
-                else
+                else if ( isMetadataUpdated( file, transferEvent.getResource().getRepositoryUrl(),
+                                             transferEvent.getResource().getResourceName() ) )
                 {
-                    try {
-                        String fileContents = FileUtils.readFileToString(file);
-                        String lastUpdatedString = StringUtils.substringBetween(fileContents, "<lastUpdated>", "</lastUpdated>");
-                        long lastUpdated = Long.valueOf(lastUpdatedString);
-                        if (lastUpdated >= this.lastBuild)
-                        {
-                            snapshots.add( file.getName() );
-                            snapshotDownloaded = true;
-                        }
-                    }
-                    catch (IOException e) {
-                        // TODO Auto-generated catch block
-                        e.printStackTrace();
-                    }
+                    snapshotUpdated( transferEvent.getResource().getResourceName(), file );
                 }
             }
         }
     }
 
+    private void snapshotUpdated( String resourceName, File file )
+    {
+        snapshots.add( file.getName() );
+        String gav = SnapshotMetadataIndex.getGav( resourceName );
+        if ( gav != null )
+        {
+            updatedGavs.add( gav );
+        }
+        snapshotDownloaded = true;
+    }
+
+    /**
+     * a metadata is updated if its version differs from the one recorded for the job.
+     * Without any record, it's updated if the node has never seen this SNAPSHOT version before or if the version
+     * has been published after the last build.
+     */
+    private boolean isMetadataUpdated( File file, String repositoryUrl, String resourceName )
+    {
+        SnapshotMetadataIndex.Entry previous = null;
+        SnapshotMetadataIndex.Entry current;
+        String key = null;
+        if ( snapshotMetadataIndex == null )
+        {
+            current = SnapshotMetadataIndex.read( file );
+        }
+        else
+        {
+            key = snapshotMetadataIndex.getKey( file );
+            previous = snapshotMetadataIndex.get( key );
+            current = snapshotMetadataIndex.update( file );
+        }
+        if ( current == null )
+        {
+            return false;
+        }
+        if ( key != null )
+        {
+            seenSnapshotVersions.put( key, current.getVersion() );
+            if ( repositoryUrl != null )
+            {
+                metadataUrls.put( key, RepositoryCircuitBreaker.normalize( repositoryUrl ) + "/" + resourceName );
+            }
+            String known = knownSnapshotVersions.get( key );
+            if ( known != null )
+            {
+                return !known.equals( current.getVersion() );
+            }
+        }
+        if ( previous != null && !previous.getVersion().equals( current.getVersion() ) )
+        {
+            if ( MavenDependencyUpdateTrigger.debug )
+            {
+                LOGGER.info( "new SNAPSHOT version " + current.getVersion() + " for " + file.getPath() );
+            }
+            return true;
+        }
+        return current.getLastUpdated() >= this.lastBuild;
+    }
+
+    /**
+     * an artifact download is not a change if the job already recorded this timestamped version
+     * (i.e the artifact has only been removed from the local repository).
+     */
+    private boolean isKnownArtifact( String resourceName )
+    {
+        int index = resourceName.lastIndexOf( '/' );
+        if ( index < 0 )
+        {
+            return false;
+        }
+        String directory = resourceName.substring( 0, index + 1 );
+        String fileName = resourceName.substring( index + 1 );
+        for ( Map.Entry<String, String> entry : knownSnapshotVersions.entrySet() )
+        {
+            if ( entry.getKey().startsWith( directory ) && fileName.contains( entry.getValue() ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public boolean isSnapshotDownloaded()
     {
         return snapshotDownloaded;
@@ -136,7 +516,139 @@ public class SnapshotTransfertListener
 
     public List<String> getSnapshots()
     {
-        return snapshots;
+        synchronized ( snapshots )
+        {
+            return new ArrayList<String>( snapshots );
+        }
+    }
+
+    /**
+     * @return the transfers of this check
+     * @since 1.5
+     */
+    public TransferRecorder getTransferRecorder()
+    {
+        return transferRecorder;
+    }
+
+    /**
+     * @return <code>groupId:artifactId:version</code> of the updated SNAPSHOTs
+     * @since 1.5
+     */
+    public Set<String> getUpdatedGavs()
+    {
+        return updatedGavs;
+    }
+
+    private void served( String groupId, String url )
+    {
+        Set<String> urls = servedRepositories.get( groupId );
+        if ( urls == null )
+        {
+            synchronized ( servedRepositories )
+            {
+                urls = servedRepositories.get( groupId );
+                if ( urls == null )
+                {
+                    urls = Collections.synchronizedSet( new HashSet<String>() );
+                    servedRepositories.put( groupId, urls );
+                }
+            }
+        }
+        urls.add( url );
+    }
+
+    /**
+     * @return repository urls which served SNAPSHOTs per groupId
+     * @since 1.5
+     */
+    public Map<String, Set<String>> getServedRepositories()
+    {
+        Map<String, Set<String>> result = new HashMap<String, Set<String>>();
+        for ( Map.Entry<String, Set<String>> entry : servedRepositories.entrySet() )
+        {
+            synchronized ( entry.getValue() )
+            {
+                result.put( entry.getKey(), new HashSet<String>( entry.getValue() ) );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return <code>groupId:artifactId:version repositoryUrl</code> answered not found
+     * @since 1.5
+     */
+    public Set<String> getNotFound()
+    {
+        synchronized ( notFound )
+        {
+            return new HashSet<String>( notFound );
+        }
+    }
+
+    /**
+     * @return <code>true</code> if transfers have been cancelled at the check deadline
+     * @since 1.5
+     */
+    public boolean isDeadlineExceeded()
+    {
+        return deadlineExceeded;
+    }
+
+    /**
+     * @return number of requests answered per repository url
+     * @since 1.5
+     */
+    public Map<String, Integer> getRepositorySuccesses()
+    {
+        return toCounts( repositorySuccesses );
+    }
+
+    /**
+     * @return number of failed or timed out requests per repository url
+     * @since 1.5
+     */
+    public Map<String, Integer> getRepositoryFailures()
+    {
+        return toCounts( repositoryFailures );
+    }
+
+    private Map<String, Integer> toCounts( Map<String, AtomicInteger> counts )
+    {
+        Map<String, Integer> result = new HashMap<String, Integer>();
+        for ( Map.Entry<String, AtomicInteger> entry : counts.entrySet() )
+        {
+            result.put( entry.getKey(), Integer.valueOf( entry.getValue().get() ) );
+        }
+        return result;
+    }
+
+    /**
+     * @return time spent waiting for the request throttle
+     * @since 1.5
+     */
+    public long getThrottledMillis()
+    {
+        return throttledMillis.get();
+    }
+
+    /**
+     * @return SNAPSHOT versions seen during this check keyed by {@link SnapshotMetadataIndex} keys
+     * @since 1.5
+     */
+    public Map<String, String> getSeenSnapshotVersions()
+    {
+        return seenSnapshotVersions;
+    }
+
+    /**
+     * @return remote urls of the SNAPSHOT metadata seen during this check keyed by {@link SnapshotMetadataIndex} keys
+     * @since 1.5
+     */
+    public Map<String, String> getMetadataUrls()
+    {
+        return metadataUrls;
     }
     
     private boolean isMetaData(File file)
@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the duration of the phases of a check (container creation, settings and model building, resolution of
+ * each module...) as spans, on the controller and on the node. The spans of the node are returned with the check
+ * result and written with the controller ones in the Chrome trace event format (<code>chrome://tracing</code>).
+ * The disabled tracer returns a shared span doing nothing : the span details are only formatted when enabled.
+ * The bytes allocated by the thread of a span are recorded when the JVM provides the thread allocation counters
+ * (<code>com.sun.management.ThreadMXBean</code>, from java 6u25).
+ * NOTE : <b>this class is not designed for external use so it can change without any prior notice</b>
+ *
+ * @since 1.5
+ */
+public class SpanTracer
+{
+    public static final SpanTracer DISABLED = new SpanTracer( null );
+
+    /**
+     * <code>getThreadAllocatedBytes(long)</code> of the thread MXBean or <code>null</code> if not available
+     */
+    private static final Method THREAD_ALLOCATED_BYTES = getThreadAllocatedBytesMethod();
+
+    private static final Span NOOP = new Span( null, null, null, null, 0 )
+    {
+        @Override
+        public void end()
+        {
+            // disabled
+        }
+    };
+
+    /**
+     * the node name or <code>null</code> if disabled
+     */
+    private final String process;
+
+    private final List<Span> spans = Collections.synchronizedList( new ArrayList<Span>() );
+
+    private SpanTracer( String process )
+    {
+        this.process = process;
+    }
+
+    /**
+     * @param process name of the node where the spans are recorded
+     */
+    public static SpanTracer create( boolean enabled, String process )
+    {
+        return enabled ? new SpanTracer( process ) : DISABLED;
+    }
+
+    public boolean isEnabled()
+    {
+        return process != null;
+    }
+
+    /**
+     * @param detail the span detail (module, plugin...), can be <code>null</code>
+     * @return the started span, to end when the phase is done
+     */
+    public Span start( String name, Object detail )
+    {
+        if ( process == null )
+        {
+            return NOOP;
+        }
+        Span span = new Span( name, detail == null ? null : detail.toString(), process,
+                              Thread.currentThread().getName(), System.currentTimeMillis() * 1000 );
+        span.startAllocatedBytes = getThreadAllocatedBytes();
+        span.startNanos = System.nanoTime();
+        spans.add( span );
+        return span;
+    }
+
+    private static Method getThreadAllocatedBytesMethod()
+    {
+        try
+        {
+            Class<?> threadMXBean = Class.forName( "com.sun.management.ThreadMXBean" );
+            if ( !threadMXBean.isInstance( ManagementFactory.getThreadMXBean() ) )
+            {
+                return null;
+            }
+            return threadMXBean.getMethod( "getThreadAllocatedBytes", long.class );
+        }
+        catch ( Exception e )
+        {
+            return null;
+        }
+        catch ( LinkageError e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * @return the bytes allocated by the current thread or -1 if not available
+     */
+    private static long getThreadAllocatedBytes()
+    {
+        if ( THREAD_ALLOCATED_BYTES == null )
+        {
+            return -1;
+        }
+        try
+        {
+            Object allocated = THREAD_ALLOCATED_BYTES.invoke( ManagementFactory.getThreadMXBean(),
+                                                              Long.valueOf( Thread.currentThread().getId() ) );
+            return ( (Long) allocated ).longValue();
+        }
+        catch ( Exception e )
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the ended spans
+     */
+    public List<Span> getSpans()
+    {
+        List<Span> ended = new ArrayList<Span>();
+        synchronized ( spans )
+        {
+            for ( Span span : spans )
+            {
+                if ( span.duration >= 0 )
+                {
+                    ended.add( span );
+                }
+            }
+        }
+        return ended;
+    }
+
+    /**
+     * write the spans as Chrome trace events, one process per node and one thread per thread name
+     */
+    public static void writeChromeTrace( File file, Collection<Span> spans )
+        throws IOException
+    {
+        Map<String, Integer> pids = new LinkedHashMap<String, Integer>();
+        Map<String, Integer> tids = new LinkedHashMap<String, Integer>();
+        Writer writer = null;
+        try
+        {
+            writer = new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" );
+            writer.write( "{\"traceEvents\":[" );
+            boolean first = true;
+            for ( Span span : spans )
+            {
+                Integer pid = getId( pids, span.process );
+                Integer tid = getId( tids, span.process + '|' + span.thread );
+                writer.write( first ? "\n" : ",\n" );
+                first = false;
+                writer.write( "{\"name\":" + quote( span.name ) + ",\"cat\":\"check\",\"ph\":\"X\",\"ts\":" + span.start
+                                  + ",\"dur\":" + span.duration + ",\"pid\":" + pid + ",\"tid\":" + tid );
+                if ( span.detail != null || span.allocatedBytes >= 0 )
+                {
+                    writer.write( ",\"args\":{" );
+                    if ( span.detail != null )
+                    {
+                        writer.write( "\"detail\":" + quote( span.detail ) + ( span.allocatedBytes >= 0 ? "," : "" ) );
+                    }
+                    if ( span.allocatedBytes >= 0 )
+                    {
+                        writer.write( "\"allocatedBytes\":" + span.allocatedBytes );
+                    }
+                    writer.write( "}" );
+                }
+                writer.write( "}" );
+            }
+            for ( Map.Entry<String, Integer> entry : pids.entrySet() )
+            {
+                writer.write( ",\n{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":" + entry.getValue()
+                                  + ",\"args\":{\"name\":" + quote( entry.getKey() ) + "}}" );
+            }
+            for ( Map.Entry<String, Integer> entry : tids.entrySet() )
+            {
+                String process = entry.getKey().substring( 0, entry.getKey().indexOf( '|' ) );
+                writer.write( ",\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":" + pids.get( process ) + ",\"tid\":"
+                                  + entry.getValue() + ",\"args\":{\"name\":" + quote(
+                    entry.getKey().substring( process.length() + 1 ) ) + "}}" );
+            }
+            writer.write( "\n]}\n" );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( writer );
+        }
+    }
+
+    private static Integer getId( Map<String, Integer> ids, String key )
+    {
+        Integer id = ids.get( key );
+        if ( id == null )
+        {
+            id = Integer.valueOf( ids.size() + 1 );
+            ids.put( key, id );
+        }
+        return id;
+    }
+
+    private static String quote( String value )
+    {
+        StringBuilder quoted = new StringBuilder( value.length() + 2 ).append( '"' );
+        for ( int i = 0; i < value.length(); i++ )
+        {
+            char c = value.charAt( i );
+            if ( c == '"' || c == '\\' )
+            {
+                quoted.append( '\\' ).append( c );
+            }
+            else if ( c < ' ' )
+            {
+                quoted.append( String.format( "\\u%04x", Integer.valueOf( c ) ) );
+            }
+            else
+            {
+                quoted.append( c );
+            }
+        }
+        return quoted.append( '"' ).toString();
+    }
+
+    /**
+     * a phase of a check, times in microseconds : the start is the wall clock time of the recording node
+     */
+    public static class Span
+        implements Serializable
+    {
+        private final String name;
+
+        private final String detail;
+
+        private final String process;
+
+        private final String thread;
+
+        private final long start;
+
+        private transient long startNanos;
+
+        private transient long startAllocatedBytes;
+
+        private volatile long duration = -1;
+
+        private long allocatedBytes = -1;
+
+        private Span( String name, String detail, String process, String thread, long start )
+        {
+            this.name = name;
+            this.detail = detail;
+            this.process = process;
+            this.thread = thread;
+            this.start = start;
+        }
+
+        /**
+         * to call from the thread which started the span
+         */
+        public void end()
+        {
+            if ( startAllocatedBytes >= 0 )
+            {
+                long allocated = getThreadAllocatedBytes();
+                allocatedBytes = allocated >= 0 ? allocated - startAllocatedBytes : -1;
+            }
+            duration = ( System.nanoTime() - startNanos ) / 1000;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public String getDetail()
+        {
+            return detail;
+        }
+
+        public String getProcess()
+        {
+            return process;
+        }
+
+        public String getThread()
+        {
+            return thread;
+        }
+
+        public long getStart()
+        {
+            return start;
+        }
+
+        public long getDuration()
+        {
+            return duration;
+        }
+
+        /**
+         * @return bytes allocated by the thread during the span or -1 if unknown
+         */
+        public long getAllocatedBytes()
+        {
+            return allocatedBytes;
+        }
+
+        @Override
+        public String toString()
+        {
+            return name + ( detail == null ? "" : " " + detail ) + " " + duration / 1000 + " ms";
+        }
+    }
+}
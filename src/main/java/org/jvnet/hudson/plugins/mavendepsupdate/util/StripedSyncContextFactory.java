@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.sonatype.aether.RepositorySystemSession;
+import org.sonatype.aether.SyncContext;
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.impl.SyncContextFactory;
+import org.sonatype.aether.metadata.Metadata;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Node wide {@link SyncContextFactory} locking the metadata and the SNAPSHOT artifacts resolved by the concurrent
+ * checks of the node per GAV, on a fixed number of lock stripes. The released artifacts are written once and are
+ * not locked. The stripes a thread holds are kept so the nested contexts of the resolvers (the metadata of an
+ * artifact while its artifact is locked) reuse them. The stripes above the ones held are waited for, in order ; a
+ * stripe below them could deadlock two checks so it is only waited for {@link #LOCK_TIMEOUT} before the resolution
+ * fails : the metadata are never written unlocked.
+ * The locks only cover the checks of the node, the builds are isolated by the {@link ScratchLocalRepositoryManager}.
+ * NOTE : <b>this class is not designed for external use so it can change without any prior notice</b>
+ *
+ * @since 1.5
+ */
+public class StripedSyncContextFactory
+    implements SyncContextFactory
+{
+    private static final Logger LOGGER = Logger.getLogger( StripedSyncContextFactory.class.getName() );
+
+    private static final int STRIPES = 64;
+
+    /**
+     * maximum wait for a lock in milliseconds
+     */
+    private static final long LOCK_TIMEOUT = 10000;
+
+    private static final StripedSyncContextFactory INSTANCE = new StripedSyncContextFactory();
+
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+    private final AtomicLong acquisitions = new AtomicLong();
+
+    private final AtomicLong contentions = new AtomicLong();
+
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * the stripes held by the contexts of the current thread
+     */
+    private final ThreadLocal<SortedSet<Integer>> threadStripes = new ThreadLocal<SortedSet<Integer>>()
+    {
+        protected SortedSet<Integer> initialValue()
+        {
+            return new TreeSet<Integer>();
+        }
+    };
+
+    private StripedSyncContextFactory()
+    {
+        for ( int i = 0; i < locks.length; i++ )
+        {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public static StripedSyncContextFactory getInstance()
+    {
+        return INSTANCE;
+    }
+
+    public SyncContext newInstance( RepositorySystemSession session, boolean shared )
+    {
+        // the stripes are exclusive : a shared lock could not be upgraded by the nested contexts of a thread
+        return new StripedSyncContext();
+    }
+
+    /**
+     * @return acquired, contended and failed locks since the node started
+     */
+    public String getStatistics()
+    {
+        return acquisitions.get() + " locks acquired, " + contentions.get() + " contended, " + timeouts.get()
+            + " failed after " + LOCK_TIMEOUT + " ms";
+    }
+
+    private int getStripe( String groupId, String artifactId, String version )
+    {
+        return ( ( groupId + ':' + artifactId + ':' + version ).hashCode() & Integer.MAX_VALUE ) % STRIPES;
+    }
+
+    private class StripedSyncContext
+        implements SyncContext
+    {
+        /**
+         * the stripes locked by this context, in acquisition order
+         */
+        private final List<Integer> held = new ArrayList<Integer>();
+
+        public void acquire( Collection<? extends Artifact> artifacts, Collection<? extends Metadata> metadatas )
+        {
+            SortedSet<Integer> stripes = new TreeSet<Integer>();
+            if ( artifacts != null )
+            {
+                for ( Artifact artifact : artifacts )
+                {
+                    if ( artifact.isSnapshot() )
+                    {
+                        stripes.add( Integer.valueOf(
+                            getStripe( artifact.getGroupId(), artifact.getArtifactId(), artifact.getBaseVersion() ) ) );
+                    }
+                }
+            }
+            if ( metadatas != null )
+            {
+                for ( Metadata metadata : metadatas )
+                {
+                    stripes.add( Integer.valueOf(
+                        getStripe( metadata.getGroupId(), metadata.getArtifactId(), metadata.getVersion() ) ) );
+                }
+            }
+            SortedSet<Integer> owned = threadStripes.get();
+            int first = held.size();
+            for ( Integer stripe : stripes )
+            {
+                ReentrantLock lock = locks[stripe.intValue()];
+                try
+                {
+                    if ( owned.contains( stripe ) )
+                    {
+                        // reentered without waiting as the thread already holds it
+                        lock.lock();
+                    }
+                    else if ( !lock.tryLock() )
+                    {
+                        contentions.incrementAndGet();
+                        if ( owned.isEmpty() || stripe.compareTo( owned.last() ) > 0 )
+                        {
+                            lock.lockInterruptibly();
+                        }
+                        else if ( !lock.tryLock( LOCK_TIMEOUT, TimeUnit.MILLISECONDS ) )
+                        {
+                            timeouts.incrementAndGet();
+                            unlock( first );
+                            throw new IllegalStateException( "could not lock stripe " + stripe + " within "
+                                + LOCK_TIMEOUT + " ms, it is held by another check" );
+                        }
+                    }
+                    acquisitions.incrementAndGet();
+                    held.add( stripe );
+                    owned.add( stripe );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                    unlock( first );
+                    throw new IllegalStateException( "interrupted while waiting for the lock of stripe " + stripe );
+                }
+            }
+        }
+
+        public void release()
+        {
+            unlock( 0 );
+        }
+
+        /**
+         * unlocks the locks held by this context from the given index, in reverse order
+         */
+        private void unlock( int from )
+        {
+            SortedSet<Integer> owned = threadStripes.get();
+            for ( int i = held.size() - 1; i >= from; i-- )
+            {
+                Integer stripe = held.remove( i );
+                ReentrantLock lock = locks[stripe.intValue()];
+                lock.unlock();
+                if ( !lock.isHeldByCurrentThread() )
+                {
+                    owned.remove( stripe );
+                }
+            }
+        }
+    }
+}
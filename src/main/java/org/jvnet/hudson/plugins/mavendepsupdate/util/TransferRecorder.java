@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.sonatype.aether.transfer.ArtifactNotFoundException;
+import org.sonatype.aether.transfer.MetadataNotFoundException;
+import org.sonatype.aether.transfer.TransferCancelledException;
+import org.sonatype.aether.transfer.TransferEvent;
+import org.sonatype.aether.transfer.TransferResource;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Records the transfers of a check, one record per repository and resource whatever the number of times the
+ * resource is requested, with its size, timing and outcome. The transfer events of the concurrent resolutions of a
+ * check can be recorded at the same time.
+ * NOTE : <b>this class is not designed for external use so it can change without any prior notice</b>
+ *
+ * @since 1.5
+ */
+public class TransferRecorder
+    implements Serializable
+{
+    public enum Outcome
+    {
+        PENDING, SUCCEEDED, NOT_FOUND, CANCELLED, CORRUPTED, FAILED
+    }
+
+    private final ConcurrentMap<String, Record> records = new ConcurrentHashMap<String, Record>();
+
+    public void initiated( TransferEvent transferEvent )
+    {
+        Record record = getRecord( transferEvent );
+        if ( record != null )
+        {
+            record.initiated();
+        }
+    }
+
+    public void started( TransferEvent transferEvent )
+    {
+        Record record = getRecord( transferEvent );
+        if ( record != null )
+        {
+            record.started();
+        }
+    }
+
+    public void succeeded( TransferEvent transferEvent )
+    {
+        Record record = getRecord( transferEvent );
+        if ( record != null )
+        {
+            long bytes = transferEvent.getTransferredBytes() > 0
+                ? transferEvent.getTransferredBytes()
+                : transferEvent.getResource().getContentLength();
+            record.ended( Outcome.SUCCEEDED, bytes, null );
+        }
+    }
+
+    public void corrupted( TransferEvent transferEvent )
+    {
+        Record record = getRecord( transferEvent );
+        if ( record != null )
+        {
+            record.ended( Outcome.CORRUPTED, transferEvent.getTransferredBytes(), getReason( transferEvent ) );
+        }
+    }
+
+    public void failed( TransferEvent transferEvent )
+    {
+        Record record = getRecord( transferEvent );
+        if ( record == null )
+        {
+            return;
+        }
+        Exception exception = transferEvent.getException();
+        Outcome outcome;
+        if ( exception instanceof MetadataNotFoundException || exception instanceof ArtifactNotFoundException )
+        {
+            outcome = Outcome.NOT_FOUND;
+        }
+        else if ( exception instanceof TransferCancelledException )
+        {
+            outcome = Outcome.CANCELLED;
+        }
+        else
+        {
+            outcome = Outcome.FAILED;
+        }
+        record.ended( outcome, transferEvent.getTransferredBytes(), getReason( transferEvent ) );
+    }
+
+    /**
+     * a transfer cancelled by the listener when initiated : no failure event may follow
+     */
+    public void cancelled( TransferEvent transferEvent, String reason )
+    {
+        Record record = getRecord( transferEvent );
+        if ( record != null )
+        {
+            record.ended( Outcome.CANCELLED, 0, reason );
+        }
+    }
+
+    private String getReason( TransferEvent transferEvent )
+    {
+        Exception exception = transferEvent.getException();
+        return exception == null ? null : exception.getClass().getSimpleName() + ": " + exception.getMessage();
+    }
+
+    private Record getRecord( TransferEvent transferEvent )
+    {
+        if ( transferEvent == null || transferEvent.getResource() == null )
+        {
+            return null;
+        }
+        TransferResource resource = transferEvent.getResource();
+        String key = resource.getRepositoryUrl() + resource.getResourceName();
+        Record record = records.get( key );
+        if ( record == null )
+        {
+            Record created = new Record( RepositoryCircuitBreaker.normalize( resource.getRepositoryUrl() ),
+                                         resource.getResourceName() );
+            record = records.putIfAbsent( key, created );
+            if ( record == null )
+            {
+                record = created;
+            }
+        }
+        return record;
+    }
+
+    /**
+     * @return a copy of the records
+     */
+    public List<Record> getRecords()
+    {
+        List<Record> copies = new ArrayList<Record>( records.size() );
+        for ( Record record : records.values() )
+        {
+            copies.add( record.copy() );
+        }
+        return copies;
+    }
+
+    /**
+     * @param top number of slowest and largest transfers listed
+     * @return the number of transfers per outcome, the transferred bytes and the slowest and largest transfers
+     */
+    public List<String> getSummary( int top )
+    {
+        List<Record> copies = getRecords();
+        Map<Outcome, Integer> outcomes = new EnumMap<Outcome, Integer>( Outcome.class );
+        long bytes = 0;
+        long duration = 0;
+        int requests = 0;
+        int repeated = 0;
+        for ( Record record : copies )
+        {
+            Integer count = outcomes.get( record.outcome );
+            outcomes.put( record.outcome, Integer.valueOf( count == null ? 1 : count.intValue() + 1 ) );
+            bytes += record.bytes;
+            duration += record.duration;
+            requests += record.hits;
+            if ( record.hits > 1 )
+            {
+                repeated++;
+            }
+        }
+        List<String> summary = new ArrayList<String>();
+        summary.add( "transfers : " + requests + " requests of " + copies.size() + " resources (" + repeated
+                         + " requested more than once), " + bytes / 1024 + " KB in " + duration + " ms, " + outcomes );
+        Collections.sort( copies, new Comparator<Record>()
+        {
+            public int compare( Record record, Record other )
+            {
+                return other.duration < record.duration ? -1 : ( other.duration == record.duration ? 0 : 1 );
+            }
+        } );
+        for ( Record record : copies.subList( 0, Math.min( top, copies.size() ) ) )
+        {
+            summary.add( "slowest transfer : " + record );
+        }
+        Collections.sort( copies, new Comparator<Record>()
+        {
+            public int compare( Record record, Record other )
+            {
+                return other.bytes < record.bytes ? -1 : ( other.bytes == record.bytes ? 0 : 1 );
+            }
+        } );
+        for ( Record record : copies.subList( 0, Math.min( top, copies.size() ) ) )
+        {
+            summary.add( "largest transfer : " + record );
+        }
+        return summary;
+    }
+
+    /**
+     * a resource requested from a repository : the timing is the one of its last request, the duration and bytes
+     * are cumulated over its requests
+     */
+    public static class Record
+        implements Serializable
+    {
+        private final String repositoryUrl;
+
+        private final String resourceName;
+
+        private int hits;
+
+        private long initiated;
+
+        /**
+         * time to the first byte of the last request
+         */
+        private long latency = -1;
+
+        private long duration;
+
+        private long bytes;
+
+        private Outcome outcome = Outcome.PENDING;
+
+        private String reason;
+
+        private Record( String repositoryUrl, String resourceName )
+        {
+            this.repositoryUrl = repositoryUrl;
+            this.resourceName = resourceName;
+        }
+
+        private synchronized void initiated()
+        {
+            hits++;
+            initiated = System.currentTimeMillis();
+            latency = -1;
+            outcome = Outcome.PENDING;
+            reason = null;
+        }
+
+        private synchronized void started()
+        {
+            latency = System.currentTimeMillis() - initiated;
+        }
+
+        private synchronized void ended( Outcome outcome, long bytes, String reason )
+        {
+            if ( this.outcome != Outcome.PENDING )
+            {
+                // failure event of a transfer already cancelled by the listener
+                return;
+            }
+            if ( initiated > 0 )
+            {
+                duration += System.currentTimeMillis() - initiated;
+            }
+            this.bytes += Math.max( 0, bytes );
+            this.outcome = outcome;
+            this.reason = reason;
+        }
+
+        private synchronized Record copy()
+        {
+            Record copy = new Record( repositoryUrl, resourceName );
+            copy.hits = hits;
+            copy.initiated = initiated;
+            copy.latency = latency;
+            copy.duration = duration;
+            copy.bytes = bytes;
+            copy.outcome = outcome;
+            copy.reason = reason;
+            return copy;
+        }
+
+        public String getRepositoryUrl()
+        {
+            return repositoryUrl;
+        }
+
+        public String getResourceName()
+        {
+            return resourceName;
+        }
+
+        public synchronized int getHits()
+        {
+            return hits;
+        }
+
+        /**
+         * @return start time (ms) of the last request
+         */
+        public synchronized long getInitiated()
+        {
+            return initiated;
+        }
+
+        /**
+         * @return time to the first byte of the last request in ms, -1 if unknown
+         */
+        public synchronized long getLatency()
+        {
+            return latency;
+        }
+
+        public synchronized long getDuration()
+        {
+            return duration;
+        }
+
+        public synchronized long getBytes()
+        {
+            return bytes;
+        }
+
+        public synchronized Outcome getOutcome()
+        {
+            return outcome;
+        }
+
+        public synchronized String getReason()
+        {
+            return reason;
+        }
+
+        @Override
+        public synchronized String toString()
+        {
+            return repositoryUrl + "/" + resourceName + " " + outcome + " " + duration + " ms " + bytes + " bytes"
+                + ( hits > 1 ? " (" + hits + " requests)" : "" ) + ( reason == null ? "" : " " + reason );
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate;
+
+import hudson.remoting.Callable;
+import hudson.remoting.LocalChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CheckBatcherTest
+{
+    private long checkTimeout;
+
+    private long batchWindow;
+
+    private ExecutorService executorService;
+
+    @Before
+    public void setUp()
+    {
+        checkTimeout = MavenDependencyUpdateTrigger.checkTimeout;
+        batchWindow = CheckBatcher.batchWindow;
+        executorService = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown()
+    {
+        MavenDependencyUpdateTrigger.checkTimeout = checkTimeout;
+        CheckBatcher.batchWindow = batchWindow;
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void batchEndsBeforeItsChecksExpire()
+    {
+        long[] timeouts = { 1, 300, 3600 };
+        long[] windows = { 1, 60000 };
+        for ( long timeout : timeouts )
+        {
+            for ( long window : windows )
+            {
+                MavenDependencyUpdateTrigger.checkTimeout = timeout;
+                CheckBatcher.batchWindow = window;
+                long batchTimeout = CheckBatcher.getBatchTimeout();
+                assertTrue( batchTimeout >= timeout * 1000 );
+                assertTrue( batchTimeout < MavenDependencyUpdateTrigger.getCheckWaitTimeout() );
+            }
+        }
+    }
+
+    @Test
+    public void unlimitedCheckHasNoBatchTimeout()
+    {
+        MavenDependencyUpdateTrigger.checkTimeout = 0;
+        assertEquals( 0, CheckBatcher.getBatchTimeout() );
+    }
+
+    @Test( timeout = 5000 )
+    public void completedCallReturnsItsResult()
+        throws Exception
+    {
+        LocalChannel channel = new LocalChannel( executorService );
+        assertEquals( "done", CheckBatcher.call( channel, new Answer(), 1000 ) );
+        assertEquals( "done", CheckBatcher.call( channel, new Answer(), 0 ) );
+    }
+
+    @Test( timeout = 5000 )
+    public void hangingCallIsCancelledAtItsTimeout()
+        throws Exception
+    {
+        LocalChannel channel = new LocalChannel( executorService );
+        Hang hang = new Hang();
+        long start = System.currentTimeMillis();
+        try
+        {
+            CheckBatcher.call( channel, hang, 200 );
+            fail( "the call hangs" );
+        }
+        catch ( TimeoutException e )
+        {
+            // expected
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue( "waited " + elapsed + " ms", elapsed >= 200 && elapsed < 2000 );
+        // the call has been cancelled, not left running
+        assertTrue( hang.interrupted.await( 2, TimeUnit.SECONDS ) );
+    }
+
+    private static class Answer
+        implements Callable<String, IOException>
+    {
+        public String call()
+        {
+            return "done";
+        }
+    }
+
+    private static class Hang
+        implements Callable<String, IOException>
+    {
+        private final transient CountDownLatch interrupted = new CountDownLatch( 1 );
+
+        public String call()
+            throws IOException
+        {
+            try
+            {
+                new CountDownLatch( 1 ).await();
+                return "done";
+            }
+            catch ( InterruptedException e )
+            {
+                interrupted.countDown();
+                throw new IOException( "interrupted" );
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate;
+
+import antlr.ANTLRException;
+import hudson.model.BuildableItem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The on demand and cron checks of a job share the check in flight, the check itself being stubbed.
+ */
+public class CheckCoalescingTest
+{
+    private static final long WAIT = 5000;
+
+    private StubTrigger trigger;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        trigger = new StubTrigger();
+    }
+
+    @After
+    public void tearDown()
+    {
+        trigger.release.countDown();
+    }
+
+    @Test( timeout = 10000 )
+    public void concurrentRequestsShareTheCheck()
+        throws Exception
+    {
+        CheckStatus.Pending pending = trigger.requestCheck( 0, false );
+        assertSame( pending, trigger.requestCheck( 0, false ) );
+
+        trigger.release.countDown();
+        assertNotNull( pending.await( WAIT ) );
+        assertEquals( 1, trigger.checks.get() );
+    }
+
+    @Test( timeout = 10000 )
+    public void dryRunIsScheduledByAConcurrentCronRun()
+        throws Exception
+    {
+        CheckStatus.Pending pending = trigger.requestCheck( 0, false );
+        assertTrue( pending.isDryRun() );
+
+        // the cron run finds the check in flight and does not start another one
+        trigger.run();
+        assertFalse( pending.isDryRun() );
+
+        trigger.release.countDown();
+        CheckStatus status = pending.await( WAIT );
+        assertFalse( status.isDryRun() );
+        assertEquals( 1, trigger.checks.get() );
+    }
+
+    @Test( timeout = 10000 )
+    public void expiredCheckIsReplaced()
+        throws Exception
+    {
+        trigger.pendingTimeout = 50;
+        CheckStatus.Pending expired = trigger.requestCheck( 0, true );
+        Thread.sleep( 100 );
+        assertTrue( expired.isExpired() );
+
+        CheckStatus.Pending pending = trigger.requestCheck( 0, true );
+        assertNotSame( expired, pending );
+        assertFalse( pending.isExpired() );
+        trigger.awaitChecks( 2 );
+    }
+
+    @Test( timeout = 10000 )
+    public void cachedDryRunDoesNotAnswerAScheduleRequest()
+        throws Exception
+    {
+        CheckStatus.Pending dryRun = trigger.requestCheck( 60000, false );
+        trigger.release.countDown();
+        CheckStatus status = dryRun.await( WAIT );
+        assertTrue( status.isDryRun() );
+
+        // another dry run is answered by the cached status
+        CheckStatus.Pending cached = trigger.requestCheck( 60000, false );
+        assertTrue( cached.isDone() );
+        assertSame( status, cached.await( 0 ) );
+
+        CheckStatus.Pending scheduled = trigger.requestCheck( 60000, true );
+        assertNotSame( status, scheduled.await( WAIT ) );
+        assertEquals( 2, trigger.checks.get() );
+        assertFalse( trigger.requestCheck( 60000, true ).await( 0 ).isDryRun() );
+    }
+
+    private static class StubTrigger
+        extends MavenDependencyUpdateTrigger
+    {
+        private final AtomicInteger checks = new AtomicInteger();
+
+        private final CountDownLatch release = new CountDownLatch( 1 );
+
+        private volatile long pendingTimeout = getCheckWaitTimeout();
+
+        private StubTrigger()
+            throws ANTLRException
+        {
+            super( "", false );
+            job = (BuildableItem) Proxy.newProxyInstance( getClass().getClassLoader(),
+                                                          new Class[]{ BuildableItem.class }, new InvocationHandler()
+            {
+                public Object invoke( Object proxy, Method method, Object[] args )
+                {
+                    return "getName".equals( method.getName() ) ? "job" : null;
+                }
+            } );
+        }
+
+        @Override
+        long getPendingTimeout()
+        {
+            return pendingTimeout;
+        }
+
+        /**
+         * ends when released, as a dry run if the check in flight still is one
+         */
+        @Override
+        void check()
+        {
+            checks.incrementAndGet();
+            try
+            {
+                release.await();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+            endCheck( new CheckStatus( System.currentTimeMillis(), "master", Collections.<String>emptyList(),
+                                       Collections.<String>emptyList(), false, false, isDryRunInFlight() ) );
+        }
+
+        private void awaitChecks( int count )
+            throws InterruptedException
+        {
+            long deadline = System.currentTimeMillis() + WAIT;
+            while ( checks.get() < count && System.currentTimeMillis() < deadline )
+            {
+                TimeUnit.MILLISECONDS.sleep( 10 );
+            }
+            assertEquals( count, checks.get() );
+        }
+    }
+}
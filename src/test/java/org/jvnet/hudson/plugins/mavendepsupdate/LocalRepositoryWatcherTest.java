@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LocalRepositoryWatcherTest
+{
+    private static final String FOO = "org/foo/foo/1.0-SNAPSHOT/";
+
+    private static final String BAR = "org/foo/bar/1.0-SNAPSHOT/";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File localRepository;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        localRepository = temporaryFolder.getRoot();
+    }
+
+    @Test
+    public void scannerReadsTheLocalMetadataTimes()
+        throws Exception
+    {
+        File metadata = install( FOO );
+        metadata.setLastModified( 1000000000000L );
+
+        Map<String, Long> lastModified = scan();
+        assertEquals( 2, lastModified.size() );
+        assertEquals( Long.valueOf( 1000000000000L ), lastModified.get( FOO ) );
+        // not installed yet
+        assertEquals( Long.valueOf( 0 ), lastModified.get( BAR ) );
+    }
+
+    @Test
+    public void installsAreDetectedBetweenTwoScans()
+        throws Exception
+    {
+        install( FOO ).setLastModified( 1000000000000L );
+        Map<String, Long> previous = scan();
+        assertTrue( LocalRepositoryWatcher.getInstalled( previous, scan() ).isEmpty() );
+
+        install( FOO ).setLastModified( 1000000060000L );
+        install( BAR );
+        List<String> installed = LocalRepositoryWatcher.getInstalled( previous, scan() );
+        Collections.sort( installed );
+        assertEquals( Arrays.asList( BAR + "maven-metadata-local.xml", FOO + "maven-metadata-local.xml" ),
+                      installed );
+    }
+
+    @Test
+    public void firstScanDoesNotTrigger()
+        throws Exception
+    {
+        install( FOO );
+        assertTrue( LocalRepositoryWatcher.getInstalled( null, scan() ).isEmpty() );
+        assertTrue( LocalRepositoryWatcher.getInstalled( Collections.<String, Long>emptyMap(), scan() ).isEmpty() );
+    }
+
+    private File install( String directory )
+        throws Exception
+    {
+        File metadata = new File( new File( localRepository, directory ), "maven-metadata-local.xml" );
+        FileUtils.writeStringToFile( metadata, "<metadata/>" );
+        return metadata;
+    }
+
+    private Map<String, Long> scan()
+        throws Exception
+    {
+        return new LocalRepositoryWatcher.LocalInstallScanner( localRepository.getPath(),
+                                                               Arrays.asList( FOO, BAR ) ).call();
+    }
+}
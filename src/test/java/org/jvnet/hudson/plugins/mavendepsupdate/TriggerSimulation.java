@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate;
+
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleProject;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.tasks.Maven;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.plugins.mavendepsupdate.util.LocalHttpServer;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * Controller scale simulation of the triggers, to find the scaling limits of
+ * {@link MavenDependencyUpdateTrigger#run()}, of the scheduling and of the result handling before they show up in
+ * production. Not run by the default build :
+ * <code>mvn test -Psimulation -Dsimulation.jobs=2000</code>.
+ * <p/>
+ * A controller is started with <code>simulation.jobs</code> synthetic jobs (1000) using the trigger, each one
+ * depending on <code>simulation.dependencies</code> (5) of <code>simulation.libraries</code> (100) SNAPSHOT libraries
+ * served by a local stand-in repository, and built once to get a workspace on one of the
+ * <code>simulation.agents</code> (2, the controller itself if 0) local agents. Then each of the
+ * <code>simulation.ticks</code> (10) ticks of <code>simulation.tickPeriod</code> seconds (60) redeploys
+ * <code>simulation.deploys</code> (5) libraries and runs all the triggers as the cron thread does.
+ * <p/>
+ * Each tick reports the time the cron pass blocked, the jobs scheduled, missed or scheduled without reason, the
+ * latency from the deployment to the scheduling, the heap used and the live threads, the tick 0 being the first
+ * checks of the jobs. The {@link TriggerMetrics} summary of the whole run (cpu time included) ends the report.
+ * The builds are kept in the queue by a long quiet period and cancelled at the end of each tick so that only the
+ * triggers are measured.
+ */
+public class TriggerSimulation
+{
+    private static final int JOBS = Integer.getInteger( "simulation.jobs", 1000 );
+
+    private static final int DEPENDENCIES = Integer.getInteger( "simulation.dependencies", 5 );
+
+    private static final int LIBRARIES = Integer.getInteger( "simulation.libraries", 100 );
+
+    private static final int AGENTS = Integer.getInteger( "simulation.agents", 2 );
+
+    private static final int TICKS = Integer.getInteger( "simulation.ticks", 10 );
+
+    private static final long TICK_PERIOD = Long.getLong( "simulation.tickPeriod", 60 ).longValue() * 1000;
+
+    private static final int DEPLOYS = Integer.getInteger( "simulation.deploys", 5 );
+
+    /**
+     * never reached : the triggers are run by the simulation, not by the cron thread of the controller
+     */
+    private static final String NEVER = "0 0 31 2 *";
+
+    private static final int QUIET_PERIOD = 24 * 3600;
+
+    private static final String GROUP_PATH = "/org/simulation/";
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private final LocalHttpServer repository;
+
+    private final List<FreeStyleProject> jobs = new ArrayList<FreeStyleProject>();
+
+    /**
+     * jobs depending on each library
+     */
+    private final Map<Integer, Set<AbstractProject<?, ?>>> consumers =
+        new HashMap<Integer, Set<AbstractProject<?, ?>>>();
+
+    private final Map<Integer, Integer> buildNumbers = new HashMap<Integer, Integer>();
+
+    private long metricsPeriod;
+
+    public TriggerSimulation()
+        throws IOException
+    {
+        repository = new LocalHttpServer();
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        TriggerMetrics.period = metricsPeriod;
+        repository.stop();
+    }
+
+    @Test
+    public void simulate()
+        throws Exception
+    {
+        for ( int library = 0; library < LIBRARIES; library++ )
+        {
+            deploy( library );
+        }
+        createJobs();
+        List<String> report = new ArrayList<String>();
+        report.add( JOBS + " jobs, " + LIBRARIES + " libraries, " + DEPENDENCIES + " dependencies per job, "
+                        + AGENTS + " agents, " + DEPLOYS + " deployments per tick of " + TICK_PERIOD / 1000 + " s" );
+
+        // enabled for the whole simulation, its summary is not logged before the end
+        metricsPeriod = TriggerMetrics.period;
+        TriggerMetrics.period = ( TICKS + 2 ) * TICK_PERIOD / 1000 * 2;
+
+        // the first checks download the SNAPSHOTs in the empty local repositories of the jobs
+        long start = System.currentTimeMillis();
+        long cronBlocked = cronPass();
+        awaitChecks( start + TICK_PERIOD );
+        report.add( "tick 0 : " + collect( Collections.<Integer, Long>emptyMap(), cronBlocked ) );
+        j.jenkins.getQueue().clear();
+
+        int next = 0;
+        for ( int tick = 1; tick <= TICKS; tick++ )
+        {
+            long tickStart = System.currentTimeMillis();
+            Map<Integer, Long> deployed = new HashMap<Integer, Long>();
+            for ( int i = 0; i < DEPLOYS; i++ )
+            {
+                int library = next++ % LIBRARIES;
+                deploy( library );
+                deployed.put( Integer.valueOf( library ), Long.valueOf( System.currentTimeMillis() ) );
+            }
+            cronBlocked = cronPass();
+            awaitChecks( tickStart + TICK_PERIOD );
+            report.add( "tick " + tick + " : " + collect( deployed, cronBlocked ) );
+            j.jenkins.getQueue().clear();
+
+            long remaining = tickStart + TICK_PERIOD - System.currentTimeMillis();
+            if ( remaining > 0 )
+            {
+                Thread.sleep( remaining );
+            }
+        }
+        report.add( TriggerMetrics.getSummary() );
+        report.add( repository.getRequests() + " requests to the repository over " + repository.getConnections()
+                        + " connections" );
+        for ( String line : report )
+        {
+            System.out.println( line );
+        }
+    }
+
+    private void createJobs()
+        throws Exception
+    {
+        Maven.MavenInstallation maven = j.configureMaven3();
+        List<Node> nodes = new ArrayList<Node>();
+        for ( int i = 0; i < AGENTS; i++ )
+        {
+            nodes.add( j.createOnlineSlave() );
+        }
+        for ( int i = 0; i < JOBS; i++ )
+        {
+            FreeStyleProject job = j.createFreeStyleProject( "job-" + i );
+            if ( !nodes.isEmpty() )
+            {
+                job.setAssignedNode( nodes.get( i % nodes.size() ) );
+            }
+            List<Integer> libraries = new ArrayList<Integer>();
+            for ( int k = 0; k < Math.min( DEPENDENCIES, LIBRARIES ); k++ )
+            {
+                Integer library = Integer.valueOf( ( i + k * ( LIBRARIES / DEPENDENCIES + 1 ) ) % LIBRARIES );
+                libraries.add( library );
+                Set<AbstractProject<?, ?>> projects = consumers.get( library );
+                if ( projects == null )
+                {
+                    projects = new HashSet<AbstractProject<?, ?>>();
+                    consumers.put( library, projects );
+                }
+                projects.add( job );
+            }
+            job.getBuildersList().add( new WritePom( getPom( i, libraries ) ) );
+            jobs.add( job );
+        }
+        // a first build to get a workspace with the pom on a node
+        for ( FreeStyleProject job : jobs )
+        {
+            job.scheduleBuild2( 0 );
+        }
+        j.waitUntilNoActivity();
+        for ( FreeStyleProject job : jobs )
+        {
+            // the checks use the maven installation and a private local repository
+            job.getBuildersList().add( new Maven( "install", maven.getName(), null, null, null, true ) );
+            job.setQuietPeriod( Integer.valueOf( QUIET_PERIOD ) );
+            MavenDependencyUpdateTrigger trigger = new MavenDependencyUpdateTrigger( NEVER, false );
+            job.addTrigger( trigger );
+            trigger.start( job, true );
+        }
+    }
+
+    /**
+     * @return the time in milliseconds the cron thread was blocked running the triggers
+     */
+    private long cronPass()
+    {
+        long start = System.currentTimeMillis();
+        for ( FreeStyleProject job : jobs )
+        {
+            job.getTrigger( MavenDependencyUpdateTrigger.class ).run();
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private void awaitChecks( long deadline )
+        throws InterruptedException
+    {
+        while ( TriggerMetrics.getInFlight() > 0 && System.currentTimeMillis() < deadline )
+        {
+            Thread.sleep( 100 );
+        }
+    }
+
+    /**
+     * @param deployed deployment time of the libraries redeployed by this tick
+     */
+    private String collect( Map<Integer, Long> deployed, long cronBlocked )
+    {
+        Map<AbstractProject<?, ?>, Long> expected = new HashMap<AbstractProject<?, ?>, Long>();
+        for ( Map.Entry<Integer, Long> entry : deployed.entrySet() )
+        {
+            for ( AbstractProject<?, ?> project : consumers.get( entry.getKey() ) )
+            {
+                Long time = expected.get( project );
+                if ( time == null || time.longValue() > entry.getValue().longValue() )
+                {
+                    expected.put( project, entry.getValue() );
+                }
+            }
+        }
+        List<Long> latencies = new ArrayList<Long>();
+        int unexpected = 0;
+        for ( Queue.Item item : j.jenkins.getQueue().getItems() )
+        {
+            Long deployment = expected.remove( item.task );
+            if ( deployment == null )
+            {
+                unexpected++;
+            }
+            else if ( item instanceof Queue.WaitingItem )
+            {
+                // still in its quiet period, scheduled at its end
+                long scheduled = ( (Queue.WaitingItem) item ).timestamp.getTimeInMillis() - QUIET_PERIOD * 1000L;
+                latencies.add( Long.valueOf( scheduled - deployment.longValue() ) );
+            }
+        }
+        Collections.sort( latencies );
+        Runtime runtime = Runtime.getRuntime();
+        return "cron blocked " + cronBlocked + " ms, scheduled " + latencies.size() + ", missed " + expected.size()
+            + ", unexpected " + unexpected + ", in flight " + TriggerMetrics.getInFlight() + ", latency p50 "
+            + percentile( latencies, 50 ) + " ms p95 " + percentile( latencies, 95 ) + " ms max "
+            + percentile( latencies, 100 ) + " ms, heap used "
+            + ( runtime.totalMemory() - runtime.freeMemory() ) / ( 1024 * 1024 ) + " MB, threads "
+            + ManagementFactory.getThreadMXBean().getThreadCount();
+    }
+
+    private long percentile( List<Long> sorted, int percent )
+    {
+        if ( sorted.isEmpty() )
+        {
+            return 0;
+        }
+        int index = (int) Math.ceil( sorted.size() * percent / 100.0 ) - 1;
+        return sorted.get( Math.max( 0, index ) ).longValue();
+    }
+
+    /**
+     * deploy a new SNAPSHOT of the library in the stand-in repository
+     */
+    private void deploy( int library )
+        throws IOException
+    {
+        Integer previous = buildNumbers.get( Integer.valueOf( library ) );
+        int buildNumber = previous == null ? 1 : previous.intValue() + 1;
+        buildNumbers.put( Integer.valueOf( library ), Integer.valueOf( buildNumber ) );
+        SimpleDateFormat format = new SimpleDateFormat( "yyyyMMdd.HHmmss" );
+        format.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+        String timestamp = format.format( new Date() );
+        String lastUpdated = timestamp.replace( ".", "" );
+        String artifactId = "lib-" + library;
+        String version = "1.0-" + timestamp + "-" + buildNumber;
+        String directory = GROUP_PATH + artifactId + "/1.0-SNAPSHOT/";
+        repository.put( directory + artifactId + "-" + version + ".pom",
+                        "<project><modelVersion>4.0.0</modelVersion><groupId>org.simulation</groupId><artifactId>"
+                            + artifactId + "</artifactId><version>1.0-SNAPSHOT</version></project>" );
+        repository.put( directory + artifactId + "-" + version + ".jar", artifactId + " " + version );
+        repository.put( directory + "maven-metadata.xml",
+                        "<metadata><groupId>org.simulation</groupId><artifactId>" + artifactId + "</artifactId>"
+                            + "<version>1.0-SNAPSHOT</version><versioning><snapshot><timestamp>" + timestamp
+                            + "</timestamp><buildNumber>" + buildNumber + "</buildNumber></snapshot><lastUpdated>"
+                            + lastUpdated + "</lastUpdated><snapshotVersions>" + snapshotVersion( "jar", version,
+                                                                                                  lastUpdated )
+                            + snapshotVersion( "pom", version, lastUpdated )
+                            + "</snapshotVersions></versioning></metadata>" );
+    }
+
+    private String snapshotVersion( String extension, String version, String updated )
+    {
+        return "<snapshotVersion><extension>" + extension + "</extension><value>" + version + "</value><updated>"
+            + updated + "</updated></snapshotVersion>";
+    }
+
+    /**
+     * the stand-in repository replaces central so that the checks stay local
+     */
+    private String getPom( int job, List<Integer> libraries )
+    {
+        StringBuilder pom = new StringBuilder( "<project><modelVersion>4.0.0</modelVersion>" );
+        pom.append( "<groupId>org.simulation</groupId><artifactId>job-" ).append( job );
+        pom.append( "</artifactId><version>1.0-SNAPSHOT</version><dependencies>" );
+        for ( Integer library : libraries )
+        {
+            pom.append( "<dependency><groupId>org.simulation</groupId><artifactId>lib-" ).append( library );
+            pom.append( "</artifactId><version>1.0-SNAPSHOT</version></dependency>" );
+        }
+        String repository = "<id>central</id><url>" + this.repository.getUrl()
+            + "</url><snapshots><enabled>true</enabled></snapshots>";
+        pom.append( "</dependencies><repositories><repository>" ).append( repository );
+        pom.append( "</repository></repositories><pluginRepositories><pluginRepository>" ).append( repository );
+        pom.append( "</pluginRepository></pluginRepositories></project>" );
+        return pom.toString();
+    }
+
+    /**
+     * writes the pom of the job in its workspace
+     */
+    private static class WritePom
+        extends TestBuilder
+    {
+        private final String pom;
+
+        private WritePom( String pom )
+        {
+            this.pom = pom;
+        }
+
+        public boolean perform( AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener )
+            throws InterruptedException, IOException
+        {
+            build.getWorkspace().child( "pom.xml" ).write( pom, "UTF-8" );
+            return true;
+        }
+    }
+}
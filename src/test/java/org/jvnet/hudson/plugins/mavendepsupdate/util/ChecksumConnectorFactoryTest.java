@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonatype.aether.RepositorySystemSession;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.spi.connector.ArtifactDownload;
+import org.sonatype.aether.spi.connector.ArtifactUpload;
+import org.sonatype.aether.spi.connector.MetadataDownload;
+import org.sonatype.aether.spi.connector.MetadataUpload;
+import org.sonatype.aether.spi.connector.RepositoryConnector;
+import org.sonatype.aether.spi.connector.RepositoryConnectorFactory;
+import org.sonatype.aether.spi.connector.Transfer;
+import org.sonatype.aether.util.DefaultRepositorySystemSession;
+import org.sonatype.aether.util.artifact.DefaultArtifact;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The connector against a local stand-in of the remote repository serving the checksums, the downloads reaching the
+ * wagon connector being recorded.
+ */
+public class ChecksumConnectorFactoryTest
+{
+    private static final String JAR = "/repo/org/foo/foo/1.0-SNAPSHOT/foo-1.0-SNAPSHOT.jar";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private LocalHttpServer server;
+
+    private RemoteRepository repository;
+
+    private final List<ArtifactDownload> delegated = new ArrayList<ArtifactDownload>();
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        server = new LocalHttpServer();
+        repository = new RemoteRepository( "repo", "default", server.getUrl() + "/repo" );
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        server.stop();
+    }
+
+    @Test
+    public void unchangedArtifactIsNotDownloaded()
+        throws Exception
+    {
+        ArtifactDownload download = download( "foo" );
+        server.put( JAR + ".sha1", checksum( "SHA-1", "foo" ) + "  foo-1.0-SNAPSHOT.jar\n" );
+
+        connector().get( Collections.singletonList( download ), null );
+
+        assertTrue( delegated.isEmpty() );
+        assertSame( Transfer.State.DONE, download.getState() );
+        assertEquals( 1, server.getRequests( JAR + ".sha1" ) );
+        assertEquals( 0, server.getRequests( JAR + ".md5" ) );
+    }
+
+    @Test
+    public void changedArtifactIsDownloaded()
+        throws Exception
+    {
+        ArtifactDownload download = download( "foo" );
+        server.put( JAR + ".sha1", checksum( "SHA-1", "bar" ) );
+        server.put( JAR + ".md5", checksum( "MD5", "foo" ) );
+
+        connector().get( Collections.singletonList( download ), null );
+
+        assertEquals( Collections.singletonList( download ), delegated );
+        // the md5 is only requested without sha1
+        assertEquals( 0, server.getRequests( JAR + ".md5" ) );
+    }
+
+    @Test
+    public void md5IsCheckedWithoutSha1()
+        throws Exception
+    {
+        ArtifactDownload unchanged = download( "foo" );
+        server.put( JAR + ".md5", checksum( "MD5", "foo" ) );
+
+        connector().get( Collections.singletonList( unchanged ), null );
+        assertTrue( delegated.isEmpty() );
+        assertSame( Transfer.State.DONE, unchanged.getState() );
+        assertEquals( 1, server.getRequests( JAR + ".sha1" ) );
+        assertEquals( 1, server.getRequests( JAR + ".md5" ) );
+
+        ArtifactDownload changed = download( "bar" );
+        connector().get( Collections.singletonList( changed ), null );
+        assertEquals( Collections.singletonList( changed ), delegated );
+    }
+
+    @Test
+    public void artifactWithoutLocalCopyIsDownloadedWithoutChecksum()
+        throws Exception
+    {
+        ArtifactDownload download =
+            new ArtifactDownload( new DefaultArtifact( "org.foo:foo:1.0-SNAPSHOT" ), null,
+                                  new File( temporaryFolder.getRoot(), "missing.jar" ), null );
+
+        connector().get( Collections.singletonList( download ), null );
+
+        assertEquals( Collections.singletonList( download ), delegated );
+        assertEquals( 0, server.getRequests() );
+    }
+
+    private ArtifactDownload download( String content )
+        throws Exception
+    {
+        File file = temporaryFolder.newFile();
+        FileUtils.writeStringToFile( file, content, "UTF-8" );
+        return new ArtifactDownload( new DefaultArtifact( "org.foo:foo:1.0-SNAPSHOT" ), null, file, null );
+    }
+
+    /**
+     * @return the upper case hexadecimal digest, the remote checksums are not always lower case
+     */
+    private static String checksum( String algorithm, String content )
+        throws Exception
+    {
+        StringBuilder checksum = new StringBuilder();
+        for ( byte b : MessageDigest.getInstance( algorithm ).digest( content.getBytes( "UTF-8" ) ) )
+        {
+            checksum.append( Character.toUpperCase( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) ) );
+            checksum.append( Character.toUpperCase( Character.forDigit( b & 0xf, 16 ) ) );
+        }
+        return checksum.toString();
+    }
+
+    private RepositoryConnector connector()
+        throws Exception
+    {
+        DefaultRepositorySystemSession session = new DefaultRepositorySystemSession();
+        session.setConfigProperty( ChecksumConnectorFactory.CHECKSUM_KEY, Boolean.TRUE );
+        List<RepositoryConnectorFactory> delegates = new ArrayList<RepositoryConnectorFactory>();
+        delegates.add( new RecordingConnectorFactory() );
+        return new ChecksumConnectorFactory( delegates ).newInstance( session, repository );
+    }
+
+    /**
+     * stands for the wagon connector
+     */
+    private class RecordingConnectorFactory
+        implements RepositoryConnectorFactory
+    {
+        public RepositoryConnector newInstance( RepositorySystemSession session, RemoteRepository repository )
+        {
+            return new RepositoryConnector()
+            {
+                public void get( Collection<? extends ArtifactDownload> artifactDownloads,
+                                 Collection<? extends MetadataDownload> metadataDownloads )
+                {
+                    delegated.addAll( artifactDownloads );
+                }
+
+                public void put( Collection<? extends ArtifactUpload> artifactUploads,
+                                 Collection<? extends MetadataUpload> metadataUploads )
+                {
+                    throw new UnsupportedOperationException();
+                }
+
+                public void close()
+                {
+                    // no op
+                }
+            };
+        }
+
+        public int getPriority()
+        {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.junit.Test;
+import org.sonatype.aether.RepositorySystemSession;
+import org.sonatype.aether.collection.DependencyCollectionContext;
+import org.sonatype.aether.collection.DependencySelector;
+import org.sonatype.aether.graph.Dependency;
+import org.sonatype.aether.util.artifact.DefaultArtifact;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DependencyFilterSelectorTest
+{
+    private static final List<String> NONE = Collections.emptyList();
+
+    @Test
+    public void excludesWinOverIncludes()
+    {
+        DependencyFilterSelector selector = selector( NONE, "org.foo:*", "org.foo:bar", 0 );
+        assertTrue( selector.isIncluded( "org.foo", "foo" ) );
+        assertFalse( selector.isIncluded( "org.foo", "bar" ) );
+        assertFalse( selector.isIncluded( "org.bar", "foo" ) );
+    }
+
+    @Test
+    public void wildcardsMatchInGroupIdAndArtifactId()
+    {
+        DependencyFilterSelector selector = selector( NONE, "org.*:*-api", null, 0 );
+        assertTrue( selector.isIncluded( "org.foo", "foo-api" ) );
+        assertTrue( selector.isIncluded( "org.foo.bar", "bar-api" ) );
+        assertFalse( selector.isIncluded( "com.foo", "foo-api" ) );
+        assertFalse( selector.isIncluded( "org.foo", "foo-impl" ) );
+    }
+
+    @Test
+    public void patternWithoutColonMatchesTheGroupId()
+    {
+        DependencyFilterSelector selector = selector( NONE, null, "org.foo", 0 );
+        assertFalse( selector.isIncluded( "org.foo", "foo" ) );
+        assertFalse( selector.isIncluded( "org.foo", "bar" ) );
+        assertTrue( selector.isIncluded( "org.foo.bar", "foo" ) );
+        assertTrue( selector.isIncluded( "org.bar", "org.foo" ) );
+    }
+
+    @Test
+    public void onlyTheSelectedScopesAreSelected()
+    {
+        DependencyFilterSelector selector = selector( Arrays.asList( "compile", "runtime" ), null, null, 0 );
+        assertTrue( selector.selectDependency( dependency( "org.foo:foo:1.0", "compile" ) ) );
+        assertTrue( selector.selectDependency( dependency( "org.foo:foo:1.0", "runtime" ) ) );
+        assertFalse( selector.selectDependency( dependency( "org.foo:foo:1.0", "test" ) ) );
+    }
+
+    @Test
+    public void maxDepthOneSelectsTheDirectDependenciesOnly()
+    {
+        DependencySelector project = selector( NONE, null, null, 1 ).deriveChildSelector( context( null ) );
+        assertTrue( project.selectDependency( dependency( "org.foo:foo:1.0", "compile" ) ) );
+
+        DependencySelector direct =
+            project.deriveChildSelector( context( dependency( "org.foo:foo:1.0", "compile" ) ) );
+        assertFalse( direct.selectDependency( dependency( "org.foo:bar:1.0", "compile" ) ) );
+    }
+
+    @Test
+    public void maxDepthTwoSelectsTheDependenciesOfTheDirectDependencies()
+    {
+        DependencySelector project = selector( NONE, null, null, 2 ).deriveChildSelector( context( null ) );
+        DependencySelector direct =
+            project.deriveChildSelector( context( dependency( "org.foo:foo:1.0", "compile" ) ) );
+        assertTrue( direct.selectDependency( dependency( "org.foo:bar:1.0", "compile" ) ) );
+
+        DependencySelector transitive =
+            direct.deriveChildSelector( context( dependency( "org.foo:bar:1.0", "compile" ) ) );
+        assertFalse( transitive.selectDependency( dependency( "org.foo:baz:1.0", "compile" ) ) );
+    }
+
+    @Test
+    public void derivedSelectorsAreEqualAtTheSameDepth()
+    {
+        DependencyFilterSelector selector = selector( Arrays.asList( "compile" ), "org.foo", null, 2 );
+        DependencyFilterSelector other = selector( Arrays.asList( "compile" ), "org.foo", null, 2 );
+        assertEquals( selector, other );
+        assertEquals( selector.hashCode(), other.hashCode() );
+
+        // the root context does not change the depth
+        assertSame( selector, selector.deriveChildSelector( context( null ) ) );
+
+        DependencyCollectionContext context = context( dependency( "org.foo:foo:1.0", "compile" ) );
+        DependencySelector child = selector.deriveChildSelector( context );
+        DependencySelector otherChild = other.deriveChildSelector( context );
+        assertEquals( child, otherChild );
+        assertEquals( child.hashCode(), otherChild.hashCode() );
+        assertFalse( selector.equals( child ) );
+        assertFalse( child.equals( child.deriveChildSelector( context ) ) );
+        assertFalse( selector.equals( selector( Arrays.asList( "compile" ), "org.foo", null, 1 ) ) );
+    }
+
+    @Test
+    public void valuesAreSplitOnCommasAndWhitespaces()
+    {
+        assertEquals( Arrays.asList( "compile", "runtime", "org.foo:*" ),
+                      DependencyFilterSelector.split( "compile, runtime\n\torg.foo:*" ) );
+        assertTrue( DependencyFilterSelector.split( null ).isEmpty() );
+    }
+
+    private static DependencyFilterSelector selector( List<String> scopes, String includes, String excludes,
+                                                      int maxDepth )
+    {
+        return new DependencyFilterSelector( null, scopes, DependencyFilterSelector.split( includes ),
+                                             DependencyFilterSelector.split( excludes ), maxDepth );
+    }
+
+    private static Dependency dependency( String coordinates, String scope )
+    {
+        return new Dependency( new DefaultArtifact( coordinates ), scope );
+    }
+
+    private static DependencyCollectionContext context( final Dependency dependency )
+    {
+        return new DependencyCollectionContext()
+        {
+            public RepositorySystemSession getSession()
+            {
+                return null;
+            }
+
+            public Dependency getDependency()
+            {
+                return dependency;
+            }
+
+            public List<Dependency> getManagedDependencies()
+            {
+                return Collections.emptyList();
+            }
+        };
+    }
+}
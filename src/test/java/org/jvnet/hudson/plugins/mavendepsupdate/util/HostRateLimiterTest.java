@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HostRateLimiterTest
+{
+    private double requestsPerSecond;
+
+    private int requestsBurst;
+
+    @Before
+    public void setUp()
+    {
+        requestsPerSecond = HostRateLimiter.requestsPerSecond;
+        requestsBurst = HostRateLimiter.requestsBurst;
+        HostRateLimiter.requestsPerSecond = 1;
+        HostRateLimiter.requestsBurst = 10;
+    }
+
+    @After
+    public void tearDown()
+    {
+        HostRateLimiter.requestsPerSecond = requestsPerSecond;
+        HostRateLimiter.requestsBurst = requestsBurst;
+    }
+
+    @Test
+    public void unlimitedHostIsNotThrottled()
+    {
+        HostRateLimiter.requestsPerSecond = 0;
+        assertEquals( Long.MAX_VALUE, new HostRateLimiter().lease( "job", "repo", 5 ) );
+    }
+
+    @Test( timeout = 1000 )
+    public void emptyBucketAnswersWhenToAskAgainWithoutWaiting()
+    {
+        HostRateLimiter limiter = new HostRateLimiter();
+        assertEquals( 10, limiter.lease( "job", "repo", 20 ) );
+
+        long granted = limiter.lease( "job", "repo", 1 );
+        assertTrue( "retry in " + granted, granted < 0 && granted >= -1000 );
+    }
+
+    @Test
+    public void activeJobsShareTheBucket()
+    {
+        HostRateLimiter limiter = new HostRateLimiter();
+        assertEquals( 1, limiter.lease( "first", "repo", 1 ) );
+        // the second job is now active : a lease gets at most half of the capacity
+        assertEquals( 5, limiter.lease( "second", "repo", 10 ) );
+        assertEquals( 4, limiter.lease( "first", "repo", 10 ) );
+    }
+
+    @Test
+    public void hostsHaveTheirOwnBucket()
+    {
+        HostRateLimiter limiter = new HostRateLimiter();
+        assertEquals( 10, limiter.lease( "job", "repo-a", 10 ) );
+        assertEquals( 10, limiter.lease( "job", "repo-b", 10 ) );
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LeasedRequestThrottleTest
+{
+    @Test
+    public void permissionsAreLeasedByBatches()
+        throws Exception
+    {
+        CountingThrottle controller = new CountingThrottle( new HostRateLimiter().forJob( "job" ) );
+        LeasedRequestThrottle throttle = new LeasedRequestThrottle( controller );
+        double requestsPerSecond = HostRateLimiter.requestsPerSecond;
+        int requestsBurst = HostRateLimiter.requestsBurst;
+        HostRateLimiter.requestsPerSecond = 1;
+        HostRateLimiter.requestsBurst = 2 * LeasedRequestThrottle.BATCH;
+        try
+        {
+            for ( int i = 0; i < 2 * LeasedRequestThrottle.BATCH; i++ )
+            {
+                throttle.acquire( "repo" );
+            }
+        }
+        finally
+        {
+            HostRateLimiter.requestsPerSecond = requestsPerSecond;
+            HostRateLimiter.requestsBurst = requestsBurst;
+        }
+        assertEquals( 2, controller.calls.get() );
+    }
+
+    @Test( timeout = 10000 )
+    public void requestsAreThrottledToTheControllerRate()
+        throws Exception
+    {
+        double requestsPerSecond = HostRateLimiter.requestsPerSecond;
+        int requestsBurst = HostRateLimiter.requestsBurst;
+        HostRateLimiter.requestsPerSecond = 20;
+        HostRateLimiter.requestsBurst = 5;
+        try
+        {
+            LeasedRequestThrottle throttle = new LeasedRequestThrottle( new HostRateLimiter().forJob( "job" ) );
+            long start = System.currentTimeMillis();
+            long waited = 0;
+            for ( int i = 0; i < 30; i++ )
+            {
+                waited += throttle.acquire( "repo" );
+            }
+            // 5 requests of burst then 25 at 20 per second
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue( "elapsed " + elapsed, elapsed >= 1000 );
+            assertTrue( "waited " + waited, waited >= 1000 );
+        }
+        finally
+        {
+            HostRateLimiter.requestsPerSecond = requestsPerSecond;
+            HostRateLimiter.requestsBurst = requestsBurst;
+        }
+    }
+
+    @Test
+    public void unlimitedHostIsLeasedOnce()
+        throws Exception
+    {
+        CountingThrottle controller = new CountingThrottle( new RequestThrottle()
+        {
+            public long lease( String host, int count )
+            {
+                return Long.MAX_VALUE;
+            }
+        } );
+        LeasedRequestThrottle throttle = new LeasedRequestThrottle( controller );
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertEquals( 0, throttle.acquire( "repo" ) );
+        }
+        assertEquals( 1, controller.calls.get() );
+    }
+
+    private static class CountingThrottle
+        implements RequestThrottle
+    {
+        private final RequestThrottle delegate;
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private CountingThrottle( RequestThrottle delegate )
+        {
+            this.delegate = delegate;
+        }
+
+        public long lease( String host, int count )
+        {
+            calls.incrementAndGet();
+            return delegate.lease( host, count );
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in of a remote repository for the tests : serves the resources put in it over HTTP/1.1 with kept alive
+ * connections, answers <code>304</code> to a matching <code>If-None-Match</code>, without body to a <code>HEAD</code>,
+ * and counts the requests.
+ */
+public class LocalHttpServer
+{
+    private final ServerSocket serverSocket;
+
+    private final Map<String, byte[]> resources = new HashMap<String, byte[]>();
+
+    private final Map<String, Integer> etags = new HashMap<String, Integer>();
+
+    private final Map<String, Integer> requests = new HashMap<String, Integer>();
+
+    private final List<Socket> sockets = new ArrayList<Socket>();
+
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    private volatile long delay;
+
+    public LocalHttpServer()
+        throws IOException
+    {
+        serverSocket = new ServerSocket( 0, 50, InetAddress.getByName( "127.0.0.1" ) );
+        Thread acceptor = new Thread( "local-http-server" )
+        {
+            public void run()
+            {
+                accept();
+            }
+        };
+        acceptor.setDaemon( true );
+        acceptor.start();
+    }
+
+    public String getUrl()
+    {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    /**
+     * serve the content at this path, with a new ETag
+     */
+    public synchronized void put( String path, String content )
+        throws IOException
+    {
+        resources.put( path, content.getBytes( "UTF-8" ) );
+        Integer etag = etags.get( path );
+        etags.put( path, Integer.valueOf( etag == null ? 1 : etag.intValue() + 1 ) );
+    }
+
+    /**
+     * @param delay milliseconds to wait before answering each request
+     */
+    public void setDelay( long delay )
+    {
+        this.delay = delay;
+    }
+
+    public synchronized int getRequests( String path )
+    {
+        Integer count = requests.get( path );
+        return count == null ? 0 : count.intValue();
+    }
+
+    public synchronized int getRequests()
+    {
+        int total = 0;
+        for ( Integer count : requests.values() )
+        {
+            total += count.intValue();
+        }
+        return total;
+    }
+
+    public int getConnections()
+    {
+        return connections.get();
+    }
+
+    /**
+     * @return the maximum number of requests answered concurrently
+     */
+    public int getMaxInFlight()
+    {
+        return maxInFlight.get();
+    }
+
+    public void stop()
+        throws IOException
+    {
+        serverSocket.close();
+        synchronized ( sockets )
+        {
+            for ( Socket socket : sockets )
+            {
+                IOUtils.closeQuietly( socket.getInputStream() );
+                socket.close();
+            }
+        }
+    }
+
+    private void accept()
+    {
+        while ( !serverSocket.isClosed() )
+        {
+            try
+            {
+                final Socket socket = serverSocket.accept();
+                connections.incrementAndGet();
+                synchronized ( sockets )
+                {
+                    sockets.add( socket );
+                }
+                Thread handler = new Thread( "local-http-server-connection" )
+                {
+                    public void run()
+                    {
+                        serve( socket );
+                    }
+                };
+                handler.setDaemon( true );
+                handler.start();
+            }
+            catch ( IOException e )
+            {
+                // closed
+            }
+        }
+    }
+
+    private void serve( Socket socket )
+    {
+        try
+        {
+            InputStream in = new BufferedInputStream( socket.getInputStream() );
+            OutputStream out = socket.getOutputStream();
+            String requestLine;
+            while ( ( requestLine = readLine( in ) ) != null && requestLine.length() > 0 )
+            {
+                String[] request = StringUtils.split( requestLine, ' ' );
+                String path = request[1];
+                String ifNoneMatch = null;
+                String header;
+                while ( ( header = readLine( in ) ) != null && header.length() > 0 )
+                {
+                    if ( header.toLowerCase().startsWith( "if-none-match:" ) )
+                    {
+                        ifNoneMatch = StringUtils.substringAfter( header, ":" ).trim();
+                    }
+                }
+                answer( out, path, ifNoneMatch, "HEAD".equals( request[0] ) );
+            }
+        }
+        catch ( IOException e )
+        {
+            // closed
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            try
+            {
+                socket.close();
+            }
+            catch ( IOException e )
+            {
+                // ignore
+            }
+        }
+    }
+
+    private void answer( OutputStream out, String path, String ifNoneMatch, boolean head )
+        throws IOException, InterruptedException
+    {
+        int current = inFlight.incrementAndGet();
+        int max;
+        while ( current > ( max = maxInFlight.get() ) && !maxInFlight.compareAndSet( max, current ) )
+        {
+            // retry
+        }
+        try
+        {
+            byte[] content;
+            String etag;
+            synchronized ( this )
+            {
+                Integer count = requests.get( path );
+                requests.put( path, Integer.valueOf( count == null ? 1 : count.intValue() + 1 ) );
+                content = resources.get( path );
+                etag = content == null ? null : "\"" + etags.get( path ) + "\"";
+            }
+            if ( delay > 0 )
+            {
+                Thread.sleep( delay );
+            }
+            String status;
+            if ( content == null )
+            {
+                content = new byte[0];
+                status = "HTTP/1.1 404 Not Found\r\n";
+            }
+            else if ( etag.equals( ifNoneMatch ) )
+            {
+                content = new byte[0];
+                status = "HTTP/1.1 304 Not Modified\r\nETag: " + etag + "\r\n";
+            }
+            else
+            {
+                status = "HTTP/1.1 200 OK\r\nETag: " + etag + "\r\n";
+            }
+            out.write( ( status + "Content-Length: " + content.length + "\r\n\r\n" ).getBytes( "US-ASCII" ) );
+            if ( !head )
+            {
+                out.write( content );
+            }
+            out.flush();
+        }
+        finally
+        {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private static String readLine( InputStream in )
+        throws IOException
+    {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ( ( c = in.read() ) != '\n' )
+        {
+            if ( c == -1 )
+            {
+                return line.length() == 0 ? null : line.toString();
+            }
+            if ( c != '\r' )
+            {
+                line.append( (char) c );
+            }
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonatype.aether.RepositorySystemSession;
+import org.sonatype.aether.metadata.Metadata;
+import org.sonatype.aether.repository.Authentication;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.spi.connector.ArtifactDownload;
+import org.sonatype.aether.spi.connector.ArtifactUpload;
+import org.sonatype.aether.spi.connector.MetadataDownload;
+import org.sonatype.aether.spi.connector.MetadataUpload;
+import org.sonatype.aether.spi.connector.RepositoryConnector;
+import org.sonatype.aether.spi.connector.RepositoryConnectorFactory;
+import org.sonatype.aether.transfer.MetadataNotFoundException;
+import org.sonatype.aether.util.DefaultRepositorySystemSession;
+import org.sonatype.aether.util.metadata.DefaultMetadata;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * The connector against a local stand-in of the remote repository, the wagon connector being replaced by plain
+ * http GETs.
+ */
+public class MetadataCacheConnectorFactoryTest
+{
+    private static final String FOO = "/repo/org/foo/foo/1.0-SNAPSHOT/maven-metadata.xml";
+
+    private static final String BAR = "/repo/org/foo/bar/1.0-SNAPSHOT/maven-metadata.xml";
+
+    private LocalHttpServer server;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File directory;
+
+    private long ttlSeconds;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        server = new LocalHttpServer();
+        server.put( FOO, "<metadata>foo</metadata>" );
+        server.put( BAR, "<metadata>bar</metadata>" );
+        directory = temporaryFolder.getRoot();
+        ttlSeconds = SharedMetadataCache.ttlSeconds;
+        SharedMetadataCache.ttlSeconds = 60;
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        SharedMetadataCache.ttlSeconds = ttlSeconds;
+        server.stop();
+    }
+
+    @Test
+    public void metadataIsFetchedOnceForAllTheChecks()
+        throws Exception
+    {
+        SharedMetadataCache cache = new SharedMetadataCache();
+        RemoteRepository repository = new RemoteRepository( "repo", "default", server.getUrl() + "/repo" );
+
+        MetadataDownload first = download( "foo", "first" );
+        connector( cache, repository ).get( null, Collections.singletonList( first ) );
+        MetadataDownload second = download( "foo", "second" );
+        connector( cache, repository ).get( null, Collections.singletonList( second ) );
+
+        assertNull( second.getException() );
+        assertEquals( "<metadata>foo</metadata>", FileUtils.readFileToString( second.getFile(), "UTF-8" ) );
+        assertEquals( 1, server.getRequests( FOO ) );
+    }
+
+    @Test
+    public void metadataOfRepositoryWithCredentialsIsNotShared()
+        throws Exception
+    {
+        SharedMetadataCache cache = new SharedMetadataCache();
+        RemoteRepository repository = new RemoteRepository( "repo", "default", server.getUrl() + "/repo" );
+        repository.setAuthentication( new Authentication( "user", "password" ) );
+
+        connector( cache, repository ).get( null, Collections.singletonList( download( "foo", "first" ) ) );
+        connector( cache, repository ).get( null, Collections.singletonList( download( "foo", "second" ) ) );
+
+        assertEquals( 2, server.getRequests( FOO ) );
+    }
+
+    @Test
+    public void missingMetadataIsNotCached()
+        throws Exception
+    {
+        SharedMetadataCache cache = new SharedMetadataCache();
+        RemoteRepository repository = new RemoteRepository( "repo", "default", server.getUrl() + "/repo" );
+
+        MetadataDownload first = download( "baz", "first" );
+        connector( cache, repository ).get( null, Collections.singletonList( first ) );
+        connector( cache, repository ).get( null, Collections.singletonList( download( "baz", "second" ) ) );
+
+        assertFalse( first.getException() == null );
+        assertEquals( 2, server.getRequests( "/repo/org/foo/baz/1.0-SNAPSHOT/maven-metadata.xml" ) );
+    }
+
+    @Test( timeout = 10000 )
+    public void checksRequestingInOppositeOrdersDontWaitForEachOther()
+        throws Exception
+    {
+        final SharedMetadataCache cache = new SharedMetadataCache();
+        final RemoteRepository repository = new RemoteRepository( "repo", "default", server.getUrl() + "/repo" );
+        server.setDelay( 300 );
+        final List<MetadataDownload> fooFirst = new ArrayList<MetadataDownload>();
+        fooFirst.add( download( "foo", "first" ) );
+        fooFirst.add( download( "bar", "first" ) );
+        List<MetadataDownload> barFirst = new ArrayList<MetadataDownload>();
+        barFirst.add( download( "bar", "second" ) );
+        barFirst.add( download( "foo", "second" ) );
+
+        Thread other = new Thread()
+        {
+            public void run()
+            {
+                connector( cache, repository ).get( null, fooFirst );
+            }
+        };
+        other.start();
+        connector( cache, repository ).get( null, barFirst );
+        other.join();
+
+        for ( MetadataDownload download : barFirst )
+        {
+            assertNull( download.getException() );
+        }
+        for ( MetadataDownload download : fooFirst )
+        {
+            assertNull( download.getException() );
+        }
+        assertEquals( 1, server.getRequests( FOO ) );
+        assertEquals( 1, server.getRequests( BAR ) );
+    }
+
+    private MetadataDownload download( String artifactId, String check )
+    {
+        Metadata metadata = new DefaultMetadata( "org.foo", artifactId, "1.0-SNAPSHOT", "maven-metadata.xml",
+                                                 Metadata.Nature.SNAPSHOT );
+        return new MetadataDownload( metadata, null, new File( directory, check + "/" + artifactId + ".xml" ), null );
+    }
+
+    private RepositoryConnector connector( SharedMetadataCache cache, RemoteRepository repository )
+    {
+        DefaultRepositorySystemSession session = new DefaultRepositorySystemSession();
+        session.setConfigProperty( MetadataCacheConnectorFactory.CACHE_KEY, cache );
+        try
+        {
+            return new MetadataCacheConnectorFactory( new HttpConnectorFactory() ).newInstance( session, repository );
+        }
+        catch ( Exception e )
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    /**
+     * stands for the wagon connector
+     */
+    private static class HttpConnectorFactory
+        implements RepositoryConnectorFactory
+    {
+        public RepositoryConnector newInstance( RepositorySystemSession session, final RemoteRepository repository )
+        {
+            return new RepositoryConnector()
+            {
+                public void get( Collection<? extends ArtifactDownload> artifactDownloads,
+                                 Collection<? extends MetadataDownload> metadataDownloads )
+                {
+                    for ( MetadataDownload download : metadataDownloads )
+                    {
+                        Metadata metadata = download.getMetadata();
+                        String url = repository.getUrl() + "/" + metadata.getGroupId().replace( '.', '/' ) + "/"
+                            + metadata.getArtifactId() + "/" + metadata.getVersion() + "/" + metadata.getType();
+                        InputStream in = null;
+                        try
+                        {
+                            in = new URL( url ).openStream();
+                            FileUtils.writeByteArrayToFile( download.getFile(), IOUtils.toByteArray( in ) );
+                        }
+                        catch ( Exception e )
+                        {
+                            download.setException( new MetadataNotFoundException( metadata, repository ) );
+                        }
+                        finally
+                        {
+                            IOUtils.closeQuietly( in );
+                        }
+                    }
+                }
+
+                public void put( Collection<? extends ArtifactUpload> artifactUploads,
+                                 Collection<? extends MetadataUpload> metadataUploads )
+                {
+                    throw new UnsupportedOperationException();
+                }
+
+                public void close()
+                {
+                    // no op
+                }
+            };
+        }
+
+        public int getPriority()
+        {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The engine against an embedded http server.
+ */
+public class ProbeEngineTest
+{
+    private static final int TIMEOUT = 5000;
+
+    private LocalHttpServer server;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        server = new LocalHttpServer();
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        server.stop();
+    }
+
+    @Test
+    public void contentsOfTheFoundUrlsAreReturned()
+        throws Exception
+    {
+        server.put( "/repo/foo.xml", "foo" );
+        server.put( "/repo/bar.xml", "bar" );
+
+        Map<String, byte[]> contents = new ProbeEngine().get(
+            Arrays.asList( url( "/repo/foo.xml" ), url( "/repo/bar.xml" ), url( "/repo/missing.xml" ) ), 2, TIMEOUT );
+
+        assertEquals( 2, contents.size() );
+        assertEquals( "foo", new String( contents.get( url( "/repo/foo.xml" ) ), "UTF-8" ) );
+        assertEquals( "bar", new String( contents.get( url( "/repo/bar.xml" ) ), "UTF-8" ) );
+        assertNull( contents.get( url( "/repo/missing.xml" ) ) );
+    }
+
+    @Test
+    public void unchangedResourceIsAnsweredNotModified()
+        throws Exception
+    {
+        server.put( "/repo/foo.xml", "foo" );
+        ProbeEngine engine = new ProbeEngine();
+        Map<String, ProbeEngine.Response> requests = new HashMap<String, ProbeEngine.Response>();
+        requests.put( url( "/repo/foo.xml" ), null );
+        ProbeEngine.Response first = engine.get( requests, 1, TIMEOUT ).get( url( "/repo/foo.xml" ) );
+        assertEquals( 200, first.getStatus() );
+
+        requests.put( url( "/repo/foo.xml" ), first.withoutContent() );
+        assertEquals( 304, engine.get( requests, 1, TIMEOUT ).get( url( "/repo/foo.xml" ) ).getStatus() );
+
+        server.put( "/repo/foo.xml", "foo changed" );
+        ProbeEngine.Response changed = engine.get( requests, 1, TIMEOUT ).get( url( "/repo/foo.xml" ) );
+        assertEquals( 200, changed.getStatus() );
+        assertEquals( "foo changed", new String( changed.getContent(), "UTF-8" ) );
+        // the connection is kept alive between the requests
+        assertEquals( 1, server.getConnections() );
+    }
+
+    @Test( timeout = 30000 )
+    public void requestsOfAHostAreSentByAtMostConnectionsPerHostWorkers()
+        throws Exception
+    {
+        List<String> urls = new ArrayList<String>();
+        for ( int i = 0; i < 200; i++ )
+        {
+            server.put( "/repo/" + i + ".xml", Integer.toString( i ) );
+            urls.add( url( "/repo/" + i + ".xml" ) );
+        }
+        server.setDelay( 5 );
+        int threads = Thread.activeCount();
+
+        Map<String, byte[]> contents = new ProbeEngine().get( urls, 3, TIMEOUT );
+
+        assertEquals( 200, contents.size() );
+        assertTrue( "max in flight " + server.getMaxInFlight(), server.getMaxInFlight() <= 3 );
+        assertTrue( "connections " + server.getConnections(), server.getConnections() <= 3 );
+        // the workers, not a thread per url
+        assertTrue( "threads " + ( Thread.activeCount() - threads ), Thread.activeCount() - threads <= 3 + 3 );
+    }
+
+    @Test
+    public void proxiedUrlsAreNotSupported()
+    {
+        String proxyHost = System.getProperty( "http.proxyHost" );
+        System.setProperty( "http.proxyHost", "proxy" );
+        try
+        {
+            assertFalse( ProbeEngine.isSupported( url( "/repo/foo.xml" ) ) );
+        }
+        finally
+        {
+            if ( proxyHost == null )
+            {
+                System.getProperties().remove( "http.proxyHost" );
+            }
+            else
+            {
+                System.setProperty( "http.proxyHost", proxyHost );
+            }
+        }
+        assertTrue( ProbeEngine.isSupported( url( "/repo/foo.xml" ) ) );
+    }
+
+    private String url( String path )
+    {
+        return server.getUrl() + path;
+    }
+}
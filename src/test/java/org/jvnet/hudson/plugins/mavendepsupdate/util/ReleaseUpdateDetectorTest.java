@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonatype.aether.repository.RemoteRepository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReleaseUpdateDetectorTest
+{
+    private static final int TIMEOUT = 5000;
+
+    private static final List<String> VERSIONS =
+        Arrays.asList( "1.0", "1.1", "1.2-SNAPSHOT", "2.0-beta-1", "2.0", "2.1-SNAPSHOT" );
+
+    private final ReleaseUpdateDetector detector = new ReleaseUpdateDetector( null );
+
+    private LocalHttpServer server;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        server = new LocalHttpServer();
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        server.stop();
+    }
+
+    @Test
+    public void rangeSelectsItsHighestRelease()
+    {
+        // a qualified version is lower than its release
+        assertEquals( "2.0-beta-1", detector.select( "[1.0,2.0)", VERSIONS ) );
+        assertEquals( "1.1", detector.select( "[1.0,1.2)", VERSIONS ) );
+        assertEquals( "2.0", detector.select( "[1.0,)", VERSIONS ) );
+        assertEquals( "1.0", detector.select( "[1.0]", VERSIONS ) );
+        assertNull( detector.select( "[3.0,)", VERSIONS ) );
+        assertNull( detector.select( "[1.0", VERSIONS ) );
+    }
+
+    @Test
+    public void releaseSelectsTheHighestReleaseAndLatestTheHighestVersion()
+    {
+        assertEquals( "2.0", detector.select( "RELEASE", VERSIONS ) );
+        assertEquals( "2.1-SNAPSHOT", detector.select( "LATEST", VERSIONS ) );
+    }
+
+    @Test
+    public void snapshotsAreNotSelected()
+    {
+        assertNull( detector.select( "[1.2-SNAPSHOT]", VERSIONS ) );
+        assertNull( detector.select( ReleaseUpdateDetector.PINNED, Arrays.asList( "1.0-SNAPSHOT" ) ) );
+    }
+
+    @Test
+    public void pinnedVersionSelectsTheHighestRelease()
+    {
+        assertEquals( "2.0", detector.select( ReleaseUpdateDetector.PINNED, VERSIONS ) );
+        assertNull( detector.select( ReleaseUpdateDetector.PINNED, Collections.<String>emptyList() ) );
+    }
+
+    @Test
+    public void firstCheckOnlyRecordsTheSelectedVersions()
+        throws Exception
+    {
+        metadata( "/first", "org/foo/foo", "1.0", "1.1" );
+        detector.add( "module", "org.foo", "foo", "1.0", repositories( "/first" ) );
+        detector.add( "module", "org.foo", "foo", "[1.0,2.0)", repositories( "/first" ) );
+        detector.detect( 2, TIMEOUT );
+
+        assertEquals( "1.1", detector.getVersions().get( "org.foo:foo:*" ) );
+        assertEquals( "1.1", detector.getVersions().get( "org.foo:foo:[1.0,2.0)" ) );
+        assertTrue( detector.getUpdates().isEmpty() );
+        assertTrue( detector.getUpdatedGavs().isEmpty() );
+    }
+
+    @Test
+    public void newReleaseOfAKnownKeyIsAnUpdate()
+        throws Exception
+    {
+        metadata( "/first", "org/foo/foo", "1.0", "1.1", "2.0" );
+        Map<String, String> known = new HashMap<String, String>();
+        known.put( "org.foo:foo:*", "1.1" );
+        known.put( "org.foo:foo:[1.0,2.0)", "1.1" );
+        ReleaseUpdateDetector detector = new ReleaseUpdateDetector( known );
+        detector.add( "module", "org.foo", "foo", "1.0", repositories( "/first" ) );
+        detector.add( "other", "org.foo", "foo", "[1.0,2.0)", repositories( "/first" ) );
+        detector.detect( 2, TIMEOUT );
+
+        assertEquals( Arrays.asList( "org.foo:foo:* 1.1 -> 2.0" ), detector.getUpdates() );
+        assertEquals( Collections.singleton( "org.foo:foo:2.0" ), detector.getUpdatedGavs() );
+        assertEquals( Collections.singleton( "org.foo:foo:2.0" ), detector.getModuleGavs().get( "module" ) );
+        assertTrue( detector.getModuleGavs().get( "other" ).isEmpty() );
+    }
+
+    @Test
+    public void keyIsOnlyEvaluatedWhenAllItsRepositoriesAnswered()
+        throws Exception
+    {
+        metadata( "/first", "org/foo/foo", "1.0", "2.0" );
+        metadata( "/first", "org/foo/bar", "1.0", "2.0" );
+        LocalHttpServer stopped = new LocalHttpServer();
+        stopped.stop();
+        Map<String, String> known = new HashMap<String, String>();
+        known.put( "org.foo:foo:*", "1.0" );
+        known.put( "org.foo:bar:*", "1.0" );
+        ReleaseUpdateDetector detector = new ReleaseUpdateDetector( known );
+        List<RemoteRepository> repositories = repositories( "/first" );
+        repositories.add( new RemoteRepository( "down", "default", stopped.getUrl() + "/down" ) );
+        detector.add( "module", "org.foo", "foo", "1.0", repositories );
+        // a repository without the metadata answered too
+        detector.add( "module", "org.foo", "bar", "1.0", repositories( "/first", "/second" ) );
+        detector.detect( 2, TIMEOUT );
+
+        assertNull( detector.getVersions().get( "org.foo:foo:*" ) );
+        assertEquals( "2.0", detector.getVersions().get( "org.foo:bar:*" ) );
+        assertEquals( Collections.singleton( "org.foo:bar:2.0" ), detector.getUpdatedGavs() );
+    }
+
+    private void metadata( String repository, String path, String... versions )
+        throws Exception
+    {
+        StringBuilder content = new StringBuilder( "<metadata><versioning><versions>" );
+        for ( String version : versions )
+        {
+            content.append( "<version>" ).append( version ).append( "</version>" );
+        }
+        content.append( "</versions></versioning></metadata>" );
+        server.put( repository + "/" + path + "/maven-metadata.xml", content.toString() );
+    }
+
+    private List<RemoteRepository> repositories( String... paths )
+    {
+        List<RemoteRepository> repositories = new ArrayList<RemoteRepository>();
+        for ( String path : paths )
+        {
+            repositories.add( new RemoteRepository( path.substring( 1 ), "default", server.getUrl() + path ) );
+        }
+        return repositories;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RepositoryCircuitBreakerTest
+{
+    private static final String REPO = "http://repo.example.org/maven2";
+
+    private static final Map<String, Integer> NONE = Collections.emptyMap();
+
+    private int failureThreshold;
+
+    private long openSeconds;
+
+    private RepositoryCircuitBreaker breaker;
+
+    @Before
+    public void setUp()
+    {
+        failureThreshold = RepositoryCircuitBreaker.failureThreshold;
+        openSeconds = RepositoryCircuitBreaker.openSeconds;
+        RepositoryCircuitBreaker.failureThreshold = 3;
+        RepositoryCircuitBreaker.openSeconds = 1;
+        breaker = new RepositoryCircuitBreaker();
+    }
+
+    @After
+    public void tearDown()
+    {
+        RepositoryCircuitBreaker.failureThreshold = failureThreshold;
+        RepositoryCircuitBreaker.openSeconds = openSeconds;
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailures()
+    {
+        breaker.record( NONE, count( 2 ) );
+        assertTrue( breaker.getOpenRepositories().isEmpty() );
+        breaker.record( NONE, count( 1 ) );
+        assertEquals( Collections.singleton( REPO ), breaker.getOpenRepositories() );
+    }
+
+    @Test
+    public void successResetsTheFailures()
+    {
+        breaker.record( NONE, count( 2 ) );
+        breaker.record( count( 1 ), count( 1 ) );
+        breaker.record( NONE, count( 2 ) );
+        assertTrue( breaker.getOpenRepositories().isEmpty() );
+    }
+
+    @Test
+    public void singleCheckProbesTheRepositoryOnceTheDelayElapsed()
+        throws Exception
+    {
+        breaker.record( NONE, count( 3 ) );
+        assertFalse( breaker.getOpenRepositories().isEmpty() );
+        Thread.sleep( 1100 );
+
+        // the first check probes the repository, the others still skip it
+        assertTrue( breaker.getOpenRepositories().isEmpty() );
+        assertEquals( Collections.singleton( REPO ), breaker.getOpenRepositories() );
+
+        breaker.record( count( 1 ), NONE );
+        assertTrue( breaker.getOpenRepositories().isEmpty() );
+    }
+
+    @Test
+    public void failedProbeReopensTheRepository()
+        throws Exception
+    {
+        breaker.record( NONE, count( 3 ) );
+        Thread.sleep( 1100 );
+        assertTrue( breaker.getOpenRepositories().isEmpty() );
+
+        // a single failure is enough once open
+        breaker.record( NONE, count( 1 ) );
+        assertEquals( Collections.singleton( REPO ), breaker.getOpenRepositories() );
+    }
+
+    @Test
+    public void trailingSlashIsIgnored()
+    {
+        assertEquals( REPO, RepositoryCircuitBreaker.normalize( REPO + "/" ) );
+        assertEquals( REPO, RepositoryCircuitBreaker.normalize( REPO ) );
+    }
+
+    private Map<String, Integer> count( int count )
+    {
+        return Collections.singletonMap( REPO, Integer.valueOf( count ) );
+    }
+}
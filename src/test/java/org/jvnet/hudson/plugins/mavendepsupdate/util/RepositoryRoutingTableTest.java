@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RepositoryRoutingTableTest
+{
+    private static final String REPO_A = "http://repo-a/snapshots";
+
+    private static final String REPO_B = "http://repo-b/snapshots";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File directory;
+
+    private File file;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        directory = temporaryFolder.getRoot();
+        file = new File( directory, "routes.txt" );
+    }
+
+    @Test
+    public void routesAreScopedByRepositories()
+    {
+        RepositoryRoutingTable table = new RepositoryRoutingTable( file );
+        String scopeA = RepositoryRoutingTable.getScope( Collections.singleton( REPO_A ) );
+        String scopeAB = RepositoryRoutingTable.getScope( Arrays.asList( REPO_B, REPO_A ) );
+
+        table.learn( scopeA, served( "org.foo", REPO_A ), Collections.<String>emptySet() );
+
+        assertEquals( REPO_A, table.getRoutes( scopeA ).get( "org.foo" ) );
+        // a job resolving through other repositories doesn't use the route
+        assertNull( table.getRoutes( scopeAB ).get( "org.foo" ) );
+        assertEquals( scopeAB, RepositoryRoutingTable.getScope( Arrays.asList( REPO_A, REPO_B ) ) );
+    }
+
+    @Test
+    public void groupIdServedByTwoRepositoriesIsNotRouted()
+    {
+        RepositoryRoutingTable table = new RepositoryRoutingTable( file );
+        String scope = RepositoryRoutingTable.getScope( Arrays.asList( REPO_A, REPO_B ) );
+
+        table.learn( scope, served( "org.foo", REPO_A ), Collections.<String>emptySet() );
+        table.learn( scope, served( "org.foo", REPO_B ), Collections.<String>emptySet() );
+
+        assertTrue( table.getRoutes( scope ).isEmpty() );
+    }
+
+    @Test
+    public void notFoundDropsTheRoutesOfAllScopes()
+    {
+        RepositoryRoutingTable table = new RepositoryRoutingTable( file );
+        String scopeA = RepositoryRoutingTable.getScope( Collections.singleton( REPO_A ) );
+        String scopeAB = RepositoryRoutingTable.getScope( Arrays.asList( REPO_A, REPO_B ) );
+        table.learn( scopeA, served( "org.foo", REPO_A ), Collections.<String>emptySet() );
+        table.learn( scopeAB, served( "org.foo", REPO_A ), Collections.<String>emptySet() );
+
+        String miss = RepositoryRoutingTable.getMissKey( "org.foo:bar:1.0-SNAPSHOT", REPO_A );
+        table.learn( null, Collections.<String, Set<String>>emptyMap(), Collections.singleton( miss ) );
+
+        assertTrue( table.getRoutes( scopeA ).isEmpty() );
+        assertTrue( table.getRoutes( scopeAB ).isEmpty() );
+        assertTrue( table.getMisses().contains( miss ) );
+    }
+
+    @Test
+    public void expiredRoutesAreNotUsed()
+    {
+        long routeHours = RepositoryRoutingTable.routeHours;
+        RepositoryRoutingTable.routeHours = 0;
+        try
+        {
+            RepositoryRoutingTable table = new RepositoryRoutingTable( file );
+            String scope = RepositoryRoutingTable.getScope( Collections.singleton( REPO_A ) );
+            table.learn( scope, served( "org.foo", REPO_A ), Collections.<String>emptySet() );
+            sleep();
+            assertFalse( table.getRoutes( scope ).containsKey( "org.foo" ) );
+        }
+        finally
+        {
+            RepositoryRoutingTable.routeHours = routeHours;
+        }
+    }
+
+    @Test
+    public void routesAreStoredAtomically()
+    {
+        String scope = RepositoryRoutingTable.getScope( Collections.singleton( REPO_A ) );
+        new RepositoryRoutingTable( file ).learn( scope, served( "org.foo", REPO_A ),
+                                                  Collections.<String>emptySet() );
+
+        assertTrue( file.isFile() );
+        assertFalse( new File( directory, "routes.txt.tmp" ).exists() );
+        assertEquals( REPO_A, new RepositoryRoutingTable( file ).getRoutes( scope ).get( "org.foo" ) );
+    }
+
+    @Test
+    public void unscopedRoutesAreDropped()
+        throws Exception
+    {
+        FileUtils.writeStringToFile( file, "org.foo\t" + REPO_A + "\t" + System.currentTimeMillis() + "\n", "UTF-8" );
+        RepositoryRoutingTable table = new RepositoryRoutingTable( file );
+
+        assertTrue( table.getRoutes( RepositoryRoutingTable.getScope( Collections.singleton( REPO_A ) ) ).isEmpty() );
+    }
+
+    private static Map<String, Set<String>> served( String groupId, String repositoryUrl )
+    {
+        Map<String, Set<String>> served = new HashMap<String, Set<String>>();
+        served.put( groupId, Collections.singleton( repositoryUrl ) );
+        return served;
+    }
+
+    private static void sleep()
+    {
+        try
+        {
+            Thread.sleep( 5 );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.impl.internal.SimpleLocalRepositoryManager;
+import org.sonatype.aether.metadata.Metadata;
+import org.sonatype.aether.repository.LocalArtifactRequest;
+import org.sonatype.aether.repository.LocalArtifactResult;
+import org.sonatype.aether.repository.LocalMetadataRequest;
+import org.sonatype.aether.repository.LocalMetadataResult;
+import org.sonatype.aether.util.artifact.DefaultArtifact;
+import org.sonatype.aether.util.metadata.DefaultMetadata;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ScratchLocalRepositoryManagerTest
+{
+    private static final Artifact ARTIFACT = new DefaultArtifact( "org.foo:foo:1.0" );
+
+    private static final Metadata METADATA =
+        new DefaultMetadata( "org.foo", "foo", "maven-metadata.xml", Metadata.Nature.RELEASE );
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File dir;
+
+    private SimpleLocalRepositoryManager scratch;
+
+    private SimpleLocalRepositoryManager base;
+
+    private ScratchLocalRepositoryManager manager;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        dir = temporaryFolder.getRoot();
+        scratch = new SimpleLocalRepositoryManager( new File( dir, "scratch" ) );
+        base = new SimpleLocalRepositoryManager( new File( dir, "base" ) );
+        manager = new ScratchLocalRepositoryManager( scratch, base );
+    }
+
+    @Test
+    public void artifactOfTheBaseRepositoryIsFound()
+        throws Exception
+    {
+        File file = write( base, base.getPathForLocalArtifact( ARTIFACT ) );
+
+        LocalArtifactResult result = manager.find( null, new LocalArtifactRequest( ARTIFACT, null, null ) );
+        assertTrue( result.isAvailable() );
+        assertEquals( file, result.getFile() );
+    }
+
+    @Test
+    public void artifactOfTheScratchRepositoryTakesPrecedence()
+        throws Exception
+    {
+        write( base, base.getPathForLocalArtifact( ARTIFACT ) );
+        File file = write( scratch, scratch.getPathForLocalArtifact( ARTIFACT ) );
+
+        LocalArtifactResult result = manager.find( null, new LocalArtifactRequest( ARTIFACT, null, null ) );
+        assertTrue( result.isAvailable() );
+        assertEquals( file, result.getFile() );
+    }
+
+    @Test
+    public void missingArtifactIsNotAvailable()
+    {
+        LocalArtifactResult result = manager.find( null, new LocalArtifactRequest( ARTIFACT, null, null ) );
+        assertFalse( result.isAvailable() );
+    }
+
+    @Test
+    public void metadataOfTheBaseRepositoryIsFound()
+        throws Exception
+    {
+        File file = write( base, base.getPathForLocalMetadata( METADATA ) );
+
+        LocalMetadataRequest request = new LocalMetadataRequest();
+        request.setMetadata( METADATA );
+        LocalMetadataResult result = manager.find( null, request );
+        assertEquals( file, result.getFile() );
+    }
+
+    @Test
+    public void missingMetadataIsNotFound()
+    {
+        LocalMetadataRequest request = new LocalMetadataRequest();
+        request.setMetadata( METADATA );
+        assertNull( manager.find( null, request ).getFile() );
+    }
+
+    private static File write( SimpleLocalRepositoryManager repository, String path )
+        throws Exception
+    {
+        File file = new File( repository.getRepository().getBasedir(), path );
+        FileUtils.writeStringToFile( file, path );
+        return file;
+    }
+}
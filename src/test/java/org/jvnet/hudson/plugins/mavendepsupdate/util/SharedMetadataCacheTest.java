@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class SharedMetadataCacheTest
+{
+    private static final String URL = "http://repo/org/foo/foo/1.0-SNAPSHOT/maven-metadata.xml";
+
+    private long ttlSeconds;
+
+    @Before
+    public void setUp()
+    {
+        ttlSeconds = SharedMetadataCache.ttlSeconds;
+        SharedMetadataCache.ttlSeconds = 60;
+    }
+
+    @After
+    public void tearDown()
+    {
+        SharedMetadataCache.ttlSeconds = ttlSeconds;
+    }
+
+    @Test
+    public void fetchedContentIsShared()
+    {
+        SharedMetadataCache cache = new SharedMetadataCache();
+        assertNull( cache.acquire( URL ) );
+        cache.release( URL, new byte[]{ 1, 2 } );
+
+        byte[] content = cache.acquire( URL );
+        assertNotNull( content );
+        assertEquals( 2, content.length );
+    }
+
+    @Test( timeout = 1000 )
+    public void concurrentAcquireIsAnsweredBusyWithoutWaiting()
+    {
+        SharedMetadataCache cache = new SharedMetadataCache();
+        assertNull( cache.acquire( URL ) );
+
+        byte[] busy = cache.acquire( URL );
+        assertNotNull( busy );
+        assertEquals( 0, busy.length );
+        // the other urls are not blocked by this fetch
+        assertNull( cache.acquire( URL + ".sha1" ) );
+    }
+
+    @Test
+    public void failedFetchIsGrantedAgain()
+    {
+        SharedMetadataCache cache = new SharedMetadataCache();
+        assertNull( cache.acquire( URL ) );
+        cache.release( URL, null );
+
+        assertNull( cache.acquire( URL ) );
+        // an empty content is not cached either
+        cache.release( URL, new byte[0] );
+        assertNull( cache.acquire( URL ) );
+    }
+
+    @Test
+    public void expiredContentIsFetchedAgain()
+    {
+        SharedMetadataCache.ttlSeconds = 0;
+        SharedMetadataCache cache = new SharedMetadataCache();
+        assertNull( cache.acquire( URL ) );
+        cache.release( URL, new byte[]{ 1 } );
+
+        assertNull( cache.acquire( URL ) );
+    }
+}
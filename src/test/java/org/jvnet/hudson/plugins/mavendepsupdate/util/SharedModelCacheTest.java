@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.apache.maven.model.building.DefaultModelProcessor;
+import org.apache.maven.model.building.ModelBuilder;
+import org.apache.maven.model.building.ModelBuildingRequest;
+import org.apache.maven.model.building.ModelBuildingResult;
+import org.apache.maven.model.building.ModelProcessor;
+import org.apache.maven.project.DefaultProjectBuilder;
+import org.apache.maven.project.ProjectBuilder;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SharedModelCacheTest
+{
+    @Test
+    public void copiedProjectBuilderUsesTheSharedCache()
+        throws Exception
+    {
+        ModelBuilder modelBuilder = new StubModelBuilder();
+        DefaultProjectBuilder projectBuilder = new DefaultProjectBuilder();
+        getField( "modelBuilder" ).set( projectBuilder, modelBuilder );
+
+        ProjectBuilder copy = SharedModelCache.withSharedCache( projectBuilder );
+        assertTrue( copy != projectBuilder );
+        assertTrue( getField( "modelBuilder" ).get( copy ) instanceof SharedModelCache.SharedModelCacheModelBuilder );
+        // the default project builder, maybe already used by other builds, is left untouched
+        assertSame( modelBuilder, getField( "modelBuilder" ).get( projectBuilder ) );
+    }
+
+    @Test
+    public void otherRequirementsAreShared()
+        throws Exception
+    {
+        DefaultProjectBuilder projectBuilder = new DefaultProjectBuilder();
+        getField( "modelBuilder" ).set( projectBuilder, new StubModelBuilder() );
+        ModelProcessor modelProcessor = new DefaultModelProcessor();
+        getField( "modelProcessor" ).set( projectBuilder, modelProcessor );
+
+        ProjectBuilder copy = SharedModelCache.withSharedCache( projectBuilder );
+        assertSame( modelProcessor, getField( "modelProcessor" ).get( copy ) );
+    }
+
+    @Test( expected = IllegalAccessException.class )
+    public void projectBuilderWithoutModelBuilderIsNotCopied()
+        throws Exception
+    {
+        SharedModelCache.withSharedCache( new DefaultProjectBuilder() );
+    }
+
+    private Field getField( String name )
+        throws Exception
+    {
+        Field field = DefaultProjectBuilder.class.getDeclaredField( name );
+        field.setAccessible( true );
+        return field;
+    }
+
+    private static class StubModelBuilder
+        implements ModelBuilder
+    {
+        public ModelBuildingResult build( ModelBuildingRequest request )
+        {
+            return null;
+        }
+
+        public ModelBuildingResult build( ModelBuildingRequest request, ModelBuildingResult result )
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotMetadataIndexTest
+{
+    private static final String FOO = "org/foo/foo/1.0-SNAPSHOT/maven-metadata-central.xml";
+
+    private static final String BAR = "org/foo/bar/1.0-SNAPSHOT/maven-metadata-central.xml";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File directory;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        directory = temporaryFolder.getRoot();
+    }
+
+    @Test
+    public void scansTheSeedThenTheLocalRepository()
+        throws Exception
+    {
+        File seed = new File( directory, "seed" );
+        File local = new File( directory, "local" );
+        write( seed, FOO, "20110101.120000-1" );
+        write( seed, BAR, "20110101.120000-1" );
+        write( local, FOO, "20110102.120000-2" );
+        write( local, "org/foo/foo/1.0/maven-metadata-central.xml", "20110101.120000-1" );
+
+        SnapshotMetadataIndex index = SnapshotMetadataIndex.getInstance( local, seed );
+        assertEquals( 2, index.size() );
+        assertEquals( "20110102.120000-2", index.get( FOO ).getVersion() );
+        assertEquals( "20110101.120000-1", index.get( BAR ).getVersion() );
+        assertNull( index.get( "org/foo/foo/1.0/maven-metadata-central.xml" ) );
+        assertSame( index, SnapshotMetadataIndex.getInstance( local ) );
+    }
+
+    @Test( timeout = 5000 )
+    public void scanDoesNotBlockTheOtherRepositories()
+        throws Exception
+    {
+        File first = new File( directory, "first" );
+        final File second = new File( directory, "second" );
+        write( first, FOO, "20110101.120000-1" );
+        write( second, BAR, "20110101.120000-1" );
+        SnapshotMetadataIndex index = SnapshotMetadataIndex.getInstance( first );
+
+        final CountDownLatch indexed = new CountDownLatch( 1 );
+        // holds the lock taken by the scan of the first repository
+        synchronized ( index )
+        {
+            new Thread()
+            {
+                public void run()
+                {
+                    if ( SnapshotMetadataIndex.getInstance( second ).get( BAR ) != null )
+                    {
+                        indexed.countDown();
+                    }
+                }
+            }.start();
+            assertTrue( indexed.await( 2, TimeUnit.SECONDS ) );
+        }
+    }
+
+    @Test
+    public void deletedRepositoryIsScannedAgain()
+        throws Exception
+    {
+        File local = new File( directory, "local" );
+        write( local, FOO, "20110101.120000-1" );
+        SnapshotMetadataIndex index = SnapshotMetadataIndex.getInstance( local );
+
+        FileUtils.deleteDirectory( local );
+        SnapshotMetadataIndex other = SnapshotMetadataIndex.getInstance( local );
+        assertNotSame( index, other );
+        assertEquals( 0, other.size() );
+    }
+
+    @Test
+    public void leastRecentlyUsedIndexIsDropped()
+        throws Exception
+    {
+        int maxIndexes = SnapshotMetadataIndex.maxIndexes;
+        SnapshotMetadataIndex.maxIndexes = 2;
+        try
+        {
+            File first = new File( directory, "first" );
+            File second = new File( directory, "second" );
+            File third = new File( directory, "third" );
+            write( first, FOO, "20110101.120000-1" );
+            write( second, FOO, "20110101.120000-1" );
+            write( third, FOO, "20110101.120000-1" );
+            SnapshotMetadataIndex firstIndex = SnapshotMetadataIndex.getInstance( first );
+            SnapshotMetadataIndex secondIndex = SnapshotMetadataIndex.getInstance( second );
+            assertSame( firstIndex, SnapshotMetadataIndex.getInstance( first ) );
+
+            SnapshotMetadataIndex.getInstance( third );
+            assertSame( firstIndex, SnapshotMetadataIndex.getInstance( first ) );
+            assertNotSame( secondIndex, SnapshotMetadataIndex.getInstance( second ) );
+        }
+        finally
+        {
+            SnapshotMetadataIndex.maxIndexes = maxIndexes;
+        }
+    }
+
+    private void write( File repository, String path, String timestamp )
+        throws Exception
+    {
+        int dash = timestamp.indexOf( '-' );
+        FileUtils.writeStringToFile( new File( repository, path ),
+                                     "<metadata><versioning><snapshot><timestamp>" + timestamp.substring( 0, dash )
+                                         + "</timestamp><buildNumber>" + timestamp.substring( dash + 1 )
+                                         + "</buildNumber></snapshot><lastUpdated>20110101120000</lastUpdated>"
+                                         + "</versioning></metadata>" );
+    }
+}
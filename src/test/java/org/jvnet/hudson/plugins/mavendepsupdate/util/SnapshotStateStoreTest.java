@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SnapshotStateStoreTest
+{
+    private static final String FOO = "org/foo/foo/1.0-SNAPSHOT/maven-metadata-central.xml";
+
+    private static final String BAR = "org/foo/bar/1.0-SNAPSHOT/maven-metadata-central.xml";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File directory;
+
+    private File file;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        directory = temporaryFolder.getRoot();
+        file = new File( directory, "snapshots.txt" );
+    }
+
+    @Test
+    public void recordsOnlyChangedVersions()
+        throws Exception
+    {
+        SnapshotStateStore store = new SnapshotStateStore( file );
+        assertEquals( 2, store.record( versions( "20110101.120000-1", "20110101.120000-1" ) ) );
+        assertEquals( 0, store.record( versions( "20110101.120000-1", "20110101.120000-1" ) ) );
+        assertEquals( 1, store.record( versions( "20110102.120000-2", "20110101.120000-1" ) ) );
+
+        assertEquals( "20110102.120000-2", store.getVersions().get( FOO ) );
+        assertEquals( 3, readLines().size() );
+    }
+
+    @Test
+    public void versionsAreReloaded()
+        throws Exception
+    {
+        SnapshotStateStore store = new SnapshotStateStore( file );
+        store.record( versions( "20110101.120000-1", "20110101.120000-1" ) );
+        store.record( versions( "20110102.120000-2", "20110101.120000-1" ) );
+
+        SnapshotStateStore reloaded = new SnapshotStateStore( file );
+        assertEquals( "20110102.120000-2", reloaded.getVersions().get( FOO ) );
+        assertEquals( "20110101.120000-1", reloaded.getVersions().get( BAR ) );
+        assertEquals( Integer.valueOf( 1 ), reloaded.getChangeCounts().get( "org.foo:foo" ) );
+        assertEquals( Integer.valueOf( 0 ), reloaded.getChangeCounts().get( "org.foo:bar" ) );
+    }
+
+    @Test
+    public void supersededLinesAreCompacted()
+        throws Exception
+    {
+        SnapshotStateStore store = new SnapshotStateStore( file );
+        for ( int i = 1; i <= 10; i++ )
+        {
+            store.record( versions( "20110101.120000-" + i, "20110101.120000-1" ) );
+        }
+        assertTrue( readLines().size() <= 4 );
+        assertFalse( new File( directory, "snapshots.txt.tmp" ).exists() );
+
+        SnapshotStateStore reloaded = new SnapshotStateStore( file );
+        assertEquals( "20110101.120000-10", reloaded.getVersions().get( FOO ) );
+        assertEquals( Integer.valueOf( 9 ), reloaded.getChangeCounts().get( "org.foo:foo" ) );
+    }
+
+    @Test
+    public void corruptedLinesAreIgnored()
+        throws Exception
+    {
+        FileUtils.writeStringToFile( file, "garbage\n" + FOO + "\t20110101.120000-1\tnot a count\n\n", "UTF-8" );
+
+        SnapshotStateStore store = new SnapshotStateStore( file );
+        assertEquals( 1, store.getVersions().size() );
+        assertEquals( "20110101.120000-1", store.getVersions().get( FOO ) );
+        assertEquals( 0, store.record( versions( "20110101.120000-1", null ) ) );
+    }
+
+    @Test
+    public void failedWriteKeepsTheRecordedVersions()
+        throws Exception
+    {
+        SnapshotStateStore store = new SnapshotStateStore( file );
+        store.record( versions( "20110101.120000-1", null ) );
+
+        // a directory in place of the file cannot be appended to
+        file.delete();
+        file.mkdirs();
+        try
+        {
+            store.record( versions( "20110102.120000-2", null ) );
+            fail( "the write should have failed" );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+        assertEquals( "20110101.120000-1", store.getVersions().get( FOO ) );
+
+        file.delete();
+        assertEquals( 1, store.record( versions( "20110102.120000-2", null ) ) );
+        assertEquals( Integer.valueOf( 1 ), store.getChangeCounts().get( "org.foo:foo" ) );
+    }
+
+    private Map<String, String> versions( String foo, String bar )
+    {
+        Map<String, String> versions = new HashMap<String, String>();
+        versions.put( FOO, foo );
+        if ( bar != null )
+        {
+            versions.put( BAR, bar );
+        }
+        return versions;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private List<String> readLines()
+        throws Exception
+    {
+        return FileUtils.readLines( file, "UTF-8" );
+    }
+}
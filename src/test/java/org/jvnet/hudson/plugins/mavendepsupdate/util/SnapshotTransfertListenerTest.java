@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonatype.aether.transfer.TransferEvent;
+import org.sonatype.aether.util.listener.DefaultTransferEvent;
+import org.sonatype.aether.util.listener.DefaultTransferResource;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotTransfertListenerTest
+{
+    private static final String FOO = "org/foo/foo/1.0-SNAPSHOT/maven-metadata.xml";
+
+    private static final String KEY = "org/foo/foo/1.0-SNAPSHOT/maven-metadata-central.xml";
+
+    /**
+     * after the publication of the metadata
+     */
+    private static final Long LAST_BUILD = Long.valueOf( 20110201120000L );
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File directory;
+
+    private File file;
+
+    private SnapshotMetadataIndex index;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        directory = temporaryFolder.getRoot();
+        file = new File( directory, KEY );
+        write( "20110101.120000-1" );
+        index = SnapshotMetadataIndex.getInstance( directory );
+    }
+
+    @Test
+    public void metadataRefreshedByABuildIsNotAnUpdate()
+        throws Exception
+    {
+        // a build using the same local repository refreshed the metadata, the index did not see it
+        write( "20110102.120000-2" );
+
+        SnapshotTransfertListener listener = new SnapshotTransfertListener( LAST_BUILD, index );
+        download( listener, "20110102.120000-2" );
+        assertFalse( listener.isSnapshotDownloaded() );
+        assertEquals( "20110102.120000-2", index.get( KEY ).getVersion() );
+    }
+
+    @Test
+    public void downloadedVersionIsAnUpdate()
+        throws Exception
+    {
+        SnapshotTransfertListener listener = new SnapshotTransfertListener( LAST_BUILD, index );
+        download( listener, "20110102.120000-2" );
+        assertTrue( listener.isSnapshotDownloaded() );
+    }
+
+    private void download( SnapshotTransfertListener listener, String timestamp )
+        throws Exception
+    {
+        DefaultTransferResource resource = new DefaultTransferResource( "http://repo/", FOO, file );
+        listener.transferInitiated( new DefaultTransferEvent().setResource( resource ).setType(
+            TransferEvent.EventType.INITIATED ) );
+        write( timestamp );
+        listener.transferSucceeded( new DefaultTransferEvent().setResource( resource ).setType(
+            TransferEvent.EventType.SUCCEEDED ) );
+    }
+
+    private void write( String timestamp )
+        throws Exception
+    {
+        int dash = timestamp.indexOf( '-' );
+        FileUtils.writeStringToFile( file, "<metadata><versioning><snapshot><timestamp>"
+            + timestamp.substring( 0, dash ) + "</timestamp><buildNumber>" + timestamp.substring( dash + 1 )
+            + "</buildNumber></snapshot><lastUpdated>20110101120000</lastUpdated></versioning></metadata>" );
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2011, Olivier Lamy, Talend
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jvnet.hudson.plugins.mavendepsupdate.util;
+
+import org.junit.Test;
+import org.sonatype.aether.SyncContext;
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.metadata.Metadata;
+import org.sonatype.aether.util.artifact.DefaultArtifact;
+import org.sonatype.aether.util.metadata.DefaultMetadata;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StripedSyncContextFactoryTest
+{
+    private static final Artifact ARTIFACT = new DefaultArtifact( "org.foo:foo:1.0-20110101.120000-1" );
+
+    private static final Metadata METADATA =
+        new DefaultMetadata( "org.foo", "foo", "1.0-SNAPSHOT", "maven-metadata.xml", Metadata.Nature.SNAPSHOT );
+
+    private final StripedSyncContextFactory factory = StripedSyncContextFactory.getInstance();
+
+    @Test( timeout = 5000 )
+    public void contextsOnTheSameGavAreExclusive()
+        throws Exception
+    {
+        SyncContext first = factory.newInstance( null, false );
+        first.acquire( Collections.singleton( ARTIFACT ), null );
+
+        final CountDownLatch locked = new CountDownLatch( 1 );
+        Thread other = new Thread()
+        {
+            public void run()
+            {
+                // the timestamped artifact and the metadata of its base version share the stripe
+                SyncContext second = factory.newInstance( null, false );
+                second.acquire( null, Collections.singleton( METADATA ) );
+                locked.countDown();
+                second.release();
+            }
+        };
+        other.start();
+        assertFalse( locked.await( 300, TimeUnit.MILLISECONDS ) );
+
+        first.release();
+        assertTrue( locked.await( 2, TimeUnit.SECONDS ) );
+        other.join();
+    }
+
+    @Test( timeout = 5000 )
+    public void nestedContextsOfAThreadReuseItsStripes()
+        throws Exception
+    {
+        SyncContext outer = factory.newInstance( null, false );
+        outer.acquire( Collections.singleton( ARTIFACT ), null );
+        SyncContext nested = factory.newInstance( null, false );
+        nested.acquire( null, Collections.singleton( METADATA ) );
+        nested.release();
+
+        // the outer context still holds the stripe once the nested one is released
+        final AtomicReference<Boolean> free = new AtomicReference<Boolean>();
+        Thread other = new Thread()
+        {
+            public void run()
+            {
+                SyncContext probe = factory.newInstance( null, false );
+                free.set( Boolean.valueOf( tryAcquire( probe ) ) );
+            }
+        };
+        other.start();
+        Thread.sleep( 300 );
+        assertEquals( null, free.get() );
+
+        outer.release();
+        other.join();
+        assertEquals( Boolean.TRUE, free.get() );
+    }
+
+    @Test( timeout = 5000 )
+    public void interruptedWaitFailsInsteadOfProceedingUnlocked()
+        throws Exception
+    {
+        SyncContext first = factory.newInstance( null, false );
+        first.acquire( Collections.singleton( ARTIFACT ), null );
+
+        final AtomicReference<Boolean> acquired = new AtomicReference<Boolean>();
+        Thread other = new Thread()
+        {
+            public void run()
+            {
+                acquired.set( Boolean.valueOf( tryAcquire( factory.newInstance( null, false ) ) ) );
+            }
+        };
+        other.start();
+        Thread.sleep( 300 );
+        other.interrupt();
+        other.join();
+        first.release();
+
+        assertEquals( Boolean.FALSE, acquired.get() );
+    }
+
+    private static boolean tryAcquire( SyncContext context )
+    {
+        try
+        {
+            context.acquire( null, Collections.singleton( METADATA ) );
+        }
+        catch ( IllegalStateException e )
+        {
+            return false;
+        }
+        context.release();
+        return true;
+    }
+}